@@ -0,0 +1,322 @@
+package com.smartfoo.android.core.bluetooth.gatt
+
+import android.bluetooth.BluetoothGattCharacteristic
+import android.os.HandlerThread
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.smartfoo.android.core.bluetooth.gatt.FooGattHandler.CharacteristicNotificationDescriptorType
+import com.smartfoo.android.core.bluetooth.gatt.FooGattHandler.GattHandlerListener
+import com.smartfoo.android.core.bluetooth.gatt.FooGattHandler.GattHandlerListener.GattOperation
+import com.smartfoo.android.core.collections.FooHistogram
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.IOException
+import java.util.UUID
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Throughput and latency of [FooGattHandler] against [FooGattSimulatedPeripheral]s, with no radio in the way.
+ *
+ * Results are logged under [TAG]; the assertions only check that every operation completed.
+ */
+@RunWith(AndroidJUnit4::class)
+class FooGattHandlerBenchmark {
+
+    companion object {
+        private const val TAG = "FooGattHandlerBenchmark"
+
+        private val SERVICE = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb")
+        private val MEASUREMENT = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb")
+        private val CONTROL_POINT = UUID.fromString("00002a39-0000-1000-8000-00805f9b34fb")
+
+        private const val TIMEOUT_SECONDS = 60L
+    }
+
+    private lateinit var looperThread: HandlerThread
+    private lateinit var simulator: FooGattSimulator
+    private lateinit var gattManager: FooGattManager
+
+    @Before
+    fun setup() {
+        looperThread = HandlerThread(TAG).apply { start() }
+        simulator = FooGattSimulator(42)
+        gattManager = FooGattManager(InstrumentationRegistry.getInstrumentation().targetContext, looperThread.looper)
+        gattManager.transportFactory = simulator
+    }
+
+    @After
+    fun teardown() {
+        gattManager.close()
+        simulator.close()
+        looperThread.quitSafely()
+    }
+
+    private fun deviceAddress(index: Int) = String.format("02:00:00:00:%02X:%02X", index shr 8, index and 0xFF)
+
+    private fun addPeripheral(index: Int): FooGattSimulatedPeripheral {
+        return simulator.addPeripheral(deviceAddress(index)).apply {
+            addCharacteristic(SERVICE, MEASUREMENT,
+                BluetoothGattCharacteristic.PROPERTY_READ or BluetoothGattCharacteristic.PROPERTY_NOTIFY)
+            addCharacteristic(SERVICE, CONTROL_POINT, BluetoothGattCharacteristic.PROPERTY_WRITE)
+            setValue(SERVICE, MEASUREMENT, ByteArray(20))
+        }
+    }
+
+    private fun connect(index: Int, callbackThread: FooGattHandler.CallbackThread): FooGattHandler {
+        val gattHandler = gattManager.getGattHandler(FooGattUtils.deviceAddressStringToLong(deviceAddress(index)))
+        gattHandler.callbackThread = callbackThread
+        val connected = CountDownLatch(1)
+        assertTrue(gattHandler.connect { connected.countDown() })
+        assertTrue("connect timed out", connected.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        return gattHandler
+    }
+
+    private fun log(name: String, histogram: FooHistogram) {
+        Log.i(TAG, String.format("%s: n=%d, p50=%dms, p99=%dms, max=%dms", name, histogram.count,
+            histogram.getValueAtPercentile(50.0), histogram.getValueAtPercentile(99.0), histogram.max))
+    }
+
+    @Test
+    fun sequentialReads_opsPerSecond() {
+        addPeripheral(0)
+        val gattHandler = connect(0, FooGattHandler.CallbackThread.Direct)
+
+        val count = 2000
+        val done = CountDownLatch(count)
+        val startNanos = System.nanoTime()
+        repeat(count) {
+            assertTrue(gattHandler.characteristicRead(SERVICE, MEASUREMENT, 5000) { done.countDown() })
+        }
+        assertTrue("reads timed out", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        val elapsedNanos = System.nanoTime() - startNanos
+
+        Log.i(TAG, String.format("sequentialReads: %.0f ops/s", count * 1e9 / elapsedNanos))
+        log("sequentialReads", gattHandler.metrics.snapshot.getLatencyMillis(GattOperation.CharacteristicRead))
+    }
+
+    @Test
+    fun readMany_coalescesDuplicates() {
+        val peripheral = addPeripheral(0)
+        val gattHandler = connect(0, FooGattHandler.CallbackThread.Direct)
+
+        val count = 500
+        val characteristicUuids = listOf(MEASUREMENT, MEASUREMENT, MEASUREMENT)
+        val done = CountDownLatch(count)
+        val coalesced = AtomicInteger()
+        val startNanos = System.nanoTime()
+        repeat(count) {
+            assertTrue(gattHandler.readMany(SERVICE, characteristicUuids, 5000) { transaction ->
+                assertTrue(transaction.isSuccess)
+                coalesced.addAndGet(transaction.items.count { it.isCoalesced })
+                done.countDown()
+            } != null)
+        }
+        assertTrue("transactions timed out", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        val elapsedNanos = System.nanoTime() - startNanos
+
+        Log.i(TAG, String.format("readMany: %.0f transactions/s, %d reads over the air for %d items",
+            count * 1e9 / elapsedNanos, peripheral.readCount, count * characteristicUuids.size))
+        assertTrue(peripheral.readCount <= count)
+        assertEquals(count * characteristicUuids.size - peripheral.readCount, coalesced.get().toLong())
+    }
+
+    @Test
+    fun pollingReads_latestWins() {
+        val peripheral = addPeripheral(0)
+        val gattHandler = connect(0, FooGattHandler.CallbackThread.Direct)
+
+        val count = 2000
+        val done = CountDownLatch(count)
+        val succeeded = AtomicInteger()
+        val callbacks = FooGattRequest.FooGattRequestCallbacks { request ->
+            if (request.state == FooGattRequest.State.Succeeded) {
+                succeeded.incrementAndGet()
+            }
+            done.countDown()
+        }
+        repeat(count) {
+            val request = gattHandler.pollCharacteristicRead(SERVICE, MEASUREMENT, 1000)
+            assertTrue(request != null)
+            if (!request!!.addCallbacks(callbacks)) {
+                callbacks.onGattRequestCompleted(request)
+            }
+        }
+        assertTrue("polls timed out", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+
+        Log.i(TAG, String.format("pollingReads: %d reads over the air for %d polls", peripheral.readCount, count))
+        assertTrue(peripheral.readCount < count)
+        assertEquals(succeeded.get().toLong(), peripheral.readCount)
+    }
+
+    @Test
+    fun notifications_throughput() {
+        val peripheral = addPeripheral(0)
+        val gattHandler = connect(0, FooGattHandler.CallbackThread.Direct)
+
+        val count = 20000
+        val received = CountDownLatch(count)
+        gattHandler.addListener(object : GattHandlerListener() {
+            override fun onDeviceCharacteristicChanged(gattHandler: FooGattHandler,
+                                                       characteristic: BluetoothGattCharacteristic): Boolean {
+                received.countDown()
+                return false
+            }
+        })
+        val enabled = CountDownLatch(1)
+        assertTrue(gattHandler.characteristicSetNotification(SERVICE, MEASUREMENT,
+            CharacteristicNotificationDescriptorType.EnableWithoutResponse) { enabled.countDown() })
+        assertTrue("enable timed out", enabled.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+
+        val value = ByteArray(244)
+        val startNanos = System.nanoTime()
+        repeat(count) {
+            assertTrue(peripheral.notify(SERVICE, MEASUREMENT, value))
+        }
+        assertTrue("notifications timed out", received.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        val elapsedNanos = System.nanoTime() - startNanos
+
+        Log.i(TAG, String.format("notifications: %.0f/s, %.1f KiB/s",
+            count * 1e9 / elapsedNanos, count * value.size * 1e9 / elapsedNanos / 1024))
+        assertEquals(count.toLong(), peripheral.notificationCount)
+    }
+
+    @Test
+    fun subscriptions_shareOneDescriptorWrite() {
+        val peripheral = addPeripheral(0)
+        val gattHandler = connect(0, FooGattHandler.CallbackThread.Direct)
+
+        val subscriberCount = 8
+        val enabled = CountDownLatch(subscriberCount)
+        val received = CountDownLatch(subscriberCount)
+        val subscriptions = (0 until subscriberCount).map {
+            gattHandler.subscribe(SERVICE, MEASUREMENT, CharacteristicNotificationDescriptorType.EnableWithoutResponse,
+                object : FooGattSubscription.FooGattSubscriptionCallbacks {
+                    override fun onGattSubscriptionEnabled(subscription: FooGattSubscription, success: Boolean) {
+                        assertTrue(success)
+                        enabled.countDown()
+                    }
+
+                    override fun onGattSubscriptionNotification(subscription: FooGattSubscription,
+                                                                notification: FooGattNotification) {
+                        received.countDown()
+                    }
+                })
+        }
+        assertTrue("enable timed out", enabled.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        assertEquals(1L, peripheral.descriptorWriteCount)
+
+        assertTrue(peripheral.notify(SERVICE, MEASUREMENT, ByteArray(20)))
+        assertTrue("notification timed out", received.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+
+        subscriptions.drop(1).forEach { assertTrue(it.unsubscribe()) }
+        assertTrue(subscriptions[0].isSubscribed)
+        val disabled = CountDownLatch(1)
+        subscriptions[0].unsubscribe()
+        assertTrue(gattHandler.characteristicRead(SERVICE, MEASUREMENT) { disabled.countDown() })
+        assertTrue("disable timed out", disabled.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        assertEquals(2L, peripheral.descriptorWriteCount)
+    }
+
+    @Test
+    fun l2capChannel_throughput() {
+        val peripheral = addPeripheral(0)
+        val gattHandler = connect(0, FooGattHandler.CallbackThread.Direct)
+
+        val psm = 0x0080
+        val totalBytes = 4 * 1024 * 1024
+        val drained = CountDownLatch(1)
+        peripheral.listenL2cap(psm) { _, _, socket ->
+            Thread {
+                val buffer = ByteArray(4096)
+                var count = 0L
+                while (count < totalBytes) {
+                    val length = socket.inputStream.read(buffer)
+                    if (length < 0) break
+                    count += length
+                }
+                if (count == totalBytes.toLong()) drained.countDown()
+            }.start()
+        }
+
+        val opened = CountDownLatch(1)
+        val channel = gattHandler.openL2capChannel(psm, false, object : FooL2capChannel.FooL2capChannelCallbacks {
+            override fun onL2capChannelOpened(channel: FooL2capChannel, success: Boolean) {
+                assertTrue(success)
+                opened.countDown()
+            }
+
+            override fun onL2capChannelClosed(channel: FooL2capChannel, error: IOException?) {
+            }
+        })
+        assertTrue(channel != null)
+        assertTrue("open timed out", opened.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+
+        val chunk = ByteArray(channel!!.maxTransmitPacketSize)
+        val outputStream = channel.outputStream
+        repeat(totalBytes / chunk.size) { outputStream.write(chunk) }
+        outputStream.flush()
+        assertTrue("drain timed out", drained.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+
+        Log.i(TAG, String.format("l2capChannel: %.1f KiB/s", channel.writeBytesPerSecond / 1024.0))
+        assertEquals(totalBytes.toLong(), channel.bytesWritten)
+        channel.close()
+    }
+
+    @Test
+    fun manyDevices_queueingLatency() {
+        val deviceCount = 32
+        val readsPerDevice = 100
+        val gattHandlers = (0 until deviceCount).map { index ->
+            addPeripheral(index).setLatencyMillis(GattOperation.CharacteristicRead, 7)
+            connect(index, FooGattHandler.CallbackThread.Background)
+        }
+
+        // Every read is enqueued up front, so queueing latency is the wait behind the reads before it
+        val queueingMillis = FooHistogram(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS))
+        val done = CountDownLatch(deviceCount * readsPerDevice)
+        val startNanos = System.nanoTime()
+        for (gattHandler in gattHandlers) {
+            repeat(readsPerDevice) {
+                val enqueuedNanos = System.nanoTime()
+                assertTrue(gattHandler.characteristicRead(SERVICE, MEASUREMENT, 10000) {
+                    queueingMillis.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - enqueuedNanos))
+                    done.countDown()
+                })
+            }
+        }
+        assertTrue("reads timed out", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        val elapsedNanos = System.nanoTime() - startNanos
+
+        Log.i(TAG, String.format("manyDevices: %d devices, %.0f ops/s total",
+            deviceCount, deviceCount * readsPerDevice * 1e9 / elapsedNanos))
+        log("manyDevices enqueue-to-complete", queueingMillis)
+        log("manyDevices read", gattManager.metrics.snapshot.getLatencyMillis(GattOperation.CharacteristicRead))
+        Log.i(TAG, gattManager.metricsDebugString)
+    }
+
+    @Test
+    fun lostResponses_timeOut() {
+        val peripheral = addPeripheral(0)
+        val gattHandler = connect(0, FooGattHandler.CallbackThread.Direct)
+        peripheral.setResponseLossProbability(1.0)
+
+        val timedOut = CountDownLatch(1)
+        gattHandler.addListener(object : GattHandlerListener() {
+            override fun onDeviceOperationTimeout(gattHandler: FooGattHandler, operation: GattOperation,
+                                                  timeoutMillis: Long, elapsedMillis: Long): Boolean {
+                timedOut.countDown()
+                return true
+            }
+        })
+        assertTrue(gattHandler.characteristicRead(SERVICE, MEASUREMENT, 200, null))
+        assertTrue("no timeout", timedOut.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        assertEquals(1, gattHandler.metrics.snapshot.getTimeoutCount(GattOperation.CharacteristicRead))
+    }
+}
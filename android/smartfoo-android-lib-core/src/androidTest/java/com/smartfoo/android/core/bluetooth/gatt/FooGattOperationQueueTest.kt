@@ -0,0 +1,180 @@
+package com.smartfoo.android.core.bluetooth.gatt
+
+import android.bluetooth.BluetoothGattCharacteristic
+import android.os.HandlerThread
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.smartfoo.android.core.bluetooth.gatt.FooGattHandler.GattHandlerListener.GattOperation
+import com.smartfoo.android.core.bluetooth.gatt.FooGattRequest.Priority
+import com.smartfoo.android.core.bluetooth.gatt.FooGattRequest.State
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.Collections
+import java.util.UUID
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Behavior of [FooGattOperationQueue] and [FooGattRequest] against a [FooGattSimulatedPeripheral]: priority lanes,
+ * queue deadlines, and latest-wins polling.
+ */
+@RunWith(AndroidJUnit4::class)
+class FooGattOperationQueueTest {
+
+    companion object {
+        private const val TAG = "FooGattOperationQueueTest"
+
+        private const val DEVICE_ADDRESS = "02:00:00:00:00:00"
+
+        private val SERVICE = UUID.fromString("0000180a-0000-1000-8000-00805f9b34fb")
+        private val FIRST = UUID.fromString("00002a24-0000-1000-8000-00805f9b34fb")
+        private val SECOND = UUID.fromString("00002a25-0000-1000-8000-00805f9b34fb")
+        private val THIRD = UUID.fromString("00002a26-0000-1000-8000-00805f9b34fb")
+        private val BLOCKER = UUID.fromString("00002a27-0000-1000-8000-00805f9b34fb")
+
+        private const val TIMEOUT_SECONDS = 10L
+    }
+
+    private lateinit var looperThread: HandlerThread
+    private lateinit var simulator: FooGattSimulator
+    private lateinit var gattManager: FooGattManager
+    private lateinit var peripheral: FooGattSimulatedPeripheral
+    private lateinit var gattHandler: FooGattHandler
+
+    @Before
+    fun setup() {
+        looperThread = HandlerThread(TAG).apply { start() }
+        simulator = FooGattSimulator(42)
+        gattManager = FooGattManager(InstrumentationRegistry.getInstrumentation().targetContext, looperThread.looper)
+        gattManager.transportFactory = simulator
+
+        peripheral = simulator.addPeripheral(DEVICE_ADDRESS).apply {
+            for (characteristicUuid in listOf(FIRST, SECOND, THIRD, BLOCKER)) {
+                addCharacteristic(SERVICE, characteristicUuid, BluetoothGattCharacteristic.PROPERTY_READ)
+                setValue(SERVICE, characteristicUuid, ByteArray(4))
+            }
+        }
+
+        gattHandler = gattManager.getGattHandler(FooGattUtils.deviceAddressStringToLong(DEVICE_ADDRESS))
+        gattHandler.callbackThread = FooGattHandler.CallbackThread.Direct
+        val connected = CountDownLatch(1)
+        assertTrue(gattHandler.connect { connected.countDown() })
+        assertTrue("connect timed out", connected.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+    }
+
+    @After
+    fun teardown() {
+        gattManager.close()
+        simulator.close()
+        looperThread.quitSafely()
+    }
+
+    private fun await(latch: CountDownLatch, what: String) {
+        assertTrue("$what timed out", latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+    }
+
+    private fun onCompleted(request: FooGattRequest?, callbacks: FooGattRequest.FooGattRequestCallbacks) {
+        assertNotNull(request)
+        if (!request!!.addCallbacks(callbacks)) {
+            callbacks.onGattRequestCompleted(request)
+        }
+    }
+
+    /**
+     * Queues a slow read of [BLOCKER] so that requests queued after it have not started for [latencyMillis].
+     */
+    private fun blockQueue(latencyMillis: Long): FooGattRequest {
+        peripheral.setLatencyMillis(GattOperation.CharacteristicRead, latencyMillis)
+        val request = gattHandler.enqueueCharacteristicRead(SERVICE, BLOCKER, latencyMillis * 10, null)
+        assertNotNull(request)
+        return request!!
+    }
+
+    @Test
+    fun lanes_startHighestPriorityFirst() {
+        blockQueue(100)
+
+        // Queued lowest priority first, so that only the lanes can put them back in order
+        val background = gattHandler.pollCharacteristicRead(SERVICE, FIRST, FooGattRequest.NO_DEADLINE)
+        val normal = gattHandler.enqueueCharacteristicRead(SERVICE, SECOND, 5000, null)
+        val control = gattHandler.enqueueCharacteristicRead(SERVICE, THIRD, 5000, null)
+        assertTrue(control!!.setPriority(Priority.Control))
+        assertEquals(Priority.Background, background!!.priority)
+        assertEquals(Priority.Normal, normal!!.priority)
+
+        val completed = Collections.synchronizedList(ArrayList<UUID>())
+        val done = CountDownLatch(3)
+        val callbacks = FooGattRequest.FooGattRequestCallbacks { request ->
+            assertEquals(State.Succeeded, request.state)
+            completed.add(request.characteristicUuid)
+            done.countDown()
+        }
+        for (request in listOf(background, normal, control)) {
+            onCompleted(request, callbacks)
+        }
+        await(done, "reads")
+
+        assertEquals(listOf(THIRD, SECOND, FIRST), completed)
+    }
+
+    @Test
+    fun queuedRequest_expiresAtDeadline() {
+        val blocker = blockQueue(500)
+
+        val request = gattHandler.pollCharacteristicRead(SERVICE, FIRST, 100)
+        val expired = CountDownLatch(1)
+        onCompleted(request) { expired.countDown() }
+        await(expired, "deadline")
+
+        assertEquals(State.Expired, request!!.state)
+        // Dropped at its deadline, not when the read ahead of it finished
+        assertEquals(State.Executing, blocker.state)
+
+        val unblocked = CountDownLatch(1)
+        onCompleted(blocker) { unblocked.countDown() }
+        await(unblocked, "blocking read")
+        assertEquals(1L, peripheral.readCount)
+    }
+
+    @Test
+    fun latestWins_cancelsSupersededRead() {
+        blockQueue(100)
+
+        val superseded = gattHandler.pollCharacteristicRead(SERVICE, FIRST, FooGattRequest.NO_DEADLINE)
+        val latest = gattHandler.pollCharacteristicRead(SERVICE, FIRST, FooGattRequest.NO_DEADLINE)
+        assertEquals(State.Canceled, superseded!!.state)
+
+        val done = CountDownLatch(1)
+        onCompleted(latest) { done.countDown() }
+        await(done, "read")
+
+        assertEquals(State.Succeeded, latest!!.state)
+        assertEquals(2L, peripheral.readCount)
+    }
+
+    @Test
+    fun deadlineTimeout_canceledWhenRequestIsDone() {
+        val timeoutExecutor = gattManager.timeoutExecutor as ScheduledThreadPoolExecutor
+        assertTrue(timeoutExecutor.queue.toString(), timeoutExecutor.queue.isEmpty())
+
+        val blocker = blockQueue(100)
+        val completed = gattHandler.pollCharacteristicRead(SERVICE, FIRST, TimeUnit.MINUTES.toMillis(1))
+        val canceled = gattHandler.pollCharacteristicRead(SERVICE, SECOND, TimeUnit.MINUTES.toMillis(1))
+        assertTrue(canceled!!.cancel())
+
+        val done = CountDownLatch(2)
+        onCompleted(blocker) { done.countDown() }
+        onCompleted(completed) { done.countDown() }
+        await(done, "reads")
+
+        assertEquals(State.Succeeded, completed!!.state)
+        // Neither deadline, nor any operation timeout, is left waiting on the shared scheduler
+        assertTrue(timeoutExecutor.queue.toString(), timeoutExecutor.queue.isEmpty())
+    }
+}
@@ -0,0 +1,176 @@
+package com.smartfoo.android.core.bluetooth.gatt
+
+import android.bluetooth.BluetoothGattCharacteristic
+import android.os.HandlerThread
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.smartfoo.android.core.bluetooth.gatt.FooGattHandler.GattHandlerListener.GattOperation
+import com.smartfoo.android.core.bluetooth.gatt.FooGattRequest.State
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.UUID
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Behavior of [FooGattHandler.readMany] against a [FooGattSimulatedPeripheral]: coalescing, early completion, and
+ * what the deadline does to reads that have not started.
+ */
+@RunWith(AndroidJUnit4::class)
+class FooGattReadTransactionTest {
+
+    companion object {
+        private const val TAG = "FooGattReadTransactionTest"
+
+        private const val DEVICE_ADDRESS = "02:00:00:00:00:00"
+
+        private val SERVICE = UUID.fromString("0000180a-0000-1000-8000-00805f9b34fb")
+        private val FIRST = UUID.fromString("00002a24-0000-1000-8000-00805f9b34fb")
+        private val SECOND = UUID.fromString("00002a25-0000-1000-8000-00805f9b34fb")
+        private val BLOCKER = UUID.fromString("00002a26-0000-1000-8000-00805f9b34fb")
+
+        private const val TIMEOUT_SECONDS = 10L
+    }
+
+    private lateinit var looperThread: HandlerThread
+    private lateinit var simulator: FooGattSimulator
+    private lateinit var gattManager: FooGattManager
+    private lateinit var peripheral: FooGattSimulatedPeripheral
+    private lateinit var gattHandler: FooGattHandler
+
+    @Before
+    fun setup() {
+        looperThread = HandlerThread(TAG).apply { start() }
+        simulator = FooGattSimulator(42)
+        gattManager = FooGattManager(InstrumentationRegistry.getInstrumentation().targetContext, looperThread.looper)
+        gattManager.transportFactory = simulator
+
+        peripheral = simulator.addPeripheral(DEVICE_ADDRESS).apply {
+            for ((index, characteristicUuid) in listOf(FIRST, SECOND, BLOCKER).withIndex()) {
+                addCharacteristic(SERVICE, characteristicUuid, BluetoothGattCharacteristic.PROPERTY_READ)
+                setValue(SERVICE, characteristicUuid, byteArrayOf(index.toByte()))
+            }
+        }
+
+        gattHandler = gattManager.getGattHandler(FooGattUtils.deviceAddressStringToLong(DEVICE_ADDRESS))
+        gattHandler.callbackThread = FooGattHandler.CallbackThread.Direct
+        val connected = CountDownLatch(1)
+        assertTrue(gattHandler.connect { connected.countDown() })
+        assertTrue("connect timed out", connected.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+    }
+
+    @After
+    fun teardown() {
+        gattManager.close()
+        simulator.close()
+        looperThread.quitSafely()
+    }
+
+    private fun readMany(characteristicUuids: List<UUID>, deadlineMillis: Long, done: CountDownLatch):
+            FooGattReadTransaction {
+        val transaction = gattHandler.readMany(SERVICE, characteristicUuids, deadlineMillis) { done.countDown() }
+        assertNotNull(transaction)
+        return transaction!!
+    }
+
+    private fun await(latch: CountDownLatch, what: String) {
+        assertTrue("$what timed out", latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+    }
+
+    /**
+     * Queues a slow read of [BLOCKER] so that reads queued after it have not started for [latencyMillis].
+     */
+    private fun blockQueue(latencyMillis: Long): CountDownLatch {
+        peripheral.setLatencyMillis(GattOperation.CharacteristicRead, latencyMillis)
+        val unblocked = CountDownLatch(1)
+        assertTrue(gattHandler.characteristicRead(SERVICE, BLOCKER, latencyMillis * 10) { unblocked.countDown() })
+        return unblocked
+    }
+
+    @Test
+    fun duplicateReads_collapseToOneReadOnTheWire() {
+        val done = CountDownLatch(1)
+        val transaction = readMany(listOf(FIRST, SECOND, FIRST, FIRST), 5000, done)
+        await(done, "transaction")
+
+        assertTrue(transaction.isSuccess)
+        assertEquals(2L, peripheral.readCount)
+        assertEquals(listOf(false, false, true, true), transaction.items.map { it.isCoalesced })
+        for (item in transaction.items) {
+            assertArrayEquals(peripheral.getValue(SERVICE, item.characteristicUuid), item.value)
+        }
+    }
+
+    @Test
+    fun earlyFinish_reportsValueAndTimingForEveryItem() {
+        val latencyMillis = 20L
+        peripheral.setLatencyMillis(GattOperation.CharacteristicRead, latencyMillis)
+
+        val deadlineMillis = 5000L
+        val done = CountDownLatch(1)
+        val transaction = readMany(listOf(FIRST, SECOND, BLOCKER), deadlineMillis, done)
+        await(done, "transaction")
+
+        assertTrue(transaction.isSuccess)
+        assertTrue(transaction.elapsedMillis < deadlineMillis)
+        var previousElapsedMillis = 0L
+        for (item in transaction.items) {
+            assertEquals(State.Succeeded, item.state)
+            assertArrayEquals(peripheral.getValue(SERVICE, item.characteristicUuid), item.value)
+            // The reads run back-to-back, so each finishes no earlier than the one before it
+            assertTrue(item.toString(), item.elapsedMillis >= previousElapsedMillis + latencyMillis / 2)
+            previousElapsedMillis = item.elapsedMillis
+        }
+        assertEquals(transaction.elapsedMillis, previousElapsedMillis)
+    }
+
+    @Test
+    fun deadline_cancelsUnstartedRead() {
+        val unblocked = blockQueue(500)
+
+        val done = CountDownLatch(1)
+        val transaction = readMany(listOf(FIRST), 200, done)
+        await(done, "transaction")
+
+        assertFalse(transaction.isSuccess)
+        val item = transaction.items[0]
+        assertEquals(State.TimedOut, item.state)
+        assertEquals(State.Canceled, item.request.state)
+
+        await(unblocked, "blocking read")
+        val read = CountDownLatch(1)
+        assertTrue(gattHandler.characteristicRead(SERVICE, SECOND, 5000) { read.countDown() })
+        await(read, "read")
+        // BLOCKER and SECOND; the canceled read of FIRST never went out
+        assertEquals(2L, peripheral.readCount)
+    }
+
+    @Test
+    fun deadline_keepsReadAnotherTransactionJoined() {
+        blockQueue(500)
+
+        val firstDone = CountDownLatch(1)
+        val first = readMany(listOf(FIRST), 200, firstDone)
+        val secondDone = CountDownLatch(1)
+        val second = readMany(listOf(FIRST), 5000, secondDone)
+        assertTrue(second.items[0].isCoalesced)
+
+        await(firstDone, "first transaction")
+        assertEquals(State.TimedOut, first.items[0].state)
+        assertFalse(first.items[0].request.isDone)
+
+        // The read was queued with the first transaction's deadline as its timeout, so answer within it
+        peripheral.setLatencyMillis(GattOperation.CharacteristicRead, 20)
+        await(secondDone, "second transaction")
+        assertTrue(second.isSuccess)
+        assertArrayEquals(peripheral.getValue(SERVICE, FIRST), second.items[0].value)
+        assertEquals(2L, peripheral.readCount)
+    }
+}
@@ -0,0 +1,179 @@
+package com.smartfoo.android.core.bluetooth.gatt
+
+import android.bluetooth.BluetoothGattCharacteristic
+import android.os.HandlerThread
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.smartfoo.android.core.bluetooth.gatt.FooGattHandler.CharacteristicNotificationDescriptorType
+import com.smartfoo.android.core.bluetooth.gatt.FooGattHandler.GattHandlerListener.GattOperation
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.Collections
+import java.util.UUID
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Behavior of [FooGattHandler.subscribe] and [FooGattSubscription] against a [FooGattSimulatedPeripheral]: the shared
+ * descriptor write, across unsubscribes and reconnects, and notification routing.
+ */
+@RunWith(AndroidJUnit4::class)
+class FooGattSubscriptionTest {
+
+    companion object {
+        private const val TAG = "FooGattSubscriptionTest"
+
+        private const val DEVICE_ADDRESS = "02:00:00:00:00:00"
+
+        private val SERVICE = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb")
+        private val MEASUREMENT = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb")
+        private val LOCATION = UUID.fromString("00002a38-0000-1000-8000-00805f9b34fb")
+        private val BLOCKER = UUID.fromString("00002a39-0000-1000-8000-00805f9b34fb")
+
+        private const val TIMEOUT_SECONDS = 10L
+    }
+
+    /**
+     * Counts [onGattSubscriptionEnabled] calls and records the characteristic of every notification received.
+     */
+    private class RecordingCallbacks(enabledCount: Int) : FooGattSubscription.FooGattSubscriptionCallbacks {
+        val enabled = CountDownLatch(enabledCount)
+        val enabledCalls = AtomicInteger()
+        val notified: MutableList<UUID> = Collections.synchronizedList(ArrayList())
+
+        override fun onGattSubscriptionEnabled(subscription: FooGattSubscription, success: Boolean) {
+            assertTrue(success)
+            enabledCalls.incrementAndGet()
+            enabled.countDown()
+        }
+
+        override fun onGattSubscriptionNotification(subscription: FooGattSubscription,
+                                                    notification: FooGattNotification) {
+            notified.add(notification.characteristic.uuid)
+        }
+    }
+
+    private lateinit var looperThread: HandlerThread
+    private lateinit var simulator: FooGattSimulator
+    private lateinit var gattManager: FooGattManager
+    private lateinit var peripheral: FooGattSimulatedPeripheral
+    private lateinit var gattHandler: FooGattHandler
+
+    @Before
+    fun setup() {
+        looperThread = HandlerThread(TAG).apply { start() }
+        simulator = FooGattSimulator(42)
+        gattManager = FooGattManager(InstrumentationRegistry.getInstrumentation().targetContext, looperThread.looper)
+        gattManager.transportFactory = simulator
+
+        peripheral = simulator.addPeripheral(DEVICE_ADDRESS).apply {
+            for (characteristicUuid in listOf(MEASUREMENT, LOCATION)) {
+                addCharacteristic(SERVICE, characteristicUuid,
+                    BluetoothGattCharacteristic.PROPERTY_READ or BluetoothGattCharacteristic.PROPERTY_NOTIFY)
+            }
+            addCharacteristic(SERVICE, BLOCKER, BluetoothGattCharacteristic.PROPERTY_READ)
+            setValue(SERVICE, BLOCKER, ByteArray(4))
+        }
+
+        gattHandler = gattManager.getGattHandler(FooGattUtils.deviceAddressStringToLong(DEVICE_ADDRESS))
+        gattHandler.callbackThread = FooGattHandler.CallbackThread.Direct
+        val connected = CountDownLatch(1)
+        assertTrue(gattHandler.connect { connected.countDown() })
+        await(connected, "connect")
+    }
+
+    @After
+    fun teardown() {
+        gattManager.close()
+        simulator.close()
+        looperThread.quitSafely()
+    }
+
+    private fun await(latch: CountDownLatch, what: String) {
+        assertTrue("$what timed out", latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+    }
+
+    private fun subscribe(characteristicUuid: UUID, callbacks: RecordingCallbacks): FooGattSubscription {
+        return gattHandler.subscribe(SERVICE, characteristicUuid,
+            CharacteristicNotificationDescriptorType.EnableWithoutResponse, callbacks)
+    }
+
+    /**
+     * Waits until every operation queued so far has run, by queuing a read behind them.
+     */
+    private fun drainQueue() {
+        val drained = CountDownLatch(1)
+        assertTrue(gattHandler.characteristicRead(SERVICE, BLOCKER, 5000) { drained.countDown() })
+        await(drained, "queue")
+    }
+
+    @Test
+    fun lastUnsubscribe_cancelsQueuedEnable() {
+        // Hold the queue behind a slow read so the enable is still queued when the subscribers leave
+        peripheral.setLatencyMillis(GattOperation.CharacteristicRead, 300)
+        assertTrue(gattHandler.characteristicRead(SERVICE, BLOCKER, 5000, null))
+
+        val callbacks = RecordingCallbacks(1)
+        val subscriptions = listOf(subscribe(MEASUREMENT, callbacks), subscribe(MEASUREMENT, callbacks))
+        subscriptions.forEach { assertTrue(it.unsubscribe()) }
+
+        peripheral.setLatencyMillis(GattOperation.CharacteristicRead, 0)
+        drainQueue()
+        // Neither the enable nor a disable to undo it went out
+        assertEquals(0L, peripheral.descriptorWriteCount)
+        assertEquals(0, callbacks.enabledCalls.get())
+    }
+
+    @Test
+    fun reconnect_reenablesWithOneDescriptorWrite() {
+        gattHandler.reconnectPolicy = FooGattReconnectPolicy(10, 10, 1.0, 0.0, 3, FooGattReconnectPolicy.NEVER, 5000)
+
+        val subscriberCount = 3
+        val callbacks = (0 until subscriberCount).map { RecordingCallbacks(2) }
+        callbacks.forEach { subscribe(MEASUREMENT, it) }
+        assertTrue("enable timed out", waitFor { callbacks.all { it.enabledCalls.get() == 1 } })
+        assertEquals(1L, peripheral.descriptorWriteCount)
+
+        peripheral.dropConnection(FooGattSimulatedPeripheral.STATUS_CONNECTION_TIMEOUT)
+        callbacks.forEach { await(it.enabled, "re-enable") }
+
+        drainQueue()
+        assertEquals(2L, peripheral.descriptorWriteCount)
+        callbacks.forEach { assertEquals(2, it.enabledCalls.get()) }
+    }
+
+    @Test
+    fun notifications_reachOnlyTheirOwnSubscriptions() {
+        val measurementCallbacks = RecordingCallbacks(1)
+        val locationCallbacks = RecordingCallbacks(1)
+        subscribe(MEASUREMENT, measurementCallbacks)
+        subscribe(LOCATION, locationCallbacks)
+        await(measurementCallbacks.enabled, "enable")
+        await(locationCallbacks.enabled, "enable")
+
+        assertTrue(peripheral.notify(SERVICE, MEASUREMENT, ByteArray(4)))
+        assertTrue(peripheral.notify(SERVICE, LOCATION, ByteArray(4)))
+        assertTrue(peripheral.notify(SERVICE, MEASUREMENT, ByteArray(4)))
+        // Notifications are delivered in order, so once the last one has arrived every earlier one has too
+        assertTrue("notifications timed out", waitFor { measurementCallbacks.notified.size >= 2 })
+
+        assertEquals(listOf(MEASUREMENT, MEASUREMENT), measurementCallbacks.notified.toList())
+        assertEquals(listOf(LOCATION), locationCallbacks.notified.toList())
+    }
+
+    private fun waitFor(condition: () -> Boolean): Boolean {
+        val deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS)
+        while (!condition()) {
+            if (System.nanoTime() > deadlineNanos) {
+                return false
+            }
+            Thread.sleep(10)
+        }
+        return true
+    }
+}
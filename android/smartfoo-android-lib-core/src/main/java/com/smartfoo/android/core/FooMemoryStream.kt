@@ -9,8 +9,9 @@ import kotlin.math.min
  * The internal buffer grows automatically in [BLOCK_SIZE]-aligned increments as data is written.
  * A separate [getPosition]/[setPosition] cursor tracks the current read/write offset within the
  * logical [getLength] of the stream. Multi-byte integers are written in big-endian (network) byte
- * order. Factory methods on the companion object ([newBytes]) produce raw little-endian byte arrays
- * from primitive values, which the string formatting helpers in [FooString] then interpret.
+ * order, except by [writeInt], which writes either order. Factory methods on the companion object
+ * ([newBytes]) produce raw little-endian byte arrays from primitive values, which the string
+ * formatting helpers in [FooString] then interpret.
  *
  * This class is thread-safe; all public methods are `@Synchronized`.
  *
@@ -349,6 +350,38 @@ open class FooMemoryStream
             extendLengthToPosition()
         }
 
+        /**
+         * Writes the low [size] bytes of [value] at the current position, in either byte order.
+         *
+         * Unlike the fixed-width big-endian writers above, this does no range checking: higher bytes
+         * of [value] are dropped, so a negative value is written as its two's complement.
+         *
+         * @param value the value to write
+         * @param size number of bytes to write, from 1 to 8
+         * @param littleEndian true to write the least significant byte first, false for the most
+         *   significant byte first
+         * @throws IllegalArgumentException if [size] is not in 1..8
+         */
+        @Synchronized
+        fun writeInt(
+            value: Long,
+            size: Int,
+            littleEndian: Boolean,
+        ) {
+            require(size in 1..8) { "size($size) must be >= 1 and <= 8" }
+            makeSpaceFor(position + size)
+            if (littleEndian) {
+                for (i in 0..<size) {
+                    buffer[position++] = (value shr (i * 8)).toByte()
+                }
+            } else {
+                for (i in size - 1 downTo 0) {
+                    buffer[position++] = (value shr (i * 8)).toByte()
+                }
+            }
+            extendLengthToPosition()
+        }
+
         /**
          * Writes a null-terminated UTF-8 string at the current position.
          *
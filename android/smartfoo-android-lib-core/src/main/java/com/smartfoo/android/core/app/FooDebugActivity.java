@@ -37,6 +37,7 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.smartfoo.android.core.FooRun;
 import com.smartfoo.android.core.FooString;
 import com.smartfoo.android.core.R;
+import com.smartfoo.android.core.bluetooth.gatt.FooGattManager;
 import com.smartfoo.android.core.logging.FooLog;
 import com.smartfoo.android.core.logging.FooLogCat;
 import com.smartfoo.android.core.logging.FooLogCat.LogProcessCallbacks;
@@ -160,6 +161,7 @@ public class FooDebugActivity
     private String mUserName;
 
     private FooDebugConfiguration mDebugConfiguration;
+    private FooGattManager        mGattManager;
 
     private String mHeader;
 
@@ -283,6 +285,7 @@ public class FooDebugActivity
 
         FooDebugApplication application = getFooDebugApplication(this);
         mDebugConfiguration = application.getFooDebugConfiguration();
+        mGattManager = application.getFooGattManager();
 
         setContentView(R.layout.activity_debug);
 
@@ -621,6 +624,11 @@ public class FooDebugActivity
             String platformInfo = FooPlatformUtils.getPlatformInfoString(this, platformInfoExtras);
             sb.append(platformInfo);
 
+            if (mGattManager != null)
+            {
+                sb.append(LINEFEED).append(LINEFEED).append(mGattManager.getMetricsDebugString());
+            }
+
             mHeader = sb.toString();
         }
 
@@ -1,5 +1,7 @@
 package com.smartfoo.android.core.app;
 
+import com.smartfoo.android.core.bluetooth.gatt.FooGattManager;
+
 /**
  * Marker interface that the application's {@link android.app.Application} class must implement
  * to provide a {@link FooDebugConfiguration} to {@link FooDebugActivity}.
@@ -12,4 +14,14 @@ public interface FooDebugApplication
      * @return the {@link FooDebugConfiguration}; must not be null
      */
     FooDebugConfiguration getFooDebugConfiguration();
+
+    /**
+     * Returns the application's GATT manager, whose metrics are shown in the debug log header.
+     *
+     * @return the {@link FooGattManager}, or {@code null} (the default) if the application has none
+     */
+    default FooGattManager getFooGattManager()
+    {
+        return null;
+    }
 }
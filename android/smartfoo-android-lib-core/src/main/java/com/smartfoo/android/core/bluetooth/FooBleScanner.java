@@ -0,0 +1,557 @@
+package com.smartfoo.android.core.bluetooth;
+
+import android.Manifest;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresPermission;
+
+import com.smartfoo.android.core.FooRun;
+import com.smartfoo.android.core.collections.FooLongObjectHashMap;
+import com.smartfoo.android.core.logging.FooLog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A BLE scanner that maintains a table of nearby devices and reports changes to it at a fixed cadence, instead
+ * of once per advertisement.
+ *
+ * <p>Results are requested in hardware batches ({@link ScanSettings.Builder#setReportDelay(long)}) when the
+ * controller supports it, and the given {@link ScanFilter}s are offloaded to the controller when it supports
+ * that, so the application processor only wakes for matching devices. Each result updates the device's entry
+ * in a {@link FooLongObjectHashMap} keyed by its address in place; every {@link #setUpdateIntervalMillis(long)}
+ * entries not seen for {@link #setStaleTimeoutMillis(long)} are evicted, and if anything was added, updated,
+ * or evicted, {@link FooBleScannerCallbacks#onBleScanDevicesUpdated} is called once with all of it. Hundreds
+ * of advertising beacons thus cost one callback per interval.</p>
+ *
+ * <p>The device table is only accessed on the scanner's looper, by default the main looper, which is also where
+ * callbacks are made.</p>
+ */
+public class FooBleScanner
+{
+    private static final String TAG = FooLog.TAG(FooBleScanner.class);
+
+    /**
+     * Callback interface for scan results; called on the scanner's looper.
+     */
+    public interface FooBleScannerCallbacks
+    {
+        /**
+         * Called at most once per update interval, when any device was added, updated, or evicted.
+         * The table and lists are owned by the scanner and only valid during this call; devices in them are
+         * updated in place afterwards.
+         *
+         * @param scanner the scanner
+         * @param devices every device currently in the table, keyed by address; its indices are not in address order
+         * @param added   devices seen for the first time since the last call
+         * @param updated devices seen again since the last call
+         * @param removed devices evicted since the last call, for not being seen within the stale timeout
+         */
+        void onBleScanDevicesUpdated(@NonNull FooBleScanner scanner,
+                                     @NonNull FooLongObjectHashMap<Device> devices,
+                                     @NonNull List<Device> added,
+                                     @NonNull List<Device> updated,
+                                     @NonNull List<Device> removed);
+
+        /**
+         * Called if the scan could not be started; the scanner is stopped.
+         *
+         * @param scanner   the scanner
+         * @param errorCode one of the {@code ScanCallback.SCAN_FAILED_*} constants
+         */
+        void onBleScanFailed(@NonNull FooBleScanner scanner, int errorCode);
+    }
+
+    /**
+     * One device in the table, updated in place as it keeps advertising.
+     */
+    public static class Device
+    {
+        private final long            mDeviceAddress;
+        private final BluetoothDevice mBluetoothDevice;
+
+        private ScanRecord mScanRecord;
+        private int        mRssi;
+        private boolean    mIsConnectable;
+        private long       mFirstSeenElapsedRealtimeNanos;
+        private long       mLastSeenElapsedRealtimeNanos;
+        private int        mSeenCount;
+        /**
+         * Whether this device is in the scanner's added or updated list, awaiting delivery
+         */
+        private boolean    mIsPending;
+
+        private Device(long deviceAddress, @NonNull BluetoothDevice bluetoothDevice, long timestampNanos)
+        {
+            mDeviceAddress = deviceAddress;
+            mBluetoothDevice = bluetoothDevice;
+            mFirstSeenElapsedRealtimeNanos = timestampNanos;
+        }
+
+        @NonNull
+        @Override
+        public String toString()
+        {
+            return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+                   "{ mDeviceAddress=" + FooBluetoothUtils.macAddressLongToPrettyString(mDeviceAddress) +
+                   ", mRssi=" + mRssi +
+                   ", mIsConnectable=" + mIsConnectable +
+                   ", mLastSeenElapsedRealtimeNanos=" + mLastSeenElapsedRealtimeNanos +
+                   ", mSeenCount=" + mSeenCount +
+                   " }";
+        }
+
+        public long getDeviceAddress()
+        {
+            return mDeviceAddress;
+        }
+
+        @NonNull
+        public BluetoothDevice getBluetoothDevice()
+        {
+            return mBluetoothDevice;
+        }
+
+        /**
+         * @return the advertisement (and scan response) most recently seen; may be null
+         */
+        public ScanRecord getScanRecord()
+        {
+            return mScanRecord;
+        }
+
+        /**
+         * @return the RSSI most recently seen, in dBm
+         */
+        public int getRssi()
+        {
+            return mRssi;
+        }
+
+        public boolean isConnectable()
+        {
+            return mIsConnectable;
+        }
+
+        /**
+         * @return the {@link SystemClock#elapsedRealtimeNanos()} at which the device was first seen
+         */
+        public long getFirstSeenElapsedRealtimeNanos()
+        {
+            return mFirstSeenElapsedRealtimeNanos;
+        }
+
+        /**
+         * @return the {@link SystemClock#elapsedRealtimeNanos()} at which the device was last seen; for batched
+         * results, when the controller saw it, not when it was reported
+         */
+        public long getLastSeenElapsedRealtimeNanos()
+        {
+            return mLastSeenElapsedRealtimeNanos;
+        }
+
+        /**
+         * @return the number of advertisements seen from the device
+         */
+        public int getSeenCount()
+        {
+            return mSeenCount;
+        }
+
+        private void update(@NonNull ScanResult scanResult)
+        {
+            mScanRecord = scanResult.getScanRecord();
+            mRssi = scanResult.getRssi();
+            mIsConnectable = scanResult.isConnectable();
+            mLastSeenElapsedRealtimeNanos = Math.max(mLastSeenElapsedRealtimeNanos, scanResult.getTimestampNanos());
+            mSeenCount++;
+        }
+    }
+
+    public static final long DEFAULT_REPORT_DELAY_MILLIS    = 1000;
+    public static final long DEFAULT_UPDATE_INTERVAL_MILLIS = 1000;
+    public static final long DEFAULT_STALE_TIMEOUT_MILLIS   = 10000;
+
+    private final BluetoothAdapter mBluetoothAdapter;
+    private final Handler          mHandler;
+
+    /**
+     * Only accessed on mHandler's looper
+     */
+    private final FooLongObjectHashMap<Device> mDevices;
+    private final List<Device>               mAdded;
+    private final List<Device>               mUpdated;
+    private final List<Device>               mRemoved;
+
+    private int                    mScanMode;
+    private long                   mReportDelayMillis;
+    private long                   mUpdateIntervalMillis;
+    private long                   mStaleTimeoutMillis;
+    private BluetoothLeScanner     mBluetoothLeScanner;
+    private FooBleScannerCallbacks mCallbacks;
+    private boolean                mIsScanning;
+
+    /**
+     * @param context application or activity context; must not be null
+     */
+    public FooBleScanner(@NonNull Context context)
+    {
+        this(context, Looper.getMainLooper());
+    }
+
+    /**
+     * @param context application or activity context; must not be null
+     * @param looper  the looper that processes results and calls callbacks; must not be null
+     */
+    public FooBleScanner(@NonNull Context context, @NonNull Looper looper)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(context, "context");
+        FooRun.throwIllegalArgumentExceptionIfNull(looper, "looper");
+
+        mBluetoothAdapter = FooBluetoothUtils.getBluetoothAdapter(context);
+        mHandler = new Handler(looper);
+
+        mDevices = new FooLongObjectHashMap<>();
+        mAdded = new ArrayList<>();
+        mUpdated = new ArrayList<>();
+        mRemoved = new ArrayList<>();
+
+        mScanMode = ScanSettings.SCAN_MODE_BALANCED;
+        mReportDelayMillis = DEFAULT_REPORT_DELAY_MILLIS;
+        mUpdateIntervalMillis = DEFAULT_UPDATE_INTERVAL_MILLIS;
+        mStaleTimeoutMillis = DEFAULT_STALE_TIMEOUT_MILLIS;
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ mIsScanning=" + mIsScanning +
+               ", mDevices.size()=" + mDevices.size() +
+               " }";
+    }
+
+    /**
+     * @param scanMode one of the {@code ScanSettings.SCAN_MODE_*} constants; takes effect on the next
+     *                 {@link #start}. Defaults to {@link ScanSettings#SCAN_MODE_BALANCED}
+     */
+    @SuppressWarnings("unused")
+    public void setScanMode(int scanMode)
+    {
+        mScanMode = scanMode;
+    }
+
+    /**
+     * @param reportDelayMillis how long the controller may hold results before reporting them as a batch, or 0
+     *                          to report each one; ignored if the controller cannot batch. Takes effect on the next
+     *                          {@link #start}. Defaults to {@link #DEFAULT_REPORT_DELAY_MILLIS}
+     */
+    @SuppressWarnings("unused")
+    public void setReportDelayMillis(long reportDelayMillis)
+    {
+        mReportDelayMillis = Math.max(0, reportDelayMillis);
+    }
+
+    /**
+     * @param updateIntervalMillis how often to evict stale devices and report changes; takes effect on the next
+     *                             {@link #start}. Defaults to {@link #DEFAULT_UPDATE_INTERVAL_MILLIS}
+     */
+    @SuppressWarnings("unused")
+    public void setUpdateIntervalMillis(long updateIntervalMillis)
+    {
+        if (updateIntervalMillis <= 0)
+        {
+            throw new IllegalArgumentException("updateIntervalMillis must be > 0");
+        }
+        mUpdateIntervalMillis = updateIntervalMillis;
+    }
+
+    /**
+     * @param staleTimeoutMillis how long a device may go unseen before it is evicted; should be longer than the
+     *                           report delay and the devices' advertising interval. Defaults to
+     *                           {@link #DEFAULT_STALE_TIMEOUT_MILLIS}
+     */
+    @SuppressWarnings("unused")
+    public void setStaleTimeoutMillis(long staleTimeoutMillis)
+    {
+        mStaleTimeoutMillis = staleTimeoutMillis;
+    }
+
+    public boolean isScanning()
+    {
+        return mIsScanning;
+    }
+
+    /**
+     * Must be called on the scanner's looper.
+     *
+     * @return the number of devices in the table
+     */
+    @SuppressWarnings("unused")
+    public int getDeviceCount()
+    {
+        return mDevices.size();
+    }
+
+    /**
+     * Starts scanning, or restarts it with new filters and settings.
+     *
+     * <p>Android stops unfiltered scans while the screen is off; pass at least one filter to keep scanning.</p>
+     *
+     * @param filters   the filters, offloaded to the controller when it supports that; null or empty to report
+     *                  every device
+     * @param callbacks the callbacks; must not be null
+     * @return true if scanning was requested, false if Bluetooth is off or unsupported
+     */
+    @RequiresPermission(Manifest.permission.BLUETOOTH_SCAN)
+    public boolean start(List<ScanFilter> filters, @NonNull FooBleScannerCallbacks callbacks)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(callbacks, "callbacks");
+
+        stop();
+
+        BluetoothLeScanner bluetoothLeScanner = mBluetoothAdapter != null && mBluetoothAdapter.isEnabled() ?
+                mBluetoothAdapter.getBluetoothLeScanner() : null;
+        if (bluetoothLeScanner == null)
+        {
+            FooLog.w(TAG, "start: Bluetooth is off or unsupported; ignoring");
+            return false;
+        }
+
+        long reportDelayMillis = mBluetoothAdapter.isOffloadedScanBatchingSupported() ? mReportDelayMillis : 0;
+        ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(mScanMode)
+                .setReportDelay(reportDelayMillis)
+                .build();
+        FooLog.i(TAG, "start: filters.size()=" + (filters != null ? filters.size() : 0) +
+                      ", isOffloadedFilteringSupported()=" + mBluetoothAdapter.isOffloadedFilteringSupported() +
+                      ", reportDelayMillis=" + reportDelayMillis);
+
+        mCallbacks = callbacks;
+        mBluetoothLeScanner = bluetoothLeScanner;
+        mIsScanning = true;
+        bluetoothLeScanner.startScan(filters != null ? filters : Collections.<ScanFilter>emptyList(),
+                settings,
+                mScanCallback);
+        mHandler.postDelayed(mUpdateRunnable, mUpdateIntervalMillis);
+        return true;
+    }
+
+    /**
+     * Stops scanning. The device table is kept, and no more callbacks are made.
+     */
+    @RequiresPermission(Manifest.permission.BLUETOOTH_SCAN)
+    public void stop()
+    {
+        mHandler.removeCallbacks(mUpdateRunnable);
+        if (!mIsScanning)
+        {
+            return;
+        }
+
+        FooLog.i(TAG, "stop()");
+        mIsScanning = false;
+        try
+        {
+            mBluetoothLeScanner.stopScan(mScanCallback);
+        }
+        catch (IllegalStateException e)
+        {
+            // Bluetooth was turned off, which already stopped the scan
+            FooLog.w(TAG, "stop: stopScan", e);
+        }
+        mBluetoothLeScanner = null;
+        mCallbacks = null;
+    }
+
+    /**
+     * Empties the device table without reporting the devices as removed. Must be called on the scanner's looper.
+     */
+    @SuppressWarnings("unused")
+    public void clear()
+    {
+        mDevices.clear();
+        mAdded.clear();
+        mUpdated.clear();
+        mRemoved.clear();
+    }
+
+    private final ScanCallback mScanCallback = new ScanCallback()
+    {
+        @Override
+        public void onScanResult(int callbackType, final ScanResult result)
+        {
+            if (isOnLooper())
+            {
+                onScanResults(result, null);
+            }
+            else
+            {
+                mHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        onScanResults(result, null);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void onBatchScanResults(final List<ScanResult> results)
+        {
+            if (isOnLooper())
+            {
+                onScanResults(null, results);
+            }
+            else
+            {
+                mHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        onScanResults(null, results);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void onScanFailed(final int errorCode)
+        {
+            mHandler.post(new Runnable()
+            {
+                @RequiresPermission(Manifest.permission.BLUETOOTH_SCAN)
+                @Override
+                public void run()
+                {
+                    FooLog.e(TAG, "onScanFailed: errorCode=" + FooBluetoothUtils.scanCallbackErrorToString(errorCode));
+                    FooBleScannerCallbacks callbacks = mCallbacks;
+                    stop();
+                    if (callbacks != null)
+                    {
+                        callbacks.onBleScanFailed(FooBleScanner.this, errorCode);
+                    }
+                }
+            });
+        }
+    };
+
+    private boolean isOnLooper()
+    {
+        return Looper.myLooper() == mHandler.getLooper();
+    }
+
+    private void onScanResults(ScanResult result, List<ScanResult> results)
+    {
+        if (!mIsScanning)
+        {
+            return;
+        }
+
+        if (result != null)
+        {
+            onScanResult(result);
+        }
+        else
+        {
+            for (int i = 0, count = results.size(); i < count; i++)
+            {
+                onScanResult(results.get(i));
+            }
+        }
+    }
+
+    private void onScanResult(@NonNull ScanResult result)
+    {
+        BluetoothDevice bluetoothDevice = result.getDevice();
+        long deviceAddress = FooBluetoothUtils.bluetoothDeviceAddressToLong(bluetoothDevice);
+
+        Device device = mDevices.get(deviceAddress);
+        if (device == null)
+        {
+            device = new Device(deviceAddress, bluetoothDevice, result.getTimestampNanos());
+            mDevices.put(deviceAddress, device);
+            device.mIsPending = true;
+            mAdded.add(device);
+        }
+        else if (!device.mIsPending)
+        {
+            device.mIsPending = true;
+            mUpdated.add(device);
+        }
+        device.update(result);
+    }
+
+    private final Runnable mUpdateRunnable = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            if (!mIsScanning)
+            {
+                return;
+            }
+
+            evictStaleDevices();
+
+            if (!mAdded.isEmpty() || !mUpdated.isEmpty() || !mRemoved.isEmpty())
+            {
+                try
+                {
+                    mCallbacks.onBleScanDevicesUpdated(FooBleScanner.this, mDevices, mAdded, mUpdated, mRemoved);
+                }
+                finally
+                {
+                    for (int i = 0, count = mAdded.size(); i < count; i++)
+                    {
+                        mAdded.get(i).mIsPending = false;
+                    }
+                    for (int i = 0, count = mUpdated.size(); i < count; i++)
+                    {
+                        mUpdated.get(i).mIsPending = false;
+                    }
+                    mAdded.clear();
+                    mUpdated.clear();
+                    mRemoved.clear();
+                }
+            }
+
+            if (mIsScanning)
+            {
+                mHandler.postDelayed(this, mUpdateIntervalMillis);
+            }
+        }
+    };
+
+    private void evictStaleDevices()
+    {
+        long staleElapsedRealtimeNanos = SystemClock.elapsedRealtimeNanos() - mStaleTimeoutMillis * 1000000L;
+        // Backwards, so that removing an entry does not shift the ones still to be checked
+        for (int i = mDevices.size() - 1; i >= 0; i--)
+        {
+            Device device = mDevices.valueAt(i);
+            if (!device.mIsPending && device.mLastSeenElapsedRealtimeNanos < staleElapsedRealtimeNanos)
+            {
+                mDevices.removeAt(i);
+                mRemoved.add(device);
+            }
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import android.Manifest;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothSocket;
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresPermission;
+
+import com.smartfoo.android.core.FooRun;
+import com.smartfoo.android.core.bluetooth.FooBluetoothUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The {@link FooGattTransport} of a real device: a thin wrapper around {@link BluetoothGatt}.
+ */
+public class FooGattBluetoothTransport
+        implements FooGattTransport
+{
+    /**
+     * Connects through {@link BluetoothGattCompat}.
+     */
+    public static class Factory
+            implements FooGattTransport.Factory
+    {
+        private final Context          mContext;
+        private final BluetoothAdapter mBluetoothAdapter;
+
+        /**
+         * @param context application or activity context; must not be null
+         */
+        public Factory(@NonNull Context context)
+        {
+            FooRun.throwIllegalArgumentExceptionIfNull(context, "context");
+            mContext = context;
+            mBluetoothAdapter = FooBluetoothUtils.getBluetoothAdapter(context);
+        }
+
+        @Override
+        public boolean isEnabled()
+        {
+            return mBluetoothAdapter != null && mBluetoothAdapter.isEnabled();
+        }
+
+        @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+        @Override
+        public FooGattTransport connectGatt(@NonNull String deviceAddress,
+                                            boolean autoConnect,
+                                            @NonNull Callbacks callbacks)
+        {
+            if (mBluetoothAdapter == null)
+            {
+                return null;
+            }
+
+            BluetoothDevice bluetoothDevice = mBluetoothAdapter.getRemoteDevice(deviceAddress);
+
+            FooGattBluetoothTransport transport = new FooGattBluetoothTransport();
+            BluetoothGattCompat bluetoothGattCompat = new BluetoothGattCompat(mContext);
+            BluetoothGatt gatt = bluetoothGattCompat.connectGatt(bluetoothDevice, autoConnect,
+                    transport.newBluetoothGattCallback(callbacks));
+            if (gatt == null)
+            {
+                return null;
+            }
+            transport.setBluetoothGatt(gatt);
+            return transport;
+        }
+    }
+
+    /**
+     * Set by {@link Factory#connectGatt} or by the first callback, whichever comes first
+     */
+    private volatile BluetoothGatt mBluetoothGatt;
+
+    private FooGattBluetoothTransport()
+    {
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ mBluetoothGatt=" + mBluetoothGatt +
+               " }";
+    }
+
+    /**
+     * @return the wrapped {@link BluetoothGatt}
+     */
+    @SuppressWarnings("unused")
+    public BluetoothGatt getBluetoothGatt()
+    {
+        return mBluetoothGatt;
+    }
+
+    private FooGattTransport setBluetoothGatt(BluetoothGatt gatt)
+    {
+        if (mBluetoothGatt == null)
+        {
+            mBluetoothGatt = gatt;
+        }
+        return this;
+    }
+
+    private BluetoothGattCallback newBluetoothGattCallback(final Callbacks callbacks)
+    {
+        return new BluetoothGattCallback()
+        {
+            @Override
+            public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState)
+            {
+                callbacks.onConnectionStateChange(setBluetoothGatt(gatt), status, newState);
+            }
+
+            @Override
+            public void onServicesDiscovered(BluetoothGatt gatt, int status)
+            {
+                callbacks.onServicesDiscovered(setBluetoothGatt(gatt), status);
+            }
+
+            @Override
+            public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status)
+            {
+                callbacks.onCharacteristicRead(setBluetoothGatt(gatt), characteristic, status);
+            }
+
+            @Override
+            public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status)
+            {
+                callbacks.onCharacteristicWrite(setBluetoothGatt(gatt), characteristic, status);
+            }
+
+            @Override
+            public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status)
+            {
+                callbacks.onDescriptorWrite(setBluetoothGatt(gatt), descriptor, status);
+            }
+
+            @Override
+            public void onCharacteristicChanged(@NonNull BluetoothGatt gatt,
+                                                @NonNull BluetoothGattCharacteristic characteristic,
+                                                @NonNull byte[] value)
+            {
+                callbacks.onCharacteristicChanged(setBluetoothGatt(gatt), characteristic, value);
+            }
+
+            @Override
+            public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status)
+            {
+                callbacks.onReadRemoteRssi(setBluetoothGatt(gatt), rssi, status);
+            }
+
+            @Override
+            public void onMtuChanged(BluetoothGatt gatt, int mtu, int status)
+            {
+                callbacks.onMtuChanged(setBluetoothGatt(gatt), mtu, status);
+            }
+
+            @Override
+            public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status)
+            {
+                callbacks.onPhyUpdate(setBluetoothGatt(gatt), txPhy, rxPhy, status);
+            }
+
+            @Override
+            public void onServiceChanged(@NonNull BluetoothGatt gatt)
+            {
+                callbacks.onServiceChanged(setBluetoothGatt(gatt));
+            }
+        };
+    }
+
+    @Override
+    public BluetoothDevice getDevice()
+    {
+        return mBluetoothGatt.getDevice();
+    }
+
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    @Override
+    public boolean discoverServices()
+    {
+        return mBluetoothGatt.discoverServices();
+    }
+
+    @Override
+    public List<BluetoothGattService> getServices()
+    {
+        return mBluetoothGatt.getServices();
+    }
+
+    @Override
+    public BluetoothGattService getService(UUID uuid)
+    {
+        return mBluetoothGatt.getService(uuid);
+    }
+
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    @Override
+    public boolean readCharacteristic(BluetoothGattCharacteristic characteristic)
+    {
+        return mBluetoothGatt.readCharacteristic(characteristic);
+    }
+
+    @SuppressWarnings("deprecation")
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    @Override
+    public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic)
+    {
+        return mBluetoothGatt.writeCharacteristic(characteristic);
+    }
+
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    @Override
+    public int writeCharacteristic(@NonNull BluetoothGattCharacteristic characteristic,
+                                   @NonNull byte[] value,
+                                   int writeType)
+    {
+        return mBluetoothGatt.writeCharacteristic(characteristic, value, writeType);
+    }
+
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    @Override
+    public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable)
+    {
+        return mBluetoothGatt.setCharacteristicNotification(characteristic, enable);
+    }
+
+    @SuppressWarnings("deprecation")
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    @Override
+    public boolean writeDescriptor(BluetoothGattDescriptor descriptor)
+    {
+        return mBluetoothGatt.writeDescriptor(descriptor);
+    }
+
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    @Override
+    public boolean readRemoteRssi()
+    {
+        return mBluetoothGatt.readRemoteRssi();
+    }
+
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    @Override
+    public boolean requestMtu(int mtu)
+    {
+        return mBluetoothGatt.requestMtu(mtu);
+    }
+
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    @Override
+    public boolean requestConnectionPriority(int connectionPriority)
+    {
+        return mBluetoothGatt.requestConnectionPriority(connectionPriority);
+    }
+
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    @Override
+    public void setPreferredPhy(int txPhy, int rxPhy, int phyOptions)
+    {
+        mBluetoothGatt.setPreferredPhy(txPhy, rxPhy, phyOptions);
+    }
+
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    @NonNull
+    @Override
+    public FooL2capSocket createL2capChannel(int psm, boolean secure)
+            throws IOException
+    {
+        BluetoothDevice device = mBluetoothGatt.getDevice();
+        return new L2capSocket(secure ? device.createL2capChannel(psm) : device.createInsecureL2capChannel(psm));
+    }
+
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    @Override
+    public void disconnect()
+    {
+        mBluetoothGatt.disconnect();
+    }
+
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    @Override
+    public void close()
+    {
+        mBluetoothGatt.close();
+    }
+
+    /**
+     * A thin wrapper around {@link BluetoothSocket}.
+     */
+    private static class L2capSocket
+            implements FooL2capSocket
+    {
+        private final BluetoothSocket mBluetoothSocket;
+
+        private L2capSocket(BluetoothSocket bluetoothSocket)
+        {
+            mBluetoothSocket = bluetoothSocket;
+        }
+
+        @NonNull
+        @Override
+        public String toString()
+        {
+            return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+                   "{ mBluetoothSocket=" + mBluetoothSocket +
+                   " }";
+        }
+
+        @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+        @Override
+        public void connect()
+                throws IOException
+        {
+            mBluetoothSocket.connect();
+        }
+
+        @Override
+        public boolean isConnected()
+        {
+            return mBluetoothSocket.isConnected();
+        }
+
+        @Override
+        public InputStream getInputStream()
+                throws IOException
+        {
+            return mBluetoothSocket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream()
+                throws IOException
+        {
+            return mBluetoothSocket.getOutputStream();
+        }
+
+        @Override
+        public int getMaxTransmitPacketSize()
+        {
+            return mBluetoothSocket.getMaxTransmitPacketSize();
+        }
+
+        @Override
+        public int getMaxReceivePacketSize()
+        {
+            return mBluetoothSocket.getMaxReceivePacketSize();
+        }
+
+        @Override
+        public void close()
+                throws IOException
+        {
+            mBluetoothSocket.close();
+        }
+    }
+}
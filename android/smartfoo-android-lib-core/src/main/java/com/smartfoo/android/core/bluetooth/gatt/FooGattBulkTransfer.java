@@ -0,0 +1,376 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import android.Manifest;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothStatusCodes;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresPermission;
+
+import com.smartfoo.android.core.bluetooth.gatt.FooGattHandler.GattHandlerListener.GattOperation;
+import com.smartfoo.android.core.logging.FooLog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Streams a large payload to one characteristic using {@link BluetoothGattCharacteristic#WRITE_TYPE_NO_RESPONSE}.
+ *
+ * <p>The payload is split into chunks of {@link FooGattHandler#getMaxWriteWithoutResponseLength()} bytes.
+ * Each chunk is handed to {@link BluetoothGatt#writeCharacteristic(BluetoothGattCharacteristic, byte[], int)};
+ * the next one is written as soon as the stack reports it has room again, either through
+ * {@link android.bluetooth.BluetoothGattCallback#onCharacteristicWrite} or, if the write was rejected with
+ * {@link BluetoothStatusCodes#ERROR_GATT_WRITE_REQUEST_BUSY}, after a short back-off. No chunk waits for a
+ * response from the peripheral, so the transfer runs at the link's bandwidth instead of one packet per
+ * connection event.</p>
+ *
+ * <p>The transfer occupies the handler's operation queue for its whole duration. Its timeout is an idle
+ * timeout: it restarts every time a chunk is accepted. {@link #cancel()} also works while the transfer is
+ * executing; it stops at the next chunk boundary.</p>
+ *
+ * <p>The source stream is read on the handler's background executor, one chunk at a time, and is closed
+ * when the transfer completes. It should not block for long (a file or memory stream, not a socket).</p>
+ */
+public class FooGattBulkTransfer
+        extends FooGattRequest
+{
+    private static final String TAG = FooLog.TAG(FooGattBulkTransfer.class);
+
+    /**
+     * How long to wait before retrying a chunk the stack rejected as busy
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static final int BUSY_RETRY_MILLIS = 5;
+
+    /**
+     * Minimum time between two {@link FooGattBulkTransferCallbacks#onBulkTransferProgress} calls
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static final int PROGRESS_INTERVAL_MILLIS = 100;
+
+    /**
+     * Callbacks for a single transfer. Invoked on the same thread as, and in order with, the
+     * {@link FooGattHandler.GattHandlerListener} callbacks.
+     */
+    public interface FooGattBulkTransferCallbacks
+    {
+        /**
+         * Called at most every {@link #PROGRESS_INTERVAL_MILLIS} while the transfer runs.
+         *
+         * @param transfer the transfer
+         */
+        void onBulkTransferProgress(@NonNull FooGattBulkTransfer transfer);
+
+        /**
+         * Called once when the transfer reaches a terminal {@link State}.
+         *
+         * @param transfer the transfer
+         */
+        void onBulkTransferCompleted(@NonNull FooGattBulkTransfer transfer);
+    }
+
+    private final FooGattHandler               mGattHandler;
+    private final InputStream                  mInputStream;
+    private final long                         mTotalBytes;
+    private final FooGattBulkTransferCallbacks mCallbacks;
+    private final Runnable                     mWriteNextChunkRunnable;
+    private final Runnable                     mProgressRunnable;
+
+    //
+    // Only accessed on the handler's background executor
+    //
+    private FooGattTransport            mGatt;
+    private BluetoothGattCharacteristic mCharacteristic;
+    private byte[]                      mBuffer;
+    private byte[]                      mPendingChunk;
+    private long                        mLastProgressNanos;
+
+    private volatile boolean mIsCancelRequested;
+    private volatile int     mChunkSize;
+    private volatile long    mBytesSent;
+    private volatile long    mStartNanos;
+    private volatile long    mEndNanos;
+
+    FooGattBulkTransfer(@NonNull FooGattHandler gattHandler,
+                        @NonNull UUID serviceUuid,
+                        @NonNull UUID characteristicUuid,
+                        @NonNull InputStream inputStream,
+                        long totalBytes,
+                        long timeoutMillis,
+                        FooGattBulkTransferCallbacks callbacks)
+    {
+        super(GattOperation.CharacteristicBulkWrite, serviceUuid, characteristicUuid, timeoutMillis, null);
+
+        mGattHandler = gattHandler;
+        mInputStream = inputStream;
+        mTotalBytes = totalBytes;
+        mCallbacks = callbacks;
+
+        mWriteNextChunkRunnable = new Runnable()
+        {
+            @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+            @Override
+            public void run()
+            {
+                if (isDone())
+                {
+                    return;
+                }
+                writeNextChunk();
+            }
+        };
+
+        mProgressRunnable = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (mCallbacks != null && !isDone())
+                {
+                    mCallbacks.onBulkTransferProgress(FooGattBulkTransfer.this);
+                }
+            }
+        };
+
+        addCallbacks(new FooGattRequestCallbacks()
+        {
+            @Override
+            public void onGattRequestCompleted(@NonNull FooGattRequest request)
+            {
+                if (mEndNanos == 0)
+                {
+                    mEndNanos = System.nanoTime();
+                }
+
+                try
+                {
+                    mInputStream.close();
+                }
+                catch (IOException e)
+                {
+                    FooLog.w(TAG, "onGattRequestCompleted: mInputStream.close() failed", e);
+                }
+
+                if (mCallbacks != null)
+                {
+                    mCallbacks.onBulkTransferCompleted(FooGattBulkTransfer.this);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the number of bytes accepted by the stack so far
+     */
+    public long getBytesSent()
+    {
+        return mBytesSent;
+    }
+
+    /**
+     * @return the total number of bytes to send, or -1 if unknown
+     */
+    public long getTotalBytes()
+    {
+        return mTotalBytes;
+    }
+
+    /**
+     * @return the chunk size in bytes, or 0 if the transfer has not started
+     */
+    @SuppressWarnings("unused")
+    public int getChunkSize()
+    {
+        return mChunkSize;
+    }
+
+    /**
+     * @return the average throughput in bytes per second since the transfer started executing, or 0 if it
+     * has not started
+     */
+    public long getBytesPerSecond()
+    {
+        long startNanos = mStartNanos;
+        if (startNanos == 0)
+        {
+            return 0;
+        }
+        long endNanos = mEndNanos;
+        if (endNanos == 0)
+        {
+            endNanos = System.nanoTime();
+        }
+        long elapsedNanos = endNanos - startNanos;
+        return elapsedNanos > 0 ? mBytesSent * 1000000000L / elapsedNanos : 0;
+    }
+
+    /**
+     * Cancels this transfer. A queued transfer is removed immediately; an executing transfer stops
+     * before its next chunk and completes as {@link State#Canceled}.
+     *
+     * @return true if the transfer was or will be canceled, false if it is already done
+     */
+    @Override
+    public boolean cancel()
+    {
+        if (super.cancel())
+        {
+            return true;
+        }
+
+        if (isDone())
+        {
+            return false;
+        }
+
+        mIsCancelRequested = true;
+        return true;
+    }
+
+    @Override
+    int getPayloadLength()
+    {
+        return (int) Math.min(Math.max(mTotalBytes, 0), Integer.MAX_VALUE);
+    }
+
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    @Override
+    boolean start(FooGattTransport gatt)
+    {
+        mCharacteristic = mGattHandler.findCharacteristic("characteristicBulkWrite.start",
+                gatt,
+                getServiceUuid(),
+                getCharacteristicUuid());
+        if (mCharacteristic == null)
+        {
+            return false;
+        }
+
+        mGatt = gatt;
+        mChunkSize = mGattHandler.getMaxWriteWithoutResponseLength();
+        mBuffer = new byte[mChunkSize];
+        mStartNanos = System.nanoTime();
+        mLastProgressNanos = mStartNanos;
+
+        FooLog.v(TAG, "start: " + this + ", mChunkSize=" + mChunkSize + ", mTotalBytes=" + mTotalBytes);
+
+        writeNextChunk();
+
+        return true;
+    }
+
+    /**
+     * Called from {@link android.bluetooth.BluetoothGattCallback#onCharacteristicWrite} on a binder thread.
+     *
+     * @param status the write status
+     */
+    void onCharacteristicWrite(final int status)
+    {
+        if (status != BluetoothGatt.GATT_SUCCESS)
+        {
+            FooLog.w(TAG, "onCharacteristicWrite: status=" + status + "; failing " + this);
+            setResult(status, mCharacteristic, null);
+            complete(State.Failed);
+            return;
+        }
+
+        mGattHandler.executeBackground(mWriteNextChunkRunnable);
+    }
+
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    private void writeNextChunk()
+    {
+        if (mIsCancelRequested)
+        {
+            complete(State.Canceled);
+            return;
+        }
+
+        if (mPendingChunk == null)
+        {
+            int length;
+            try
+            {
+                length = read(mBuffer);
+            }
+            catch (IOException e)
+            {
+                FooLog.e(TAG, "writeNextChunk: read failed; failing " + this, e);
+                setResult(BluetoothGatt.GATT_FAILURE, mCharacteristic, null);
+                complete(State.Failed);
+                return;
+            }
+
+            if (length <= 0)
+            {
+                setResult(BluetoothGatt.GATT_SUCCESS, mCharacteristic, null);
+                complete(State.Succeeded);
+                return;
+            }
+
+            // The stack copies the value before writeCharacteristic returns, so a full chunk can reuse mBuffer
+            mPendingChunk = length == mBuffer.length ? mBuffer : Arrays.copyOf(mBuffer, length);
+        }
+
+        int result = mGatt.writeCharacteristic(mCharacteristic,
+                mPendingChunk,
+                BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        switch (result)
+        {
+            case BluetoothStatusCodes.SUCCESS:
+            {
+                mBytesSent += mPendingChunk.length;
+                mPendingChunk = null;
+                touch();
+
+                long nowNanos = System.nanoTime();
+                if (nowNanos - mLastProgressNanos >= PROGRESS_INTERVAL_MILLIS * 1000000L)
+                {
+                    mLastProgressNanos = nowNanos;
+                    mGattHandler.executeCallback(mProgressRunnable);
+                }
+                // Next chunk is written from onCharacteristicWrite
+                break;
+            }
+            case BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY:
+                mGattHandler.scheduleBackground(mWriteNextChunkRunnable, BUSY_RETRY_MILLIS);
+                break;
+            default:
+                FooLog.e(TAG, "writeNextChunk: gatt.writeCharacteristic(...) returned " + result + "; failing " + this);
+                setResult(result, mCharacteristic, null);
+                complete(State.Failed);
+                break;
+        }
+    }
+
+    /**
+     * Fills as much of {@code buffer} as the stream allows before end of stream.
+     */
+    private int read(byte[] buffer)
+            throws IOException
+    {
+        int offset = 0;
+        while (offset < buffer.length)
+        {
+            int count = mInputStream.read(buffer, offset, buffer.length - offset);
+            if (count < 0)
+            {
+                break;
+            }
+            offset += count;
+        }
+        return offset;
+    }
+
+    private void complete(State state)
+    {
+        mEndNanos = System.nanoTime();
+        FooLog.v(TAG, "complete: state=" + state +
+                      ", mBytesSent=" + mBytesSent +
+                      ", getBytesPerSecond()=" + getBytesPerSecond());
+        getQueue().complete(this, state);
+    }
+}
@@ -0,0 +1,81 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import androidx.annotation.NonNull;
+
+import java.util.UUID;
+
+/**
+ * A characteristic resolved once by {@link FooGattHandler#getCharacteristicHandle(UUID, UUID)}, so that
+ * repeated reads, writes and notification changes on it skip the service/characteristic lookup entirely.
+ *
+ * <p>A handle stays usable across reconnects and service changes: while it is current it resolves to its
+ * cached characteristic, otherwise the handler falls back to a normal lookup by its UUIDs. Call
+ * {@link #isValid()} to find out whether it is worth resolving again.</p>
+ */
+public class FooGattCharacteristicHandle
+{
+    private final FooGattHandler              mGattHandler;
+    private final FooGattServiceIndex         mServiceIndex;
+    private final UUID                        mServiceUuid;
+    private final UUID                        mCharacteristicUuid;
+    private final BluetoothGattCharacteristic mCharacteristic;
+
+    FooGattCharacteristicHandle(@NonNull FooGattHandler gattHandler,
+                                @NonNull FooGattServiceIndex serviceIndex,
+                                @NonNull UUID serviceUuid,
+                                @NonNull UUID characteristicUuid,
+                                @NonNull BluetoothGattCharacteristic characteristic)
+    {
+        mGattHandler = gattHandler;
+        mServiceIndex = serviceIndex;
+        mServiceUuid = serviceUuid;
+        mCharacteristicUuid = characteristicUuid;
+        mCharacteristic = characteristic;
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ mServiceUuid=" + mServiceUuid +
+               ", mCharacteristicUuid=" + mCharacteristicUuid +
+               ", isValid()=" + isValid() +
+               " }";
+    }
+
+    public FooGattHandler getGattHandler()
+    {
+        return mGattHandler;
+    }
+
+    public UUID getServiceUuid()
+    {
+        return mServiceUuid;
+    }
+
+    public UUID getCharacteristicUuid()
+    {
+        return mCharacteristicUuid;
+    }
+
+    /**
+     * @return true if the handle was resolved from the handler's current service discovery result
+     */
+    public boolean isValid()
+    {
+        return mGattHandler.getServiceIndex() == mServiceIndex;
+    }
+
+    /**
+     * @param gattHandler the handler about to use this handle
+     * @return the cached characteristic, or null if this handle belongs to another handler or is no longer
+     * valid
+     */
+    BluetoothGattCharacteristic getCharacteristic(FooGattHandler gattHandler)
+    {
+        return gattHandler == mGattHandler && isValid() ? mCharacteristic : null;
+    }
+}
@@ -0,0 +1,440 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import androidx.annotation.NonNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Immutable snapshot of a peripheral's discovered service, characteristic and descriptor layout.
+ *
+ * <p>Unlike the {@link BluetoothGattService}s it is taken from, a database holds no OS objects, so it can be
+ * compared with a later discovery result and written to and read back from disk. {@link FooGattHandler}
+ * keeps the last discovered database of every device in its {@link FooGattManager}'s cache; see
+ * {@link FooGattHandler#getCachedDatabase()}.</p>
+ */
+public class FooGattDatabase
+{
+    private static final int MAGIC   = 0x46474442; // "FGDB"
+    private static final int VERSION = 1;
+
+    public static class Service
+    {
+        private final UUID                 mUuid;
+        private final int                  mInstanceId;
+        private final int                  mType;
+        private final List<Characteristic> mCharacteristics;
+
+        Service(@NonNull UUID uuid, int instanceId, int type, @NonNull List<Characteristic> characteristics)
+        {
+            mUuid = uuid;
+            mInstanceId = instanceId;
+            mType = type;
+            mCharacteristics = Collections.unmodifiableList(new ArrayList<>(characteristics));
+        }
+
+        @NonNull
+        @Override
+        public String toString()
+        {
+            return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+                   "{ mUuid=" + mUuid +
+                   ", mInstanceId=" + mInstanceId +
+                   ", mType=" + mType +
+                   ", mCharacteristics=" + mCharacteristics +
+                   " }";
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof Service))
+            {
+                return false;
+            }
+            Service other = (Service) o;
+            return mInstanceId == other.mInstanceId &&
+                   mType == other.mType &&
+                   mUuid.equals(other.mUuid) &&
+                   mCharacteristics.equals(other.mCharacteristics);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = mUuid.hashCode();
+            result = 31 * result + mInstanceId;
+            result = 31 * result + mType;
+            result = 31 * result + mCharacteristics.hashCode();
+            return result;
+        }
+
+        public UUID getUuid()
+        {
+            return mUuid;
+        }
+
+        public int getInstanceId()
+        {
+            return mInstanceId;
+        }
+
+        /**
+         * @return {@link BluetoothGattService#SERVICE_TYPE_PRIMARY} or
+         * {@link BluetoothGattService#SERVICE_TYPE_SECONDARY}
+         */
+        public int getType()
+        {
+            return mType;
+        }
+
+        public List<Characteristic> getCharacteristics()
+        {
+            return mCharacteristics;
+        }
+
+        /**
+         * @param characteristicUuid UUID of the characteristic
+         * @return the first matching characteristic, or null if not present
+         */
+        public Characteristic getCharacteristic(UUID characteristicUuid)
+        {
+            for (Characteristic characteristic : mCharacteristics)
+            {
+                if (characteristic.mUuid.equals(characteristicUuid))
+                {
+                    return characteristic;
+                }
+            }
+            return null;
+        }
+    }
+
+    public static class Characteristic
+    {
+        private final UUID       mUuid;
+        private final int        mInstanceId;
+        private final int        mProperties;
+        private final int        mPermissions;
+        private final List<UUID> mDescriptorUuids;
+
+        Characteristic(@NonNull UUID uuid, int instanceId, int properties, int permissions,
+                       @NonNull List<UUID> descriptorUuids)
+        {
+            mUuid = uuid;
+            mInstanceId = instanceId;
+            mProperties = properties;
+            mPermissions = permissions;
+            mDescriptorUuids = Collections.unmodifiableList(new ArrayList<>(descriptorUuids));
+        }
+
+        @NonNull
+        @Override
+        public String toString()
+        {
+            return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+                   "{ mUuid=" + mUuid +
+                   ", mInstanceId=" + mInstanceId +
+                   ", mProperties=" + mProperties +
+                   ", mPermissions=" + mPermissions +
+                   ", mDescriptorUuids=" + mDescriptorUuids +
+                   " }";
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof Characteristic))
+            {
+                return false;
+            }
+            Characteristic other = (Characteristic) o;
+            return mInstanceId == other.mInstanceId &&
+                   mProperties == other.mProperties &&
+                   mPermissions == other.mPermissions &&
+                   mUuid.equals(other.mUuid) &&
+                   mDescriptorUuids.equals(other.mDescriptorUuids);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = mUuid.hashCode();
+            result = 31 * result + mInstanceId;
+            result = 31 * result + mProperties;
+            result = 31 * result + mPermissions;
+            result = 31 * result + mDescriptorUuids.hashCode();
+            return result;
+        }
+
+        public UUID getUuid()
+        {
+            return mUuid;
+        }
+
+        public int getInstanceId()
+        {
+            return mInstanceId;
+        }
+
+        /**
+         * @return a bitmask of {@code BluetoothGattCharacteristic.PROPERTY_*} values
+         */
+        public int getProperties()
+        {
+            return mProperties;
+        }
+
+        /**
+         * @return a bitmask of {@code BluetoothGattCharacteristic.PERMISSION_*} values
+         */
+        public int getPermissions()
+        {
+            return mPermissions;
+        }
+
+        public List<UUID> getDescriptorUuids()
+        {
+            return mDescriptorUuids;
+        }
+    }
+
+    /**
+     * @param services the result of {@link android.bluetooth.BluetoothGatt#getServices()}; null is treated as
+     *                 empty
+     * @return a snapshot of the layout of {@code services}
+     */
+    @NonNull
+    public static FooGattDatabase fromServices(List<BluetoothGattService> services)
+    {
+        List<Service> snapshot = new ArrayList<>();
+        if (services != null)
+        {
+            for (BluetoothGattService service : services)
+            {
+                List<Characteristic> characteristics = new ArrayList<>();
+                for (BluetoothGattCharacteristic characteristic : service.getCharacteristics())
+                {
+                    List<UUID> descriptorUuids = new ArrayList<>();
+                    for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors())
+                    {
+                        descriptorUuids.add(descriptor.getUuid());
+                    }
+                    characteristics.add(new Characteristic(characteristic.getUuid(),
+                            characteristic.getInstanceId(),
+                            characteristic.getProperties(),
+                            characteristic.getPermissions(),
+                            descriptorUuids));
+                }
+                snapshot.add(new Service(service.getUuid(),
+                        service.getInstanceId(),
+                        service.getType(),
+                        characteristics));
+            }
+        }
+        return new FooGattDatabase(snapshot);
+    }
+
+    /**
+     * @param input the source, positioned at data written by {@link #writeTo(DataOutput)}
+     * @return the database read from {@code input}
+     * @throws IOException if reading fails, or the data is not a database or is from an unsupported version
+     */
+    @NonNull
+    public static FooGattDatabase readFrom(@NonNull DataInput input)
+            throws IOException
+    {
+        if (input.readInt() != MAGIC)
+        {
+            throw new IOException("not a FooGattDatabase");
+        }
+        int version = input.readInt();
+        if (version != VERSION)
+        {
+            throw new IOException("unsupported FooGattDatabase version " + version);
+        }
+
+        int serviceCount = readCount(input);
+        List<Service> services = new ArrayList<>(serviceCount);
+        for (int i = 0; i < serviceCount; i++)
+        {
+            UUID serviceUuid = readUuid(input);
+            int serviceInstanceId = input.readInt();
+            int serviceType = input.readInt();
+
+            int characteristicCount = readCount(input);
+            List<Characteristic> characteristics = new ArrayList<>(characteristicCount);
+            for (int j = 0; j < characteristicCount; j++)
+            {
+                UUID characteristicUuid = readUuid(input);
+                int characteristicInstanceId = input.readInt();
+                int properties = input.readInt();
+                int permissions = input.readInt();
+
+                int descriptorCount = readCount(input);
+                List<UUID> descriptorUuids = new ArrayList<>(descriptorCount);
+                for (int k = 0; k < descriptorCount; k++)
+                {
+                    descriptorUuids.add(readUuid(input));
+                }
+
+                characteristics.add(new Characteristic(characteristicUuid, characteristicInstanceId,
+                        properties, permissions, descriptorUuids));
+            }
+
+            services.add(new Service(serviceUuid, serviceInstanceId, serviceType, characteristics));
+        }
+
+        return new FooGattDatabase(services);
+    }
+
+    /**
+     * A GATT database has at most 65535 attributes, so any larger count means the data is corrupt
+     */
+    private static int readCount(DataInput input)
+            throws IOException
+    {
+        int count = input.readInt();
+        if (count < 0 || count > 0xFFFF)
+        {
+            throw new IOException("invalid count " + count);
+        }
+        return count;
+    }
+
+    private static UUID readUuid(DataInput input)
+            throws IOException
+    {
+        long mostSignificantBits = input.readLong();
+        long leastSignificantBits = input.readLong();
+        return new UUID(mostSignificantBits, leastSignificantBits);
+    }
+
+    private static void writeUuid(DataOutput output, UUID uuid)
+            throws IOException
+    {
+        output.writeLong(uuid.getMostSignificantBits());
+        output.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private final List<Service> mServices;
+
+    FooGattDatabase(@NonNull List<Service> services)
+    {
+        mServices = Collections.unmodifiableList(new ArrayList<>(services));
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ mServices=" + mServices +
+               " }";
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        return this == o || (o instanceof FooGattDatabase && mServices.equals(((FooGattDatabase) o).mServices));
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return mServices.hashCode();
+    }
+
+    public List<Service> getServices()
+    {
+        return mServices;
+    }
+
+    /**
+     * @param serviceUuid UUID of the service
+     * @return the first matching service, or null if not present
+     */
+    public Service getService(UUID serviceUuid)
+    {
+        for (Service service : mServices)
+        {
+            if (service.mUuid.equals(serviceUuid))
+            {
+                return service;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param serviceUuid        UUID of the service
+     * @param characteristicUuid UUID of the characteristic
+     * @return the first matching characteristic of the first matching service, or null if not present
+     */
+    public Characteristic getCharacteristic(UUID serviceUuid, UUID characteristicUuid)
+    {
+        Service service = getService(serviceUuid);
+        return service != null ? service.getCharacteristic(characteristicUuid) : null;
+    }
+
+    /**
+     * @param serviceUuid        UUID of the service
+     * @param characteristicUuid UUID of the characteristic
+     * @return true if the characteristic is present
+     */
+    public boolean hasCharacteristic(UUID serviceUuid, UUID characteristicUuid)
+    {
+        return getCharacteristic(serviceUuid, characteristicUuid) != null;
+    }
+
+    /**
+     * @param output the destination
+     * @throws IOException if writing fails
+     */
+    public void writeTo(@NonNull DataOutput output)
+            throws IOException
+    {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+
+        output.writeInt(mServices.size());
+        for (Service service : mServices)
+        {
+            writeUuid(output, service.mUuid);
+            output.writeInt(service.mInstanceId);
+            output.writeInt(service.mType);
+
+            output.writeInt(service.mCharacteristics.size());
+            for (Characteristic characteristic : service.mCharacteristics)
+            {
+                writeUuid(output, characteristic.mUuid);
+                output.writeInt(characteristic.mInstanceId);
+                output.writeInt(characteristic.mProperties);
+                output.writeInt(characteristic.mPermissions);
+
+                output.writeInt(characteristic.mDescriptorUuids.size());
+                for (UUID descriptorUuid : characteristic.mDescriptorUuids)
+                {
+                    writeUuid(output, descriptorUuid);
+                }
+            }
+        }
+    }
+}
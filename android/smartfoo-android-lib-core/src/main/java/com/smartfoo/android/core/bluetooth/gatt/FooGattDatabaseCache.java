@@ -0,0 +1,263 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.FooRun;
+import com.smartfoo.android.core.collections.FooLongSparseArray;
+import com.smartfoo.android.core.logging.FooLog;
+import com.smartfoo.android.core.platform.FooSerialExecutor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * Memory and disk cache of each device's last discovered {@link FooGattDatabase}, keyed by the device's long
+ * address.
+ *
+ * <p>{@link #get(long)} only looks in memory and never blocks; call {@link #load(long)} ahead of time to read a
+ * device's entry from disk. Loads, writes and deletes are applied to disk in order on a serial sub-queue of the
+ * given executor, which should be dedicated to this cache; writes and deletes are applied to memory immediately.
+ * Each file is written to a temporary file and renamed into place, so a crash never leaves a half-written entry.
+ * Unreadable entries are deleted and reported as not cached.</p>
+ */
+class FooGattDatabaseCache
+{
+    private static final String TAG = FooLog.TAG(FooGattDatabaseCache.class);
+
+    private static final String FILE_EXTENSION      = ".gattdb";
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+    /**
+     * Remembers that there is no file for an address, so repeated misses do not hit the disk
+     */
+    private static final FooGattDatabase NOT_CACHED = new FooGattDatabase(Collections.<FooGattDatabase.Service>emptyList());
+
+    private final File                                mDirectory;
+    private final FooSerialExecutor                   mExecutorDisk;
+    /**
+     * synchronized behind mDatabases
+     */
+    private final FooLongSparseArray<FooGattDatabase> mDatabases;
+    /**
+     * Incremented by {@link #clear()}, so a load that read a file before the clear deleted it is discarded
+     * <p>
+     * synchronized behind mDatabases
+     */
+    private int                                       mGeneration;
+
+    /**
+     * @param directory the directory to keep the cache files in; created when first written to
+     * @param executor  the executor to read from and write to disk on; must not be null, and should not be one
+     *                  that must not block
+     */
+    FooGattDatabaseCache(@NonNull File directory, @NonNull Executor executor)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(directory, "directory");
+        FooRun.throwIllegalArgumentExceptionIfNull(executor, "executor");
+
+        mDirectory = directory;
+        mExecutorDisk = new FooSerialExecutor("FooGattDatabaseCache", executor);
+        mDatabases = new FooLongSparseArray<>();
+    }
+
+    private File getFile(long deviceAddress)
+    {
+        return new File(mDirectory, String.format(Locale.US, "%012x", deviceAddress) + FILE_EXTENSION);
+    }
+
+    /**
+     * Reads the device's entry from disk into memory in the background, unless it is already in memory.
+     *
+     * @param deviceAddress the device's long address
+     */
+    void load(final long deviceAddress)
+    {
+        final int generation;
+        synchronized (mDatabases)
+        {
+            if (mDatabases.get(deviceAddress) != null)
+            {
+                return;
+            }
+            generation = mGeneration;
+        }
+
+        mExecutorDisk.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                synchronized (mDatabases)
+                {
+                    if (generation != mGeneration || mDatabases.get(deviceAddress) != null)
+                    {
+                        return;
+                    }
+                }
+
+                FooGattDatabase database = read(getFile(deviceAddress));
+
+                synchronized (mDatabases)
+                {
+                    // A put, remove or clear may have happened while reading
+                    if (generation != mGeneration || mDatabases.get(deviceAddress) != null)
+                    {
+                        return;
+                    }
+                    mDatabases.put(deviceAddress, database != null ? database : NOT_CACHED);
+                }
+            }
+        });
+    }
+
+    /**
+     * Never touches the disk.
+     *
+     * @param deviceAddress the device's long address
+     * @return the device's cached database, or null if none or if {@link #load(long)} has not finished yet
+     */
+    FooGattDatabase get(long deviceAddress)
+    {
+        FooGattDatabase database;
+        synchronized (mDatabases)
+        {
+            database = mDatabases.get(deviceAddress);
+        }
+        return database != NOT_CACHED ? database : null;
+    }
+
+    /**
+     * @param deviceAddress the device's long address
+     * @param database      the device's database; must not be null
+     */
+    void put(final long deviceAddress, @NonNull final FooGattDatabase database)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(database, "database");
+
+        synchronized (mDatabases)
+        {
+            mDatabases.put(deviceAddress, database);
+        }
+
+        mExecutorDisk.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                write(getFile(deviceAddress), database);
+            }
+        });
+    }
+
+    /**
+     * @param deviceAddress the device's long address
+     */
+    void remove(final long deviceAddress)
+    {
+        synchronized (mDatabases)
+        {
+            mDatabases.put(deviceAddress, NOT_CACHED);
+        }
+
+        mExecutorDisk.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                delete(getFile(deviceAddress));
+            }
+        });
+    }
+
+    /**
+     * Removes every device's database from memory and disk.
+     */
+    void clear()
+    {
+        synchronized (mDatabases)
+        {
+            mDatabases.clear();
+            mGeneration++;
+        }
+
+        mExecutorDisk.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                File[] files = mDirectory.listFiles();
+                if (files == null)
+                {
+                    return;
+                }
+                for (File file : files)
+                {
+                    delete(file);
+                }
+            }
+        });
+    }
+
+    private static FooGattDatabase read(File file)
+    {
+        if (!file.isFile())
+        {
+            return null;
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            return FooGattDatabase.readFrom(input);
+        }
+        catch (IOException e)
+        {
+            FooLog.w(TAG, "read: failed to read " + file + "; deleting", e);
+            delete(file);
+            return null;
+        }
+    }
+
+    private void write(File file, FooGattDatabase database)
+    {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs())
+        {
+            FooLog.w(TAG, "write: failed to create " + mDirectory);
+            return;
+        }
+
+        File tempFile = new File(file.getPath() + TEMP_FILE_EXTENSION);
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile))))
+        {
+            database.writeTo(output);
+        }
+        catch (IOException e)
+        {
+            FooLog.w(TAG, "write: failed to write " + tempFile, e);
+            delete(tempFile);
+            return;
+        }
+
+        if (!tempFile.renameTo(file))
+        {
+            FooLog.w(TAG, "write: failed to rename " + tempFile + " to " + file);
+            delete(tempFile);
+        }
+    }
+
+    private static void delete(File file)
+    {
+        if (file.exists() && !file.delete())
+        {
+            FooLog.w(TAG, "delete: failed to delete " + file);
+        }
+    }
+}
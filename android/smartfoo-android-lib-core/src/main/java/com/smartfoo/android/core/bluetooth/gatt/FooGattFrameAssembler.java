@@ -0,0 +1,570 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.FooRun;
+import com.smartfoo.android.core.bluetooth.gatt.FooGattSubscription.FooGattSubscriptionCallbacks;
+import com.smartfoo.android.core.collections.FooByteRingBuffer;
+import com.smartfoo.android.core.logging.FooLog;
+
+/**
+ * Reassembles messages that a peripheral sends split across several notifications.
+ *
+ * <p>Fragments are appended to a {@link FooByteRingBuffer}, the only copy made of them; a {@link Framer} finds
+ * frame boundaries in place, and each complete frame's payload is handed to
+ * {@link FooGattFrameAssemblerCallbacks#onFrame} as a range of the ring's own array. Only a frame that
+ * straddles the end of the ring is copied again, into a scratch buffer, so that it can be handed over in one
+ * piece. Bytes a framer cannot make sense of are reported through
+ * {@link FooGattFrameAssemblerCallbacks#onFramingError} and discarded until it finds a frame again.</p>
+ *
+ * <p>An assembler is also a {@link FooGattSubscriptionCallbacks}, so it can be passed straight to
+ * {@link FooGattHandler#subscribe}; it then starts over, dropping any partial frame, every time the
+ * subscription is (re-)enabled. Otherwise feed it with {@link #append(byte[], int, int)}, for example from
+ * {@link FooGattHandler.GattHandlerListener#onDeviceCharacteristicChanged(FooGattHandler, FooGattNotification)}.</p>
+ *
+ * <p>Not thread-safe; feed it from one thread, such as the handler's callback thread.</p>
+ */
+public class FooGattFrameAssembler
+        implements FooGattSubscriptionCallbacks
+{
+    private static final String TAG = FooLog.TAG(FooGattFrameAssembler.class);
+
+    /**
+     * Finds frame boundaries at the start of the buffered bytes.
+     */
+    public interface Framer
+    {
+        /**
+         * Returned by {@link #frameLength(FooByteRingBuffer)} while a frame is incomplete
+         */
+        int NEED_MORE_DATA = 0;
+
+        /**
+         * @param ring the buffered bytes; must not be modified
+         * @return the length of the complete frame at the start of {@code ring}, header and trailer included;
+         * {@link #NEED_MORE_DATA}; or, if the bytes at the start of {@code ring} are not a valid frame, minus the
+         * number of them to discard before trying again
+         */
+        int frameLength(@NonNull FooByteRingBuffer ring);
+
+        /**
+         * @return the number of bytes at the start of every frame that are not part of its payload
+         */
+        int getHeaderLength();
+
+        /**
+         * @return the number of bytes at the end of every frame that are not part of its payload
+         */
+        int getTrailerLength();
+
+        /**
+         * @return the length of the longest valid frame, header and trailer included
+         */
+        int getMaxFrameLength();
+
+        /**
+         * Forgets any state kept between calls to {@link #frameLength(FooByteRingBuffer)}.
+         */
+        void reset();
+    }
+
+    /**
+     * Frames that start with their payload length as an unsigned integer.
+     */
+    public static class LengthPrefixFramer
+            implements Framer
+    {
+        private final int     mLengthSize;
+        private final boolean mIsBigEndian;
+        private final boolean mIsLengthIncludingHeader;
+        private final int     mMaxPayloadLength;
+
+        /**
+         * @param lengthSize              the size of the length field: 1, 2 or 4 bytes
+         * @param isBigEndian             true if the length field is big-endian
+         * @param isLengthIncludingHeader true if the length counts the length field itself
+         * @param maxPayloadLength        the longest valid payload; longer lengths are framing errors
+         */
+        public LengthPrefixFramer(int lengthSize,
+                                  boolean isBigEndian,
+                                  boolean isLengthIncludingHeader,
+                                  int maxPayloadLength)
+        {
+            if (lengthSize != 1 && lengthSize != 2 && lengthSize != 4)
+            {
+                throw new IllegalArgumentException("lengthSize must be 1, 2 or 4");
+            }
+            if (maxPayloadLength < 0)
+            {
+                throw new IllegalArgumentException("maxPayloadLength must be >= 0");
+            }
+
+            mLengthSize = lengthSize;
+            mIsBigEndian = isBigEndian;
+            mIsLengthIncludingHeader = isLengthIncludingHeader;
+            mMaxPayloadLength = maxPayloadLength;
+        }
+
+        @Override
+        public int frameLength(@NonNull FooByteRingBuffer ring)
+        {
+            if (ring.size() < mLengthSize)
+            {
+                return NEED_MORE_DATA;
+            }
+
+            long length = 0;
+            for (int i = 0; i < mLengthSize; i++)
+            {
+                int b = ring.peek(mIsBigEndian ? i : mLengthSize - 1 - i);
+                length = (length << 8) | b;
+            }
+
+            long payloadLength = mIsLengthIncludingHeader ? length - mLengthSize : length;
+            if (payloadLength < 0 || payloadLength > mMaxPayloadLength)
+            {
+                // Not a length; slide one byte and look again
+                return -1;
+            }
+
+            int frameLength = mLengthSize + (int) payloadLength;
+            return ring.size() >= frameLength ? frameLength : NEED_MORE_DATA;
+        }
+
+        @Override
+        public int getHeaderLength()
+        {
+            return mLengthSize;
+        }
+
+        @Override
+        public int getTrailerLength()
+        {
+            return 0;
+        }
+
+        @Override
+        public int getMaxFrameLength()
+        {
+            return mLengthSize + mMaxPayloadLength;
+        }
+
+        @Override
+        public void reset()
+        {
+        }
+    }
+
+    /**
+     * Frames that end with a delimiter byte, which is not part of the payload.
+     */
+    public static class DelimiterFramer
+            implements Framer
+    {
+        private final byte mDelimiter;
+        private final int  mMaxPayloadLength;
+
+        /**
+         * How far {@link #frameLength(FooByteRingBuffer)} has already searched
+         */
+        private int     mScanned;
+        /**
+         * True after a frame too long; bytes are discarded through the next delimiter
+         */
+        private boolean mIsResyncing;
+
+        /**
+         * @param delimiter        the byte that ends every frame
+         * @param maxPayloadLength the longest valid payload; a longer run without a delimiter is a framing
+         *                         error
+         */
+        public DelimiterFramer(byte delimiter, int maxPayloadLength)
+        {
+            if (maxPayloadLength < 0)
+            {
+                throw new IllegalArgumentException("maxPayloadLength must be >= 0");
+            }
+
+            mDelimiter = delimiter;
+            mMaxPayloadLength = maxPayloadLength;
+        }
+
+        @Override
+        public int frameLength(@NonNull FooByteRingBuffer ring)
+        {
+            int size = ring.size();
+            int delimiter = mDelimiter & 0xFF;
+            for (int i = mScanned; i < size; i++)
+            {
+                if (ring.peek(i) == delimiter)
+                {
+                    mScanned = 0;
+                    if (mIsResyncing || i > mMaxPayloadLength)
+                    {
+                        // Resynced, or the whole over-long frame arrived at once; discard it with its delimiter
+                        mIsResyncing = false;
+                        return -(i + 1);
+                    }
+                    return i + 1;
+                }
+            }
+
+            if (mIsResyncing)
+            {
+                mScanned = 0;
+                return size > 0 ? -size : NEED_MORE_DATA;
+            }
+
+            if (size > mMaxPayloadLength)
+            {
+                mScanned = 0;
+                mIsResyncing = true;
+                return -size;
+            }
+
+            mScanned = size;
+            return NEED_MORE_DATA;
+        }
+
+        @Override
+        public int getHeaderLength()
+        {
+            return 0;
+        }
+
+        @Override
+        public int getTrailerLength()
+        {
+            return 1;
+        }
+
+        @Override
+        public int getMaxFrameLength()
+        {
+            return mMaxPayloadLength + 1;
+        }
+
+        @Override
+        public void reset()
+        {
+            mScanned = 0;
+            mIsResyncing = false;
+        }
+    }
+
+    /**
+     * Frames of one fixed length, with no header or trailer.
+     */
+    public static class FixedLengthFramer
+            implements Framer
+    {
+        private final int mFrameLength;
+
+        /**
+         * @param frameLength the length of every frame; must be positive
+         */
+        public FixedLengthFramer(int frameLength)
+        {
+            if (frameLength <= 0)
+            {
+                throw new IllegalArgumentException("frameLength must be > 0");
+            }
+
+            mFrameLength = frameLength;
+        }
+
+        @Override
+        public int frameLength(@NonNull FooByteRingBuffer ring)
+        {
+            return ring.size() >= mFrameLength ? mFrameLength : NEED_MORE_DATA;
+        }
+
+        @Override
+        public int getHeaderLength()
+        {
+            return 0;
+        }
+
+        @Override
+        public int getTrailerLength()
+        {
+            return 0;
+        }
+
+        @Override
+        public int getMaxFrameLength()
+        {
+            return mFrameLength;
+        }
+
+        @Override
+        public void reset()
+        {
+        }
+    }
+
+    /**
+     * Callbacks for reassembled frames. Invoked on the thread that appended the last fragment.
+     */
+    public interface FooGattFrameAssemblerCallbacks
+    {
+        /**
+         * @param assembler the assembler
+         * @param buffer    holds the payload; only valid until this method returns
+         * @param offset    the index of the payload's first byte in {@code buffer}
+         * @param length    the payload's length
+         */
+        void onFrame(@NonNull FooGattFrameAssembler assembler, @NonNull byte[] buffer, int offset, int length);
+
+        /**
+         * Called once per run of consecutive bytes discarded while appending a fragment, however many steps the
+         * framer took to get past them.
+         *
+         * @param assembler       the assembler
+         * @param discardedLength the number of bytes discarded to get back in sync
+         */
+        void onFramingError(@NonNull FooGattFrameAssembler assembler, int discardedLength);
+    }
+
+    private final Framer                         mFramer;
+    private final FooGattFrameAssemblerCallbacks mCallbacks;
+    private final FooByteRingBuffer              mRing;
+
+    private byte[] mScratch;
+    private long   mFrameCount;
+    private long   mFramingErrorCount;
+    private long   mDiscardedByteCount;
+
+    /**
+     * Uses a ring twice the framer's {@link Framer#getMaxFrameLength()}.
+     *
+     * @param framer    finds the frames; must not be null
+     * @param callbacks receives the frames; must not be null
+     */
+    public FooGattFrameAssembler(@NonNull Framer framer, @NonNull FooGattFrameAssemblerCallbacks callbacks)
+    {
+        this(framer, 2 * framer.getMaxFrameLength(), callbacks);
+    }
+
+    /**
+     * @param framer    finds the frames; must not be null
+     * @param capacity  the ring's size in bytes; at least the framer's {@link Framer#getMaxFrameLength()}. A
+     *                  bigger ring means fewer frames straddle its end and have to be copied again.
+     * @param callbacks receives the frames; must not be null
+     */
+    public FooGattFrameAssembler(@NonNull Framer framer,
+                                 int capacity,
+                                 @NonNull FooGattFrameAssemblerCallbacks callbacks)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(framer, "framer");
+
+        FooRun.throwIllegalArgumentExceptionIfNull(callbacks, "callbacks");
+
+        if (capacity < framer.getMaxFrameLength() || capacity <= 0)
+        {
+            throw new IllegalArgumentException("capacity must be > 0 and >= framer.getMaxFrameLength()");
+        }
+
+        mFramer = framer;
+        mCallbacks = callbacks;
+        mRing = new FooByteRingBuffer(capacity);
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ mFramer=" + mFramer +
+               ", mRing=" + mRing +
+               ", mFrameCount=" + mFrameCount +
+               ", mFramingErrorCount=" + mFramingErrorCount +
+               ", mDiscardedByteCount=" + mDiscardedByteCount +
+               " }";
+    }
+
+    @SuppressWarnings("unused")
+    public Framer getFramer()
+    {
+        return mFramer;
+    }
+
+    /**
+     * @return the number of bytes of an incomplete frame waiting for more fragments
+     */
+    public int getBufferedLength()
+    {
+        return mRing.size();
+    }
+
+    /**
+     * @return the number of frames delivered
+     */
+    public long getFrameCount()
+    {
+        return mFrameCount;
+    }
+
+    /**
+     * @return the number of times bytes were discarded to resync
+     */
+    public long getFramingErrorCount()
+    {
+        return mFramingErrorCount;
+    }
+
+    /**
+     * @return the total number of bytes discarded to resync
+     */
+    public long getDiscardedByteCount()
+    {
+        return mDiscardedByteCount;
+    }
+
+    /**
+     * Drops any partial frame, for example after a reconnect.
+     */
+    public void reset()
+    {
+        if (!mRing.isEmpty())
+        {
+            FooLog.w(TAG, "reset: dropping " + mRing.size() + " buffered bytes");
+        }
+        mRing.clear();
+        mFramer.reset();
+    }
+
+    /**
+     * Appends one fragment and delivers every frame it completes.
+     *
+     * @param value the fragment; must not be null
+     */
+    public void append(@NonNull byte[] value)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(value, "value");
+
+        append(value, 0, value.length);
+    }
+
+    /**
+     * Appends one fragment and delivers every frame it completes.
+     *
+     * @param value  holds the fragment; must not be null
+     * @param offset the index of the fragment's first byte in {@code value}
+     * @param length the fragment's length
+     */
+    public void append(@NonNull byte[] value, int offset, int length)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(value, "value");
+
+        while (true)
+        {
+            int written = mRing.write(value, offset, length);
+            offset += written;
+            length -= written;
+
+            deliverFrames();
+
+            if (length == 0)
+            {
+                return;
+            }
+        }
+    }
+
+    private void deliverFrames()
+    {
+        // Consecutive discards are one framing error, e.g. a framer that slides one byte at a time
+        int discardedLength = 0;
+        while (!mRing.isEmpty())
+        {
+            int frameLength = mFramer.frameLength(mRing);
+
+            if (frameLength == Framer.NEED_MORE_DATA)
+            {
+                if (mRing.isFull())
+                {
+                    // Only a framer that breaks its own getMaxFrameLength() gets here
+                    discardedLength += mRing.size();
+                    mRing.clear();
+                    mFramer.reset();
+                }
+                break;
+            }
+
+            if (frameLength < 0)
+            {
+                int length = Math.min(-frameLength, mRing.size());
+                mRing.skip(length);
+                discardedLength += length;
+                continue;
+            }
+
+            onDiscarded(discardedLength);
+            discardedLength = 0;
+
+            int payloadLength = frameLength - mFramer.getHeaderLength() - mFramer.getTrailerLength();
+
+            byte[] buffer;
+            int offset;
+            if (mRing.isContiguous(frameLength))
+            {
+                buffer = mRing.getArray();
+                offset = mRing.getReadIndex() + mFramer.getHeaderLength();
+            }
+            else
+            {
+                if (mScratch == null || mScratch.length < payloadLength)
+                {
+                    mScratch = new byte[mRing.capacity()];
+                }
+                mRing.peek(mFramer.getHeaderLength(), mScratch, 0, payloadLength);
+                buffer = mScratch;
+                offset = 0;
+            }
+
+            mFrameCount++;
+            try
+            {
+                mCallbacks.onFrame(this, buffer, offset, payloadLength);
+            }
+            finally
+            {
+                mRing.skip(frameLength);
+            }
+        }
+
+        onDiscarded(discardedLength);
+    }
+
+    private void onDiscarded(int length)
+    {
+        if (length == 0)
+        {
+            return;
+        }
+
+        mFramingErrorCount++;
+        mDiscardedByteCount += length;
+
+        mCallbacks.onFramingError(this, length);
+    }
+
+    //
+    // FooGattSubscriptionCallbacks
+    //
+
+    @Override
+    public void onGattSubscriptionEnabled(@NonNull FooGattSubscription subscription, boolean success)
+    {
+        // A new connection; whatever was buffered will never be completed
+        reset();
+    }
+
+    @Override
+    public void onGattSubscriptionNotification(@NonNull FooGattSubscription subscription,
+                                               @NonNull FooGattNotification notification)
+    {
+        append(notification.getValue());
+    }
+}
@@ -4,17 +4,15 @@ import android.Manifest;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.os.Handler;
-import android.os.Looper;
 import android.os.Message;
-import android.os.Process;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.RequiresPermission;
 
 import com.smartfoo.android.core.BuildConfig;
@@ -22,18 +20,35 @@ import com.smartfoo.android.core.FooListenerManager;
 import com.smartfoo.android.core.FooRun;
 import com.smartfoo.android.core.FooString;
 import com.smartfoo.android.core.bluetooth.FooBluetoothUtils;
+import com.smartfoo.android.core.bluetooth.gatt.FooGattBulkTransfer.FooGattBulkTransferCallbacks;
 import com.smartfoo.android.core.bluetooth.gatt.FooGattHandler.GattHandlerListener.DisconnectReason;
 import com.smartfoo.android.core.bluetooth.gatt.FooGattHandler.GattHandlerListener.GattOperation;
+import com.smartfoo.android.core.bluetooth.gatt.FooGattReadTransaction.FooGattReadTransactionCallbacks;
+import com.smartfoo.android.core.bluetooth.gatt.FooGattRequest.FooGattRequestCallbacks;
+import com.smartfoo.android.core.bluetooth.gatt.FooGattRequest.Priority;
+import com.smartfoo.android.core.bluetooth.gatt.FooGattRequest.State;
+import com.smartfoo.android.core.bluetooth.gatt.FooGattSubscription.FooGattSubscriptionCallbacks;
+import com.smartfoo.android.core.bluetooth.gatt.FooL2capChannel.FooL2capChannelCallbacks;
 import com.smartfoo.android.core.logging.FooLog;
 import com.smartfoo.android.core.platform.FooHandler;
-import com.smartfoo.android.core.platform.FooHandlerThread;
+import com.smartfoo.android.core.platform.FooSerialExecutor;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class FooGattHandler
 {
@@ -74,6 +89,22 @@ public class FooGattHandler
     @SuppressWarnings("WeakerAccess")
     public static final int DEFAULT_DISCONNECT_TIMEOUT_MILLIS = 250;
 
+    /**
+     * The ATT MTU every LE connection starts with, before any MTU exchange
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static final int DEFAULT_MTU = 23;
+
+    /**
+     * Value for {@link #setNotificationBatching(long)} that delivers every notification on its own
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static final long NOTIFICATION_BATCHING_DISABLED = -1;
+    /**
+     * Bytes of each ATT packet used by the Write Command opcode and attribute handle
+     */
+    private static final int ATT_WRITE_HEADER_LENGTH = 3;
+
     private static int sDefaultConnectTimeoutMillis    = DEFAULT_CONNECT_TIMEOUT_MILLIS;
     private static int sDefaultOperationTimeoutMillis  = DEFAULT_OPERATION_TIMEOUT_MILLIS;
     private static int sDefaultDisconnectTimeoutMillis = DEFAULT_DISCONNECT_TIMEOUT_MILLIS;
@@ -164,6 +195,10 @@ public class FooGattHandler
             CharacteristicWrite,
             CharacteristicSetNotification,
             ReadRemoteRssi,
+            CharacteristicBulkWrite,
+            RequestMtu,
+            RequestConnectionPriority,
+            SetPreferredPhy,
         }
 
         /**
@@ -217,6 +252,46 @@ public class FooGattHandler
             return false;
         }
 
+        /**
+         * Called after {@link #onDeviceDisconnected} each time {@link FooGattHandler#getReconnector() the
+         * reconnect engine} schedules an attempt.
+         *
+         * @param gattHandler
+         * @param attempt     the attempt number within the current outage, starting at 1
+         * @param delayMillis the delay before the attempt is made
+         * @param autoConnect true if the attempt will use {@code autoConnect=true}
+         * @return true to stop reconnecting, false to let the attempt go ahead
+         */
+        public boolean onDeviceReconnectScheduled(FooGattHandler gattHandler, int attempt, long delayMillis, boolean autoConnect)
+        {
+            return false;
+        }
+
+        /**
+         * Called after {@link #onDeviceServicesDiscovered} when a connection lost unexpectedly has been
+         * restored.
+         *
+         * @param gattHandler
+         * @param attempts              the number of attempts it took
+         * @param timeToReconnectMillis the time from the disconnect to services being discovered again
+         * @return true to forcibly disconnect, false to not forcibly disconnect
+         */
+        public boolean onDeviceReconnected(FooGattHandler gattHandler, int attempts, long timeToReconnectMillis)
+        {
+            return false;
+        }
+
+        /**
+         * Called when the {@link FooGattReconnectPolicy}'s attempt budget runs out without a reconnect.
+         *
+         * @param gattHandler
+         * @param attempts      the number of attempts made
+         * @param elapsedMillis the time since the disconnect
+         */
+        public void onDeviceReconnectGaveUp(FooGattHandler gattHandler, int attempts, long elapsedMillis)
+        {
+        }
+
         /**
          * @param gattHandler
          * @param services
@@ -229,6 +304,23 @@ public class FooGattHandler
             return false;
         }
 
+        /**
+         * Called just before {@link #onDeviceServicesDiscovered} when the discovered layout differs from
+         * the one cached from a previous discovery. By the time this is called, every queued operation on a
+         * characteristic that no longer exists has been {@link FooGattRequest.State#Canceled canceled}, and
+         * the cache has been updated.
+         *
+         * @param gattHandler
+         * @param previous    the layout that was cached, and that {@link FooGattHandler#getCachedDatabase()}
+         *                    returned while connecting
+         * @param current     the layout just discovered
+         * @return true to forcibly disconnect, false to not forcibly disconnect
+         */
+        public boolean onDeviceGattDatabaseChanged(FooGattHandler gattHandler, FooGattDatabase previous, FooGattDatabase current)
+        {
+            return false;
+        }
+
         /**
          * @param gattHandler
          * @param characteristic
@@ -266,6 +358,9 @@ public class FooGattHandler
         }
 
         /**
+         * Prefer {@link #onDeviceCharacteristicChanged(FooGattHandler, FooGattNotification)}: by the time this
+         * is called the OS may already have replaced {@code characteristic}'s value with a later one.
+         *
          * @param gattHandler
          * @param characteristic
          * @return true to forcibly disconnect, false to not forcibly disconnect
@@ -275,6 +370,41 @@ public class FooGattHandler
             return false;
         }
 
+        /**
+         * Defaults to calling {@link #onDeviceCharacteristicChanged(FooGattHandler, BluetoothGattCharacteristic)}.
+         *
+         * @param gattHandler
+         * @param notification the characteristic and the exact value it was notified with; pooled, so only
+         *                     valid until this method returns
+         * @return true to forcibly disconnect, false to not forcibly disconnect
+         */
+        public boolean onDeviceCharacteristicChanged(FooGattHandler gattHandler, FooGattNotification notification)
+        {
+            return onDeviceCharacteristicChanged(gattHandler, notification.getCharacteristic());
+        }
+
+        /**
+         * Called instead of {@link #onDeviceCharacteristicChanged(FooGattHandler, FooGattNotification)} while
+         * {@link FooGattHandler#setNotificationBatching(long) notification batching} is enabled.
+         * Defaults to calling {@link #onDeviceCharacteristicChanged(FooGattHandler, FooGattNotification)} for
+         * each notification in order.
+         *
+         * @param gattHandler
+         * @param notifications the notifications received since the previous batch, oldest first; the list and
+         *                      its notifications are reused, so only valid until this method returns
+         * @return true to forcibly disconnect, false to not forcibly disconnect
+         */
+        public boolean onDeviceCharacteristicsChanged(FooGattHandler gattHandler, List<FooGattNotification> notifications)
+        {
+            boolean disconnect = false;
+            //noinspection ForLoopReplaceableByForEach
+            for (int i = 0, size = notifications.size(); i < size; i++)
+            {
+                disconnect |= onDeviceCharacteristicChanged(gattHandler, notifications.get(i));
+            }
+            return disconnect;
+        }
+
         /**
          * @param gattHandler
          * @param rssi
@@ -286,6 +416,125 @@ public class FooGattHandler
         {
             return false;
         }
+
+        /**
+         * @param gattHandler
+         * @param mtu           the MTU now in effect; may be less than requested
+         * @param success       if false, the connection is kept and the previous MTU remains in effect
+         * @param elapsedMillis
+         * @return true to forcibly disconnect, false to not forcibly disconnect
+         */
+        public boolean onDeviceMtuChanged(FooGattHandler gattHandler, int mtu, boolean success, long elapsedMillis)
+        {
+            return false;
+        }
+
+        /**
+         * The OS reports no result for a connection priority request beyond whether it was accepted, so this
+         * is called as soon as the request is handed to the controller.
+         *
+         * @param gattHandler
+         * @param connectionPriority one of the {@code BluetoothGatt.CONNECTION_PRIORITY_*} values
+         * @param success            if false, the connection is kept
+         * @param elapsedMillis
+         * @return true to forcibly disconnect, false to not forcibly disconnect
+         */
+        public boolean onDeviceConnectionPriorityRequested(FooGattHandler gattHandler, int connectionPriority, boolean success, long elapsedMillis)
+        {
+            return false;
+        }
+
+        /**
+         * @param gattHandler
+         * @param txPhy         the transmitter PHY now in use; may differ from the one requested
+         * @param rxPhy         the receiver PHY now in use; may differ from the one requested
+         * @param success       if false, the connection is kept
+         * @param elapsedMillis
+         * @return true to forcibly disconnect, false to not forcibly disconnect
+         */
+        public boolean onDevicePhyUpdated(FooGattHandler gattHandler, int txPhy, int rxPhy, boolean success, long elapsedMillis)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * A (service UUID, characteristic UUID) pair, for per-characteristic bookkeeping
+     */
+    private static class CharacteristicKey
+    {
+        private final UUID mServiceUuid;
+        private final UUID mCharacteristicUuid;
+
+        private CharacteristicKey(@NonNull UUID serviceUuid, @NonNull UUID characteristicUuid)
+        {
+            mServiceUuid = serviceUuid;
+            mCharacteristicUuid = characteristicUuid;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof CharacteristicKey))
+            {
+                return false;
+            }
+            CharacteristicKey other = (CharacteristicKey) o;
+            return mCharacteristicUuid.equals(other.mCharacteristicUuid) && mServiceUuid.equals(other.mServiceUuid);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * mServiceUuid.hashCode() + mCharacteristicUuid.hashCode();
+        }
+    }
+
+    /**
+     * A characteristic read that is queued or executing, and how many {@link FooGattReadTransaction}s wait on it
+     */
+    private static class InFlightRead
+    {
+        private final FooGattRequest mRequest;
+        /**
+         * Only reads queued by {@link #readMany} may be canceled when nobody waits on them anymore
+         */
+        private final boolean        mIsCancelable;
+        private       int            mTransactionCount;
+
+        private InFlightRead(FooGattRequest request, boolean isCancelable)
+        {
+            mRequest = request;
+            mIsCancelable = isCancelable;
+        }
+    }
+
+    /**
+     * The {@link FooGattSubscription}s to one characteristic, and the descriptor write that enables it
+     * <p>
+     * synchronized behind mSubscriptionGroups
+     */
+    private static class SubscriptionGroup
+    {
+        private final CharacteristicKey                        mKey;
+        private final CharacteristicNotificationDescriptorType mType;
+        /**
+         * Replaced, never modified, so that notifications can be dispatched without holding the lock
+         */
+        private volatile FooGattSubscription[]                 mSubscriptions;
+        private FooGattRequest                                 mEnableRequest;
+        private boolean                                        mIsEnabled;
+
+        private SubscriptionGroup(CharacteristicKey key, CharacteristicNotificationDescriptorType type)
+        {
+            mKey = key;
+            mType = type;
+            mSubscriptions = new FooGattSubscription[0];
+        }
     }
 
     private final FooGattManager                          mGattManager;
@@ -293,37 +542,86 @@ public class FooGattHandler
     private final long                                    mDeviceAddressLong;
     private final String                                  mDeviceAddressString;
     /**
-     * NOTE: All calls to GattHandlerListener methods should be inside mHandlerMain's Looper thread
+     * NOTE: All calls to GattHandlerListener methods should be made on mCallbackExecutor
      */
     private final FooListenerManager<GattHandlerListener> mListenerManager;
+    /**
+     * Internal timeouts, and listener callbacks while {@link CallbackThread#Looper} is selected
+     */
     private final FooHandler                              mHandlerMain;
     /**
-     * NOTE(pv): I do not believe that there is any real benefit to using a
-     * {@link java.util.concurrent.ScheduledExecutorService} over a background Handler.<br>
-     * {@link Handler#post(Runnable)} is arguably more efficient than {@link ScheduledThreadPoolExecutor#submit(Runnable)}.<br>
-     * The only operation *scheduled* is a disconnect timeout, which doesn't happen very often.<br>
-     * The only real benefit of an ExecutorService is to use a ThreadPool (ex: if GattManager wants to control LOTS of
-     * devices).<br>
-     * However, <b>posted/submitted Runnables still need to run in serial per device</b>, so this may <b>greatly</b>
-     * complicate this class if submitting to a ThreadPool capable of multiple concurrent threads.
+     * This device's serial sub-queue on the {@link FooGattManager}'s bounded background executor.
+     * <p>
+     * Tasks run one at a time and in order, but not always on the same thread. Nothing executed here may
+     * block: operations are started by {@link #mOperationQueue} and completed by
+     * {@link #mBackgroundGattCallbacks} or a timeout, so a few threads can serve any number of
+     * devices.
      */
-    private final FooHandler                              mHandlerBackground;
+    private final FooSerialExecutor                       mExecutorBackground;
     private final BluetoothAdapter                        mBluetoothAdapter;
+    /**
+     * Connect and DiscoverServices start times; all other operations are timed by their {@link FooGattRequest}.
+     * <p>
+     * Concurrent: started from the caller and binder threads, read and removed by whichever thread completes
+     */
     private final Map<GattOperation, Long>                mStartTimes;
-    private final AutoResetEvent                          mBackgroundPendingOperationSignal;
-    private final BluetoothGattCallback                   mBackgroundBluetoothGattCallback;
+    /**
+     * The newest queued or executing read of each characteristic, for {@link #readMany} to join.
+     * <p>
+     * synchronized behind itself
+     */
+    private final Map<CharacteristicKey, InFlightRead>    mInFlightReads;
+    /**
+     * synchronized behind itself
+     */
+    private final Map<CharacteristicKey, SubscriptionGroup> mSubscriptionGroups;
+    /**
+     * synchronized behind itself
+     */
+    private final List<FooL2capChannel>                   mL2capChannels;
+    private final FooGattOperationQueue                   mOperationQueue;
+    private final FooGattTransport.Callbacks              mBackgroundGattCallbacks;
+    private final FooGattReconnector                      mReconnector;
+    private final FooGattMetrics                          mMetrics;
+    private final FooGattTrace                            mTrace;
+    /**
+     * Lock-free stack of notifications waiting for the next batch, newest first, linked through
+     * {@link FooGattNotification#mNext}
+     */
+    private final AtomicReference<FooGattNotification>    mPendingNotifications;
+    /**
+     * Only accessed on mCallbackExecutor
+     */
+    private final List<FooGattNotification>               mNotificationBatch;
+    private final Runnable                                mDeliverPendingNotificationsRunnable;
+    private final Runnable                                mScheduledDeliverPendingNotificationsRunnable;
 
-    private int mBackgroundThreadId;
+    /**
+     * Snapshot of mSubscriptionGroups' values, replaced whenever a group is added or removed, for
+     * {@link #dispatchToSubscriptions(FooGattNotification)}
+     */
+    private volatile SubscriptionGroup[] mSubscriptionGroupArray = new SubscriptionGroup[0];
 
     /**
      * synchronized behind mGattManager
      */
-    private BluetoothGatt mBluetoothGatt;
+    private FooGattTransport mGatt;
     /**
      * synchronized behind mGattManager
      */
     private boolean       mIsSolicitedDisconnecting;
 
+    private volatile int                       mMtu = DEFAULT_MTU;
+    private volatile FooGattServiceIndex       mServiceIndex;
+    private volatile FooGattDatabase           mCachedDatabase;
+    private volatile FooGattPerformanceProfile mPerformanceProfile;
+    private volatile long                      mNotificationBatchIntervalMillis = NOTIFICATION_BATCHING_DISABLED;
+    private volatile CallbackThread            mCallbackThread;
+    /**
+     * Always serial, so that listeners see callbacks in the order they happened
+     */
+    private volatile Executor                  mCallbackExecutor;
+
     //package
     FooGattHandler(FooGattManager gattManager, long deviceAddress)
     {
@@ -349,63 +647,107 @@ public class FooGattHandler
             }
         });
 
-        FooHandlerThread handlerThreadBackground = new FooHandlerThread(
-                "\"" + mDeviceAddressString + "\".mHandlerBackground");
-        handlerThreadBackground.start();
-        mBackgroundThreadId = handlerThreadBackground.getThreadId();
-        Looper looperBackground = handlerThreadBackground.getLooper();
-        mHandlerBackground = new FooHandler(looperBackground);
+        mExecutorBackground = new FooSerialExecutor(mDeviceAddressString + ".mExecutorBackground",
+                mGattManager.getBackgroundExecutor());
 
         mBluetoothAdapter = FooBluetoothUtils.getBluetoothAdapter(mContext);
 
-        mStartTimes = new HashMap<>();
+        mReconnector = new FooGattReconnector(this);
+        mMetrics = new FooGattMetrics(mGattManager.getMetrics());
+        mTrace = new FooGattTrace(deviceAddress, FooGattTrace.DEFAULT_CAPACITY);
+
+        mStartTimes = new ConcurrentHashMap<>();
+        mInFlightReads = new HashMap<>();
+        mSubscriptionGroups = new HashMap<>();
+        mL2capChannels = new ArrayList<>();
+        mPendingNotifications = new AtomicReference<>();
+        mNotificationBatch = new ArrayList<>();
+        mDeliverPendingNotificationsRunnable = new Runnable()
+        {
+            @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+            @Override
+            public void run()
+            {
+                deliverPendingNotifications();
+            }
+        };
+        mScheduledDeliverPendingNotificationsRunnable = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mCallbackExecutor.execute(mDeliverPendingNotificationsRunnable);
+            }
+        };
+
+        setCallbackThread(CallbackThread.Looper);
 
-        mBackgroundPendingOperationSignal = new AutoResetEvent();
+        mOperationQueue = new FooGattOperationQueue(this, mExecutorBackground, mGattManager.getTimeoutExecutor());
 
-        mBackgroundBluetoothGattCallback = new BluetoothGattCallback()
+        mBackgroundGattCallbacks = new FooGattTransport.Callbacks()
         {
             @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
             @Override
-            public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState)
+            public void onConnectionStateChange(FooGattTransport gatt, int status, int newState)
             {
                 FooGattHandler.this.onConnectionStateChange(gatt, status, newState);
             }
 
             @Override
-            public void onServicesDiscovered(BluetoothGatt gatt, int status)
+            public void onServicesDiscovered(FooGattTransport gatt, int status)
             {
                 FooGattHandler.this.onServicesDiscovered(gatt, status);
             }
 
             @Override
-            public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status)
+            public void onCharacteristicRead(FooGattTransport gatt, BluetoothGattCharacteristic characteristic, int status)
             {
                 FooGattHandler.this.onCharacteristicRead(gatt, characteristic, status);
             }
 
             @Override
-            public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status)
+            public void onCharacteristicWrite(FooGattTransport gatt, BluetoothGattCharacteristic characteristic, int status)
             {
                 FooGattHandler.this.onCharacteristicWrite(gatt, characteristic, status);
             }
 
             @Override
-            public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status)
+            public void onDescriptorWrite(FooGattTransport gatt, BluetoothGattDescriptor descriptor, int status)
             {
                 FooGattHandler.this.onDescriptorWrite(gatt, descriptor, status);
             }
 
             @Override
-            public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic)
+            public void onCharacteristicChanged(@NonNull FooGattTransport gatt,
+                                                @NonNull BluetoothGattCharacteristic characteristic,
+                                                @NonNull byte[] value)
             {
-                FooGattHandler.this.onCharacteristicChanged(gatt, characteristic);
+                FooGattHandler.this.onCharacteristicChanged(gatt, characteristic, value);
             }
 
             @Override
-            public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status)
+            public void onReadRemoteRssi(FooGattTransport gatt, int rssi, int status)
             {
                 FooGattHandler.this.onReadRemoteRssi(gatt, rssi, status);
             }
+
+            @Override
+            public void onMtuChanged(FooGattTransport gatt, int mtu, int status)
+            {
+                FooGattHandler.this.onMtuChanged(gatt, mtu, status);
+            }
+
+            @Override
+            public void onPhyUpdate(FooGattTransport gatt, int txPhy, int rxPhy, int status)
+            {
+                FooGattHandler.this.onPhyUpdate(gatt, txPhy, rxPhy, status);
+            }
+
+            @Override
+            public void onServiceChanged(@NonNull FooGattTransport gatt)
+            {
+                FooGattHandler.this.onServiceChanged(gatt);
+            }
         };
     }
 
@@ -425,23 +767,18 @@ public class FooGattHandler
     }
 
     /**
-     * Returns true if the Bluetooth adapter is present and currently enabled.
-     * Logs a warning and returns false if the adapter is null or disabled.
+     * Returns true if the Bluetooth adapter is present and currently enabled, or, if the manager was given
+     * another {@link FooGattTransport.Factory}, if that factory is enabled.
+     * Logs a warning and returns false otherwise.
      *
      * @param callerName a label used in log messages to identify the calling method
      * @return true if the Bluetooth adapter is enabled
      */
     public boolean isBluetoothAdapterEnabled(String callerName)
     {
-        if (mBluetoothAdapter == null)
-        {
-            FooLog.w(TAG, logPrefix(callerName + ": mBluetoothAdapter == null; ignoring"));
-            return false;
-        }
-
-        if (!mBluetoothAdapter.isEnabled())
+        if (!mGattManager.getTransportFactory().isEnabled())
         {
-            FooLog.w(TAG, logPrefix(callerName + ": mBluetoothAdapter.isEnabled() == false; ignoring"));
+            FooLog.w(TAG, logPrefix(callerName + ": transportFactory.isEnabled() == false; ignoring"));
             return false;
         }
 
@@ -474,11 +811,11 @@ public class FooGattHandler
      * Returns the {@link BluetoothDevice} for the remote device if a GATT connection is active
      * and not in the process of disconnecting.
      *
-     * @return the device, or null if not connected
+     * @return the device, or null if not connected or connected through a {@link FooGattSimulator}
      */
     public BluetoothDevice getBluetoothDevice()
     {
-        BluetoothGatt gatt = getBluetoothGatt(true);
+        FooGattTransport gatt = getGatt(true);
         return gatt != null ? gatt.getDevice() : null;
     }
 
@@ -497,14 +834,23 @@ public class FooGattHandler
     @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
     void close(boolean remove)
     {
-        synchronized (mGattManager)
+        try
         {
-            if (remove)
+            synchronized (mGattManager)
             {
-                mGattManager.removeGattHandler(this);
-            }
+                if (remove)
+                {
+                    mGattManager.removeGattHandler(this);
+                }
 
-            disconnect();
+                mReconnector.cancel();
+
+                disconnect();
+            }
+        }
+        finally
+        {
+            runDeferredCallbacks();
         }
     }
 
@@ -515,7 +861,55 @@ public class FooGattHandler
 
     private boolean isBackgroundThread()
     {
-        return mBackgroundThreadId == Process.myTid();
+        return mExecutorBackground.isCurrentThread();
+    }
+
+    /**
+     * @param runnable runs on this device's serial background executor; must not block
+     */
+    //package
+    void executeBackground(Runnable runnable)
+    {
+        mExecutorBackground.execute(runnable);
+    }
+
+    /**
+     * @param runnable    runs on this device's serial background executor after {@code delayMillis}; must not
+     *                    block
+     * @param delayMillis the delay in milliseconds
+     * @return the scheduled task, to cancel if it is no longer needed
+     */
+    //package
+    ScheduledFuture<?> scheduleBackground(final Runnable runnable, long delayMillis)
+    {
+        return mGattManager.getTimeoutExecutor().schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mExecutorBackground.execute(runnable);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param runnable runs on the same executor as, and in order with, the {@link GattHandlerListener} callbacks
+     */
+    //package
+    void executeCallback(Runnable runnable)
+    {
+        mCallbackExecutor.execute(runnable);
+    }
+
+    /**
+     * Returns the number of operations queued or executing on this handler.
+     *
+     * @return the operation queue depth
+     */
+    @SuppressWarnings("unused")
+    public int getOperationQueueDepth()
+    {
+        return mOperationQueue.getDepth();
     }
 
     /**
@@ -539,7 +933,7 @@ public class FooGattHandler
     private boolean internalIsConnectingOrConnectedAndNotDisconnecting(String callerName, String logSuffixIfTrue)
     {
         //FooLog.e(TAG, "isConnectingOrConnectedAndNotDisconnecting(callerName=" + callerName + ')');
-        if (getBluetoothGatt(true) == null)
+        if (getGatt(true) == null)
         {
             return false;
         }
@@ -577,7 +971,7 @@ public class FooGattHandler
     private boolean internalIsDisconnectingOrDisconnected(String callerName, String logSuffixIfTrue)
     {
         //FooLog.e(TAG, "isConnectingOrConnectedAndNotDisconnecting(callerName=" + callerName + ')');
-        if (getBluetoothGatt(false) != null)
+        if (getGatt(false) != null)
         {
             return false;
         }
@@ -605,17 +999,28 @@ public class FooGattHandler
      */
     public boolean isDisconnected()
     {
-        return getBluetoothGatt(false) == null;
+        return getGatt(false) == null;
+    }
+
+    //package
+    FooGattTransport getConnectedGatt(String callerName)
+    {
+        FooGattTransport gatt = getGatt(true);
+        if (gatt == null)
+        {
+            FooLog.w(TAG, logPrefix(callerName + ": getGatt(true) == null; ignoring"));
+        }
+        return gatt;
     }
 
-    private BluetoothGatt getBluetoothGatt(boolean onlyIfConnectingOrConnectedAndNotDisconnecting)
+    private FooGattTransport getGatt(boolean onlyIfConnectingOrConnectedAndNotDisconnecting)
     {
-        //FooLog.e(TAG, "getBluetoothGatt(onlyIfConnectingOrConnectedAndNotDisconnecting=" +
+        //FooLog.e(TAG, "getGatt(onlyIfConnectingOrConnectedAndNotDisconnecting=" +
         //             onlyIfConnectingOrConnectedAndNotDisconnecting + ')');
         synchronized (mGattManager)
         {
-            //FooLog.e(TAG, "getBluetoothGatt: mBluetoothGatt=" + mBluetoothGatt);
-            BluetoothGatt gatt = mBluetoothGatt;
+            //FooLog.e(TAG, "getBluetoothGatt: mGatt=" + mGatt);
+            FooGattTransport gatt = mGatt;
             if (gatt != null)
             {
                 //FooLog.e(TAG, "getBluetoothGatt: mIsSolicitedDisconnecting=" + mIsSolicitedDisconnecting);
@@ -713,7 +1118,7 @@ public class FooGattHandler
     }
 
     /**
-     * Initiates a GATT connection and executes {@code runAfterConnect} on the main looper once
+     * Initiates a GATT connection and executes {@code runAfterConnect} on the callback thread once
      * services have been successfully discovered.
      *
      * @param runAfterConnect optional runnable to post after a successful connection and service
@@ -764,7 +1169,7 @@ public class FooGattHandler
      *
      * @param autoConnect     true to use the OS background auto-connect mechanism
      * @param timeoutMillis   maximum time in milliseconds to wait for service discovery
-     * @param runAfterConnect optional runnable to post on the main looper after success; may be null
+     * @param runAfterConnect optional runnable to run on the callback thread after success; may be null
      * @return true if already connecting/connected and not disconnecting, or if the connect
      *         request was enqueued; false if the adapter is disabled or the request could not be
      *         enqueued
@@ -785,70 +1190,80 @@ public class FooGattHandler
             return true;
         }
 
-        final GattOperation operation = GattOperation.DiscoverServices;
+        // Read any cached database now, off the operation queue, so connect.start only has to look in memory
+        mGattManager.getGattDatabaseCache().load(mDeviceAddressLong);
 
-        final long startTimeMillis = timerStart(GattOperation.Connect);
+        timerStart(GattOperation.Connect);
 
-        mHandlerBackground.post(new Runnable()
+        //
+        // NOTE: Some Gatt operations, especially connecting, can take "up to" (meaning "over") 30 seconds, per:
+        //  http://stackoverflow.com/a/18889509/252308
+        //  http://e2e.ti.com/support/wireless_connectivity/f/538/p/281081/985950#985950
+        //
+        // The connect request stays at the head of the queue until services are discovered, so any operation
+        // enqueued while connecting runs only after the connection is usable.
+        //
+        mOperationQueue.enqueue(new FooGattRequest(GattOperation.DiscoverServices, null, null, timeoutMillis, runAfterConnect)
         {
+            @Override
+            boolean requiresConnection()
+            {
+                return false;
+            }
+
             @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
-            public void run()
+            @Override
+            boolean start(FooGattTransport ignored)
             {
                 try
                 {
-                    FooLog.v(TAG, logPrefix("+connect.run(): autoConnect=" + autoConnect +
+                    FooLog.v(TAG, logPrefix("+connect.start(): autoConnect=" + autoConnect +
                                             ", timeoutMillis=" + timeoutMillis));
 
-                    if (ignoreIfIsConnectingOrConnectedAndNotDisconnecting("connect.run"))
+                    if (ignoreIfIsConnectingOrConnectedAndNotDisconnecting("connect.start"))
                     {
-                        return;
+                        mOperationQueue.complete(this, State.Canceled);
+                        return true;
                     }
 
-                    BluetoothDevice bluetoothDevice = mBluetoothAdapter.getRemoteDevice(mDeviceAddressString);
+                    // Before onDeviceConnecting, so listeners can queue operations against the known layout
+                    mCachedDatabase = mGattManager.getGattDatabaseCache().get(mDeviceAddressLong);
 
                     onDeviceConnecting();
 
-                    //
-                    // NOTE: Some Gatt operations, especially connecting, can take "up to" (meaning "over") 30 seconds, per:
-                    //  http://stackoverflow.com/a/18889509/252308
-                    //  http://e2e.ti.com/support/wireless_connectivity/f/538/p/281081/985950#985950
-                    //
-
-                    mBackgroundPendingOperationSignal.reset(startTimeMillis);
-
-                    synchronized (mGattManager)
+                    FooGattTransport gatt;
+                    try
                     {
-                        //
-                        // NOTE:(pv) mBluetoothGatt is only set here and in #onDeviceDisconnected
-                        //
-                        FooLog.v(TAG, logPrefix("connect.run: +bluetoothDevice.connectGatt(...)"));
-                        BluetoothGattCompat bluetoothGattCompat = new BluetoothGattCompat(mContext);
-                        mBluetoothGatt = bluetoothGattCompat.connectGatt(bluetoothDevice, autoConnect, mBackgroundBluetoothGattCallback);
-                        FooLog.v(TAG, logPrefix("connect.run: -bluetoothDevice.connectGatt(...) returned " +
-                                                mBluetoothGatt));
+                        synchronized (mGattManager)
+                        {
+                            //
+                            // NOTE:(pv) mGatt is only set here and in #onDeviceDisconnected
+                            //
+                            FooLog.v(TAG, logPrefix("connect.start: +transportFactory.connectGatt(...)"));
+                            FooGattTransport.Factory transportFactory = mGattManager.getTransportFactory();
+                            mGatt = transportFactory.connectGatt(mDeviceAddressString, autoConnect, mBackgroundGattCallbacks);
+                            gatt = mGatt;
+                            FooLog.v(TAG, logPrefix("connect.start: -transportFactory.connectGatt(...) returned " +
+                                                    gatt));
+                        }
                     }
-
-                    if (mBluetoothGatt == null)
+                    finally
                     {
-                        FooLog.w(TAG, logPrefix("connect.run: bluetoothDevice.connectGatt(...) failed"));
-                        onDeviceDisconnected(null, -1, DisconnectReason.ConnectFailed, false);
+                        // A transport may call back before connectGatt returns
+                        runDeferredCallbacks();
                     }
-                    else
-                    {
-                        if (!pendingOperationWait(operation, timeoutMillis))
-                        {
-                            return;
-                        }
 
-                        if (runAfterConnect != null)
-                        {
-                            runAfterConnect.run();
-                        }
+                    if (gatt == null)
+                    {
+                        FooLog.w(TAG, logPrefix("connect.start: transportFactory.connectGatt(...) failed"));
+                        return false;
                     }
+
+                    return true;
                 }
                 finally
                 {
-                    FooLog.v(TAG, logPrefix("-connect.run(): autoConnect=" + autoConnect +
+                    FooLog.v(TAG, logPrefix("-connect.start(): autoConnect=" + autoConnect +
                                             ", timeoutMillis=" + timeoutMillis));
                 }
             }
@@ -887,9 +1302,12 @@ public class FooGattHandler
 
             synchronized (mGattManager)
             {
-                if (mBluetoothGatt == null)
+                if (mGatt == null)
                 {
-                    FooLog.w(TAG, logPrefix("disconnect: mBluetoothGatt == null; ignoring"));
+                    // Between reconnect attempts there is nothing to disconnect but the attempts themselves
+                    mReconnector.cancel();
+
+                    FooLog.w(TAG, logPrefix("disconnect: mGatt == null; ignoring"));
                     return false;
                 }
 
@@ -900,12 +1318,12 @@ public class FooGattHandler
                 }
 
                 //
-                // To be safe, always disconnect from the same mHandlerBackground thread that the connection was made on
+                // To be safe, always disconnect from the same mExecutorBackground that the connection was made on
                 //
                 if (!isBackgroundThread())
                 {
-                    FooLog.v(TAG, logPrefix("disconnect: isBackgroundThread() == false; posting disconnect() to mHandlerBackground;"));
-                    mHandlerBackground.post(new Runnable()
+                    FooLog.v(TAG, logPrefix("disconnect: isBackgroundThread() == false; posting disconnect() to mExecutorBackground;"));
+                    mExecutorBackground.execute(new Runnable()
                     {
                         @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
                         public void run()
@@ -918,9 +1336,9 @@ public class FooGattHandler
 
                 mIsSolicitedDisconnecting = true;
 
-                mBackgroundPendingOperationSignal.cancel();
+                mOperationQueue.cancelAll();
 
-                if (FooGattUtils.safeDisconnect("disconnect(timeoutMillis=" + timeoutMillis + ')', mBluetoothGatt))
+                if (FooGattUtils.safeDisconnect("disconnect(timeoutMillis=" + timeoutMillis + ')', mGatt))
                 {
                     //
                     // Timeout is needed since BluetoothGatt#disconnect() doesn't always call onConnectionStateChange(..., newState=STATE_DISCONNECTED)
@@ -929,7 +1347,7 @@ public class FooGattHandler
                 }
                 else
                 {
-                    onDeviceDisconnected(mBluetoothGatt, -1, DisconnectReason.SolicitedDisconnect, true);
+                    onDeviceDisconnected(mGatt, -1, DisconnectReason.SolicitedDisconnect, true);
                 }
             }
 
@@ -937,6 +1355,8 @@ public class FooGattHandler
         }
         finally
         {
+            runDeferredCallbacks();
+
             FooLog.i(TAG, logPrefix("-disconnect(timeoutMillis=" + timeoutMillis + ')'));
         }
     }
@@ -945,13 +1365,13 @@ public class FooGattHandler
      * Consolidates logic for solicited connect failed, solicited disconnect success, solicited disconnect timeout, and
      * unsolicited disconnect.
      *
-     * @param gatt              BluetoothGatt
+     * @param gatt              FooGattTransport
      * @param status            int
      * @param reason            DisconnectReason
      * @param logStatusAndState boolean
      */
     @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
-    private void onDeviceDisconnected(BluetoothGatt gatt,
+    private void onDeviceDisconnected(FooGattTransport gatt,
                                       final int status,
                                       final DisconnectReason reason,
                                       boolean logStatusAndState)
@@ -960,63 +1380,78 @@ public class FooGattHandler
                                 ", reason=" + reason +
                                 ", logStatusAndState=" + logStatusAndState + ')'));
 
-        synchronized (mGattManager)
+        try
         {
-            if (mBluetoothGatt == null)
+            synchronized (mGattManager)
             {
-                FooLog.w(TAG, logPrefix("onDeviceDisconnected: mBluetoothGatt == null; ignoring"));
-                return;
-            }
+                if (mGatt == null)
+                {
+                    FooLog.w(TAG, logPrefix("onDeviceDisconnected: mGatt == null; ignoring"));
+                    return;
+                }
 
-            // Only set here and in #connect
-            mBluetoothGatt = null;
+                // Only set here and in #connect
+                mGatt = null;
 
-            final int elapsedMillis = (int) timerElapsed(GattOperation.Connect, true);
+                final int elapsedMillis = (int) timerElapsed(GattOperation.Connect, true);
 
-            mBackgroundPendingOperationSignal.cancel();
+                mOperationQueue.cancelAll();
 
-            mHandlerMain.removeMessages(HandlerMainMessages.SolicitedDisconnectInternalTimeout);
+                resetSubscriptions();
 
-            mStartTimes.clear();
+                closeL2capChannels();
 
-            if (logStatusAndState)
-            {
-                logStatusIfNotSuccess("onDeviceDisconnected", status, null);
-            }
+                mHandlerMain.removeMessages(HandlerMainMessages.SolicitedDisconnectInternalTimeout);
 
-            mIsWaitingForCharacteristicSetNotification = false;
+                mStartTimes.clear();
 
-            // Only set here and in #disconnect
-            mIsSolicitedDisconnecting = false;
+                if (logStatusAndState)
+                {
+                    logStatusIfNotSuccess("onDeviceDisconnected", status, null);
+                }
 
-            FooGattUtils.safeClose("onDeviceDisconnected", gatt);
+                // Only set here and in #disconnect
+                mIsSolicitedDisconnecting = false;
 
-            mHandlerMain.post(new Runnable()
-            {
-                @Override
-                public void run()
+                mMtu = DEFAULT_MTU;
+
+                mServiceIndex = null;
+
+                FooGattUtils.safeClose("onDeviceDisconnected", gatt);
+
+                mCallbackExecutor.execute(new Runnable()
                 {
-                    if (mBluetoothGatt != null)
+                    @Override
+                    public void run()
                     {
-                        FooLog.w(TAG, logPrefix("onDeviceDisconnected: mBluetoothGatt != null; ignoring"));
-                        return;
-                    }
+                        if (mGatt != null)
+                        {
+                            FooLog.w(TAG, logPrefix("onDeviceDisconnected: mGatt != null; ignoring"));
+                            return;
+                        }
 
-                    FooLog.d(TAG, logPrefix("onDeviceDisconnected: +deviceListener(s).onDeviceDisconnected"));
-                    for (GattHandlerListener deviceListener : mListenerManager.beginTraversing())
-                    {
-                        if (deviceListener.onDeviceDisconnected(FooGattHandler.this,
-                                status,
-                                reason,
-                                elapsedMillis))
+                        FooLog.d(TAG, logPrefix("onDeviceDisconnected: +deviceListener(s).onDeviceDisconnected"));
+                        for (GattHandlerListener deviceListener : mListenerManager.beginTraversing())
                         {
-                            removeListener(deviceListener);
+                            if (deviceListener.onDeviceDisconnected(FooGattHandler.this,
+                                    status,
+                                    reason,
+                                    elapsedMillis))
+                            {
+                                removeListener(deviceListener);
+                            }
                         }
+                        mListenerManager.endTraversing();
+                        FooLog.d(TAG, logPrefix("onDeviceDisconnected: -deviceListener(s).onDeviceDisconnected"));
                     }
-                    mListenerManager.endTraversing();
-                    FooLog.d(TAG, logPrefix("onDeviceDisconnected: -deviceListener(s).onDeviceDisconnected"));
-                }
-            });
+                });
+            }
+
+            mReconnector.onDeviceDisconnected(reason);
+        }
+        finally
+        {
+            runDeferredCallbacks();
         }
     }
 
@@ -1071,16 +1506,18 @@ public class FooGattHandler
      * https://android.googlesource.com/platform/external/bluetooth/bluedroid/+/master/stack/include/gatt_api.h
      * ...not that they are very descriptive or helpful or anything like that! :/
      * <p/>
-     * See {@link BluetoothGattCallback#onConnectionStateChange(BluetoothGatt, int, int)}
+     * See {@link FooGattTransport.Callbacks#onConnectionStateChange(FooGattTransport, int, int)}
      */
     @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
-    private void onConnectionStateChange(BluetoothGatt gatt, int status, int newState)
+    private void onConnectionStateChange(FooGattTransport gatt, int status, int newState)
     {
         String newStateString = FooGattUtils.bluetoothProfileStateToString(newState);
 
         FooLog.v(TAG, logPrefix("onConnectionStateChange(gatt, status=" + status +
                                 ", newState=" + newStateString + ')'));
 
+        mTrace.recordConnectionState(status, newState);
+
         //noinspection UnusedAssignment
         final int DEBUG_FAKE_STATUS_ERROR = BluetoothGatt.GATT_SUCCESS;
         //noinspection ConstantConditions
@@ -1130,11 +1567,18 @@ public class FooGattHandler
         FooLog.d(TAG, logPrefix("onConnectionStateChange: disconnect=" + disconnect));
         if (disconnect)
         {
-            synchronized (mGattManager)
+            try
+            {
+                synchronized (mGattManager)
+                {
+                    DisconnectReason reason = mIsSolicitedDisconnecting ?
+                            DisconnectReason.SolicitedDisconnect : DisconnectReason.UnsolicitedDisconnect;
+                    onDeviceDisconnected(gatt, status, reason, logStatus);
+                }
+            }
+            finally
             {
-                DisconnectReason reason = mIsSolicitedDisconnecting ?
-                        DisconnectReason.SolicitedDisconnect : DisconnectReason.UnsolicitedDisconnect;
-                onDeviceDisconnected(gatt, status, reason, logStatus);
+                runDeferredCallbacks();
             }
         }
     }
@@ -1143,7 +1587,7 @@ public class FooGattHandler
                                           final long timeoutMillis,
                                           final long elapsedMillis)
     {
-        mHandlerMain.post(new Runnable()
+        mCallbackExecutor.execute(new Runnable()
         {
             @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
             @Override
@@ -1173,7 +1617,7 @@ public class FooGattHandler
 
     private void onDeviceConnecting()
     {
-        mHandlerMain.post(new Runnable()
+        mCallbackExecutor.execute(new Runnable()
         {
             @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
             @Override
@@ -1200,7 +1644,7 @@ public class FooGattHandler
     {
         final long elapsedMillis = timerElapsed(GattOperation.Connect, false);
 
-        mHandlerMain.post(new Runnable()
+        mCallbackExecutor.execute(new Runnable()
         {
             @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
             @Override
@@ -1224,14 +1668,19 @@ public class FooGattHandler
         });
     }
 
-    private void onServicesDiscovered(BluetoothGatt gatt, int status)
+    private void onServicesDiscovered(FooGattTransport gatt, int status)
     {
         FooLog.v(TAG, logPrefix("onServicesDiscovered(gatt, status=" + status + ')'));
 
-        int elapsedMillis = (int) timerElapsed(GattOperation.DiscoverServices, true);
-
         logStatusIfNotSuccess("onServicesDiscovered", status, null);
 
+        FooGattRequest request = mOperationQueue.getCurrent(GattOperation.DiscoverServices);
+        if (request == null)
+        {
+            FooLog.w(TAG, logPrefix("onServicesDiscovered: no DiscoverServices request executing; ignoring"));
+            return;
+        }
+
         boolean success = status == BluetoothGatt.GATT_SUCCESS;
 
         List<BluetoothGattService> services;
@@ -1245,19 +1694,133 @@ public class FooGattHandler
             services = gatt.getServices();
         }
 
-        onDeviceServicesDiscovered(services, success, elapsedMillis);
+        request.setResult(status, services);
+
+        if (success)
+        {
+            mServiceIndex = new FooGattServiceIndex(services);
+
+            verifyCachedDatabase(FooGattDatabase.fromServices(services));
+
+            // The connect request; a service-changed rediscovery runs on an existing connection
+            if (!request.requiresConnection())
+            {
+                // Queued ahead of anything the caller enqueues in response to the connect completing
+                applyPerformanceProfile();
+                resubscribe();
+            }
+        }
+
+        mOperationQueue.complete(request, success ? State.Succeeded : State.Failed);
+
+        if (success && !request.requiresConnection())
+        {
+            mReconnector.onDeviceServicesDiscovered();
+        }
     }
 
-    private void onDeviceServicesDiscovered(final List<BluetoothGattService> services,
-                                            final boolean success,
-                                            final long elapsedMillis)
+    /**
+     * Compares a discovery result with the cached layout, and updates the cache if they differ. If a cached
+     * layout was stale, operations queued against it on characteristics that no longer exist are canceled
+     * instead of being left to fail, which would disconnect.
+     *
+     * @param database the layout just discovered
+     */
+    private void verifyCachedDatabase(FooGattDatabase database)
     {
-        if (!pendingOperationWaitSignal())
+        FooGattDatabase cachedDatabase = mCachedDatabase;
+        if (database.equals(cachedDatabase))
+        {
+            return;
+        }
+
+        mCachedDatabase = database;
+        mGattManager.getGattDatabaseCache().put(mDeviceAddressLong, database);
+
+        if (cachedDatabase == null)
         {
-            FooLog.w(TAG, logPrefix("onDeviceServicesDiscovered: pendingOperationWaitSignal() == false; ignoring"));
             return;
         }
 
+        FooLog.w(TAG, logPrefix("verifyCachedDatabase: discovered layout differs from cached layout"));
+
+        onDeviceGattDatabaseChanged(cachedDatabase, database);
+
+        for (FooGattRequest request : mOperationQueue.getPending())
+        {
+            UUID serviceUuid = request.getServiceUuid();
+            UUID characteristicUuid = request.getCharacteristicUuid();
+            if (serviceUuid != null && characteristicUuid != null &&
+                !database.hasCharacteristic(serviceUuid, characteristicUuid))
+            {
+                FooLog.w(TAG, logPrefix("verifyCachedDatabase: canceling " + request +
+                                        "; characteristic no longer exists"));
+                request.cancel();
+            }
+        }
+    }
+
+    private void onDeviceGattDatabaseChanged(final FooGattDatabase previous, final FooGattDatabase current)
+    {
+        mCallbackExecutor.execute(new Runnable()
+        {
+            @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+            @Override
+            public void run()
+            {
+                boolean disconnect = false;
+
+                for (GattHandlerListener deviceListener : mListenerManager.beginTraversing())
+                {
+                    disconnect |= deviceListener.onDeviceGattDatabaseChanged(FooGattHandler.this,
+                            previous,
+                            current);
+                }
+                mListenerManager.endTraversing();
+
+                FooLog.v(TAG, logPrefix("onDeviceGattDatabaseChanged: disconnect=" + disconnect));
+                if (disconnect)
+                {
+                    disconnect();
+                }
+            }
+        });
+    }
+
+    /**
+     * The peripheral's database changed; every cached service, characteristic and handle is stale until
+     * services are discovered again.
+     */
+    private void onServiceChanged(@SuppressWarnings("unused") FooGattTransport gatt)
+    {
+        FooLog.w(TAG, logPrefix("onServiceChanged(gatt); invalidating service index and rediscovering services"));
+
+        mServiceIndex = null;
+
+        mOperationQueue.enqueue(new FooGattRequest(GattOperation.DiscoverServices, null, null,
+                sDefaultOperationTimeoutMillis, null)
+        {
+            @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+            @Override
+            boolean start(FooGattTransport gatt)
+            {
+                timerStart(GattOperation.DiscoverServices);
+
+                if (!gatt.discoverServices())
+                {
+                    FooLog.e(TAG, logPrefix("rediscoverServices.start: gatt.discoverServices() failed"));
+                    return false;
+                }
+
+                return true;
+            }
+        });
+    }
+
+    private void onDeviceServicesDiscovered(final List<BluetoothGattService> services,
+                                            final boolean success,
+                                            final long elapsedMillis)
+    {
         //noinspection PointlessBooleanExpression,ConstantConditions
         if (false && DEBUG)
         {
@@ -1273,7 +1836,7 @@ public class FooGattHandler
             }
         }
 
-        mHandlerMain.post(new Runnable()
+        mCallbackExecutor.execute(new Runnable()
         {
             @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
             public void run()
@@ -1303,6 +1866,166 @@ public class FooGattHandler
     //
     //
 
+    /**
+     * The layout of this device as last discovered, here or in an earlier session, by way of the
+     * {@link FooGattManager}'s cache. It is loaded when a connect starts, before
+     * {@link GattHandlerListener#onDeviceConnecting}, so callers can queue operations on a known device
+     * right away instead of waiting for {@link GattHandlerListener#onDeviceServicesDiscovered}; queued
+     * operations run once services are discovered. Service discovery always runs, and if the layout turns
+     * out to have changed the cache is updated and
+     * {@link GattHandlerListener#onDeviceGattDatabaseChanged} is called.
+     *
+     * @return the device's last known layout, or null if it has never been discovered
+     */
+    @SuppressWarnings("unused")
+    public FooGattDatabase getCachedDatabase()
+    {
+        return mCachedDatabase;
+    }
+
+    /**
+     * @return the index of the current connection's discovered services, or null if services have not been
+     * discovered since the last connect or service change
+     */
+    //package
+    FooGattServiceIndex getServiceIndex()
+    {
+        return mServiceIndex;
+    }
+
+    /**
+     * Resolves a characteristic once so that later operations on it can skip the lookup.
+     *
+     * @param serviceUuid        UUID of the service that contains the characteristic; must not be null
+     * @param characteristicUuid UUID of the characteristic; must not be null
+     * @return a handle, or null if services have not been discovered or do not contain the characteristic
+     */
+    @SuppressWarnings("unused")
+    public FooGattCharacteristicHandle getCharacteristicHandle(@NonNull UUID serviceUuid,
+                                                               @NonNull UUID characteristicUuid)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(serviceUuid, "serviceUuid");
+
+        FooRun.throwIllegalArgumentExceptionIfNull(characteristicUuid, "characteristicUuid");
+
+        FooGattServiceIndex serviceIndex = mServiceIndex;
+        if (serviceIndex == null)
+        {
+            FooLog.w(TAG, logPrefix("getCharacteristicHandle: services not discovered; ignoring"));
+            return null;
+        }
+
+        BluetoothGattCharacteristic characteristic = serviceIndex.get(serviceUuid, characteristicUuid);
+        if (characteristic == null)
+        {
+            FooLog.w(TAG, logPrefix("getCharacteristicHandle: characteristic " + characteristicUuid +
+                                    " not found in service " + serviceUuid));
+            return null;
+        }
+
+        return new FooGattCharacteristicHandle(this, serviceIndex, serviceUuid, characteristicUuid, characteristic);
+    }
+
+    /**
+     * @param callerName         String
+     * @param gatt               FooGattTransport
+     * @param serviceUuid        UUID
+     * @param characteristicUuid UUID
+     * @return the characteristic, or null if the service or characteristic was not discovered
+     */
+    //package
+    BluetoothGattCharacteristic findCharacteristic(String callerName,
+                                                   FooGattTransport gatt,
+                                                   UUID serviceUuid,
+                                                   UUID characteristicUuid)
+    {
+        return findCharacteristic(callerName, gatt, null, serviceUuid, characteristicUuid);
+    }
+
+    /**
+     * @param callerName           String
+     * @param gatt                 FooGattTransport
+     * @param characteristicHandle a pre-resolved handle to use if still valid, or null
+     * @param serviceUuid          UUID
+     * @param characteristicUuid   UUID
+     * @return the characteristic, or null if the service or characteristic was not discovered
+     */
+    private BluetoothGattCharacteristic findCharacteristic(String callerName,
+                                                           FooGattTransport gatt,
+                                                           FooGattCharacteristicHandle characteristicHandle,
+                                                           UUID serviceUuid,
+                                                           UUID characteristicUuid)
+    {
+        BluetoothGattCharacteristic characteristic;
+
+        if (characteristicHandle != null)
+        {
+            characteristic = characteristicHandle.getCharacteristic(this);
+            if (characteristic != null)
+            {
+                return characteristic;
+            }
+        }
+
+        FooGattServiceIndex serviceIndex = mServiceIndex;
+        if (serviceIndex != null)
+        {
+            characteristic = serviceIndex.get(serviceUuid, characteristicUuid);
+            if (characteristic == null)
+            {
+                FooLog.e(TAG, logPrefix(callerName + ": characteristic " + characteristicUuid +
+                                        " not found in service " + serviceUuid));
+            }
+            return characteristic;
+        }
+
+        //
+        // Not indexed (yet); fall back to the OS's linear lookup
+        //
+        BluetoothGattService service = gatt.getService(serviceUuid);
+        if (service == null)
+        {
+            FooLog.e(TAG, logPrefix(callerName + ": gatt.getService(" + serviceUuid + ") failed"));
+            return null;
+        }
+
+        characteristic = service.getCharacteristic(characteristicUuid);
+        if (characteristic == null)
+        {
+            FooLog.e(TAG, logPrefix(callerName + ": service.getCharacteristic(" + characteristicUuid + ") failed"));
+            return null;
+        }
+
+        return characteristic;
+    }
+
+    /**
+     * Completes the executing request if it is a {@code operation} on {@code characteristic}.
+     *
+     * @param callerName     String
+     * @param operation      GattOperation
+     * @param characteristic BluetoothGattCharacteristic
+     * @param status         int
+     * @param value          byte[]
+     */
+    private void completeCurrentRequest(String callerName,
+                                        GattOperation operation,
+                                        BluetoothGattCharacteristic characteristic,
+                                        int status,
+                                        byte[] value)
+    {
+        FooGattRequest request = mOperationQueue.getCurrent(operation);
+        if (request == null || !request.matches(characteristic))
+        {
+            FooLog.w(TAG, logPrefix(callerName + ": no matching " + operation + " request executing; ignoring"));
+            return;
+        }
+
+        request.setResult(status, characteristic, value);
+
+        mOperationQueue.complete(request, status == BluetoothGatt.GATT_SUCCESS ? State.Succeeded : State.Failed);
+    }
+
     /**
      * Reads a GATT characteristic using the default operation timeout.
      * The result is delivered via {@link GattHandlerListener#onDeviceCharacteristicRead}.
@@ -1322,7 +2045,7 @@ public class FooGattHandler
      *
      * @param serviceUuid        UUID of the service that contains the characteristic
      * @param characteristicUuid UUID of the characteristic to read
-     * @param runAfterSuccess    optional runnable posted on the main looper after a successful read;
+     * @param runAfterSuccess    optional runnable run on the callback thread after a successful read;
      *                           may be null
      * @return true if the read request was enqueued, false if the adapter is disabled or not connected
      */
@@ -1339,14 +2062,67 @@ public class FooGattHandler
      * @param characteristicUuid UUID of the characteristic to read; must not be null
      * @param timeoutMillis      maximum time in milliseconds to wait for the read callback before
      *                           firing an operation-timeout event
-     * @param runAfterSuccess    optional runnable posted on the main looper after a successful read;
+     * @param runAfterSuccess    optional runnable run on the callback thread after a successful read;
      *                           may be null
      * @return true if the read request was enqueued, false if the adapter is disabled or not connected
      */
     @SuppressWarnings("WeakerAccess")
-    public boolean characteristicRead(final UUID serviceUuid, final UUID characteristicUuid,
-                                      final long timeoutMillis,
-                                      final Runnable runAfterSuccess)
+    public boolean characteristicRead(UUID serviceUuid, UUID characteristicUuid,
+                                      long timeoutMillis,
+                                      Runnable runAfterSuccess)
+    {
+        return enqueueCharacteristicRead(serviceUuid, characteristicUuid, timeoutMillis, runAfterSuccess) != null;
+    }
+
+    /**
+     * Same as {@link #characteristicRead(UUID, UUID, long, Runnable)}, but returns a handle that can be
+     * used to observe or cancel the queued read.
+     *
+     * @param serviceUuid        UUID of the service that contains the characteristic; must not be null
+     * @param characteristicUuid UUID of the characteristic to read; must not be null
+     * @param timeoutMillis      maximum time in milliseconds, from when the read starts, to wait for the
+     *                           read callback before firing an operation-timeout event
+     * @param runAfterSuccess    optional runnable run on the callback thread after a successful read;
+     *                           may be null
+     * @return the queued request, or null if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("WeakerAccess")
+    public FooGattRequest enqueueCharacteristicRead(UUID serviceUuid, UUID characteristicUuid,
+                                                    long timeoutMillis,
+                                                    Runnable runAfterSuccess)
+    {
+        return enqueueCharacteristicRead(null, serviceUuid, characteristicUuid, timeoutMillis, runAfterSuccess);
+    }
+
+    /**
+     * Same as {@link #enqueueCharacteristicRead(UUID, UUID, long, Runnable)}, but skips the characteristic
+     * lookup while {@code characteristicHandle} is valid.
+     *
+     * @param characteristicHandle the characteristic to read; must not be null
+     * @param timeoutMillis        maximum time in milliseconds, from when the read starts, to wait for the
+     *                             read callback before firing an operation-timeout event
+     * @param runAfterSuccess      optional runnable run on the callback thread after a successful read;
+     *                             may be null
+     * @return the queued request, or null if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("unused")
+    public FooGattRequest enqueueCharacteristicRead(@NonNull FooGattCharacteristicHandle characteristicHandle,
+                                                    long timeoutMillis,
+                                                    Runnable runAfterSuccess)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(characteristicHandle, "characteristicHandle");
+
+        return enqueueCharacteristicRead(characteristicHandle,
+                characteristicHandle.getServiceUuid(),
+                characteristicHandle.getCharacteristicUuid(),
+                timeoutMillis,
+                runAfterSuccess);
+    }
+
+    private FooGattRequest enqueueCharacteristicRead(final FooGattCharacteristicHandle characteristicHandle,
+                                                     final UUID serviceUuid, final UUID characteristicUuid,
+                                                     final long timeoutMillis,
+                                                     final Runnable runAfterSuccess)
     {
         FooLog.i(TAG, logPrefix("characteristicRead(serviceUuid=" + serviceUuid +
                                 ", characteristicUuid=" + characteristicUuid +
@@ -1359,121 +2135,352 @@ public class FooGattHandler
 
         if (!isBluetoothAdapterEnabled("characteristicRead"))
         {
-            return false;
+            return null;
         }
 
         if (ignoreIfIsDisconnectingOrDisconnected("characteristicRead"))
         {
-            return false;
+            return null;
+        }
+
+        FooGattRequest request = newCharacteristicReadRequest(characteristicHandle,
+                serviceUuid,
+                characteristicUuid,
+                timeoutMillis,
+                runAfterSuccess);
+
+        synchronized (mInFlightReads)
+        {
+            mInFlightReads.put(new CharacteristicKey(serviceUuid, characteristicUuid), new InFlightRead(request, false));
+        }
+
+        mOperationQueue.enqueue(request);
+
+        return request;
+    }
+
+    /**
+     * Queues a background polling read of a GATT characteristic.
+     * The result is delivered via {@link GattHandlerListener#onDeviceCharacteristicRead}.
+     * <p>
+     * The read runs at {@link Priority#Background}, after any queued control or regular operations, and is
+     * "latest wins": it replaces any earlier polling read of the same characteristic that has not started yet,
+     * which completes as {@link State#Canceled}. If it has not started within {@code deadlineMillis} it is
+     * dropped and completes as {@link State#Expired}, so a slow link does not pile up stale polls.
+     *
+     * @param serviceUuid        UUID of the service that contains the characteristic; must not be null
+     * @param characteristicUuid UUID of the characteristic to read; must not be null
+     * @param deadlineMillis     maximum time in milliseconds, from now, that the read may wait in the queue, or
+     *                           {@link FooGattRequest#NO_DEADLINE}
+     * @return the queued request, or null if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("unused")
+    public FooGattRequest pollCharacteristicRead(UUID serviceUuid, UUID characteristicUuid, long deadlineMillis)
+    {
+        FooLog.i(TAG, logPrefix("pollCharacteristicRead(serviceUuid=" + serviceUuid +
+                                ", characteristicUuid=" + characteristicUuid +
+                                ", deadlineMillis=" + deadlineMillis + ')'));
+
+        FooRun.throwIllegalArgumentExceptionIfNull(serviceUuid, "serviceUuid");
+
+        FooRun.throwIllegalArgumentExceptionIfNull(characteristicUuid, "characteristicUuid");
+
+        if (!isBluetoothAdapterEnabled("pollCharacteristicRead"))
+        {
+            return null;
+        }
+
+        if (ignoreIfIsDisconnectingOrDisconnected("pollCharacteristicRead"))
+        {
+            return null;
+        }
+
+        FooGattRequest request = newCharacteristicReadRequest(null,
+                serviceUuid,
+                characteristicUuid,
+                sDefaultOperationTimeoutMillis,
+                null);
+        request.setPriorityInternal(Priority.Background);
+        request.setLatestWins(true);
+        request.setDeadlineMillis(deadlineMillis);
+
+        synchronized (mInFlightReads)
+        {
+            mInFlightReads.put(new CharacteristicKey(serviceUuid, characteristicUuid), new InFlightRead(request, false));
         }
 
-        final GattOperation operation = GattOperation.CharacteristicRead;
+        mOperationQueue.enqueue(request);
 
-        final long startTimeMillis = timerStart(operation);
+        return request;
+    }
 
-        mHandlerBackground.post(new Runnable()
+    private FooGattRequest newCharacteristicReadRequest(final FooGattCharacteristicHandle characteristicHandle,
+                                                        final UUID serviceUuid, final UUID characteristicUuid,
+                                                        final long timeoutMillis,
+                                                        final Runnable runAfterSuccess)
+    {
+        return new FooGattRequest(GattOperation.CharacteristicRead,
+                serviceUuid,
+                characteristicUuid,
+                timeoutMillis,
+                runAfterSuccess)
         {
             @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
-            public void run()
+            @Override
+            boolean start(FooGattTransport gatt)
             {
                 try
                 {
-                    FooLog.v(TAG, logPrefix("+characteristicRead.run(): serviceUuid=" + serviceUuid +
+                    FooLog.v(TAG, logPrefix("+characteristicRead.start(): serviceUuid=" + serviceUuid +
                                             ", characteristicUuid=" + characteristicUuid +
                                             ", timeoutMillis=" + timeoutMillis));
 
-                    BluetoothGatt gatt = pendingOperationWaitReset("characteristicRead", startTimeMillis);
-                    if (gatt == null)
+                    BluetoothGattCharacteristic characteristic = findCharacteristic("characteristicRead.start",
+                            gatt,
+                            characteristicHandle,
+                            serviceUuid,
+                            characteristicUuid);
+                    if (characteristic == null)
                     {
-                        onDeviceCharacteristicRead(serviceUuid, characteristicUuid, false);
-                        return;
+                        return false;
                     }
 
-                    BluetoothGattService service = gatt.getService(serviceUuid);
-                    if (service == null)
+                    if (!gatt.readCharacteristic(characteristic))
                     {
                         FooLog.e(TAG, logPrefix(
-                                "characteristicRead.run: gatt.getService(" +
-                                serviceUuid + ") failed"));
-                        onDeviceCharacteristicRead(serviceUuid, characteristicUuid, false);
-                        return;
+                                "characteristicRead.start: gatt.characteristicRead(...) failed for characteristic " +
+                                characteristicUuid));
+                        return false;
                     }
 
-                    BluetoothGattCharacteristic characteristic = service.getCharacteristic(characteristicUuid);
-                    if (characteristic == null)
-                    {
-                        FooLog.e(TAG, logPrefix(
-                                "characteristicRead.run: service.getCharacteristic(" +
-                                characteristicUuid + ") failed"));
-                        onDeviceCharacteristicRead(serviceUuid, characteristicUuid, false);
-                        return;
-                    }
-
-                    if (!gatt.readCharacteristic(characteristic))
-                    {
-                        FooLog.e(TAG, logPrefix(
-                                "characteristicRead.run: gatt.characteristicRead(...) failed for characteristic " +
-                                characteristicUuid));
-                        onDeviceCharacteristicRead(serviceUuid, characteristicUuid, false);
-                        return;
-                    }
-
-                    if (!pendingOperationWait(operation, timeoutMillis))
-                    {
-                        return;
-                    }
-
-                    if (runAfterSuccess != null)
-                    {
-                        mHandlerMain.post(runAfterSuccess);
-                    }
+                    return true;
                 }
                 finally
                 {
-                    FooLog.v(TAG, logPrefix("-characteristicRead.run(): serviceUuid=" + serviceUuid +
+                    FooLog.v(TAG, logPrefix("-characteristicRead.start(): serviceUuid=" + serviceUuid +
                                             ", characteristicUuid=" + characteristicUuid +
                                             ", timeoutMillis=" + timeoutMillis));
                 }
             }
-        });
+        };
+    }
 
-        return true;
+    /**
+     * Reads several characteristics as one transaction: the reads are queued back-to-back and reported once,
+     * through {@code callbacks}, when all of them have completed or {@code deadlineMillis} has passed.
+     * <p>
+     * The reads are not reported to {@link GattHandlerListener#onDeviceCharacteristicRead}; each completes on
+     * the background executor without a hop to the callback thread. A characteristic that already has a read
+     * queued or executing on this handler is not read again; its item joins that read. Reads this transaction
+     * queued that have not started by the deadline are canceled unless another transaction joined them.
+     *
+     * @param characteristicHandles the characteristics to read, in order; must not be null or empty
+     * @param deadlineMillis        maximum time in milliseconds, from now, to wait for all of the reads;
+     *                              also caps each read's own timeout
+     * @param callbacks             optional callbacks, invoked on the callback thread when the transaction
+     *                              completes; may be null
+     * @return the transaction, or null if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("unused")
+    public FooGattReadTransaction readMany(@NonNull List<FooGattCharacteristicHandle> characteristicHandles,
+                                           long deadlineMillis,
+                                           FooGattReadTransactionCallbacks callbacks)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(characteristicHandles, "characteristicHandles");
+
+        FooGattReadTransaction transaction = new FooGattReadTransaction(this, deadlineMillis, callbacks);
+        for (FooGattCharacteristicHandle characteristicHandle : characteristicHandles)
+        {
+            FooRun.throwIllegalArgumentExceptionIfNull(characteristicHandle, "characteristicHandle");
+
+            transaction.addItem(characteristicHandle,
+                    characteristicHandle.getServiceUuid(),
+                    characteristicHandle.getCharacteristicUuid());
+        }
+
+        return readMany(transaction);
     }
 
-    private void onCharacteristicRead(@SuppressWarnings("unused") BluetoothGatt gatt,
-                                      BluetoothGattCharacteristic characteristic,
-                                      int status)
+    /**
+     * Same as {@link #readMany(List, long, FooGattReadTransactionCallbacks)}, for characteristics of one service
+     * given by UUID.
+     *
+     * @param serviceUuid         UUID of the service that contains the characteristics; must not be null
+     * @param characteristicUuids UUIDs of the characteristics to read, in order; must not be null or empty
+     * @param deadlineMillis      maximum time in milliseconds, from now, to wait for all of the reads;
+     *                            also caps each read's own timeout
+     * @param callbacks           optional callbacks, invoked on the callback thread when the transaction
+     *                            completes; may be null
+     * @return the transaction, or null if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("unused")
+    public FooGattReadTransaction readMany(@NonNull UUID serviceUuid,
+                                           @NonNull List<UUID> characteristicUuids,
+                                           long deadlineMillis,
+                                           FooGattReadTransactionCallbacks callbacks)
     {
-        UUID characteristicUuid = characteristic.getUuid();
-        FooLog.v(TAG, logPrefix("onCharacteristicRead(gatt, characteristic=" + characteristicUuid +
-                                ", status=" + status + ')'));
+        FooRun.throwIllegalArgumentExceptionIfNull(serviceUuid, "serviceUuid");
 
-        logStatusIfNotSuccess("onCharacteristicRead", status, "for characteristic " + characteristicUuid);
+        FooRun.throwIllegalArgumentExceptionIfNull(characteristicUuids, "characteristicUuids");
 
-        boolean success = status == BluetoothGatt.GATT_SUCCESS;
+        FooGattReadTransaction transaction = new FooGattReadTransaction(this, deadlineMillis, callbacks);
+        for (UUID characteristicUuid : characteristicUuids)
+        {
+            FooRun.throwIllegalArgumentExceptionIfNull(characteristicUuid, "characteristicUuid");
 
-        onDeviceCharacteristicRead(characteristic, success);
+            transaction.addItem(null, serviceUuid, characteristicUuid);
+        }
+
+        return readMany(transaction);
     }
 
-    private void onDeviceCharacteristicRead(UUID serviceUuid, UUID characteristicUuid,
-                                            @SuppressWarnings("SameParameterValue") boolean success)
+    private FooGattReadTransaction readMany(final FooGattReadTransaction transaction)
     {
-        BluetoothGattCharacteristic characteristic = FooGattUtils.createBluetoothGattCharacteristic(serviceUuid, characteristicUuid);
-        onDeviceCharacteristicRead(characteristic, success);
+        List<FooGattReadTransaction.Item> items = transaction.getItems();
+
+        FooLog.i(TAG, logPrefix("readMany(items.size()=" + items.size() +
+                                ", deadlineMillis=" + transaction.getDeadlineMillis() + ')'));
+
+        if (items.isEmpty())
+        {
+            throw new IllegalArgumentException("items must not be empty");
+        }
+
+        if (!isBluetoothAdapterEnabled("readMany"))
+        {
+            return null;
+        }
+
+        if (ignoreIfIsDisconnectingOrDisconnected("readMany"))
+        {
+            return null;
+        }
+
+        long timeoutMillis = Math.min(sDefaultOperationTimeoutMillis, transaction.getDeadlineMillis());
+
+        int count = items.size();
+        FooGattRequest[] requests = new FooGattRequest[count];
+        boolean[] coalesced = new boolean[count];
+        List<FooGattRequest> enqueue = new ArrayList<>(count);
+        synchronized (mInFlightReads)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                FooGattReadTransaction.Item item = items.get(i);
+                CharacteristicKey key = new CharacteristicKey(item.getServiceUuid(), item.getCharacteristicUuid());
+                InFlightRead inFlightRead = mInFlightReads.get(key);
+                if (inFlightRead != null && !inFlightRead.mRequest.isDone())
+                {
+                    // Also joins a duplicate earlier in this same transaction
+                    coalesced[i] = true;
+                    // A newer poll must not cancel a read this transaction is waiting on
+                    inFlightRead.mRequest.setLatestWins(false);
+                }
+                else
+                {
+                    FooGattRequest request = newCharacteristicReadRequest(item.getCharacteristicHandle(),
+                            item.getServiceUuid(),
+                            item.getCharacteristicUuid(),
+                            timeoutMillis,
+                            null);
+                    request.setReportedToListeners(false);
+                    inFlightRead = new InFlightRead(request, true);
+                    mInFlightReads.put(key, inFlightRead);
+                    enqueue.add(request);
+                }
+                inFlightRead.mTransactionCount++;
+                requests[i] = inFlightRead.mRequest;
+            }
+        }
+
+        for (int i = 0; i < count; i++)
+        {
+            transaction.attach(items.get(i), requests[i], coalesced[i]);
+        }
+
+        for (FooGattRequest request : enqueue)
+        {
+            mOperationQueue.enqueue(request);
+        }
+
+        transaction.setDeadlineTimeout(scheduleBackground(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                transaction.onDeadline();
+            }
+        }, transaction.getDeadlineMillis()));
+
+        return transaction;
     }
 
-    private void onDeviceCharacteristicRead(final BluetoothGattCharacteristic characteristic,
-                                            final boolean success)
+    /**
+     * Called once by {@link FooGattReadTransaction} when it completes, before its callbacks are posted.
+     *
+     * @param transaction the completed transaction
+     * @param unfinished  the items whose reads were still in flight at the deadline
+     */
+    //package
+    void onReadTransactionCompleted(FooGattReadTransaction transaction, List<FooGattReadTransaction.Item> unfinished)
     {
-        if (!pendingOperationWaitSignal())
+        FooLog.v(TAG, logPrefix("onReadTransactionCompleted: " + transaction));
+
+        List<FooGattRequest> cancel = null;
+        synchronized (mInFlightReads)
         {
-            FooLog.w(TAG, logPrefix("onDeviceCharacteristicRead: pendingOperationWaitSignal() == false; ignoring"));
-            return;
+            for (FooGattReadTransaction.Item item : unfinished)
+            {
+                FooGattRequest request = item.getRequest();
+                InFlightRead inFlightRead =
+                        mInFlightReads.get(new CharacteristicKey(item.getServiceUuid(), item.getCharacteristicUuid()));
+                if (inFlightRead == null || inFlightRead.mRequest != request)
+                {
+                    continue;
+                }
+                if (--inFlightRead.mTransactionCount == 0 && inFlightRead.mIsCancelable)
+                {
+                    if (cancel == null)
+                    {
+                        cancel = new ArrayList<>();
+                    }
+                    cancel.add(request);
+                }
+            }
+        }
+
+        if (cancel != null)
+        {
+            for (FooGattRequest request : cancel)
+            {
+                // No-op if it already started; an executing read cannot be recalled
+                request.cancel();
+            }
         }
+    }
+
+    private void onCharacteristicRead(@SuppressWarnings("unused") FooGattTransport gatt,
+                                      BluetoothGattCharacteristic characteristic,
+                                      int status)
+    {
+        UUID characteristicUuid = characteristic.getUuid();
+        FooLog.v(TAG, logPrefix("onCharacteristicRead(gatt, characteristic=" + characteristicUuid +
+                                ", status=" + status + ')'));
+
+        logStatusIfNotSuccess("onCharacteristicRead", status, "for characteristic " + characteristicUuid);
 
-        final long elapsedMillis = timerElapsed(GattOperation.CharacteristicRead, true);
+        completeCurrentRequest("onCharacteristicRead",
+                GattOperation.CharacteristicRead,
+                characteristic,
+                status,
+                characteristic.getValue());
+    }
 
-        mHandlerMain.post(new Runnable()
+    private void onDeviceCharacteristicRead(final BluetoothGattCharacteristic characteristic,
+                                            final boolean success,
+                                            final long elapsedMillis)
+    {
+        mCallbackExecutor.execute(new Runnable()
         {
             @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
             public void run()
@@ -1542,7 +2549,7 @@ public class FooGattHandler
      * @param serviceUuid        UUID of the service that contains the characteristic
      * @param characteristicUuid UUID of the characteristic to write
      * @param value              the string to encode and write; must not be null
-     * @param runAfterSuccess    optional runnable posted on the main looper after a successful write;
+     * @param runAfterSuccess    optional runnable run on the callback thread after a successful write;
      *                           may be null
      * @return true if the write request was enqueued, false if the adapter is disabled or not connected
      */
@@ -1582,7 +2589,7 @@ public class FooGattHandler
      * @param value                   the string to encode and write; must not be null
      * @param characteristicWriteType controls the GATT write type; pass null to use the
      *                                characteristic's existing write type
-     * @param runAfterSuccess         optional runnable posted on the main looper after a successful write;
+     * @param runAfterSuccess         optional runnable run on the callback thread after a successful write;
      *                                may be null
      * @return true if the write request was enqueued, false if the adapter is disabled or not connected
      */
@@ -1621,7 +2628,7 @@ public class FooGattHandler
      * @param characteristicUuid UUID of the characteristic to write
      * @param value              the string to encode and write; must not be null
      * @param timeoutMillis      maximum time in milliseconds to wait for the write callback
-     * @param runAfterSuccess    optional runnable posted on the main looper after a successful write;
+     * @param runAfterSuccess    optional runnable run on the callback thread after a successful write;
      *                           may be null
      * @return true if the write request was enqueued, false if the adapter is disabled or not connected
      */
@@ -1665,7 +2672,7 @@ public class FooGattHandler
      * @param characteristicWriteType controls the GATT write type; pass null to use the
      *                                characteristic's existing write type
      * @param timeoutMillis           maximum time in milliseconds to wait for the write callback
-     * @param runAfterSuccess         optional runnable posted on the main looper after a successful write;
+     * @param runAfterSuccess         optional runnable run on the callback thread after a successful write;
      *                                may be null
      * @return true if the write request was enqueued, false if the adapter is disabled or not connected
      */
@@ -1708,7 +2715,7 @@ public class FooGattHandler
      * @param formatType         one of {@link BluetoothGattCharacteristic#FORMAT_SINT8},
      *                           {@link BluetoothGattCharacteristic#FORMAT_UINT8}, etc.
      * @param offset             byte offset within the characteristic value at which to start writing
-     * @param runAfterSuccess    optional runnable posted on the main looper after a successful write;
+     * @param runAfterSuccess    optional runnable run on the callback thread after a successful write;
      *                           may be null
      * @return true if the write request was enqueued, false if the adapter is disabled or not connected
      */
@@ -1753,7 +2760,7 @@ public class FooGattHandler
      * @param offset                  byte offset within the characteristic value at which to start writing
      * @param characteristicWriteType controls the GATT write type; pass null to use the
      *                                characteristic's existing write type
-     * @param runAfterSuccess         optional runnable posted on the main looper after a successful write;
+     * @param runAfterSuccess         optional runnable run on the callback thread after a successful write;
      *                                may be null
      * @return true if the write request was enqueued, false if the adapter is disabled or not connected
      */
@@ -1798,7 +2805,7 @@ public class FooGattHandler
      *                           {@link BluetoothGattCharacteristic#FORMAT_UINT8}, etc.
      * @param offset             byte offset within the characteristic value at which to start writing
      * @param timeoutMillis      maximum time in milliseconds to wait for the write callback
-     * @param runAfterSuccess    optional runnable posted on the main looper after a successful write;
+     * @param runAfterSuccess    optional runnable run on the callback thread after a successful write;
      *                           may be null
      * @return true if the write request was enqueued, false if the adapter is disabled or not connected
      */
@@ -1832,7 +2839,7 @@ public class FooGattHandler
                                        CharacteristicWriteType characteristicWriteType,
                                        long timeoutMillis)
     {
-        return characteristicWrite(serviceUuid, characteristicUuid, FooGattUtils.toBytes(value, formatType, offset), characteristicWriteType, timeoutMillis, null);
+        return characteristicWrite(serviceUuid, characteristicUuid, FooGattPayload.obtain(offset + FooGattPayload.getTypeLen(formatType)).putZeros(offset).putInt(value, formatType), characteristicWriteType, timeoutMillis, null);
     }
 
     /**
@@ -1848,7 +2855,7 @@ public class FooGattHandler
      * @param characteristicWriteType controls the GATT write type; pass null to use the
      *                                characteristic's existing write type
      * @param timeoutMillis           maximum time in milliseconds to wait for the write callback
-     * @param runAfterSuccess         optional runnable posted on the main looper after a successful write;
+     * @param runAfterSuccess         optional runnable run on the callback thread after a successful write;
      *                                may be null
      * @return true if the write request was enqueued, false if the adapter is disabled or not connected
      */
@@ -1859,7 +2866,7 @@ public class FooGattHandler
                                        long timeoutMillis,
                                        Runnable runAfterSuccess)
     {
-        return characteristicWrite(serviceUuid, characteristicUuid, FooGattUtils.toBytes(value, formatType, offset), characteristicWriteType, timeoutMillis, runAfterSuccess);
+        return characteristicWrite(serviceUuid, characteristicUuid, FooGattPayload.obtain(offset + FooGattPayload.getTypeLen(formatType)).putZeros(offset).putInt(value, formatType), characteristicWriteType, timeoutMillis, runAfterSuccess);
     }
 
     /**
@@ -1893,7 +2900,7 @@ public class FooGattHandler
      * @param formatType         one of {@link BluetoothGattCharacteristic#FORMAT_SFLOAT} or
      *                           {@link BluetoothGattCharacteristic#FORMAT_FLOAT}
      * @param offset             byte offset within the characteristic value at which to start writing
-     * @param runAfterSuccess    optional runnable posted on the main looper after a successful write;
+     * @param runAfterSuccess    optional runnable run on the callback thread after a successful write;
      *                           may be null
      * @return true if the write request was enqueued, false if the adapter is disabled or not connected
      */
@@ -1941,7 +2948,7 @@ public class FooGattHandler
      * @param offset                  byte offset within the characteristic value at which to start writing
      * @param characteristicWriteType controls the GATT write type; pass null to use the
      *                                characteristic's existing write type
-     * @param runAfterSuccess         optional runnable posted on the main looper after a successful write;
+     * @param runAfterSuccess         optional runnable run on the callback thread after a successful write;
      *                                may be null
      * @return true if the write request was enqueued, false if the adapter is disabled or not connected
      */
@@ -1988,7 +2995,7 @@ public class FooGattHandler
      *                           {@link BluetoothGattCharacteristic#FORMAT_FLOAT}
      * @param offset             byte offset within the characteristic value at which to start writing
      * @param timeoutMillis      maximum time in milliseconds to wait for the write callback
-     * @param runAfterSuccess    optional runnable posted on the main looper after a successful write;
+     * @param runAfterSuccess    optional runnable run on the callback thread after a successful write;
      *                           may be null
      * @return true if the write request was enqueued, false if the adapter is disabled or not connected
      */
@@ -2023,7 +3030,7 @@ public class FooGattHandler
                                        CharacteristicWriteType characteristicWriteType,
                                        long timeoutMillis)
     {
-        return characteristicWrite(serviceUuid, characteristicUuid, FooGattUtils.toBytes(mantissa, exponent, formatType, offset), characteristicWriteType, timeoutMillis, null);
+        return characteristicWrite(serviceUuid, characteristicUuid, FooGattPayload.obtain(offset + FooGattPayload.getTypeLen(formatType)).putZeros(offset).putFloat(mantissa, exponent, formatType), characteristicWriteType, timeoutMillis, null);
     }
 
     /**
@@ -2040,7 +3047,7 @@ public class FooGattHandler
      * @param characteristicWriteType controls the GATT write type; pass null to use the
      *                                characteristic's existing write type
      * @param timeoutMillis           maximum time in milliseconds to wait for the write callback
-     * @param runAfterSuccess         optional runnable posted on the main looper after a successful write;
+     * @param runAfterSuccess         optional runnable run on the callback thread after a successful write;
      *                                may be null
      * @return true if the write request was enqueued, false if the adapter is disabled or not connected
      */
@@ -2051,7 +3058,7 @@ public class FooGattHandler
                                        long timeoutMillis,
                                        Runnable runAfterSuccess)
     {
-        return characteristicWrite(serviceUuid, characteristicUuid, FooGattUtils.toBytes(mantissa, exponent, formatType, offset), characteristicWriteType, timeoutMillis, runAfterSuccess);
+        return characteristicWrite(serviceUuid, characteristicUuid, FooGattPayload.obtain(offset + FooGattPayload.getTypeLen(formatType)).putZeros(offset).putFloat(mantissa, exponent, formatType), characteristicWriteType, timeoutMillis, runAfterSuccess);
     }
 
     /**
@@ -2076,7 +3083,7 @@ public class FooGattHandler
      * @param serviceUuid        UUID of the service that contains the characteristic
      * @param characteristicUuid UUID of the characteristic to write
      * @param value              the raw bytes to write; must not be null
-     * @param runAfterSuccess    optional runnable posted on the main looper after a successful write;
+     * @param runAfterSuccess    optional runnable run on the callback thread after a successful write;
      *                           may be null
      * @return true if the write request was enqueued, false if the adapter is disabled or not connected
      */
@@ -2116,7 +3123,7 @@ public class FooGattHandler
      * @param value                   the raw bytes to write; must not be null
      * @param characteristicWriteType controls the GATT write type; pass null to use the
      *                                characteristic's existing write type
-     * @param runAfterSuccess         optional runnable posted on the main looper after a successful write;
+     * @param runAfterSuccess         optional runnable run on the callback thread after a successful write;
      *                                may be null
      * @return true if the write request was enqueued, false if the adapter is disabled or not connected
      */
@@ -2154,7 +3161,7 @@ public class FooGattHandler
      * @param characteristicUuid UUID of the characteristic to write
      * @param value              the raw bytes to write; must not be null
      * @param timeoutMillis      maximum time in milliseconds to wait for the write callback
-     * @param runAfterSuccess    optional runnable posted on the main looper after a successful write;
+     * @param runAfterSuccess    optional runnable run on the callback thread after a successful write;
      *                           may be null
      * @return true if the write request was enqueued, false if the adapter is disabled or not connected
      */
@@ -2192,7 +3199,7 @@ public class FooGattHandler
      * Writes a byte array to a GATT characteristic with full control over write type and timeout.
      *
      * <p>The write is performed on the background handler thread. On completion,
-     * {@link GattHandlerListener#onDeviceCharacteristicWrite} is called on the main looper. If the
+     * {@link GattHandlerListener#onDeviceCharacteristicWrite} is called on the callback thread. If the
      * write fails or times out, the device will be disconnected unless a listener returns
      * {@code false} from the timeout callback.</p>
      *
@@ -2202,16 +3209,197 @@ public class FooGattHandler
      * @param characteristicWriteType controls the GATT write type (with/without response, signed);
      *                                pass null to use the characteristic's existing write type
      * @param timeoutMillis           maximum time in milliseconds to wait for the write callback
-     * @param runAfterSuccess         optional runnable posted on the main looper after a successful write;
+     * @param runAfterSuccess         optional runnable run on the callback thread after a successful write;
      *                                may be null
      * @return true if the write request was enqueued, false if the adapter is disabled or not connected
      */
     @SuppressWarnings("WeakerAccess")
-    public boolean characteristicWrite(final UUID serviceUuid, final UUID characteristicUuid,
-                                       final byte[] value,
-                                       final CharacteristicWriteType characteristicWriteType,
-                                       final long timeoutMillis,
-                                       final Runnable runAfterSuccess)
+    public boolean characteristicWrite(UUID serviceUuid, UUID characteristicUuid,
+                                       byte[] value,
+                                       CharacteristicWriteType characteristicWriteType,
+                                       long timeoutMillis,
+                                       Runnable runAfterSuccess)
+    {
+        return enqueueCharacteristicWrite(serviceUuid, characteristicUuid, value, characteristicWriteType, timeoutMillis, runAfterSuccess) != null;
+    }
+
+    /**
+     * Same as {@link #characteristicWrite(UUID, UUID, byte[], CharacteristicWriteType, long, Runnable)},
+     * but returns a handle that can be used to observe or cancel the queued write.
+     *
+     * @param serviceUuid             UUID of the service that contains the characteristic; must not be null
+     * @param characteristicUuid      UUID of the characteristic to write; must not be null
+     * @param value                   the byte array to write; must not be null
+     * @param characteristicWriteType controls the GATT write type (with/without response, signed);
+     *                                pass null to use the characteristic's existing write type
+     * @param timeoutMillis           maximum time in milliseconds, from when the write starts, to wait
+     *                                for the write callback
+     * @param runAfterSuccess         optional runnable run on the callback thread after a successful write;
+     *                                may be null
+     * @return the queued request, or null if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("WeakerAccess")
+    public FooGattRequest enqueueCharacteristicWrite(UUID serviceUuid, UUID characteristicUuid,
+                                                     byte[] value,
+                                                     CharacteristicWriteType characteristicWriteType,
+                                                     long timeoutMillis,
+                                                     Runnable runAfterSuccess)
+    {
+        return enqueueCharacteristicWrite(null, serviceUuid, characteristicUuid, value, characteristicWriteType,
+                timeoutMillis, runAfterSuccess);
+    }
+
+    /**
+     * Same as {@link #enqueueCharacteristicWrite(UUID, UUID, byte[], CharacteristicWriteType, long, Runnable)},
+     * but skips the characteristic lookup while {@code characteristicHandle} is valid.
+     *
+     * @param characteristicHandle    the characteristic to write; must not be null
+     * @param value                   the byte array to write; must not be null
+     * @param characteristicWriteType controls the GATT write type (with/without response, signed);
+     *                                pass null to use the characteristic's existing write type
+     * @param timeoutMillis           maximum time in milliseconds, from when the write starts, to wait
+     *                                for the write callback
+     * @param runAfterSuccess         optional runnable run on the callback thread after a successful write;
+     *                                may be null
+     * @return the queued request, or null if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("unused")
+    public FooGattRequest enqueueCharacteristicWrite(@NonNull FooGattCharacteristicHandle characteristicHandle,
+                                                     byte[] value,
+                                                     CharacteristicWriteType characteristicWriteType,
+                                                     long timeoutMillis,
+                                                     Runnable runAfterSuccess)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(characteristicHandle, "characteristicHandle");
+
+        return enqueueCharacteristicWrite(characteristicHandle,
+                characteristicHandle.getServiceUuid(),
+                characteristicHandle.getCharacteristicUuid(),
+                value,
+                characteristicWriteType,
+                timeoutMillis,
+                runAfterSuccess);
+    }
+
+    /**
+     * Writes a {@link FooGattPayload} to a GATT characteristic, handing its backing array to the stack without
+     * copying it.
+     *
+     * @param serviceUuid             UUID of the service that contains the characteristic; must not be null
+     * @param characteristicUuid      UUID of the characteristic to write; must not be null
+     * @param payload                 the value to write; must not be null. Owned by the write from this call on, and
+     *                                recycled when it completes
+     * @param characteristicWriteType controls the GATT write type (with/without response, signed);
+     *                                pass null to use the characteristic's existing write type
+     * @param timeoutMillis           maximum time in milliseconds to wait for the write callback
+     * @param runAfterSuccess         optional runnable run on the callback thread after a successful write;
+     *                                may be null
+     * @return true if the write request was enqueued, false if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("WeakerAccess")
+    public boolean characteristicWrite(UUID serviceUuid, UUID characteristicUuid,
+                                       @NonNull FooGattPayload payload,
+                                       CharacteristicWriteType characteristicWriteType,
+                                       long timeoutMillis,
+                                       Runnable runAfterSuccess)
+    {
+        return enqueueCharacteristicWrite(serviceUuid, characteristicUuid, payload, characteristicWriteType, timeoutMillis, runAfterSuccess) != null;
+    }
+
+    /**
+     * Same as {@link #characteristicWrite(UUID, UUID, FooGattPayload, CharacteristicWriteType, long, Runnable)},
+     * but returns a handle that can be used to observe or cancel the queued write.
+     *
+     * <p>The payload is recycled when the request completes, which can be before listeners are called: listeners
+     * must not read {@link BluetoothGattCharacteristic#getValue()} of a characteristic written this way.</p>
+     *
+     * @param serviceUuid             UUID of the service that contains the characteristic; must not be null
+     * @param characteristicUuid      UUID of the characteristic to write; must not be null
+     * @param payload                 the value to write; must not be null. Owned by the write from this call on, and
+     *                                recycled when it completes, or right away if the write is not enqueued
+     * @param characteristicWriteType controls the GATT write type (with/without response, signed);
+     *                                pass null to use the characteristic's existing write type
+     * @param timeoutMillis           maximum time in milliseconds, from when the write starts, to wait
+     *                                for the write callback
+     * @param runAfterSuccess         optional runnable run on the callback thread after a successful write;
+     *                                may be null
+     * @return the queued request, or null if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("WeakerAccess")
+    public FooGattRequest enqueueCharacteristicWrite(UUID serviceUuid, UUID characteristicUuid,
+                                                     @NonNull FooGattPayload payload,
+                                                     CharacteristicWriteType characteristicWriteType,
+                                                     long timeoutMillis,
+                                                     Runnable runAfterSuccess)
+    {
+        return enqueueCharacteristicWrite(null, serviceUuid, characteristicUuid, payload, characteristicWriteType,
+                timeoutMillis, runAfterSuccess);
+    }
+
+    /**
+     * Same as {@link #enqueueCharacteristicWrite(UUID, UUID, FooGattPayload, CharacteristicWriteType, long, Runnable)},
+     * but skips the characteristic lookup while {@code characteristicHandle} is valid.
+     *
+     * @param characteristicHandle    the characteristic to write; must not be null
+     * @param payload                 the value to write; must not be null. Owned by the write from this call on, and
+     *                                recycled when it completes, or right away if the write is not enqueued
+     * @param characteristicWriteType controls the GATT write type (with/without response, signed);
+     *                                pass null to use the characteristic's existing write type
+     * @param timeoutMillis           maximum time in milliseconds, from when the write starts, to wait
+     *                                for the write callback
+     * @param runAfterSuccess         optional runnable run on the callback thread after a successful write;
+     *                                may be null
+     * @return the queued request, or null if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("unused")
+    public FooGattRequest enqueueCharacteristicWrite(@NonNull FooGattCharacteristicHandle characteristicHandle,
+                                                     @NonNull FooGattPayload payload,
+                                                     CharacteristicWriteType characteristicWriteType,
+                                                     long timeoutMillis,
+                                                     Runnable runAfterSuccess)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(characteristicHandle, "characteristicHandle");
+
+        return enqueueCharacteristicWrite(characteristicHandle,
+                characteristicHandle.getServiceUuid(),
+                characteristicHandle.getCharacteristicUuid(),
+                payload,
+                characteristicWriteType,
+                timeoutMillis,
+                runAfterSuccess);
+    }
+
+    private FooGattRequest enqueueCharacteristicWrite(FooGattCharacteristicHandle characteristicHandle,
+                                                      UUID serviceUuid, UUID characteristicUuid,
+                                                      FooGattPayload payload,
+                                                      CharacteristicWriteType characteristicWriteType,
+                                                      long timeoutMillis,
+                                                      Runnable runAfterSuccess)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(payload, "payload");
+
+        FooGattRequest request = null;
+        try
+        {
+            request = enqueueCharacteristicWrite(characteristicHandle, serviceUuid, characteristicUuid,
+                    payload.getValue(), characteristicWriteType, timeoutMillis, runAfterSuccess);
+        }
+        finally
+        {
+            if (request == null || !request.addCallbacks(payload.mRecycleCallbacks))
+            {
+                payload.recycle();
+            }
+        }
+        return request;
+    }
+
+    private FooGattRequest enqueueCharacteristicWrite(final FooGattCharacteristicHandle characteristicHandle,
+                                                      final UUID serviceUuid, final UUID characteristicUuid,
+                                                      final byte[] value,
+                                                      final CharacteristicWriteType characteristicWriteType,
+                                                      final long timeoutMillis,
+                                                      final Runnable runAfterSuccess)
     {
         FooLog.i(TAG, logPrefix("characteristicWrite(serviceUuid=" + serviceUuid +
                                 ", characteristicUuid=" + characteristicUuid +
@@ -2228,56 +3416,46 @@ public class FooGattHandler
 
         if (!isBluetoothAdapterEnabled("characteristicWrite"))
         {
-            return false;
+            return null;
         }
 
         if (ignoreIfIsDisconnectingOrDisconnected("characteristicWrite"))
         {
-            return false;
+            return null;
         }
 
-        final GattOperation operation = GattOperation.CharacteristicWrite;
-
-        final long startTimeMillis = timerStart(operation);
-
-        mHandlerBackground.post(new Runnable()
+        FooGattRequest request = new FooGattRequest(GattOperation.CharacteristicWrite,
+                serviceUuid,
+                characteristicUuid,
+                timeoutMillis,
+                runAfterSuccess)
         {
+            @Override
+            int getPayloadLength()
+            {
+                return value.length;
+            }
+
             @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
-            public void run()
+            @Override
+            boolean start(FooGattTransport gatt)
             {
                 try
                 {
-                    FooLog.v(TAG, logPrefix("+characteristicWrite.run(): serviceUuid=" + serviceUuid +
+                    FooLog.v(TAG, logPrefix("+characteristicWrite.start(): serviceUuid=" + serviceUuid +
                                             ", characteristicUuid=" + characteristicUuid +
                                             ", value=" + Arrays.toString(value) +
                                             ", characteristicWriteType=" + characteristicWriteType +
                                             ", timeoutMillis=" + timeoutMillis));
 
-                    BluetoothGatt gatt = pendingOperationWaitReset("characteristicWrite", startTimeMillis);
-                    if (gatt == null)
-                    {
-                        onDeviceCharacteristicWrite(serviceUuid, characteristicUuid, false);
-                        return;
-                    }
-
-                    BluetoothGattService service = gatt.getService(serviceUuid);
-                    if (service == null)
-                    {
-                        FooLog.e(TAG, logPrefix(
-                                "characteristicWrite.run: gatt.getService(" +
-                                serviceUuid + ") failed"));
-                        onDeviceCharacteristicWrite(serviceUuid, characteristicUuid, false);
-                        return;
-                    }
-
-                    BluetoothGattCharacteristic characteristic = service.getCharacteristic(characteristicUuid);
+                    BluetoothGattCharacteristic characteristic = findCharacteristic("characteristicWrite.start",
+                            gatt,
+                            characteristicHandle,
+                            serviceUuid,
+                            characteristicUuid);
                     if (characteristic == null)
                     {
-                        FooLog.e(TAG, logPrefix(
-                                "characteristicWrite.run: service.getCharacteristic(" +
-                                characteristicUuid + ") failed"));
-                        onDeviceCharacteristicWrite(serviceUuid, characteristicUuid, false);
-                        return;
+                        return false;
                     }
 
                     if (characteristicWriteType != null)
@@ -2302,78 +3480,68 @@ public class FooGattHandler
                     if (!characteristic.setValue(value))
                     {
                         FooLog.e(TAG, logPrefix(
-                                "characteristicWrite: characteristic.setValue(" + Arrays.toString(value) +
+                                "characteristicWrite.start: characteristic.setValue(" + Arrays.toString(value) +
                                 " failed for characteristic " + characteristicUuid));
-                        onDeviceCharacteristicWrite(serviceUuid, characteristicUuid, false);
-                        return;
+                        return false;
                     }
 
                     if (!gatt.writeCharacteristic(characteristic))
                     {
                         FooLog.e(TAG, logPrefix(
-                                "characteristicWrite.run: gatt.characteristicWrite(...) failed for characteristic " +
+                                "characteristicWrite.start: gatt.characteristicWrite(...) failed for characteristic " +
                                 characteristicUuid));
-                        onDeviceCharacteristicWrite(serviceUuid, characteristicUuid, false);
-                        return;
+                        return false;
                     }
 
-                    if (!pendingOperationWait(operation, timeoutMillis))
-                    {
-                        return;
-                    }
+                    mMetrics.addBytesWritten(value.length);
 
-                    if (runAfterSuccess != null)
-                    {
-                        mHandlerMain.post(runAfterSuccess);
-                    }
+                    return true;
                 }
                 finally
                 {
-                    FooLog.v(TAG, logPrefix("-characteristicWrite.run(): serviceUuid=" + serviceUuid +
+                    FooLog.v(TAG, logPrefix("-characteristicWrite.start(): serviceUuid=" + serviceUuid +
                                             ", characteristicUuid=" + characteristicUuid +
                                             ", value=" + Arrays.toString(value) +
                                             ", characteristicWriteType=" + characteristicWriteType +
                                             ", timeoutMillis=" + timeoutMillis));
                 }
             }
-        });
+        };
 
-        return true;
+        mOperationQueue.enqueue(request);
+
+        return request;
     }
 
-    private void onCharacteristicWrite(@SuppressWarnings("unused") BluetoothGatt gatt,
+    private void onCharacteristicWrite(@SuppressWarnings("unused") FooGattTransport gatt,
                                        BluetoothGattCharacteristic characteristic, int status)
     {
+        FooGattBulkTransfer transfer = (FooGattBulkTransfer) mOperationQueue.getCurrent(GattOperation.CharacteristicBulkWrite);
+        if (transfer != null && transfer.matches(characteristic))
+        {
+            // Flow control for a bulk transfer; intentionally not logged per chunk
+            transfer.onCharacteristicWrite(status);
+            return;
+        }
+
         UUID characteristicUuid = characteristic.getUuid();
         FooLog.v(TAG, logPrefix("onCharacteristicWrite(gatt, characteristic=" + characteristicUuid +
                                 ", status=" + status + ')'));
 
         logStatusIfNotSuccess("onCharacteristicWrite", status, "for characteristic " + characteristicUuid);
 
-        boolean success = status == BluetoothGatt.GATT_SUCCESS;
-
-        onDeviceCharacteristicWrite(characteristic, success);
-    }
-
-    private void onDeviceCharacteristicWrite(UUID serviceUuid, UUID characteristicUuid,
-                                             @SuppressWarnings("SameParameterValue") boolean success)
-    {
-        BluetoothGattCharacteristic characteristic = FooGattUtils.createBluetoothGattCharacteristic(serviceUuid, characteristicUuid);
-        onDeviceCharacteristicWrite(characteristic, success);
+        completeCurrentRequest("onCharacteristicWrite",
+                GattOperation.CharacteristicWrite,
+                characteristic,
+                status,
+                null);
     }
 
     private void onDeviceCharacteristicWrite(final BluetoothGattCharacteristic characteristic,
-                                             final boolean success)
+                                             final boolean success,
+                                             final long elapsedMillis)
     {
-        if (!pendingOperationWaitSignal())
-        {
-            FooLog.w(TAG, logPrefix("onDeviceCharacteristicWrite: pendingOperationWaitSignal() == false; ignoring"));
-            return;
-        }
-
-        final long elapsedMillis = timerElapsed(GattOperation.CharacteristicWrite, true);
-
-        mHandlerMain.post(new Runnable()
+        mCallbackExecutor.execute(new Runnable()
         {
             @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
             public void run()
@@ -2403,19 +3571,217 @@ public class FooGattHandler
     //
     //
 
-    public enum CharacteristicNotificationDescriptorType
+    /**
+     * Returns the largest value that fits in a single write-without-response at the current MTU.
+     *
+     * @return the current MTU minus the 3 byte ATT header
+     */
+    public int getMaxWriteWithoutResponseLength()
     {
-        /**
-         * Results in writing a {@link BluetoothGattDescriptor#DISABLE_NOTIFICATION_VALUE}
-         */
-        Disable,
-        /**
-         * Results in writing a {@link BluetoothGattDescriptor#ENABLE_NOTIFICATION_VALUE}
-         */
-        EnableWithoutResponse,
-        /**
-         * Results in writing a {@link BluetoothGattDescriptor#ENABLE_INDICATION_VALUE}
-         */
+        return mMtu - ATT_WRITE_HEADER_LENGTH;
+    }
+
+    /**
+     * Sends {@code value} to a characteristic as a bulk transfer using the default operation timeout as its
+     * idle timeout.
+     *
+     * @param serviceUuid        UUID of the service that contains the characteristic; must not be null
+     * @param characteristicUuid UUID of the characteristic to write; must not be null
+     * @param value              the bytes to send; must not be null
+     * @param callbacks          optional progress and completion callbacks; may be null
+     * @return the queued transfer, or null if the adapter is disabled or not connected
+     * @see FooGattBulkTransfer
+     */
+    @SuppressWarnings("unused")
+    public FooGattBulkTransfer characteristicBulkWrite(UUID serviceUuid, UUID characteristicUuid,
+                                                       byte[] value,
+                                                       FooGattBulkTransferCallbacks callbacks)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(value, "value");
+
+        return characteristicBulkWrite(serviceUuid, characteristicUuid,
+                new ByteArrayInputStream(value), value.length,
+                sDefaultOperationTimeoutMillis,
+                callbacks);
+    }
+
+    /**
+     * Sends the contents of {@code inputStream} to a characteristic as a bulk transfer using the default
+     * operation timeout as its idle timeout.
+     *
+     * @param serviceUuid        UUID of the service that contains the characteristic; must not be null
+     * @param characteristicUuid UUID of the characteristic to write; must not be null
+     * @param inputStream        the bytes to send; read on the background executor and closed when the
+     *                           transfer completes; must not be null
+     * @param totalBytes         the number of bytes in {@code inputStream}, for progress reporting, or -1 if
+     *                           unknown
+     * @param callbacks          optional progress and completion callbacks; may be null
+     * @return the queued transfer, or null if the adapter is disabled or not connected
+     * @see FooGattBulkTransfer
+     */
+    @SuppressWarnings("unused")
+    public FooGattBulkTransfer characteristicBulkWrite(UUID serviceUuid, UUID characteristicUuid,
+                                                       InputStream inputStream, long totalBytes,
+                                                       FooGattBulkTransferCallbacks callbacks)
+    {
+        return characteristicBulkWrite(serviceUuid, characteristicUuid,
+                inputStream, totalBytes,
+                sDefaultOperationTimeoutMillis,
+                callbacks);
+    }
+
+    /**
+     * Sends the contents of {@code inputStream} to a characteristic in MTU-sized write-without-response
+     * chunks, paced by the stack's flow control rather than by a response per write.
+     *
+     * @param serviceUuid        UUID of the service that contains the characteristic; must not be null
+     * @param characteristicUuid UUID of the characteristic to write; must not be null
+     * @param inputStream        the bytes to send; read on the background executor and closed when the
+     *                           transfer completes; must not be null
+     * @param totalBytes         the number of bytes in {@code inputStream}, for progress reporting, or -1 if
+     *                           unknown
+     * @param timeoutMillis      maximum time in milliseconds without a chunk being accepted before the
+     *                           transfer times out
+     * @param callbacks          optional progress and completion callbacks; may be null
+     * @return the queued transfer, or null if the adapter is disabled or not connected
+     * @see FooGattBulkTransfer
+     */
+    @SuppressWarnings("WeakerAccess")
+    public FooGattBulkTransfer characteristicBulkWrite(UUID serviceUuid, UUID characteristicUuid,
+                                                       InputStream inputStream, long totalBytes,
+                                                       long timeoutMillis,
+                                                       FooGattBulkTransferCallbacks callbacks)
+    {
+        FooLog.i(TAG, logPrefix("characteristicBulkWrite(serviceUuid=" + serviceUuid +
+                                ", characteristicUuid=" + characteristicUuid +
+                                ", inputStream=" + inputStream +
+                                ", totalBytes=" + totalBytes +
+                                ", timeoutMillis=" + timeoutMillis +
+                                ", callbacks=" + callbacks + ')'));
+
+        FooRun.throwIllegalArgumentExceptionIfNull(serviceUuid, "serviceUuid");
+
+        FooRun.throwIllegalArgumentExceptionIfNull(characteristicUuid, "characteristicUuid");
+
+        FooRun.throwIllegalArgumentExceptionIfNull(inputStream, "inputStream");
+
+        if (!isBluetoothAdapterEnabled("characteristicBulkWrite"))
+        {
+            return null;
+        }
+
+        if (ignoreIfIsDisconnectingOrDisconnected("characteristicBulkWrite"))
+        {
+            return null;
+        }
+
+        FooGattBulkTransfer transfer = new FooGattBulkTransfer(this,
+                serviceUuid,
+                characteristicUuid,
+                inputStream,
+                totalBytes,
+                timeoutMillis,
+                callbacks);
+
+        mOperationQueue.enqueue(transfer);
+
+        return transfer;
+    }
+
+    /**
+     * Opens an LE L2CAP connection-oriented channel to the connected device, for bulk data that does not need
+     * to go through GATT. The channel does not use the operation queue: it connects on its own thread, and
+     * {@code callbacks} are told the outcome. It is closed when the device disconnects.
+     *
+     * @param psm       the Protocol/Service Multiplexer the peripheral listens on
+     * @param secure    true for an encrypted channel
+     * @param callbacks optional open and close callbacks; may be null
+     * @return the opening channel, or null if the adapter is disabled, not connected, or the channel could not
+     * be created
+     * @see FooL2capChannel
+     */
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    @SuppressWarnings("unused")
+    public FooL2capChannel openL2capChannel(int psm, boolean secure, FooL2capChannelCallbacks callbacks)
+    {
+        FooLog.i(TAG, logPrefix("openL2capChannel(psm=" + psm +
+                                ", secure=" + secure +
+                                ", callbacks=" + callbacks + ')'));
+
+        if (!isBluetoothAdapterEnabled("openL2capChannel"))
+        {
+            return null;
+        }
+
+        FooGattTransport gatt = getGatt(true);
+        if (gatt == null || ignoreIfIsDisconnectingOrDisconnected("openL2capChannel"))
+        {
+            return null;
+        }
+
+        FooL2capSocket socket;
+        try
+        {
+            socket = gatt.createL2capChannel(psm, secure);
+        }
+        catch (IOException e)
+        {
+            FooLog.w(TAG, logPrefix("openL2capChannel: gatt.createL2capChannel(...) failed"), e);
+            return null;
+        }
+
+        FooL2capChannel channel = new FooL2capChannel(mDeviceAddressString, psm, socket, mCallbackExecutor, callbacks);
+        synchronized (mL2capChannels)
+        {
+            Iterator<FooL2capChannel> it = mL2capChannels.iterator();
+            while (it.hasNext())
+            {
+                if (it.next().isClosed())
+                {
+                    it.remove();
+                }
+            }
+            mL2capChannels.add(channel);
+        }
+        channel.open();
+
+        return channel;
+    }
+
+    /**
+     * Closes every L2CAP channel; they do not outlive the link they were opened on.
+     */
+    private void closeL2capChannels()
+    {
+        List<FooL2capChannel> channels;
+        synchronized (mL2capChannels)
+        {
+            channels = new ArrayList<>(mL2capChannels);
+            mL2capChannels.clear();
+        }
+        for (FooL2capChannel channel : channels)
+        {
+            channel.close();
+        }
+    }
+
+    //
+    //
+    //
+
+    public enum CharacteristicNotificationDescriptorType
+    {
+        /**
+         * Results in writing a {@link BluetoothGattDescriptor#DISABLE_NOTIFICATION_VALUE}
+         */
+        Disable,
+        /**
+         * Results in writing a {@link BluetoothGattDescriptor#ENABLE_NOTIFICATION_VALUE}
+         */
+        EnableWithoutResponse,
+        /**
+         * Results in writing a {@link BluetoothGattDescriptor#ENABLE_INDICATION_VALUE}
+         */
         EnableWithResponse,
     }
 
@@ -2443,7 +3809,7 @@ public class FooGattHandler
      * @param serviceUuid                            UUID of the service that contains the characteristic
      * @param characteristicUuid                     UUID of the characteristic
      * @param characteristicNotificationDescriptorType the notification mode to set; must not be null
-     * @param runAfterSuccess                        optional runnable posted on the main looper after
+     * @param runAfterSuccess                        optional runnable run on the callback thread after
      *                                               success; may be null
      * @return true if the request was enqueued, false if the adapter is disabled or not connected
      */
@@ -2483,7 +3849,7 @@ public class FooGattHandler
      * @param characteristicNotificationDescriptorType the notification mode to set; must not be null
      * @param setDescriptorClientCharacteristicConfig true to also write the Client Characteristic
      *                                               Configuration descriptor; false to skip it
-     * @param runAfterSuccess                        optional runnable posted on the main looper after
+     * @param runAfterSuccess                        optional runnable run on the callback thread after
      *                                               success; may be null
      * @return true if the request was enqueued, false if the adapter is disabled or not connected
      */
@@ -2525,7 +3891,7 @@ public class FooGattHandler
      * <p>Calls {@link android.bluetooth.BluetoothGatt#setCharacteristicNotification} and, when
      * {@code setDescriptorClientCharacteristicConfig} is true, also writes the appropriate value
      * to the Client Characteristic Configuration descriptor. On completion,
-     * {@link GattHandlerListener#onDeviceCharacteristicSetNotification} is called on the main looper.</p>
+     * {@link GattHandlerListener#onDeviceCharacteristicSetNotification} is called on the callback thread.</p>
      *
      * @param serviceUuid                            UUID of the service; must not be null
      * @param characteristicUuid                     UUID of the characteristic; must not be null
@@ -2535,16 +3901,87 @@ public class FooGattHandler
      *                                               peripherals); false to skip the descriptor write
      * @param timeoutMillis                          maximum time in milliseconds to wait for the
      *                                               descriptor write callback
-     * @param runAfterSuccess                        optional runnable posted on the main looper after
+     * @param runAfterSuccess                        optional runnable run on the callback thread after
      *                                               success; may be null
      * @return true if the request was enqueued, false if the adapter is disabled or not connected
      */
     @SuppressWarnings("WeakerAccess")
-    public boolean characteristicSetNotification(final UUID serviceUuid, final UUID characteristicUuid,
-                                                 final CharacteristicNotificationDescriptorType characteristicNotificationDescriptorType,
-                                                 final boolean setDescriptorClientCharacteristicConfig,
-                                                 final long timeoutMillis,
-                                                 final Runnable runAfterSuccess)
+    public boolean characteristicSetNotification(UUID serviceUuid, UUID characteristicUuid,
+                                                 CharacteristicNotificationDescriptorType characteristicNotificationDescriptorType,
+                                                 boolean setDescriptorClientCharacteristicConfig,
+                                                 long timeoutMillis,
+                                                 Runnable runAfterSuccess)
+    {
+        return enqueueCharacteristicSetNotification(serviceUuid, characteristicUuid, characteristicNotificationDescriptorType, setDescriptorClientCharacteristicConfig, timeoutMillis, runAfterSuccess) != null;
+    }
+
+    /**
+     * Same as
+     * {@link #characteristicSetNotification(UUID, UUID, CharacteristicNotificationDescriptorType, boolean, long, Runnable)},
+     * but returns a handle that can be used to observe or cancel the queued request.
+     *
+     * @param serviceUuid                            UUID of the service; must not be null
+     * @param characteristicUuid                     UUID of the characteristic; must not be null
+     * @param characteristicNotificationDescriptorType the notification mode to set; must not be null
+     * @param setDescriptorClientCharacteristicConfig true to also write the Client Characteristic
+     *                                               Configuration descriptor; false to skip it
+     * @param timeoutMillis                          maximum time in milliseconds, from when the request
+     *                                               starts, to wait for the descriptor write callback
+     * @param runAfterSuccess                        optional runnable run on the callback thread after
+     *                                               success; may be null
+     * @return the queued request, or null if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("WeakerAccess")
+    public FooGattRequest enqueueCharacteristicSetNotification(UUID serviceUuid, UUID characteristicUuid,
+                                                               CharacteristicNotificationDescriptorType characteristicNotificationDescriptorType,
+                                                               boolean setDescriptorClientCharacteristicConfig,
+                                                               long timeoutMillis,
+                                                               Runnable runAfterSuccess)
+    {
+        return enqueueCharacteristicSetNotification(null, serviceUuid, characteristicUuid,
+                characteristicNotificationDescriptorType, setDescriptorClientCharacteristicConfig,
+                timeoutMillis, runAfterSuccess);
+    }
+
+    /**
+     * Same as
+     * {@link #enqueueCharacteristicSetNotification(UUID, UUID, CharacteristicNotificationDescriptorType, boolean, long, Runnable)},
+     * but skips the characteristic lookup while {@code characteristicHandle} is valid.
+     *
+     * @param characteristicHandle                   the characteristic; must not be null
+     * @param characteristicNotificationDescriptorType the notification mode to set; must not be null
+     * @param setDescriptorClientCharacteristicConfig true to also write the Client Characteristic
+     *                                               Configuration descriptor; false to skip it
+     * @param timeoutMillis                          maximum time in milliseconds, from when the request
+     *                                               starts, to wait for the descriptor write callback
+     * @param runAfterSuccess                        optional runnable run on the callback thread after
+     *                                               success; may be null
+     * @return the queued request, or null if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("unused")
+    public FooGattRequest enqueueCharacteristicSetNotification(@NonNull FooGattCharacteristicHandle characteristicHandle,
+                                                               CharacteristicNotificationDescriptorType characteristicNotificationDescriptorType,
+                                                               boolean setDescriptorClientCharacteristicConfig,
+                                                               long timeoutMillis,
+                                                               Runnable runAfterSuccess)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(characteristicHandle, "characteristicHandle");
+
+        return enqueueCharacteristicSetNotification(characteristicHandle,
+                characteristicHandle.getServiceUuid(),
+                characteristicHandle.getCharacteristicUuid(),
+                characteristicNotificationDescriptorType,
+                setDescriptorClientCharacteristicConfig,
+                timeoutMillis,
+                runAfterSuccess);
+    }
+
+    private FooGattRequest enqueueCharacteristicSetNotification(final FooGattCharacteristicHandle characteristicHandle,
+                                                                final UUID serviceUuid, final UUID characteristicUuid,
+                                                                final CharacteristicNotificationDescriptorType characteristicNotificationDescriptorType,
+                                                                final boolean setDescriptorClientCharacteristicConfig,
+                                                                final long timeoutMillis,
+                                                                final Runnable runAfterSuccess)
     {
         FooLog.i(TAG, logPrefix("characteristicSetNotification(serviceUuid=" + serviceUuid +
                                 ", characteristicUuid=" + characteristicUuid +
@@ -2562,26 +3999,47 @@ public class FooGattHandler
 
         if (!isBluetoothAdapterEnabled("characteristicSetNotification"))
         {
-            return false;
+            return null;
         }
 
         if (ignoreIfIsDisconnectingOrDisconnected("characteristicSetNotification"))
         {
-            return false;
+            return null;
         }
 
-        final GattOperation operation = GattOperation.CharacteristicSetNotification;
+        FooGattRequest request = newCharacteristicSetNotificationRequest(characteristicHandle,
+                serviceUuid,
+                characteristicUuid,
+                characteristicNotificationDescriptorType,
+                setDescriptorClientCharacteristicConfig,
+                timeoutMillis,
+                runAfterSuccess);
 
-        final long startTimeMillis = timerStart(operation);
+        mOperationQueue.enqueue(request);
+
+        return request;
+    }
 
-        mHandlerBackground.post(new Runnable()
+    private FooGattRequest newCharacteristicSetNotificationRequest(final FooGattCharacteristicHandle characteristicHandle,
+                                                                   final UUID serviceUuid, final UUID characteristicUuid,
+                                                                   final CharacteristicNotificationDescriptorType characteristicNotificationDescriptorType,
+                                                                   final boolean setDescriptorClientCharacteristicConfig,
+                                                                   final long timeoutMillis,
+                                                                   final Runnable runAfterSuccess)
+    {
+        return new FooGattRequest(GattOperation.CharacteristicSetNotification,
+                serviceUuid,
+                characteristicUuid,
+                timeoutMillis,
+                runAfterSuccess)
         {
             @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
-            public void run()
+            @Override
+            boolean start(FooGattTransport gatt)
             {
                 try
                 {
-                    FooLog.v(TAG, logPrefix("+characteristicSetNotification.run(): serviceUuid=" + serviceUuid +
+                    FooLog.v(TAG, logPrefix("+characteristicSetNotification.start(): serviceUuid=" + serviceUuid +
                                             ", characteristicUuid=" + characteristicUuid +
                                             ", characteristicNotificationDescriptorType=" +
                                             characteristicNotificationDescriptorType +
@@ -2589,31 +4047,14 @@ public class FooGattHandler
                                             setDescriptorClientCharacteristicConfig +
                                             ", timeoutMillis=" + timeoutMillis));
 
-                    BluetoothGatt gatt = pendingOperationWaitReset("characteristicSetNotification", startTimeMillis);
-                    if (gatt == null)
-                    {
-                        onDeviceCharacteristicSetNotification(serviceUuid, characteristicUuid, false);
-                        return;
-                    }
-
-                    BluetoothGattService service = gatt.getService(serviceUuid);
-                    if (service == null)
-                    {
-                        FooLog.e(TAG, logPrefix(
-                                "characteristicSetNotification.run: gatt.getService(" +
-                                serviceUuid + ") failed"));
-                        onDeviceCharacteristicSetNotification(serviceUuid, characteristicUuid, false);
-                        return;
-                    }
-
-                    BluetoothGattCharacteristic characteristic = service.getCharacteristic(characteristicUuid);
+                    BluetoothGattCharacteristic characteristic = findCharacteristic("characteristicSetNotification.start",
+                            gatt,
+                            characteristicHandle,
+                            serviceUuid,
+                            characteristicUuid);
                     if (characteristic == null)
                     {
-                        FooLog.e(TAG, logPrefix(
-                                "characteristicSetNotification.run: service.getCharacteristic(" +
-                                characteristicUuid + ") failed"));
-                        onDeviceCharacteristicSetNotification(serviceUuid, characteristicUuid, false);
-                        return;
+                        return false;
                     }
 
                     boolean enable =
@@ -2623,10 +4064,9 @@ public class FooGattHandler
                     if (!gatt.setCharacteristicNotification(characteristic, enable))
                     {
                         FooLog.e(TAG, logPrefix(
-                                "characteristicSetNotification.run: mGattConnectingOrConnected.characteristicSetNotification(..., enable=" +
+                                "characteristicSetNotification.start: mGattConnectingOrConnected.characteristicSetNotification(..., enable=" +
                                 enable + ") failed for characteristic " + characteristicUuid));
-                        onDeviceCharacteristicSetNotification(serviceUuid, characteristicUuid, false);
-                        return;
+                        return false;
                     }
 
                     if (!setDescriptorClientCharacteristicConfig)
@@ -2634,18 +4074,18 @@ public class FooGattHandler
                         //
                         // Success
                         //
-                        onDeviceCharacteristicSetNotification(serviceUuid, characteristicUuid, true);
-                        return;
+                        setResult(BluetoothGatt.GATT_SUCCESS, characteristic, null);
+                        mOperationQueue.complete(this, State.Succeeded);
+                        return true;
                     }
 
                     BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG);
                     if (descriptor == null)
                     {
                         FooLog.e(TAG, logPrefix(
-                                "characteristicSetNotification.run: characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG" +
+                                "characteristicSetNotification.start: characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG" +
                                 ") failed for characteristic " + characteristicUuid));
-                        onDeviceCharacteristicSetNotification(serviceUuid, characteristicUuid, false);
-                        return;
+                        return false;
                     }
 
                     byte[] descriptorValue;
@@ -2666,37 +4106,25 @@ public class FooGattHandler
                     if (!descriptor.setValue(descriptorValue))
                     {
                         FooLog.e(TAG, logPrefix(
-                                "characteristicSetNotification.run: descriptor.setValue(" +
+                                "characteristicSetNotification.start: descriptor.setValue(" +
                                 Arrays.toString(descriptorValue) +
                                 ") failed for descriptor CLIENT_CHARACTERISTIC_CONFIG for characteristic " +
                                 characteristicUuid));
-                        onDeviceCharacteristicSetNotification(serviceUuid, characteristicUuid, false);
-                        return;
+                        return false;
                     }
 
                     if (!gatt.writeDescriptor(descriptor))
                     {
                         FooLog.e(TAG, logPrefix(
-                                "characteristicSetNotification.run: mGattConnectingOrConnected.writeDescriptor(...) failed descriptor CLIENT_CHARACTERISTIC_CONFIG"));
-                        onDeviceCharacteristicSetNotification(serviceUuid, characteristicUuid, false);
-                        return;
-                    }
-
-                    mIsWaitingForCharacteristicSetNotification = true;
-
-                    if (!pendingOperationWait(operation, timeoutMillis))
-                    {
-                        return;
+                                "characteristicSetNotification.start: mGattConnectingOrConnected.writeDescriptor(...) failed descriptor CLIENT_CHARACTERISTIC_CONFIG"));
+                        return false;
                     }
 
-                    if (runAfterSuccess != null)
-                    {
-                        mHandlerMain.post(runAfterSuccess);
-                    }
+                    return true;
                 }
                 finally
                 {
-                    FooLog.v(TAG, logPrefix("-characteristicSetNotification.run(): serviceUuid=" + serviceUuid +
+                    FooLog.v(TAG, logPrefix("-characteristicSetNotification.start(): serviceUuid=" + serviceUuid +
                                             ", characteristicUuid=" + characteristicUuid +
                                             ", characteristicNotificationDescriptorType=" +
                                             characteristicNotificationDescriptorType +
@@ -2705,175 +4133,1433 @@ public class FooGattHandler
                                             ", timeoutMillis=" + timeoutMillis));
                 }
             }
-        });
-
-        return true;
+        };
     }
 
-    private boolean mIsWaitingForCharacteristicSetNotification;
-
-    private void onDescriptorWrite(@SuppressWarnings("unused") BluetoothGatt gatt,
-                                   BluetoothGattDescriptor descriptor, int status)
+    /**
+     * Subscribes to notifications or indications from a characteristic; see {@link FooGattSubscription}.
+     * <p>
+     * Only the first subscription to a characteristic writes its Client Characteristic Configuration
+     * descriptor; later ones share it. If not connected, the descriptor is written after the next connect.
+     * The descriptor writes are not reported to {@link GattHandlerListener#onDeviceCharacteristicSetNotification},
+     * and a failed one does not disconnect; each subscription is told through its own callbacks instead.
+     *
+     * @param serviceUuid        UUID of the service that contains the characteristic; must not be null
+     * @param characteristicUuid UUID of the characteristic; must not be null
+     * @param type               {@link CharacteristicNotificationDescriptorType#EnableWithoutResponse} or
+     *                           {@link CharacteristicNotificationDescriptorType#EnableWithResponse}; ignored if the
+     *                           characteristic already has subscriptions
+     * @param callbacks          the subscription's callbacks; must not be null
+     * @return the subscription; call {@link FooGattSubscription#unsubscribe()} when done with it
+     */
+    @SuppressWarnings("unused")
+    public FooGattSubscription subscribe(@NonNull UUID serviceUuid, @NonNull UUID characteristicUuid,
+                                         @NonNull CharacteristicNotificationDescriptorType type,
+                                         @NonNull FooGattSubscriptionCallbacks callbacks)
     {
-        if (!mIsWaitingForCharacteristicSetNotification)
+        FooLog.i(TAG, logPrefix("subscribe(serviceUuid=" + serviceUuid +
+                                ", characteristicUuid=" + characteristicUuid +
+                                ", type=" + type +
+                                ", callbacks=" + callbacks + ')'));
+
+        FooRun.throwIllegalArgumentExceptionIfNull(serviceUuid, "serviceUuid");
+
+        FooRun.throwIllegalArgumentExceptionIfNull(characteristicUuid, "characteristicUuid");
+
+        FooRun.throwIllegalArgumentExceptionIfNull(type, "type");
+
+        FooRun.throwIllegalArgumentExceptionIfNull(callbacks, "callbacks");
+
+        if (type == CharacteristicNotificationDescriptorType.Disable)
         {
-            //
-            // ignore
-            //
-            return;
+            throw new IllegalArgumentException("type must not be Disable");
         }
 
-        mIsWaitingForCharacteristicSetNotification = false;
+        final FooGattSubscription subscription = new FooGattSubscription(this,
+                serviceUuid,
+                characteristicUuid,
+                type,
+                callbacks);
 
-        FooLog.v(TAG, logPrefix(
-                "onDescriptorWrite(gatt, descriptor=CLIENT_CHARACTERISTIC_CONFIG, status=" + status + ')'));
+        CharacteristicKey key = new CharacteristicKey(serviceUuid, characteristicUuid);
+        boolean isEnabled;
+        FooGattRequest enableRequest = null;
+        synchronized (mSubscriptionGroups)
+        {
+            SubscriptionGroup group = mSubscriptionGroups.get(key);
+            if (group == null)
+            {
+                group = new SubscriptionGroup(key, type);
+                mSubscriptionGroups.put(key, group);
+                mSubscriptionGroupArray = mSubscriptionGroups.values().toArray(new SubscriptionGroup[0]);
+            }
+            else if (group.mType != type)
+            {
+                FooLog.w(TAG, logPrefix("subscribe: characteristic " + characteristicUuid + " already subscribed as " +
+                                        group.mType + "; ignoring type=" + type));
+            }
 
-        BluetoothGattCharacteristic characteristic = descriptor.getCharacteristic();
+            FooGattSubscription[] subscriptions = Arrays.copyOf(group.mSubscriptions, group.mSubscriptions.length + 1);
+            subscriptions[subscriptions.length - 1] = subscription;
+            group.mSubscriptions = subscriptions;
 
-        logStatusIfNotSuccess("onDescriptorWrite", status,
-                "for descriptor CLIENT_CHARACTERISTIC_CONFIG for characteristic " + characteristic.getUuid());
+            isEnabled = group.mIsEnabled;
+            if (!isEnabled && group.mEnableRequest == null && getGatt(false) != null)
+            {
+                enableRequest = newSubscriptionEnableRequest(group);
+            }
+        }
 
-        boolean success = status == BluetoothGatt.GATT_SUCCESS;
+        if (enableRequest != null)
+        {
+            mOperationQueue.enqueue(enableRequest);
+        }
+        else if (isEnabled)
+        {
+            mCallbackExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (subscription.mIsSubscribed)
+                    {
+                        subscription.getCallbacks().onGattSubscriptionEnabled(subscription, true);
+                    }
+                }
+            });
+        }
 
-        onDeviceCharacteristicSetNotification(characteristic, success);
+        return subscription;
     }
 
-    private void onDeviceCharacteristicSetNotification(UUID serviceUuid, UUID characteristicUuid,
-                                                       boolean success)
+    /**
+     * @param subscription one of this handler's subscriptions
+     * @return true if {@code subscription} has not been unsubscribed
+     */
+    //package
+    boolean isSubscribed(FooGattSubscription subscription)
     {
-        BluetoothGattCharacteristic characteristic = FooGattUtils.createBluetoothGattCharacteristic(serviceUuid, characteristicUuid);
-        onDeviceCharacteristicSetNotification(characteristic, success);
+        synchronized (mSubscriptionGroups)
+        {
+            return subscription.mIsSubscribed;
+        }
     }
 
-    private void onDeviceCharacteristicSetNotification(final BluetoothGattCharacteristic characteristic,
-                                                       final boolean success)
+    /**
+     * Called by {@link FooGattSubscription#unsubscribe()}. Disables the characteristic if {@code subscription}
+     * was its last one.
+     *
+     * @param subscription one of this handler's subscriptions
+     * @return false if already unsubscribed
+     */
+    //package
+    boolean unsubscribe(FooGattSubscription subscription)
     {
-        if (!pendingOperationWaitSignal())
+        FooLog.i(TAG, logPrefix("unsubscribe(subscription=" + subscription + ')'));
+
+        CharacteristicKey key = new CharacteristicKey(subscription.getServiceUuid(),
+                subscription.getCharacteristicUuid());
+        FooGattRequest enableRequest;
+        synchronized (mSubscriptionGroups)
         {
-            FooLog.w(TAG, logPrefix("onDeviceCharacteristicSetNotification: pendingOperationWaitSignal() == false; ignoring"));
-            return;
+            if (!subscription.mIsSubscribed)
+            {
+                return false;
+            }
+            subscription.mIsSubscribed = false;
+
+            SubscriptionGroup group = mSubscriptionGroups.get(key);
+            FooGattSubscription[] subscriptions = group.mSubscriptions;
+            if (subscriptions.length > 1)
+            {
+                FooGattSubscription[] remaining = new FooGattSubscription[subscriptions.length - 1];
+                for (int i = 0, j = 0; i < subscriptions.length; i++)
+                {
+                    if (subscriptions[i] != subscription)
+                    {
+                        remaining[j++] = subscriptions[i];
+                    }
+                }
+                group.mSubscriptions = remaining;
+                return true;
+            }
+
+            mSubscriptionGroups.remove(key);
+            mSubscriptionGroupArray = mSubscriptionGroups.values().toArray(new SubscriptionGroup[0]);
+            group.mSubscriptions = new FooGattSubscription[0];
+            enableRequest = group.mEnableRequest;
+            group.mEnableRequest = null;
         }
 
-        final long elapsedMillis = timerElapsed(GattOperation.CharacteristicSetNotification, true);
+        if (enableRequest != null && enableRequest.cancel())
+        {
+            // Never written; nothing to undo
+            return true;
+        }
 
-        mHandlerMain.post(new Runnable()
+        if (getGatt(false) == null)
         {
-            @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
-            public void run()
-            {
-                boolean disconnect = false;
+            return true;
+        }
 
-                for (GattHandlerListener deviceListener : mListenerManager.beginTraversing())
+        FooGattRequest disableRequest = newCharacteristicSetNotificationRequest(null,
+                subscription.getServiceUuid(),
+                subscription.getCharacteristicUuid(),
+                CharacteristicNotificationDescriptorType.Disable,
+                true,
+                sDefaultOperationTimeoutMillis,
+                null);
+        disableRequest.setReportedToListeners(false);
+        mOperationQueue.enqueue(disableRequest);
+
+        return true;
+    }
+
+    /**
+     * Enqueues one descriptor write for every subscribed characteristic that is not enabled or being enabled.
+     * Called after every connect.
+     */
+    private void resubscribe()
+    {
+        List<FooGattRequest> enableRequests = null;
+        synchronized (mSubscriptionGroups)
+        {
+            for (SubscriptionGroup group : mSubscriptionGroups.values())
+            {
+                if (group.mIsEnabled || group.mEnableRequest != null)
                 {
-                    disconnect |= deviceListener.onDeviceCharacteristicSetNotification(FooGattHandler.this,
-                            characteristic,
-                            success,
-                            elapsedMillis);
+                    continue;
                 }
-                mListenerManager.endTraversing();
-
-                FooLog.v(TAG, logPrefix("onDeviceCharacteristicSetNotification: success=" + success +
-                                        ", disconnect=" + disconnect));
-                if (!success || disconnect)
+                if (enableRequests == null)
                 {
-                    disconnect();
+                    enableRequests = new ArrayList<>();
                 }
+                enableRequests.add(newSubscriptionEnableRequest(group));
             }
-        });
+        }
+
+        if (enableRequests == null)
+        {
+            return;
+        }
+
+        FooLog.v(TAG, logPrefix("resubscribe: enableRequests.size()=" + enableRequests.size()));
+
+        for (FooGattRequest enableRequest : enableRequests)
+        {
+            enqueueControl(enableRequest);
+        }
+    }
+
+    /**
+     * Marks every subscribed characteristic not enabled; the peripheral forgets them when the link drops.
+     */
+    private void resetSubscriptions()
+    {
+        synchronized (mSubscriptionGroups)
+        {
+            for (SubscriptionGroup group : mSubscriptionGroups.values())
+            {
+                group.mIsEnabled = false;
+                group.mEnableRequest = null;
+            }
+        }
+    }
+
+    /**
+     * Must be called synchronized behind mSubscriptionGroups; the caller enqueues the returned request.
+     */
+    private FooGattRequest newSubscriptionEnableRequest(final SubscriptionGroup group)
+    {
+        final FooGattRequest request = newCharacteristicSetNotificationRequest(null,
+                group.mKey.mServiceUuid,
+                group.mKey.mCharacteristicUuid,
+                group.mType,
+                true,
+                sDefaultOperationTimeoutMillis,
+                null);
+        request.setReportedToListeners(false);
+        request.addCallbacks(new FooGattRequest.DirectCallbacks()
+        {
+            @Override
+            public void onGattRequestCompleted(@NonNull FooGattRequest request)
+            {
+                onSubscriptionEnableCompleted(group, request);
+            }
+        });
+        group.mEnableRequest = request;
+        return request;
+    }
+
+    /**
+     * Runs on the thread that completed {@code request}.
+     */
+    private void onSubscriptionEnableCompleted(SubscriptionGroup group, FooGattRequest request)
+    {
+        final boolean success = request.isSuccess();
+        final FooGattSubscription[] subscriptions;
+        synchronized (mSubscriptionGroups)
+        {
+            if (group.mEnableRequest != request)
+            {
+                // Unsubscribed or disconnected since
+                return;
+            }
+            group.mEnableRequest = null;
+            if (request.getState() == State.Canceled)
+            {
+                return;
+            }
+            group.mIsEnabled = success;
+            subscriptions = group.mSubscriptions;
+        }
+
+        mCallbackExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (FooGattSubscription subscription : subscriptions)
+                {
+                    if (subscription.mIsSubscribed)
+                    {
+                        subscription.getCallbacks().onGattSubscriptionEnabled(subscription, success);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs on mCallbackExecutor, after the listeners have seen {@code notification} and before it is recycled.
+     */
+    private void dispatchToSubscriptions(FooGattNotification notification)
+    {
+        SubscriptionGroup[] groups = mSubscriptionGroupArray;
+        if (groups.length == 0)
+        {
+            return;
+        }
+
+        BluetoothGattCharacteristic characteristic = notification.getCharacteristic();
+        UUID characteristicUuid = characteristic.getUuid();
+        BluetoothGattService service = characteristic.getService();
+        UUID serviceUuid = service != null ? service.getUuid() : null;
+        //noinspection ForLoopReplaceableByForEach
+        for (int i = 0; i < groups.length; i++)
+        {
+            CharacteristicKey key = groups[i].mKey;
+            if (!key.mCharacteristicUuid.equals(characteristicUuid) ||
+                (serviceUuid != null && !key.mServiceUuid.equals(serviceUuid)))
+            {
+                continue;
+            }
+            for (FooGattSubscription subscription : groups[i].mSubscriptions)
+            {
+                if (subscription.mIsSubscribed)
+                {
+                    subscription.getCallbacks().onGattSubscriptionNotification(subscription, notification);
+                }
+            }
+        }
+    }
+
+    private void onDescriptorWrite(@SuppressWarnings("unused") FooGattTransport gatt,
+                                   BluetoothGattDescriptor descriptor, int status)
+    {
+        if (!CLIENT_CHARACTERISTIC_CONFIG.equals(descriptor.getUuid()))
+        {
+            //
+            // ignore
+            //
+            return;
+        }
+
+        FooLog.v(TAG, logPrefix(
+                "onDescriptorWrite(gatt, descriptor=CLIENT_CHARACTERISTIC_CONFIG, status=" + status + ')'));
+
+        BluetoothGattCharacteristic characteristic = descriptor.getCharacteristic();
+
+        logStatusIfNotSuccess("onDescriptorWrite", status,
+                "for descriptor CLIENT_CHARACTERISTIC_CONFIG for characteristic " + characteristic.getUuid());
+
+        completeCurrentRequest("onDescriptorWrite",
+                GattOperation.CharacteristicSetNotification,
+                characteristic,
+                status,
+                null);
+    }
+
+    private void onDeviceCharacteristicSetNotification(final BluetoothGattCharacteristic characteristic,
+                                                       final boolean success,
+                                                       final long elapsedMillis)
+    {
+        mCallbackExecutor.execute(new Runnable()
+        {
+            @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+            public void run()
+            {
+                boolean disconnect = false;
+
+                for (GattHandlerListener deviceListener : mListenerManager.beginTraversing())
+                {
+                    disconnect |= deviceListener.onDeviceCharacteristicSetNotification(FooGattHandler.this,
+                            characteristic,
+                            success,
+                            elapsedMillis);
+                }
+                mListenerManager.endTraversing();
+
+                FooLog.v(TAG, logPrefix("onDeviceCharacteristicSetNotification: success=" + success +
+                                        ", disconnect=" + disconnect));
+                if (!success || disconnect)
+                {
+                    disconnect();
+                }
+            }
+        });
+    }
+
+    private void onCharacteristicChanged(@SuppressWarnings("unused") FooGattTransport gatt,
+                                         BluetoothGattCharacteristic characteristic,
+                                         byte[] value)
+    {
+        if (VERBOSE_LOG_CHARACTERISTIC_CHANGE)
+        {
+            FooLog.v(TAG, logPrefix("onCharacteristicChanged: characteristic=" + characteristic.getUuid()));
+        }
+
+        //
+        // Handle the case where disconnect has been called, but the OS has queued up lots of characteristic changes
+        //
+        if (ignoreIfIsDisconnectingOrDisconnected("onCharacteristicChanged"))
+        {
+            return;
+        }
+
+        //
+        // NOTE:(pv) This method may stream LOTS of data.
+        // To avoid excessive memory allocations, this method intentionally deviates from the other methods' uses of
+        // "mHandler.post(new Runnable() ...)"
+        // The value is copied into a pooled FooGattNotification here, on the binder thread, so that listeners see
+        // exactly the value of this notification no matter how many more arrive before the message is handled.
+        //
+        FooGattNotification notification = FooGattNotification.obtain(characteristic, value);
+
+        mMetrics.addNotification(value.length);
+        mTrace.recordNotification(characteristic, value.length);
+
+        long batchIntervalMillis = mNotificationBatchIntervalMillis;
+        boolean isLooper = mCallbackThread == CallbackThread.Looper;
+        if (isLooper && batchIntervalMillis == NOTIFICATION_BATCHING_DISABLED)
+        {
+            mHandlerMain.obtainAndSendMessage(HandlerMainMessages.onCharacteristicChanged, notification);
+            return;
+        }
+
+        FooGattNotification head;
+        do
+        {
+            head = mPendingNotifications.get();
+            notification.mNext = head;
+        }
+        while (!mPendingNotifications.compareAndSet(head, notification));
+
+        if (head == null)
+        {
+            //
+            // First notification since the last drain; exactly one drain is pending at a time.
+            // Off the looper, unbatched notifications are also delivered through this queue; it avoids allocating a
+            // Runnable per notification.
+            //
+            if (isLooper)
+            {
+                mHandlerMain.obtainAndSendMessageDelayed(HandlerMainMessages.onCharacteristicsChanged, null,
+                        batchIntervalMillis);
+            }
+            else if (batchIntervalMillis <= 0)
+            {
+                mCallbackExecutor.execute(mDeliverPendingNotificationsRunnable);
+            }
+            else
+            {
+                mGattManager.getTimeoutExecutor().schedule(mScheduledDeliverPendingNotificationsRunnable,
+                        batchIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Where {@link GattHandlerListener} callbacks, {@code runAfterSuccess} runnables and
+     * {@link FooGattRequestCallbacks} run. Whichever is selected, callbacks for one handler are delivered one at a
+     * time and in order.
+     */
+    public enum CallbackThread
+    {
+        /**
+         * The {@link FooGattManager}'s looper (by default the main looper); the default
+         */
+        Looper,
+        /**
+         * A serial queue on the {@link FooGattManager}'s callback executor, a pool used only for listener callbacks,
+         * so heavy parsing stays off the UI thread and never holds up any device's GATT operations
+         */
+        Background,
+        /**
+         * Inline on the thread that produced the event, usually a binder thread, for the lowest latency.
+         * Callbacks must return quickly; a callback that arrives while another is running is queued and run by
+         * that thread right after it. Callbacks raised while the thread holds the lock that every handler of the
+         * {@link FooGattManager} shares are held until it releases the lock.
+         */
+        Direct,
+    }
+
+    /**
+     * {@link CallbackThread#Direct} callbacks raised while this thread held a {@link FooGattManager}'s lock, in
+     * order; run by {@link #runDeferredCallbacks()} once it no longer does, so that no listener runs with every
+     * device locked
+     */
+    private static final ThreadLocal<ArrayList<Runnable>> sDeferredCallbacks = new ThreadLocal<ArrayList<Runnable>>()
+    {
+        @Override
+        protected ArrayList<Runnable> initialValue()
+        {
+            return new ArrayList<>();
+        }
+    };
+
+    /**
+     * Runs on the calling thread, unless that thread holds mGattManager's lock
+     */
+    private final Executor mDirectExecutor = new Executor()
+    {
+        @Override
+        public void execute(@NonNull Runnable runnable)
+        {
+            if (Thread.holdsLock(mGattManager))
+            {
+                sDeferredCallbacks.get().add(runnable);
+                return;
+            }
+            runnable.run();
+        }
+    };
+
+    /**
+     * Runs the callbacks that {@link #mDirectExecutor} deferred on this thread; does nothing while the thread still
+     * holds mGattManager's lock. Call after every synchronized (mGattManager) block that can raise callbacks.
+     */
+    private void runDeferredCallbacks()
+    {
+        if (Thread.holdsLock(mGattManager))
+        {
+            return;
+        }
+
+        ArrayList<Runnable> deferredCallbacks = sDeferredCallbacks.get();
+        while (!deferredCallbacks.isEmpty())
+        {
+            deferredCallbacks.remove(0).run();
+        }
+    }
+
+    /**
+     * @return where listener callbacks currently run
+     */
+    @SuppressWarnings("unused")
+    public CallbackThread getCallbackThread()
+    {
+        return mCallbackThread;
+    }
+
+    /**
+     * Selects where listener callbacks run. Best called before {@link #connect()}; callbacks already queued
+     * for the previous selection still run there, so switching while events are in flight can deliver them
+     * out of order.
+     *
+     * @param callbackThread the thread to run callbacks on; must not be null
+     */
+    public void setCallbackThread(@NonNull CallbackThread callbackThread)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(callbackThread, "callbackThread");
+
+        FooLog.v(TAG, logPrefix("setCallbackThread(callbackThread=" + callbackThread + ')'));
+
+        if (callbackThread == mCallbackThread)
+        {
+            return;
+        }
+
+        Executor callbackExecutor;
+        switch (callbackThread)
+        {
+            case Background:
+                callbackExecutor = new FooSerialExecutor(mDeviceAddressString + ".mCallbackExecutor",
+                        mGattManager.getCallbackExecutor());
+                break;
+            case Direct:
+                callbackExecutor = new FooSerialExecutor(mDeviceAddressString + ".mCallbackExecutor",
+                        mDirectExecutor);
+                break;
+            case Looper:
+            default:
+                callbackExecutor = new Executor()
+                {
+                    @Override
+                    public void execute(@NonNull Runnable runnable)
+                    {
+                        mHandlerMain.post(runnable);
+                    }
+                };
+                break;
+        }
+
+        mCallbackExecutor = callbackExecutor;
+        mCallbackThread = callbackThread;
+    }
+
+    /**
+     * Opts in to or out of batched notification delivery. While enabled, notifications are collected on a
+     * lock-free queue and delivered together through
+     * {@link GattHandlerListener#onDeviceCharacteristicsChanged(FooGattHandler, List)}, so a high-rate stream
+     * costs one listener traversal per batch instead of one per notification.
+     *
+     * @param intervalMillis how long to collect notifications after the first one of a batch arrives; 0
+     *                       delivers on the next looper turn, and {@link #NOTIFICATION_BATCHING_DISABLED}
+     *                       delivers every notification on its own (the default)
+     */
+    @SuppressWarnings("unused")
+    public void setNotificationBatching(long intervalMillis)
+    {
+        if (intervalMillis < 0 && intervalMillis != NOTIFICATION_BATCHING_DISABLED)
+        {
+            throw new IllegalArgumentException("intervalMillis must be >= 0 or NOTIFICATION_BATCHING_DISABLED");
+        }
+
+        FooLog.v(TAG, logPrefix("setNotificationBatching(intervalMillis=" + intervalMillis + ')'));
+
+        mNotificationBatchIntervalMillis = intervalMillis;
+    }
+
+    /**
+     * @return the batch interval in milliseconds, or {@link #NOTIFICATION_BATCHING_DISABLED}
+     */
+    @SuppressWarnings("unused")
+    public long getNotificationBatching()
+    {
+        return mNotificationBatchIntervalMillis;
+    }
+
+    /**
+     * Moves all pending notifications, oldest first, into {@link #mNotificationBatch}.
+     */
+    private void takePendingNotifications()
+    {
+        FooGattNotification notification = mPendingNotifications.getAndSet(null);
+        while (notification != null)
+        {
+            FooGattNotification next = notification.mNext;
+            notification.mNext = null;
+            mNotificationBatch.add(notification);
+            notification = next;
+        }
+        Collections.reverse(mNotificationBatch);
+    }
+
+    private void recycleNotificationBatch()
+    {
+        //noinspection ForLoopReplaceableByForEach
+        for (int i = 0, size = mNotificationBatch.size(); i < size; i++)
+        {
+            mNotificationBatch.get(i).recycle();
+        }
+        mNotificationBatch.clear();
+    }
+
+    private static abstract class HandlerMainMessages
+    {
+        /**
+         * <ul>
+         * <li>msg.arg1: ?</li>
+         * <li>msg.arg2: ?</li>
+         * <li>msg.obj: ?</li>
+         * </li>
+         * </ul>
+         */
+        private static final int SolicitedDisconnectInternalTimeout = 1;
+        /**
+         * <ul>
+         * <li>msg.arg1: ?</li>
+         * <li>msg.arg2: ?</li>
+         * <li>msg.obj: FooGattNotification; recycled after the listeners return</li>
+         * </li>
+         * </ul>
+         */
+        private static final int onCharacteristicChanged            = 2;
+        /**
+         * <ul>
+         * <li>msg.arg1: ?</li>
+         * <li>msg.arg2: ?</li>
+         * <li>msg.obj: ?; the notifications are taken from mPendingNotifications</li>
+         * </li>
+         * </ul>
+         */
+        private static final int onCharacteristicsChanged           = 3;
+    }
+
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    private boolean handleMessage(Message msg)
+    {
+        switch (msg.what)
+        {
+            case HandlerMainMessages.SolicitedDisconnectInternalTimeout:
+            {
+                FooLog.v(TAG, logPrefix("handleMessage: SolicitedDisconnectInternalTimeout"));
+                onDeviceDisconnected(mGatt, -1, DisconnectReason.SolicitedDisconnectTimeout, false);
+                break;
+            }
+            case HandlerMainMessages.onCharacteristicChanged:
+            {
+                deliverNotification((FooGattNotification) msg.obj);
+                break;
+            }
+            case HandlerMainMessages.onCharacteristicsChanged:
+            {
+                deliverPendingNotifications();
+                break;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Runs on mCallbackExecutor.
+     */
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    private void deliverNotification(FooGattNotification notification)
+    {
+        if (ignoreIfIsDisconnectingOrDisconnected("deliverNotification"))
+        {
+            notification.recycle();
+            return;
+        }
+
+        if (VERBOSE_LOG_CHARACTERISTIC_CHANGE)
+        {
+            FooLog.v(TAG, logPrefix("deliverNotification: notification=" + notification));
+        }
+
+        boolean disconnect = false;
+
+        try
+        {
+            for (GattHandlerListener deviceListener : mListenerManager.beginTraversing())
+            {
+                disconnect |= deviceListener.onDeviceCharacteristicChanged(FooGattHandler.this, notification);
+            }
+            mListenerManager.endTraversing();
+
+            dispatchToSubscriptions(notification);
+        }
+        finally
+        {
+            notification.recycle();
+        }
+
+        if (disconnect)
+        {
+            FooLog.v(TAG, logPrefix("deliverNotification: disconnect=" + disconnect));
+            disconnect();
+        }
+    }
+
+    /**
+     * Runs on mCallbackExecutor.
+     */
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    private void deliverPendingNotifications()
+    {
+        takePendingNotifications();
+
+        if (mNotificationBatchIntervalMillis == NOTIFICATION_BATCHING_DISABLED)
+        {
+            //noinspection ForLoopReplaceableByForEach
+            for (int i = 0, size = mNotificationBatch.size(); i < size; i++)
+            {
+                deliverNotification(mNotificationBatch.get(i));
+            }
+            mNotificationBatch.clear();
+            return;
+        }
+
+        if (ignoreIfIsDisconnectingOrDisconnected("deliverPendingNotifications"))
+        {
+            recycleNotificationBatch();
+            return;
+        }
+
+        if (VERBOSE_LOG_CHARACTERISTIC_CHANGE)
+        {
+            FooLog.v(TAG, logPrefix("deliverPendingNotifications: mNotificationBatch.size()=" +
+                                    mNotificationBatch.size()));
+        }
+
+        boolean disconnect = false;
+
+        try
+        {
+            for (GattHandlerListener deviceListener : mListenerManager.beginTraversing())
+            {
+                disconnect |= deviceListener.onDeviceCharacteristicsChanged(FooGattHandler.this,
+                        mNotificationBatch);
+            }
+            mListenerManager.endTraversing();
+
+            //noinspection ForLoopReplaceableByForEach
+            for (int i = 0, size = mNotificationBatch.size(); i < size; i++)
+            {
+                dispatchToSubscriptions(mNotificationBatch.get(i));
+            }
+        }
+        finally
+        {
+            recycleNotificationBatch();
+        }
+
+        if (disconnect)
+        {
+            FooLog.v(TAG, logPrefix("deliverPendingNotifications: disconnect=" + disconnect));
+            disconnect();
+        }
+    }
+
+    /**
+     * @return the ATT MTU negotiated for the current connection, or {@link #DEFAULT_MTU} if none has been
+     * negotiated or not connected
+     */
+    public int getMtu()
+    {
+        return mMtu;
+    }
+
+    /**
+     * @return the profile applied after every successful connect, or null if none
+     */
+    @SuppressWarnings("unused")
+    public FooGattPerformanceProfile getPerformanceProfile()
+    {
+        return mPerformanceProfile;
+    }
+
+    /**
+     * Sets link parameters to request right after every successful connect. The profile's operations are
+     * queued ahead of anything enqueued in response to {@link GattHandlerListener#onDeviceServicesDiscovered}
+     * or {@code runAfterConnect}. Takes effect on the next connect.
+     *
+     * @param performanceProfile the profile to apply, or null to leave the link parameters to the OS
+     */
+    @SuppressWarnings("unused")
+    public void setPerformanceProfile(FooGattPerformanceProfile performanceProfile)
+    {
+        FooLog.v(TAG, logPrefix("setPerformanceProfile(performanceProfile=" + performanceProfile + ')'));
+        mPerformanceProfile = performanceProfile;
+    }
+
+    /**
+     * @return the policy used to reconnect after a connection is lost unexpectedly, or null if none
+     */
+    @SuppressWarnings("unused")
+    public FooGattReconnectPolicy getReconnectPolicy()
+    {
+        return mReconnector.getPolicy();
+    }
+
+    /**
+     * Makes this handler reconnect by itself after an {@link DisconnectReason#UnsolicitedDisconnect}, with
+     * backoff and jitter, pausing while the Bluetooth adapter is off. See {@link FooGattReconnector} for the
+     * exact rules. Calling {@link #disconnect()} between attempts stops reconnecting.
+     *
+     * @param reconnectPolicy the policy to use, such as {@link FooGattReconnectPolicy#DEFAULT}, or null to
+     *                        stop reconnecting and leave it to the caller
+     */
+    @SuppressWarnings("unused")
+    public void setReconnectPolicy(FooGattReconnectPolicy reconnectPolicy)
+    {
+        FooLog.v(TAG, logPrefix("setReconnectPolicy(reconnectPolicy=" + reconnectPolicy + ')'));
+        if (reconnectPolicy != null)
+        {
+            mGattManager.startBluetoothAdapterStateListener();
+        }
+        mReconnector.setPolicy(reconnectPolicy);
+    }
+
+    /**
+     * @return this handler's reconnect engine, for its state and time-to-reconnect metrics
+     */
+    @SuppressWarnings("unused")
+    public FooGattReconnector getReconnector()
+    {
+        return mReconnector;
+    }
+
+    /**
+     * @return this device's operation latencies, timeouts and throughput counters
+     */
+    @SuppressWarnings("unused")
+    public FooGattMetrics getMetrics()
+    {
+        return mMetrics;
+    }
+
+    /**
+     * @return the ring of this device's most recent GATT events, for {@link FooGattTrace#exportTo(java.io.File)}
+     */
+    public FooGattTrace getTrace()
+    {
+        return mTrace;
+    }
+
+    //package
+    void onBluetoothAdapterStateChanged(boolean enabled)
+    {
+        mReconnector.onBluetoothAdapterStateChanged(enabled);
+    }
+
+    //package
+    void onDeviceReconnectScheduled(final int attempt, final long delayMillis, final boolean autoConnect)
+    {
+        mCallbackExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                boolean cancel = false;
+
+                for (GattHandlerListener deviceListener : mListenerManager.beginTraversing())
+                {
+                    cancel |= deviceListener.onDeviceReconnectScheduled(FooGattHandler.this,
+                            attempt,
+                            delayMillis,
+                            autoConnect);
+                }
+                mListenerManager.endTraversing();
+
+                FooLog.v(TAG, logPrefix("onDeviceReconnectScheduled: cancel=" + cancel));
+                if (cancel)
+                {
+                    mReconnector.cancel();
+                }
+            }
+        });
+    }
+
+    //package
+    void onDeviceReconnected(final int attempts, final long timeToReconnectMillis)
+    {
+        mCallbackExecutor.execute(new Runnable()
+        {
+            @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+            @Override
+            public void run()
+            {
+                boolean disconnect = false;
+
+                for (GattHandlerListener deviceListener : mListenerManager.beginTraversing())
+                {
+                    disconnect |= deviceListener.onDeviceReconnected(FooGattHandler.this,
+                            attempts,
+                            timeToReconnectMillis);
+                }
+                mListenerManager.endTraversing();
+
+                FooLog.v(TAG, logPrefix("onDeviceReconnected: disconnect=" + disconnect));
+                if (disconnect)
+                {
+                    disconnect();
+                }
+            }
+        });
+    }
+
+    //package
+    void onDeviceReconnectGaveUp(final int attempts, final long elapsedMillis)
+    {
+        mCallbackExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (GattHandlerListener deviceListener : mListenerManager.beginTraversing())
+                {
+                    deviceListener.onDeviceReconnectGaveUp(FooGattHandler.this,
+                            attempts,
+                            elapsedMillis);
+                }
+                mListenerManager.endTraversing();
+            }
+        });
+    }
+
+    private void applyPerformanceProfile()
+    {
+        FooGattPerformanceProfile performanceProfile = mPerformanceProfile;
+        if (performanceProfile == null)
+        {
+            return;
+        }
+
+        FooLog.v(TAG, logPrefix("applyPerformanceProfile: performanceProfile=" + performanceProfile));
+
+        if (performanceProfile.getMtu() != FooGattPerformanceProfile.UNCHANGED)
+        {
+            enqueueControl(newRequestMtuRequest(performanceProfile.getMtu(),
+                    sDefaultOperationTimeoutMillis,
+                    null));
+        }
+
+        if (performanceProfile.getConnectionPriority() != FooGattPerformanceProfile.UNCHANGED)
+        {
+            enqueueControl(newRequestConnectionPriorityRequest(performanceProfile.getConnectionPriority(),
+                    null));
+        }
+
+        if (performanceProfile.getTxPhy() != FooGattPerformanceProfile.UNCHANGED)
+        {
+            enqueueControl(newSetPreferredPhyRequest(performanceProfile.getTxPhy(),
+                    performanceProfile.getRxPhy(),
+                    performanceProfile.getPhyOptions(),
+                    sDefaultOperationTimeoutMillis,
+                    null));
+        }
+    }
+
+    /**
+     * Queues a link-level request ahead of any regular reads and writes already waiting.
+     */
+    private void enqueueControl(FooGattRequest request)
+    {
+        request.setPriorityInternal(Priority.Control);
+        mOperationQueue.enqueue(request);
+    }
+
+    /**
+     * Requests an ATT MTU using the default operation timeout.
+     * The result is delivered via {@link GattHandlerListener#onDeviceMtuChanged}.
+     *
+     * @param mtu the MTU to request, between {@link #DEFAULT_MTU} and {@link FooGattPerformanceProfile#MAX_MTU}
+     * @return true if the request was enqueued, false if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("UnusedReturnValue")
+    public boolean requestMtu(int mtu)
+    {
+        return requestMtu(mtu, sDefaultOperationTimeoutMillis, null);
+    }
+
+    /**
+     * Requests an ATT MTU with a custom timeout.
+     *
+     * @param mtu             the MTU to request, between {@link #DEFAULT_MTU} and
+     *                        {@link FooGattPerformanceProfile#MAX_MTU}
+     * @param timeoutMillis   maximum time in milliseconds to wait for the MTU exchange
+     * @param runAfterSuccess optional runnable run on the callback thread after a successful exchange;
+     *                        may be null
+     * @return true if the request was enqueued, false if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("WeakerAccess")
+    public boolean requestMtu(int mtu, long timeoutMillis, Runnable runAfterSuccess)
+    {
+        return enqueueRequestMtu(mtu, timeoutMillis, runAfterSuccess) != null;
+    }
+
+    /**
+     * Same as {@link #requestMtu(int, long, Runnable)}, but returns a handle that can be used to observe
+     * or cancel the queued request. {@link FooGattRequest#getMtu()} holds the MTU actually granted.
+     *
+     * @param mtu             the MTU to request, between {@link #DEFAULT_MTU} and
+     *                        {@link FooGattPerformanceProfile#MAX_MTU}
+     * @param timeoutMillis   maximum time in milliseconds, from when the exchange starts, to wait for
+     *                        the MTU callback
+     * @param runAfterSuccess optional runnable run on the callback thread after a successful exchange;
+     *                        may be null
+     * @return the queued request, or null if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("WeakerAccess")
+    public FooGattRequest enqueueRequestMtu(int mtu, long timeoutMillis, Runnable runAfterSuccess)
+    {
+        FooLog.i(TAG, logPrefix("requestMtu(mtu=" + mtu +
+                                ", timeoutMillis=" + timeoutMillis +
+                                ", runAfterSuccess=" + runAfterSuccess + ')'));
+
+        if (mtu < DEFAULT_MTU || mtu > FooGattPerformanceProfile.MAX_MTU)
+        {
+            throw new IllegalArgumentException("mtu must be between " + DEFAULT_MTU +
+                                               " and " + FooGattPerformanceProfile.MAX_MTU);
+        }
+
+        if (!isBluetoothAdapterEnabled("requestMtu"))
+        {
+            return null;
+        }
+
+        if (ignoreIfIsDisconnectingOrDisconnected("requestMtu"))
+        {
+            return null;
+        }
+
+        FooGattRequest request = newRequestMtuRequest(mtu, timeoutMillis, runAfterSuccess);
+
+        mOperationQueue.enqueue(request);
+
+        return request;
+    }
+
+    private FooGattRequest newRequestMtuRequest(final int mtu, long timeoutMillis, Runnable runAfterSuccess)
+    {
+        return new FooGattRequest(GattOperation.RequestMtu,
+                null,
+                null,
+                timeoutMillis,
+                runAfterSuccess)
+        {
+            @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+            @Override
+            boolean start(FooGattTransport gatt)
+            {
+                if (!gatt.requestMtu(mtu))
+                {
+                    FooLog.e(TAG, logPrefix("requestMtu.start: gatt.requestMtu(" + mtu + ") failed"));
+                    return false;
+                }
+
+                return true;
+            }
+        };
+    }
+
+    private void onMtuChanged(@SuppressWarnings("unused") FooGattTransport gatt, int mtu, int status)
+    {
+        FooLog.v(TAG, logPrefix("onMtuChanged(gatt, mtu=" + mtu + ", status=" + status + ')'));
+
+        logStatusIfNotSuccess("onMtuChanged", status, ", mtu=" + mtu);
+
+        boolean success = status == BluetoothGatt.GATT_SUCCESS;
+        if (success)
+        {
+            mMtu = mtu;
+        }
+
+        FooGattRequest request = mOperationQueue.getCurrent(GattOperation.RequestMtu);
+        if (request == null)
+        {
+            // Exchange initiated by the OS or the peripheral
+            return;
+        }
+
+        request.setMtuResult(status, mtu);
+
+        mOperationQueue.complete(request, success ? State.Succeeded : State.Failed);
+    }
+
+    private void onDeviceMtuChanged(final int mtu,
+                                    final boolean success,
+                                    final long elapsedMillis)
+    {
+        mCallbackExecutor.execute(new Runnable()
+        {
+            @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+            public void run()
+            {
+                boolean disconnect = false;
+
+                for (GattHandlerListener deviceListener : mListenerManager.beginTraversing())
+                {
+                    disconnect |= deviceListener.onDeviceMtuChanged(FooGattHandler.this,
+                            mtu,
+                            success,
+                            elapsedMillis);
+                }
+                mListenerManager.endTraversing();
+
+                FooLog.v(TAG, logPrefix("onDeviceMtuChanged: success=" + success +
+                                        ", disconnect=" + disconnect));
+                if (disconnect)
+                {
+                    disconnect();
+                }
+            }
+        });
+    }
+
+    /**
+     * Requests a connection priority (connection interval) for the current connection.
+     * The result is delivered via {@link GattHandlerListener#onDeviceConnectionPriorityRequested}.
+     *
+     * @param connectionPriority one of the {@code BluetoothGatt.CONNECTION_PRIORITY_*} values
+     * @return true if the request was enqueued, false if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("UnusedReturnValue")
+    public boolean requestConnectionPriority(int connectionPriority)
+    {
+        return requestConnectionPriority(connectionPriority, null);
+    }
+
+    /**
+     * Requests a connection priority (connection interval) for the current connection.
+     *
+     * @param connectionPriority one of the {@code BluetoothGatt.CONNECTION_PRIORITY_*} values
+     * @param runAfterSuccess    optional runnable run on the callback thread after the request is accepted;
+     *                           may be null
+     * @return true if the request was enqueued, false if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("WeakerAccess")
+    public boolean requestConnectionPriority(int connectionPriority, Runnable runAfterSuccess)
+    {
+        return enqueueRequestConnectionPriority(connectionPriority, runAfterSuccess) != null;
+    }
+
+    /**
+     * Same as {@link #requestConnectionPriority(int, Runnable)}, but returns a handle that can be used to
+     * observe or cancel the queued request.
+     * <p>
+     * The OS has no completion callback for this operation; the request succeeds as soon as the OS accepts
+     * it, and the new connection interval takes effect shortly after.
+     *
+     * @param connectionPriority one of the {@code BluetoothGatt.CONNECTION_PRIORITY_*} values
+     * @param runAfterSuccess    optional runnable run on the callback thread after the request is accepted;
+     *                           may be null
+     * @return the queued request, or null if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("WeakerAccess")
+    public FooGattRequest enqueueRequestConnectionPriority(int connectionPriority, Runnable runAfterSuccess)
+    {
+        FooLog.i(TAG, logPrefix("requestConnectionPriority(connectionPriority=" + connectionPriority +
+                                ", runAfterSuccess=" + runAfterSuccess + ')'));
+
+        if (!isBluetoothAdapterEnabled("requestConnectionPriority"))
+        {
+            return null;
+        }
+
+        if (ignoreIfIsDisconnectingOrDisconnected("requestConnectionPriority"))
+        {
+            return null;
+        }
+
+        FooGattRequest request = newRequestConnectionPriorityRequest(connectionPriority, runAfterSuccess);
+
+        mOperationQueue.enqueue(request);
+
+        return request;
+    }
+
+    private FooGattRequest newRequestConnectionPriorityRequest(final int connectionPriority,
+                                                               Runnable runAfterSuccess)
+    {
+        return new FooGattRequest(GattOperation.RequestConnectionPriority,
+                null,
+                null,
+                -1,
+                runAfterSuccess)
+        {
+            @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+            @Override
+            boolean start(FooGattTransport gatt)
+            {
+                if (!gatt.requestConnectionPriority(connectionPriority))
+                {
+                    FooLog.e(TAG, logPrefix("requestConnectionPriority.start: gatt.requestConnectionPriority(" +
+                                            connectionPriority + ") failed"));
+                    setConnectionPriorityResult(BluetoothGatt.GATT_FAILURE, connectionPriority);
+                    return false;
+                }
+
+                setConnectionPriorityResult(BluetoothGatt.GATT_SUCCESS, connectionPriority);
+                mOperationQueue.complete(this, State.Succeeded);
+                return true;
+            }
+        };
+    }
+
+    private void onDeviceConnectionPriorityRequested(final int connectionPriority,
+                                                     final boolean success,
+                                                     final long elapsedMillis)
+    {
+        mCallbackExecutor.execute(new Runnable()
+        {
+            @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+            public void run()
+            {
+                boolean disconnect = false;
+
+                for (GattHandlerListener deviceListener : mListenerManager.beginTraversing())
+                {
+                    disconnect |= deviceListener.onDeviceConnectionPriorityRequested(FooGattHandler.this,
+                            connectionPriority,
+                            success,
+                            elapsedMillis);
+                }
+                mListenerManager.endTraversing();
+
+                FooLog.v(TAG, logPrefix("onDeviceConnectionPriorityRequested: success=" + success +
+                                        ", disconnect=" + disconnect));
+                if (disconnect)
+                {
+                    disconnect();
+                }
+            }
+        });
+    }
+
+    /**
+     * Requests the preferred PHYs for the current connection using the default operation timeout.
+     * The result is delivered via {@link GattHandlerListener#onDevicePhyUpdated}.
+     *
+     * @param txPhy      a {@code BluetoothDevice.PHY_LE_*_MASK} combination
+     * @param rxPhy      a {@code BluetoothDevice.PHY_LE_*_MASK} combination
+     * @param phyOptions one of the {@code BluetoothDevice.PHY_OPTION_*} values
+     * @return true if the request was enqueued, false if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("UnusedReturnValue")
+    public boolean setPreferredPhy(int txPhy, int rxPhy, int phyOptions)
+    {
+        return setPreferredPhy(txPhy, rxPhy, phyOptions, sDefaultOperationTimeoutMillis, null);
+    }
+
+    /**
+     * Requests the preferred PHYs for the current connection with a custom timeout.
+     *
+     * @param txPhy           a {@code BluetoothDevice.PHY_LE_*_MASK} combination
+     * @param rxPhy           a {@code BluetoothDevice.PHY_LE_*_MASK} combination
+     * @param phyOptions      one of the {@code BluetoothDevice.PHY_OPTION_*} values
+     * @param timeoutMillis   maximum time in milliseconds to wait for the PHY update
+     * @param runAfterSuccess optional runnable run on the callback thread after a successful update;
+     *                        may be null
+     * @return true if the request was enqueued, false if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("WeakerAccess")
+    public boolean setPreferredPhy(int txPhy, int rxPhy, int phyOptions,
+                                   long timeoutMillis, Runnable runAfterSuccess)
+    {
+        return enqueueSetPreferredPhy(txPhy, rxPhy, phyOptions, timeoutMillis, runAfterSuccess) != null;
     }
 
-    private void onCharacteristicChanged(@SuppressWarnings("unused") BluetoothGatt gatt,
-                                         BluetoothGattCharacteristic characteristic)
+    /**
+     * Same as {@link #setPreferredPhy(int, int, int, long, Runnable)}, but returns a handle that can be used
+     * to observe or cancel the queued request. {@link FooGattRequest#getTxPhy()} and
+     * {@link FooGattRequest#getRxPhy()} hold the PHYs actually selected.
+     *
+     * @param txPhy           a {@code BluetoothDevice.PHY_LE_*_MASK} combination
+     * @param rxPhy           a {@code BluetoothDevice.PHY_LE_*_MASK} combination
+     * @param phyOptions      one of the {@code BluetoothDevice.PHY_OPTION_*} values
+     * @param timeoutMillis   maximum time in milliseconds, from when the request starts, to wait for the
+     *                        PHY update callback
+     * @param runAfterSuccess optional runnable run on the callback thread after a successful update;
+     *                        may be null
+     * @return the queued request, or null if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("WeakerAccess")
+    public FooGattRequest enqueueSetPreferredPhy(int txPhy, int rxPhy, int phyOptions,
+                                                 long timeoutMillis, Runnable runAfterSuccess)
     {
-        if (VERBOSE_LOG_CHARACTERISTIC_CHANGE)
+        FooLog.i(TAG, logPrefix("setPreferredPhy(txPhy=" + txPhy +
+                                ", rxPhy=" + rxPhy +
+                                ", phyOptions=" + phyOptions +
+                                ", timeoutMillis=" + timeoutMillis +
+                                ", runAfterSuccess=" + runAfterSuccess + ')'));
+
+        if (!isBluetoothAdapterEnabled("setPreferredPhy"))
         {
-            FooLog.v(TAG, logPrefix("onCharacteristicChanged: characteristic=" + characteristic.getUuid()));
+            return null;
         }
 
-        //
-        // Handle the case where disconnect has been called, but the OS has queued up lots of characteristic changes
-        //
-        if (ignoreIfIsDisconnectingOrDisconnected("onCharacteristicChanged"))
+        if (ignoreIfIsDisconnectingOrDisconnected("setPreferredPhy"))
         {
-            return;
+            return null;
         }
 
-        //
-        // NOTE:(pv) This method may stream LOTS of data.
-        // To avoid excessive memory allocations, this method intentionally deviates from the other methods' uses of
-        // "mHandler.post(new Runnable() ...)"
-        //
-        mHandlerMain.obtainAndSendMessage(HandlerMainMessages.onCharacteristicChanged, characteristic);
-    }
+        FooGattRequest request = newSetPreferredPhyRequest(txPhy, rxPhy, phyOptions, timeoutMillis, runAfterSuccess);
 
-    private static abstract class HandlerMainMessages
-    {
-        /**
-         * <ul>
-         * <li>msg.arg1: ?</li>
-         * <li>msg.arg2: ?</li>
-         * <li>msg.obj: ?</li>
-         * </li>
-         * </ul>
-         */
-        private static final int SolicitedDisconnectInternalTimeout = 1;
-        /**
-         * <ul>
-         * <li>msg.arg1: ?</li>
-         * <li>msg.arg2: ?</li>
-         * <li>msg.obj: BluetoothGattCharacteristic</li>
-         * </li>
-         * </ul>
-         */
-        private static final int onCharacteristicChanged            = 2;
+        mOperationQueue.enqueue(request);
+
+        return request;
     }
 
-    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
-    private boolean handleMessage(Message msg)
+    private FooGattRequest newSetPreferredPhyRequest(final int txPhy, final int rxPhy, final int phyOptions,
+                                                     long timeoutMillis, Runnable runAfterSuccess)
     {
-        switch (msg.what)
+        return new FooGattRequest(GattOperation.SetPreferredPhy,
+                null,
+                null,
+                timeoutMillis,
+                runAfterSuccess)
         {
-            case HandlerMainMessages.SolicitedDisconnectInternalTimeout:
+            @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+            @Override
+            boolean start(FooGattTransport gatt)
             {
-                FooLog.v(TAG, logPrefix("handleMessage: SolicitedDisconnectInternalTimeout"));
-                onDeviceDisconnected(mBluetoothGatt, -1, DisconnectReason.SolicitedDisconnectTimeout, false);
-                break;
+                // Returns void; completed by onPhyUpdate, even if the controller keeps the current PHYs
+                gatt.setPreferredPhy(txPhy, rxPhy, phyOptions);
+                return true;
             }
-            case HandlerMainMessages.onCharacteristicChanged:
-            {
-                if (ignoreIfIsDisconnectingOrDisconnected("handleMessage: onCharacteristicChanged"))
-                {
-                    return false;
-                }
+        };
+    }
 
-                BluetoothGattCharacteristic characteristic = (BluetoothGattCharacteristic) msg.obj;
-                if (VERBOSE_LOG_CHARACTERISTIC_CHANGE)
-                {
-                    FooLog.v(TAG, logPrefix("handleMessage: onCharacteristicChanged characteristic=" +
-                                            characteristic.getUuid()));
-                }
+    private void onPhyUpdate(@SuppressWarnings("unused") FooGattTransport gatt, int txPhy, int rxPhy, int status)
+    {
+        FooLog.v(TAG, logPrefix("onPhyUpdate(gatt, txPhy=" + txPhy + ", rxPhy=" + rxPhy +
+                                ", status=" + status + ')'));
+
+        logStatusIfNotSuccess("onPhyUpdate", status, ", txPhy=" + txPhy + ", rxPhy=" + rxPhy);
+
+        FooGattRequest request = mOperationQueue.getCurrent(GattOperation.SetPreferredPhy);
+        if (request == null)
+        {
+            // Update initiated by the peripheral
+            return;
+        }
+
+        request.setPhyResult(status, txPhy, rxPhy);
+
+        mOperationQueue.complete(request, status == BluetoothGatt.GATT_SUCCESS ? State.Succeeded : State.Failed);
+    }
 
+    private void onDevicePhyUpdated(final int txPhy,
+                                    final int rxPhy,
+                                    final boolean success,
+                                    final long elapsedMillis)
+    {
+        mCallbackExecutor.execute(new Runnable()
+        {
+            @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+            public void run()
+            {
                 boolean disconnect = false;
 
                 for (GattHandlerListener deviceListener : mListenerManager.beginTraversing())
                 {
-                    disconnect |= deviceListener.onDeviceCharacteristicChanged(FooGattHandler.this, characteristic);
+                    disconnect |= deviceListener.onDevicePhyUpdated(FooGattHandler.this,
+                            txPhy,
+                            rxPhy,
+                            success,
+                            elapsedMillis);
                 }
                 mListenerManager.endTraversing();
 
-                FooLog.v(TAG, logPrefix("handleMessage: onCharacteristicChanged: disconnect=" + disconnect));
+                FooLog.v(TAG, logPrefix("onDevicePhyUpdated: success=" + success +
+                                        ", disconnect=" + disconnect));
                 if (disconnect)
                 {
                     disconnect();
                 }
-
-                break;
             }
-        }
-
-        return false;
+        });
     }
 
+    //
+    //
+    //
+
     /**
      * Reads the remote device's RSSI value using the default operation timeout.
      * The result is delivered via {@link GattHandlerListener#onDeviceReadRemoteRssi}.
@@ -2889,7 +5575,7 @@ public class FooGattHandler
     /**
      * Reads the remote device's RSSI value and executes {@code runAfterSuccess} on success.
      *
-     * @param runAfterSuccess optional runnable posted on the main looper after a successful read;
+     * @param runAfterSuccess optional runnable run on the callback thread after a successful read;
      *                        may be null
      * @return true if the request was enqueued, false if the adapter is disabled or not connected
      */
@@ -2903,96 +5589,90 @@ public class FooGattHandler
      * Reads the remote device's RSSI value with a custom timeout.
      *
      * @param timeoutMillis   maximum time in milliseconds to wait for the RSSI callback
-     * @param runAfterSuccess optional runnable posted on the main looper after a successful read;
+     * @param runAfterSuccess optional runnable run on the callback thread after a successful read;
      *                        may be null
      * @return true if the request was enqueued, false if the adapter is disabled or not connected
      */
     @SuppressWarnings("WeakerAccess")
-    public boolean readRemoteRssi(final long timeoutMillis, final Runnable runAfterSuccess)
+    public boolean readRemoteRssi(long timeoutMillis, Runnable runAfterSuccess)
+    {
+        return enqueueReadRemoteRssi(timeoutMillis, runAfterSuccess) != null;
+    }
+
+    /**
+     * Same as {@link #readRemoteRssi(long, Runnable)}, but returns a handle that can be used to observe
+     * or cancel the queued request.
+     *
+     * @param timeoutMillis   maximum time in milliseconds, from when the read starts, to wait for the
+     *                        RSSI callback
+     * @param runAfterSuccess optional runnable run on the callback thread after a successful read;
+     *                        may be null
+     * @return the queued request, or null if the adapter is disabled or not connected
+     */
+    @SuppressWarnings("WeakerAccess")
+    public FooGattRequest enqueueReadRemoteRssi(final long timeoutMillis, final Runnable runAfterSuccess)
     {
         FooLog.i(TAG, logPrefix("+readRemoteRssi(timeoutMillis=" + timeoutMillis +
                                 ", runAfterSuccess=" + runAfterSuccess + ')'));
 
         if (!isBluetoothAdapterEnabled("readRemoteRssi"))
         {
-            return false;
+            return null;
         }
 
         if (ignoreIfIsDisconnectingOrDisconnected("readRemoteRssi"))
         {
-            return false;
+            return null;
         }
 
-        final GattOperation operation = GattOperation.ReadRemoteRssi;
-
-        final long startTimeMillis = timerStart(operation);
-
-        mHandlerBackground.post(new Runnable()
+        FooGattRequest request = new FooGattRequest(GattOperation.ReadRemoteRssi,
+                null,
+                null,
+                timeoutMillis,
+                runAfterSuccess)
         {
             @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
-            public void run()
+            @Override
+            boolean start(FooGattTransport gatt)
             {
-                try
-                {
-                    FooLog.v(TAG, logPrefix("+readRemoteRssi.run(): timeoutMillis=" + timeoutMillis + ')'));
-
-                    BluetoothGatt gatt = pendingOperationWaitReset("readRemoteRssi", startTimeMillis);
-                    if (gatt == null)
-                    {
-                        onDeviceReadRemoteRssi(-1, false);
-                        return;
-                    }
-
-                    if (!gatt.readRemoteRssi())
-                    {
-                        FooLog.e(TAG, logPrefix("readRemoteRssi.run: gatt.readRemoteRssi() failed"));
-                        onDeviceReadRemoteRssi(-1, false);
-                        return;
-                    }
-
-                    if (!pendingOperationWait(operation, timeoutMillis))
-                    {
-                        return;
-                    }
-
-                    if (runAfterSuccess != null)
-                    {
-                        mHandlerMain.post(runAfterSuccess);
-                    }
-                }
-                finally
+                if (!gatt.readRemoteRssi())
                 {
-                    FooLog.v(TAG, logPrefix("-readRemoteRssi.run(): timeoutMillis=" + timeoutMillis + ')'));
+                    FooLog.e(TAG, logPrefix("readRemoteRssi.start: gatt.readRemoteRssi() failed"));
+                    return false;
                 }
+
+                return true;
             }
-        });
+        };
 
-        return true;
+        mOperationQueue.enqueue(request);
+
+        return request;
     }
 
-    private void onReadRemoteRssi(@SuppressWarnings("unused") BluetoothGatt gatt, int rssi, int status)
+    private void onReadRemoteRssi(@SuppressWarnings("unused") FooGattTransport gatt, int rssi, int status)
     {
         FooLog.v(TAG, logPrefix("onReadRemoteRssi(gatt, rssi=" + rssi + ", status=" + status + ')'));
 
         logStatusIfNotSuccess("onReadRemoteRssi", status, ", rssi=" + rssi);
 
-        boolean success = status == BluetoothGatt.GATT_SUCCESS;
-
-        onDeviceReadRemoteRssi(rssi, success);
-    }
-
-    private void onDeviceReadRemoteRssi(final int rssi,
-                                        final boolean success)
-    {
-        if (!pendingOperationWaitSignal())
+        FooGattRequest request = mOperationQueue.getCurrent(GattOperation.ReadRemoteRssi);
+        if (request == null)
         {
-            FooLog.w(TAG, logPrefix("onDeviceReadRemoteRssi: pendingOperationWaitSignal() == false; ignoring"));
+            FooLog.w(TAG, logPrefix("onReadRemoteRssi: no ReadRemoteRssi request executing; ignoring"));
             return;
         }
 
-        final long elapsedMillis = timerElapsed(GattOperation.ReadRemoteRssi, true);
+        request.setResult(status, rssi);
+
+        mOperationQueue.complete(request, status == BluetoothGatt.GATT_SUCCESS ? State.Succeeded : State.Failed);
+    }
 
-        mHandlerMain.post(new Runnable()
+    private void onDeviceReadRemoteRssi(final int rssi,
+                                        final boolean success,
+                                        final long elapsedMillis)
+    {
+        mCallbackExecutor.execute(new Runnable()
         {
             @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
             public void run()
@@ -3022,6 +5702,170 @@ public class FooGattHandler
     //
     //
 
+    /**
+     * Called by {@link #mOperationQueue} exactly once per request, from whichever thread completed it.
+     * Dispatches the matching {@link GattHandlerListener} callback, then {@code runAfterSuccess}, then the
+     * request's own {@link FooGattRequestCallbacks}, all in that order on mCallbackExecutor; any
+     * {@link FooGattRequest.DirectCallbacks} are invoked right here instead.
+     * <p>
+     * {@link State#Canceled} requests were abandoned by a disconnect or by the caller and only notify
+     * their own callbacks.
+     *
+     * @param request   the completed request
+     * @param callbacks the request's callbacks at the time it completed
+     */
+    //package
+    void onRequestCompleted(final FooGattRequest request, final List<FooGattRequestCallbacks> callbacks)
+    {
+        GattOperation operation = request.getOperation();
+        State state = request.getState();
+        long elapsedMillis = request.getElapsedMillis();
+        boolean success = state == State.Succeeded;
+
+        mTrace.recordRequestCompleted(request);
+
+        if (operation == GattOperation.CharacteristicRead && request.getServiceUuid() != null)
+        {
+            synchronized (mInFlightReads)
+            {
+                CharacteristicKey key = new CharacteristicKey(request.getServiceUuid(), request.getCharacteristicUuid());
+                InFlightRead inFlightRead = mInFlightReads.get(key);
+                if (inFlightRead != null && inFlightRead.mRequest == request)
+                {
+                    mInFlightReads.remove(key);
+                }
+            }
+        }
+
+        if (request instanceof FooGattBulkTransfer)
+        {
+            // Counted whatever the outcome; the chunks were sent
+            mMetrics.addBytesWritten(((FooGattBulkTransfer) request).getBytesSent());
+        }
+
+        switch (state)
+        {
+            case Succeeded:
+            case Failed:
+                switch (operation)
+                {
+                    case DiscoverServices:
+                    {
+                        long discoverServicesElapsedMillis = timerElapsed(GattOperation.DiscoverServices, true);
+                        mMetrics.recordLatency(GattOperation.DiscoverServices, discoverServicesElapsedMillis);
+                        if (!request.requiresConnection())
+                        {
+                            // The connect request, from connectGatt to services discovered
+                            mMetrics.recordLatency(GattOperation.Connect, elapsedMillis);
+                        }
+                        onDeviceServicesDiscovered(request.getServices(), success, discoverServicesElapsedMillis);
+                        break;
+                    }
+                    case CharacteristicRead:
+                        if (success)
+                        {
+                            byte[] value = request.getValue();
+                            mMetrics.addBytesRead(value != null ? value.length : 0);
+                        }
+                        mMetrics.recordLatency(operation, elapsedMillis);
+                        if (request.isReportedToListeners())
+                        {
+                            onDeviceCharacteristicRead(request.getCharacteristic(), success, elapsedMillis);
+                        }
+                        break;
+                    case CharacteristicWrite:
+                        mMetrics.recordLatency(operation, elapsedMillis);
+                        onDeviceCharacteristicWrite(request.getCharacteristic(), success, elapsedMillis);
+                        break;
+                    case CharacteristicSetNotification:
+                        mMetrics.recordLatency(operation, elapsedMillis);
+                        if (request.isReportedToListeners())
+                        {
+                            onDeviceCharacteristicSetNotification(request.getCharacteristic(), success, elapsedMillis);
+                        }
+                        break;
+                    case ReadRemoteRssi:
+                        mMetrics.recordLatency(operation, elapsedMillis);
+                        onDeviceReadRemoteRssi(request.getRssi(), success, elapsedMillis);
+                        break;
+                    case CharacteristicBulkWrite:
+                        mMetrics.recordLatency(operation, elapsedMillis);
+                        // FooGattBulkTransfer reports to its own callbacks
+                        break;
+                    case RequestMtu:
+                        mMetrics.recordLatency(operation, elapsedMillis);
+                        onDeviceMtuChanged(success ? request.getMtu() : mMtu, success, elapsedMillis);
+                        break;
+                    case RequestConnectionPriority:
+                        mMetrics.recordLatency(operation, elapsedMillis);
+                        onDeviceConnectionPriorityRequested(request.getConnectionPriority(), success, elapsedMillis);
+                        break;
+                    case SetPreferredPhy:
+                        mMetrics.recordLatency(operation, elapsedMillis);
+                        onDevicePhyUpdated(request.getTxPhy(), request.getRxPhy(), success, elapsedMillis);
+                        break;
+                }
+                break;
+            case TimedOut:
+                FooLog.w(TAG, logPrefix("onRequestCompleted: operation=" + operation +
+                                        ", elapsedMillis=" + elapsedMillis + "; *TIMED OUT*"));
+                mMetrics.recordTimeout(request.requiresConnection() ? operation : GattOperation.Connect);
+                onDeviceOperationTimeout(operation, request.getTimeoutMillis(), elapsedMillis);
+                break;
+            case Canceled:
+                FooLog.v(TAG, logPrefix("onRequestCompleted: operation=" + operation +
+                                        ", elapsedMillis=" + elapsedMillis + "; CANCELED"));
+                break;
+            case Expired:
+                FooLog.w(TAG, logPrefix("onRequestCompleted: operation=" + operation +
+                                        ", elapsedMillis=" + elapsedMillis + "; EXPIRED"));
+                break;
+        }
+
+        Runnable runAfterSuccess = request.getRunAfterSuccess();
+        if (success && runAfterSuccess != null)
+        {
+            mCallbackExecutor.execute(runAfterSuccess);
+        }
+
+        final List<FooGattRequestCallbacks> postedCallbacks = new ArrayList<>(callbacks.size());
+        for (FooGattRequestCallbacks callback : callbacks)
+        {
+            if (callback instanceof FooGattRequest.DirectCallbacks)
+            {
+                callback.onGattRequestCompleted(request);
+            }
+            else
+            {
+                postedCallbacks.add(callback);
+            }
+        }
+
+        if (!postedCallbacks.isEmpty())
+        {
+            mCallbackExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for (FooGattRequestCallbacks callback : postedCallbacks)
+                    {
+                        callback.onGattRequestCompleted(request);
+                    }
+                }
+            });
+        }
+    }
+
+    //
+    //
+    //
+
+    /**
+     * @deprecated No longer used by {@link FooGattHandler}; operations complete through a non-blocking
+     * {@link FooGattRequest} instead of waiting on this event. Kept for existing callers and will be removed.
+     */
+    @Deprecated
     public static class AutoResetEvent
     {
         private static final String TAG = FooLog.TAG(AutoResetEvent.class);
@@ -3197,111 +6041,4 @@ public class FooGattHandler
             }
         }
     }
-
-    //
-    //
-    //
-
-    private BluetoothGatt pendingOperationWaitReset(String callerName, long startTimeMillis)
-    {
-        mBackgroundPendingOperationSignal.reset(startTimeMillis);
-
-        BluetoothGatt gatt = getBluetoothGatt(true);
-        if (gatt == null)
-        {
-            FooLog.w(TAG, logPrefix(callerName + ": getBluetoothGatt(true) == null; ignoring"));
-        }
-        return gatt;
-    }
-
-    @SuppressWarnings("BooleanMethodIsAlwaysInverted")
-    private boolean pendingOperationWaitSignal()
-    {
-        return mBackgroundPendingOperationSignal.signal();
-    }
-
-    /**
-     * @param operation     GattOperation
-     * @param timeoutMillis long
-     * @return true if signaled, otherwise false
-     */
-    @SuppressWarnings("BooleanMethodIsAlwaysInverted")
-    private boolean pendingOperationWait(GattOperation operation, long timeoutMillis)
-    {
-        /*
-        if (isDisconnectingOrDisconnected("pendingOperationWait"))
-        {
-            FooLog.v(TAG, logPrefix("pendingOperationWait: isDisconnectingOrDisconnected(...) == true; ignoring"));
-            return false;
-        }
-        */
-
-        FooLog.v(TAG, logPrefix("pendingOperationWait: operation=" + operation +
-                                " +waitOne(" + timeoutMillis + ')'));
-        Long elapsedMillis = mBackgroundPendingOperationSignal.waitOne(timeoutMillis);
-        FooLog.v(TAG, logPrefix("pendingOperationWait: operation=" + operation +
-                                " -waitOne(" + timeoutMillis + "); elapsedMillis=" + elapsedMillis));
-
-        switch (operation)
-        {
-            case CharacteristicSetNotification:
-                mIsWaitingForCharacteristicSetNotification = false;
-                break;
-        }
-
-        boolean signaled;
-        if (elapsedMillis == null || elapsedMillis < 0)
-        {
-            signaled = false;
-            if (elapsedMillis != null)
-            {
-                elapsedMillis = -elapsedMillis;
-            }
-            else
-            {
-                FooLog.e(TAG, logPrefix("pendingOperationWait: REPRO IllegalStateException: reset(long startTimeMillis) must be called before waitOne(long timeoutMillis)"));
-            }
-        }
-        else
-        {
-            signaled = true;
-        }
-
-        String resultText;
-        boolean success;
-
-        if (signaled && elapsedMillis <= timeoutMillis)
-        {
-            resultText = "SIGNALED/COMPLETED";
-            success = true;
-        }
-        else
-        {
-            if (elapsedMillis == null)
-            {
-                resultText = "NOT CONNECTED";
-                elapsedMillis = 0L;
-            }
-            else
-            {
-                resultText = elapsedMillis >= timeoutMillis ? "*TIMED OUT*" : "CANCELED/INTERRUPTED";
-            }
-            success = false;
-        }
-
-        resultText = logPrefix("pendingOperationWait: operation=" + operation +
-                               ", elapsedMillis=" + elapsedMillis + "; " + resultText);
-
-        if (success)
-        {
-            FooLog.v(TAG, resultText);
-        }
-        else
-        {
-            FooLog.w(TAG, resultText);
-            onDeviceOperationTimeout(operation, timeoutMillis, elapsedMillis);
-        }
-
-        return success;
-    }
 }
@@ -6,10 +6,21 @@ import android.os.Looper;
 
 import androidx.annotation.RequiresPermission;
 
-import com.smartfoo.android.core.collections.FooLongSparseArray;
+import com.smartfoo.android.core.bluetooth.FooBluetoothAdapterStateListener;
+import com.smartfoo.android.core.bluetooth.FooBluetoothAdapterStateListener.FooBluetoothAdapterStateCallbacks;
+import com.smartfoo.android.core.collections.FooConcurrentLongObjectHashMap;
 import com.smartfoo.android.core.logging.FooLog;
 
-import java.util.Iterator;
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongFunction;
 
 /**
  * Manages a pool of {@link FooGattHandler} instances keyed by remote device address.
@@ -18,14 +29,50 @@ import java.util.Iterator;
  * request and reuses it for subsequent requests to the same address. Call
  * {@link FooGattHandler#close()} on the returned handler to release it from the pool, or call
  * {@link #close()} to disconnect and release all handlers at once.</p>
+ *
+ * <p>All handlers share one bounded background executor; each handler runs its work on its own serial
+ * sub-queue of that executor, so per-device ordering is preserved no matter how many devices are open.
+ * Pool threads are started on demand and exit after being idle for the keep-alive time, so closing
+ * handlers gives their threads back.</p>
+ *
+ * <p>The manager also caches every device's last discovered {@link FooGattDatabase} in memory and in the
+ * context's cache directory, so a handler knows a device's layout as soon as it starts connecting to it again;
+ * see {@link FooGattHandler#getCachedDatabase()}.</p>
  */
 public class FooGattManager
 {
     private static final String TAG = FooLog.TAG(FooGattManager.class);
 
-    private final Context                            mContext;
-    private final Looper                             mLooper;
-    private final FooLongSparseArray<FooGattHandler> mGattHandlers;
+    @SuppressWarnings("WeakerAccess")
+    public static final int DEFAULT_MAX_BACKGROUND_THREADS       = 2;
+    @SuppressWarnings("WeakerAccess")
+    public static final int DEFAULT_BACKGROUND_KEEP_ALIVE_MILLIS = 10 * 1000;
+    @SuppressWarnings("WeakerAccess")
+    public static final int DEFAULT_MAX_CALLBACK_THREADS         = 2;
+
+    private static final String GATT_DATABASE_CACHE_DIRECTORY = "FooGattDatabaseCache";
+
+    private final Context                                        mContext;
+    private final Looper                                         mLooper;
+    private final FooConcurrentLongObjectHashMap<FooGattHandler> mGattHandlers;
+    private final LongFunction<FooGattHandler>                   mGattHandlerFactory;
+    private final ThreadPoolExecutor                             mExecutorBackground;
+    /**
+     * Only runs listener callbacks of handlers set to {@link FooGattHandler.CallbackThread#Background}, which may
+     * block, so it is kept apart from mExecutorBackground, which must not
+     */
+    private final ThreadPoolExecutor                             mExecutorCallbacks;
+    private final ScheduledThreadPoolExecutor                    mExecutorTimeouts;
+    /**
+     * Only reads and writes {@link #mGattDatabaseCache} files; a single thread, so slow storage cannot stall
+     * mExecutorBackground, which must not block
+     */
+    private final ThreadPoolExecutor                             mExecutorDisk;
+    private final FooGattDatabaseCache                           mGattDatabaseCache;
+    private final FooBluetoothAdapterStateListener               mBluetoothAdapterStateListener;
+    private final FooGattMetrics                                 mMetrics;
+
+    private volatile FooGattTransport.Factory mTransportFactory;
 
     /**
      * Creates a manager that dispatches GATT callbacks on the main looper.
@@ -44,6 +91,22 @@ public class FooGattManager
      * @param looper  the looper to use for GATT callbacks; if null, the main looper is used
      */
     public FooGattManager(Context context, Looper looper)
+    {
+        this(context, looper, DEFAULT_MAX_BACKGROUND_THREADS, DEFAULT_BACKGROUND_KEEP_ALIVE_MILLIS);
+    }
+
+    /**
+     * Creates a manager with a custom background executor size.
+     *
+     * @param context              application or activity context; must not be null
+     * @param looper               the looper to use for GATT callbacks; if null, the main looper is used
+     * @param maxBackgroundThreads the maximum number of background threads shared by all handlers;
+     *                             must be positive
+     * @param keepAliveMillis      how long an idle background thread is kept before it exits; must be
+     *                             positive
+     */
+    @SuppressWarnings("WeakerAccess")
+    public FooGattManager(Context context, Looper looper, int maxBackgroundThreads, long keepAliveMillis)
     {
         if (context == null)
         {
@@ -58,7 +121,81 @@ public class FooGattManager
         mContext = context;
         mLooper = looper;
 
-        mGattHandlers = new FooLongSparseArray<>();
+        if (maxBackgroundThreads <= 0)
+        {
+            throw new IllegalArgumentException("maxBackgroundThreads must be > 0");
+        }
+
+        if (keepAliveMillis <= 0)
+        {
+            throw new IllegalArgumentException("keepAliveMillis must be > 0");
+        }
+
+        mGattHandlers = new FooConcurrentLongObjectHashMap<>();
+        mGattHandlerFactory = new LongFunction<FooGattHandler>()
+        {
+            @Override
+            public FooGattHandler apply(long deviceAddress)
+            {
+                // Read its cached database now, so it is in memory before the first connect needs it
+                mGattDatabaseCache.load(deviceAddress);
+                return new FooGattHandler(FooGattManager.this, deviceAddress);
+            }
+        };
+
+        mExecutorBackground = new ThreadPoolExecutor(maxBackgroundThreads, maxBackgroundThreads,
+                keepAliveMillis, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory("FooGattManager.mExecutorBackground"));
+        mExecutorBackground.allowCoreThreadTimeOut(true);
+
+        mExecutorCallbacks = new ThreadPoolExecutor(DEFAULT_MAX_CALLBACK_THREADS, DEFAULT_MAX_CALLBACK_THREADS,
+                keepAliveMillis, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory("FooGattManager.mExecutorCallbacks"));
+        mExecutorCallbacks.allowCoreThreadTimeOut(true);
+
+        mExecutorTimeouts = new ScheduledThreadPoolExecutor(1,
+                new NamedThreadFactory("FooGattManager.mExecutorTimeouts"));
+        mExecutorTimeouts.setRemoveOnCancelPolicy(true);
+        mExecutorTimeouts.setKeepAliveTime(keepAliveMillis, TimeUnit.MILLISECONDS);
+        mExecutorTimeouts.allowCoreThreadTimeOut(true);
+
+        mExecutorDisk = new ThreadPoolExecutor(1, 1,
+                keepAliveMillis, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory("FooGattManager.mExecutorDisk"));
+        mExecutorDisk.allowCoreThreadTimeOut(true);
+
+        mGattDatabaseCache = new FooGattDatabaseCache(new File(context.getCacheDir(), GATT_DATABASE_CACHE_DIRECTORY),
+                mExecutorDisk);
+
+        mBluetoothAdapterStateListener = new FooBluetoothAdapterStateListener(context);
+
+        mMetrics = new FooGattMetrics(null);
+
+        mTransportFactory = new FooGattBluetoothTransport.Factory(context);
+    }
+
+    //package
+    static class NamedThreadFactory
+            implements ThreadFactory
+    {
+        private final String        mName;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        NamedThreadFactory(String name)
+        {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, mName + '#' + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 
     /**
@@ -77,8 +214,180 @@ public class FooGattManager
         return mLooper;
     }
 
+    /**
+     * @return the bounded executor that every handler's serial sub-queue runs on
+     */
+    //package
+    Executor getBackgroundExecutor()
+    {
+        return mExecutorBackground;
+    }
+
+    /**
+     * @return the executor that every {@link FooGattHandler.CallbackThread#Background} handler's serial callback
+     * queue runs on; separate from {@link #getBackgroundExecutor()}, so slow listeners cannot stall GATT operations
+     */
+    //package
+    Executor getCallbackExecutor()
+    {
+        return mExecutorCallbacks;
+    }
+
+    /**
+     * Only used to schedule operation timeouts; the scheduled tasks immediately hand off to the owning
+     * handler's serial sub-queue.
+     *
+     * @return the shared single-thread timeout scheduler
+     */
+    //package
+    ScheduledExecutorService getTimeoutExecutor()
+    {
+        return mExecutorTimeouts;
+    }
+
+    /**
+     * Starts forwarding Bluetooth adapter state changes to every handler's {@link FooGattReconnector}, so that
+     * reconnect attempts pause while the adapter is off. Harmless if already started; stopped by
+     * {@link #close()}.
+     */
+    //package
+    void startBluetoothAdapterStateListener()
+    {
+        synchronized (mBluetoothAdapterStateListener)
+        {
+            if (mBluetoothAdapterStateListener.isStarted())
+            {
+                return;
+            }
+
+            mBluetoothAdapterStateListener.start(new FooBluetoothAdapterStateCallbacks()
+            {
+                @Override
+                public void onBluetoothAdapterEnabled()
+                {
+                    onBluetoothAdapterStateChanged(true);
+                }
+
+                @Override
+                public void onBluetoothAdapterDisabled()
+                {
+                    onBluetoothAdapterStateChanged(false);
+                }
+            });
+        }
+    }
+
+    private void onBluetoothAdapterStateChanged(boolean enabled)
+    {
+        FooLog.v(TAG, "onBluetoothAdapterStateChanged(enabled=" + enabled + ')');
+
+        for (FooGattHandler gattHandler : mGattHandlers.getValues())
+        {
+            gattHandler.onBluetoothAdapterStateChanged(enabled);
+        }
+    }
+
+    //package
+    FooGattDatabaseCache getGattDatabaseCache()
+    {
+        return mGattDatabaseCache;
+    }
+
+    /**
+     * Forgets a device's cached {@link FooGattDatabase}, for example after it was unpaired or its firmware was
+     * updated. Its next connect then waits for service discovery like a first connect.
+     *
+     * @param deviceAddress deviceAddress
+     */
+    @SuppressWarnings("unused")
+    public void removeCachedGattDatabase(long deviceAddress)
+    {
+        FooGattUtils.throwExceptionIfInvalidBluetoothAddress(deviceAddress);
+
+        mGattDatabaseCache.remove(deviceAddress);
+    }
+
+    /**
+     * Forgets every device's cached {@link FooGattDatabase}.
+     */
+    @SuppressWarnings("unused")
+    public void clearCachedGattDatabases()
+    {
+        mGattDatabaseCache.clear();
+    }
+
+    /**
+     * @return the factory that handlers connect through
+     */
+    public FooGattTransport.Factory getTransportFactory()
+    {
+        return mTransportFactory;
+    }
+
+    /**
+     * Replaces the factory that handlers connect through, such as with a {@link FooGattSimulator} to run
+     * without Bluetooth hardware. Takes effect at each handler's next connect.
+     *
+     * @param transportFactory the factory, or null to connect to real devices through
+     *                         {@link FooGattBluetoothTransport}
+     */
+    @SuppressWarnings("unused")
+    public void setTransportFactory(FooGattTransport.Factory transportFactory)
+    {
+        if (transportFactory == null)
+        {
+            transportFactory = new FooGattBluetoothTransport.Factory(mContext);
+        }
+        mTransportFactory = transportFactory;
+    }
+
+    /**
+     * @return the operation latencies, timeouts and throughput counters of every handler this manager has
+     * allocated, including closed ones
+     */
+    public FooGattMetrics getMetrics()
+    {
+        return mMetrics;
+    }
+
+    /**
+     * @return a multi-line, human readable summary of {@link #getMetrics()} followed by that of each open
+     * handler
+     */
+    public String getMetricsDebugString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("GATT (all devices): ").append(mMetrics.getSnapshot().toDebugString());
+        for (FooGattHandler gattHandler : mGattHandlers.getValues())
+        {
+            sb.append("\n\nGATT ").append(gattHandler.getDeviceAddressString()).append(": ")
+              .append(gattHandler.getMetrics().getSnapshot().toDebugString());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the maximum number of background threads shared by all handlers
+     */
+    @SuppressWarnings("unused")
+    public int getMaxBackgroundThreads()
+    {
+        return mExecutorBackground.getMaximumPoolSize();
+    }
+
+    /**
+     * @return the number of background threads currently alive, busy or idle
+     */
+    @SuppressWarnings("unused")
+    public int getBackgroundThreadCount()
+    {
+        return mExecutorBackground.getPoolSize();
+    }
+
     /**
      * Allocates a GattHandler. To free the GattHandler, call {@link FooGattHandler#close()}
+     * <p>Safe to call from any thread; concurrent calls for one address get the same handler, and calls for
+     * different addresses rarely wait for each other.</p>
      *
      * @param deviceAddress deviceAddress
      * @return never null
@@ -87,17 +396,12 @@ public class FooGattManager
     {
         FooGattUtils.throwExceptionIfInvalidBluetoothAddress(deviceAddress);
 
-        synchronized (mGattHandlers)
+        FooGattHandler gattHandler = mGattHandlers.get(deviceAddress);
+        if (gattHandler == null)
         {
-            FooGattHandler gattHandler = mGattHandlers.get(deviceAddress);
-            if (gattHandler == null)
-            {
-                gattHandler = new FooGattHandler(this, deviceAddress);
-                mGattHandlers.put(deviceAddress, gattHandler);
-            }
-
-            return gattHandler;
+            gattHandler = mGattHandlers.computeIfAbsent(deviceAddress, mGattHandlerFactory);
         }
+        return gattHandler;
     }
 
     //package
@@ -108,8 +412,8 @@ public class FooGattManager
             throw new IllegalArgumentException("gattHandler must not be null");
         }
 
-        long deviceAddress = gattHandler.getDeviceAddressLong();
-        mGattHandlers.remove(deviceAddress);
+        // Only if it is still the pooled one; a closed handler must not remove one allocated after it
+        mGattHandlers.remove(gattHandler.getDeviceAddressLong(), gattHandler);
     }
 
     /**
@@ -121,14 +425,15 @@ public class FooGattManager
     {
         FooLog.v(TAG, "+close()");
 
-        synchronized (mGattHandlers)
+        synchronized (mBluetoothAdapterStateListener)
         {
-            Iterator<FooGattHandler> it = mGattHandlers.iterateValues();
-            while (it.hasNext())
-            {
-                FooGattHandler gattHandler = it.next();
-                it.remove();
+            mBluetoothAdapterStateListener.stop();
+        }
 
+        for (FooGattHandler gattHandler : mGattHandlers.getValues())
+        {
+            if (mGattHandlers.remove(gattHandler.getDeviceAddressLong(), gattHandler))
+            {
                 gattHandler.close(false);
             }
         }
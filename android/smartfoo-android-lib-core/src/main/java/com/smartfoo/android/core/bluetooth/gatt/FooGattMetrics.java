@@ -0,0 +1,317 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.bluetooth.gatt.FooGattHandler.GattHandlerListener.GattOperation;
+import com.smartfoo.android.core.collections.FooHistogram;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms, timeout counts and byte/notification counters for one {@link FooGattHandler}, or for
+ * every handler of a {@link FooGattManager}.
+ *
+ * <p>Each handler records into its own instance, which forwards every record to its manager's instance, so
+ * the manager-wide figures survive handlers being closed. Recording never allocates or blocks on a
+ * shared lock; call {@link #getSnapshot()} for a copy to inspect or display.</p>
+ */
+public class FooGattMetrics
+{
+    /**
+     * Latencies above this are counted in the highest bucket
+     */
+    private static final long HIGHEST_TRACKABLE_LATENCY_MILLIS = 10 * 60 * 1000;
+
+    private static final GattOperation[] OPERATIONS = GattOperation.values();
+
+    /**
+     * An immutable copy of a {@link FooGattMetrics} at one point in time.
+     */
+    public static class Snapshot
+    {
+        private final long           mStartElapsedRealtime;
+        private final long           mElapsedRealtime;
+        private final FooHistogram[] mLatencies;
+        private final long[]         mTimeoutCounts;
+        private final long           mBytesRead;
+        private final long           mBytesWritten;
+        private final long           mBytesNotified;
+        private final long           mNotificationCount;
+
+        private Snapshot(FooGattMetrics metrics)
+        {
+            mElapsedRealtime = SystemClock.elapsedRealtime();
+            synchronized (metrics)
+            {
+                mStartElapsedRealtime = metrics.mStartElapsedRealtime;
+                mLatencies = new FooHistogram[OPERATIONS.length];
+                mTimeoutCounts = new long[OPERATIONS.length];
+                for (int i = 0; i < OPERATIONS.length; i++)
+                {
+                    mLatencies[i] = new FooHistogram(metrics.mLatencies[i]);
+                    mTimeoutCounts[i] = metrics.mTimeoutCounts.get(i);
+                }
+                mBytesRead = metrics.mBytesRead.get();
+                mBytesWritten = metrics.mBytesWritten.get();
+                mBytesNotified = metrics.mBytesNotified.get();
+                mNotificationCount = metrics.mNotificationCount.get();
+            }
+        }
+
+        @NonNull
+        @Override
+        public String toString()
+        {
+            return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+                   "{ getIntervalMillis()=" + getIntervalMillis() +
+                   ", mBytesRead=" + mBytesRead +
+                   ", mBytesWritten=" + mBytesWritten +
+                   ", mBytesNotified=" + mBytesNotified +
+                   ", mNotificationCount=" + mNotificationCount +
+                   " }";
+        }
+
+        /**
+         * @return a multi-line, human readable summary of every operation that was recorded
+         */
+        @NonNull
+        public String toDebugString()
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.US, "interval=%.1fs, read=%dB, written=%dB, notified=%dB in %d notifications (%.1f/s)",
+                    getIntervalMillis() / 1000.0,
+                    mBytesRead,
+                    mBytesWritten,
+                    mBytesNotified,
+                    mNotificationCount,
+                    getNotificationsPerSecond()));
+            for (GattOperation operation : OPERATIONS)
+            {
+                FooHistogram latency = mLatencies[operation.ordinal()];
+                long timeoutCount = mTimeoutCounts[operation.ordinal()];
+                if (latency.getCount() == 0 && timeoutCount == 0)
+                {
+                    continue;
+                }
+                sb.append('\n').append(String.format(Locale.US,
+                        "%s: n=%d, timeouts=%d, min=%dms, p50=%dms, p90=%dms, p99=%dms, max=%dms",
+                        operation,
+                        latency.getCount(),
+                        timeoutCount,
+                        latency.getMin(),
+                        latency.getValueAtPercentile(50),
+                        latency.getValueAtPercentile(90),
+                        latency.getValueAtPercentile(99),
+                        latency.getMax()));
+            }
+            return sb.toString();
+        }
+
+        /**
+         * @return the milliseconds between the metrics being created or {@link #reset()} and this snapshot
+         */
+        public long getIntervalMillis()
+        {
+            return mElapsedRealtime - mStartElapsedRealtime;
+        }
+
+        /**
+         * @return the {@link SystemClock#elapsedRealtime()} at which this snapshot was taken
+         */
+        public long getElapsedRealtime()
+        {
+            return mElapsedRealtime;
+        }
+
+        /**
+         * @param operation the operation
+         * @return a copy of the latencies of every {@code operation} that succeeded or failed, in milliseconds
+         */
+        @NonNull
+        public FooHistogram getLatencyMillis(@NonNull GattOperation operation)
+        {
+            return new FooHistogram(mLatencies[operation.ordinal()]);
+        }
+
+        /**
+         * @param operation the operation
+         * @return the number of {@code operation}s that timed out
+         */
+        public long getTimeoutCount(@NonNull GattOperation operation)
+        {
+            return mTimeoutCounts[operation.ordinal()];
+        }
+
+        public long getBytesRead()
+        {
+            return mBytesRead;
+        }
+
+        /**
+         * @return the bytes handed to the stack by characteristic writes and bulk transfers
+         */
+        public long getBytesWritten()
+        {
+            return mBytesWritten;
+        }
+
+        public long getBytesNotified()
+        {
+            return mBytesNotified;
+        }
+
+        public long getNotificationCount()
+        {
+            return mNotificationCount;
+        }
+
+        /**
+         * @return the mean notification rate over {@link #getIntervalMillis()}
+         */
+        public double getNotificationsPerSecond()
+        {
+            long intervalMillis = getIntervalMillis();
+            return intervalMillis > 0 ? mNotificationCount * 1000.0 / intervalMillis : 0;
+        }
+
+        /**
+         * @param earlier a snapshot of the same metrics taken before this one
+         * @return the notification rate between {@code earlier} and this snapshot, such as over the last
+         * second when sampling once a second
+         */
+        public double getNotificationsPerSecondSince(@NonNull Snapshot earlier)
+        {
+            long intervalMillis = mElapsedRealtime - earlier.mElapsedRealtime;
+            return intervalMillis > 0 ? (mNotificationCount - earlier.mNotificationCount) * 1000.0 / intervalMillis : 0;
+        }
+    }
+
+    private final FooGattMetrics  mParent;
+    /**
+     * Indexed by {@link GattOperation#ordinal()}; each histogram is thread-safe
+     */
+    private final FooHistogram[]  mLatencies;
+    private final AtomicLongArray mTimeoutCounts;
+    private final AtomicLong      mBytesRead;
+    private final AtomicLong      mBytesWritten;
+    private final AtomicLong      mBytesNotified;
+    private final AtomicLong      mNotificationCount;
+
+    /**
+     * synchronized behind this
+     */
+    private long mStartElapsedRealtime;
+
+    /**
+     * @param parent the metrics to also record everything into, or null
+     */
+    FooGattMetrics(FooGattMetrics parent)
+    {
+        mParent = parent;
+        mLatencies = new FooHistogram[OPERATIONS.length];
+        for (int i = 0; i < OPERATIONS.length; i++)
+        {
+            mLatencies[i] = new FooHistogram(HIGHEST_TRACKABLE_LATENCY_MILLIS);
+        }
+        mTimeoutCounts = new AtomicLongArray(OPERATIONS.length);
+        mBytesRead = new AtomicLong();
+        mBytesWritten = new AtomicLong();
+        mBytesNotified = new AtomicLong();
+        mNotificationCount = new AtomicLong();
+        mStartElapsedRealtime = SystemClock.elapsedRealtime();
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ getSnapshot()=" + getSnapshot() +
+               " }";
+    }
+
+    /**
+     * @return a copy of the current metrics
+     */
+    @NonNull
+    public Snapshot getSnapshot()
+    {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Clears these metrics, but not those of the manager or of any handler.
+     */
+    @SuppressWarnings("unused")
+    public synchronized void reset()
+    {
+        for (int i = 0; i < OPERATIONS.length; i++)
+        {
+            mLatencies[i].reset();
+            mTimeoutCounts.set(i, 0);
+        }
+        mBytesRead.set(0);
+        mBytesWritten.set(0);
+        mBytesNotified.set(0);
+        mNotificationCount.set(0);
+        mStartElapsedRealtime = SystemClock.elapsedRealtime();
+    }
+
+    //
+    // Called by FooGattHandler
+    //
+
+    void recordLatency(GattOperation operation, long elapsedMillis)
+    {
+        if (elapsedMillis < 0)
+        {
+            return;
+        }
+        mLatencies[operation.ordinal()].record(elapsedMillis);
+        if (mParent != null)
+        {
+            mParent.recordLatency(operation, elapsedMillis);
+        }
+    }
+
+    void recordTimeout(GattOperation operation)
+    {
+        mTimeoutCounts.incrementAndGet(operation.ordinal());
+        if (mParent != null)
+        {
+            mParent.recordTimeout(operation);
+        }
+    }
+
+    void addBytesRead(int length)
+    {
+        mBytesRead.addAndGet(length);
+        if (mParent != null)
+        {
+            mParent.addBytesRead(length);
+        }
+    }
+
+    void addBytesWritten(long length)
+    {
+        mBytesWritten.addAndGet(length);
+        if (mParent != null)
+        {
+            mParent.addBytesWritten(length);
+        }
+    }
+
+    void addNotification(int length)
+    {
+        mNotificationCount.incrementAndGet();
+        mBytesNotified.addAndGet(length);
+        if (mParent != null)
+        {
+            mParent.addNotification(length);
+        }
+    }
+}
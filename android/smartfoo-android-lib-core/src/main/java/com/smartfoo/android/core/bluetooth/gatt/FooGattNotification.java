@@ -0,0 +1,136 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.collections.FooByteArrayPool;
+
+/**
+ * One characteristic notification or indication, holding a private copy of the value the OS delivered.
+ *
+ * <p>Instances and their value buffers are pooled, similar to {@link android.os.Message}: they are only
+ * valid for the duration of the {@link FooGattHandler.GattHandlerListener} callback they are passed to.
+ * Copy anything that must outlive the callback.</p>
+ */
+public class FooGattNotification
+{
+    /**
+     * The longest attribute value allowed by the Bluetooth Core spec
+     */
+    private static final int MAX_ATTRIBUTE_VALUE_LENGTH = 512;
+    private static final int MAX_POOLED_VALUES_PER_LENGTH = 16;
+    private static final int MAX_POOLED_NOTIFICATIONS = 64;
+
+    private static final FooByteArrayPool sValuePool = new FooByteArrayPool(MAX_ATTRIBUTE_VALUE_LENGTH,
+            MAX_POOLED_VALUES_PER_LENGTH);
+
+    private static final Object sPoolLock = new Object();
+    /**
+     * synchronized behind sPoolLock
+     */
+    private static FooGattNotification sPool;
+    /**
+     * synchronized behind sPoolLock
+     */
+    private static int                 sPoolSize;
+
+    /**
+     * @param characteristic the characteristic the OS called back with
+     * @param value          the value the OS called back with; copied into a pooled buffer
+     * @return a pooled or new instance; must be passed to {@link #recycle()} when done
+     */
+    static FooGattNotification obtain(@NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value)
+    {
+        FooGattNotification notification = null;
+        synchronized (sPoolLock)
+        {
+            if (sPool != null)
+            {
+                notification = sPool;
+                sPool = notification.mNext;
+                notification.mNext = null;
+                sPoolSize--;
+            }
+        }
+        if (notification == null)
+        {
+            notification = new FooGattNotification();
+        }
+
+        notification.mTimestampNanos = SystemClock.elapsedRealtimeNanos();
+        notification.mCharacteristic = characteristic;
+        notification.mValue = sValuePool.copyOf(value);
+        return notification;
+    }
+
+    private long                        mTimestampNanos;
+    private BluetoothGattCharacteristic mCharacteristic;
+    private byte[]                      mValue;
+    /**
+     * Links this instance into either the free pool or, while pending, a {@link FooGattHandler}'s batch queue
+     */
+    //package
+    FooGattNotification mNext;
+
+    private FooGattNotification()
+    {
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ mTimestampNanos=" + mTimestampNanos +
+               ", mCharacteristic=" + (mCharacteristic != null ? mCharacteristic.getUuid() : null) +
+               ", mValue.length=" + (mValue != null ? mValue.length : -1) +
+               " }";
+    }
+
+    /**
+     * @return the {@link SystemClock#elapsedRealtimeNanos()} at which the OS delivered this notification
+     */
+    public long getTimestampNanos()
+    {
+        return mTimestampNanos;
+    }
+
+    /**
+     * @return the characteristic that changed. Do not use its {@link BluetoothGattCharacteristic#getValue()};
+     * the OS may already have replaced it with a later value. Use {@link #getValue()} instead.
+     */
+    public BluetoothGattCharacteristic getCharacteristic()
+    {
+        return mCharacteristic;
+    }
+
+    /**
+     * @return the value of this notification; only valid during the callback it was passed to
+     */
+    public byte[] getValue()
+    {
+        return mValue;
+    }
+
+    /**
+     * Returns this instance and its value buffer to the pool. Must not be used afterwards.
+     */
+    void recycle()
+    {
+        sValuePool.release(mValue);
+        mValue = null;
+        mCharacteristic = null;
+
+        synchronized (sPoolLock)
+        {
+            if (sPoolSize < MAX_POOLED_NOTIFICATIONS)
+            {
+                mNext = sPool;
+                sPool = this;
+                sPoolSize++;
+            }
+        }
+    }
+}
@@ -0,0 +1,490 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import android.bluetooth.BluetoothGatt;
+import android.os.SystemClock;
+
+import com.smartfoo.android.core.bluetooth.gatt.FooGattHandler.GattHandlerListener.GattOperation;
+import com.smartfoo.android.core.bluetooth.gatt.FooGattRequest.FooGattRequestCallbacks;
+import com.smartfoo.android.core.bluetooth.gatt.FooGattRequest.Priority;
+import com.smartfoo.android.core.bluetooth.gatt.FooGattRequest.State;
+import com.smartfoo.android.core.logging.FooLog;
+import com.smartfoo.android.core.platform.FooSerialExecutor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-device state machine that serializes {@link FooGattRequest}s without blocking any thread.
+ *
+ * <p>Android's GATT client allows only one outstanding operation per connection. Instead of parking
+ * a thread until the OS callback arrives, the queue starts the request at its head on the handler's
+ * {@link FooSerialExecutor}, schedules a timeout that fires back onto that same executor, and returns.
+ * The request is completed by whichever comes first: the matching
+ * {@link android.bluetooth.BluetoothGattCallback} (via {@link #complete(FooGattRequest, State)}), its
+ * timeout, a {@link FooGattRequest#cancel()} while still queued, or {@link #cancelAll()} on disconnect.
+ * Completing the head request immediately posts the next one.</p>
+ *
+ * <p>Queued requests wait in one FIFO lane per {@link Priority}; the next request is taken from the highest
+ * non-empty lane. A request whose deadline passes while queued is dropped as {@link State#Expired}, and a
+ * latest-wins request replaces any queued one it supersedes (see {@link FooGattRequest#isReplacedBy}).</p>
+ *
+ * <p>All state is guarded by {@code mLanes}; no lock is held while calling out to the request or
+ * to {@link FooGattHandler}.</p>
+ */
+class FooGattOperationQueue
+{
+    private static final String TAG = FooLog.TAG(FooGattOperationQueue.class);
+
+    private final FooGattHandler             mGattHandler;
+    private final FooSerialExecutor          mExecutorBackground;
+    private final ScheduledExecutorService   mExecutorTimeouts;
+    /**
+     * Indexed by {@link Priority#ordinal()}
+     */
+    private final ArrayDeque<FooGattRequest>[] mLanes;
+    private final Runnable                   mPumpRunnable;
+
+    /**
+     * synchronized behind mLanes
+     */
+    private FooGattRequest     mCurrent;
+    /**
+     * synchronized behind mLanes
+     */
+    private ScheduledFuture<?> mCurrentTimeout;
+
+    FooGattOperationQueue(FooGattHandler gattHandler,
+                          FooSerialExecutor executorBackground,
+                          ScheduledExecutorService executorTimeouts)
+    {
+        mGattHandler = gattHandler;
+        mExecutorBackground = executorBackground;
+        mExecutorTimeouts = executorTimeouts;
+        Priority[] priorities = Priority.values();
+        //noinspection unchecked
+        mLanes = (ArrayDeque<FooGattRequest>[]) new ArrayDeque[priorities.length];
+        for (int i = 0; i < priorities.length; i++)
+        {
+            mLanes[i] = new ArrayDeque<>();
+        }
+        mPumpRunnable = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                pump();
+            }
+        };
+    }
+
+    private String logPrefix(String message)
+    {
+        return mGattHandler.getDeviceAddressString() + " " + message;
+    }
+
+    /**
+     * @return the number of requests queued or executing
+     */
+    int getDepth()
+    {
+        synchronized (mLanes)
+        {
+            int depth = mCurrent != null ? 1 : 0;
+            for (ArrayDeque<FooGattRequest> lane : mLanes)
+            {
+                depth += lane.size();
+            }
+            return depth;
+        }
+    }
+
+    /**
+     * @param operation the operation the caller is completing
+     * @return the executing request if it is of the given operation, otherwise null
+     */
+    FooGattRequest getCurrent(GattOperation operation)
+    {
+        synchronized (mLanes)
+        {
+            FooGattRequest current = mCurrent;
+            return current != null && current.getOperation() == operation ? current : null;
+        }
+    }
+
+    /**
+     * @return a snapshot of the queued requests, not including the executing one, in the order they will start
+     */
+    List<FooGattRequest> getPending()
+    {
+        synchronized (mLanes)
+        {
+            List<FooGattRequest> pending = new ArrayList<>();
+            for (ArrayDeque<FooGattRequest> lane : mLanes)
+            {
+                pending.addAll(lane);
+            }
+            return pending;
+        }
+    }
+
+    void enqueue(FooGattRequest request)
+    {
+        request.setQueue(this);
+        FooGattRequest replaced = null;
+        synchronized (mLanes)
+        {
+            if (request.isLatestWins())
+            {
+                for (ArrayDeque<FooGattRequest> lane : mLanes)
+                {
+                    for (FooGattRequest pending : lane)
+                    {
+                        if (pending.isReplacedBy(request))
+                        {
+                            replaced = pending;
+                            break;
+                        }
+                    }
+                    if (replaced != null)
+                    {
+                        lane.remove(replaced);
+                        break;
+                    }
+                }
+            }
+            mLanes[request.getPriority().ordinal()].add(request);
+        }
+
+        if (replaced != null)
+        {
+            FooLog.v(TAG, logPrefix("enqueue: " + request + " replaces " + replaced));
+            finish(replaced, State.Canceled);
+        }
+
+        if (request.getDeadlineMillis() != FooGattRequest.NO_DEADLINE)
+        {
+            scheduleDeadline(request);
+        }
+
+        mExecutorBackground.execute(mPumpRunnable);
+    }
+
+    /**
+     * @param request  the request to move
+     * @param priority the new priority
+     * @return true if {@code request} was still queued and has been moved to the back of {@code priority}
+     */
+    boolean setPriority(FooGattRequest request, Priority priority)
+    {
+        synchronized (mLanes)
+        {
+            if (!mLanes[request.getPriority().ordinal()].remove(request))
+            {
+                return false;
+            }
+            request.setPriorityInternal(priority);
+            mLanes[priority.ordinal()].add(request);
+            return true;
+        }
+    }
+
+    /**
+     * Drops {@code request} as {@link State#Expired} once its deadline passes, if it is still queued then.
+     * Deadlines are measured on {@link SystemClock#elapsedRealtime()}, so a wall-clock change does not move them.
+     *
+     * @param request a request with a deadline
+     */
+    void scheduleDeadline(final FooGattRequest request)
+    {
+        long delayMillis = Math.max(0, request.getStartTimeMillis() + request.getDeadlineMillis() -
+                                       SystemClock.elapsedRealtime());
+        final Runnable expireRunnable = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (!request.isPastDeadline(SystemClock.elapsedRealtime()))
+                {
+                    // The deadline was moved
+                    return;
+                }
+                synchronized (mLanes)
+                {
+                    if (!mLanes[request.getPriority().ordinal()].remove(request))
+                    {
+                        return;
+                    }
+                }
+                FooLog.w(TAG, logPrefix("scheduleDeadline: *EXPIRED* " + request));
+                finish(request, State.Expired);
+            }
+        };
+        ScheduledFuture<?> deadlineTimeout = mExecutorTimeouts.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mExecutorBackground.execute(expireRunnable);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+        // Canceled when the request starts or completes, so it does not linger on the shared scheduler
+        request.setDeadlineTimeout(deadlineTimeout);
+    }
+
+    /**
+     * @param request the request to cancel
+     * @return true if the request was still queued and is now {@link State#Canceled}
+     */
+    boolean cancel(FooGattRequest request)
+    {
+        synchronized (mLanes)
+        {
+            if (!mLanes[request.getPriority().ordinal()].remove(request))
+            {
+                return false;
+            }
+        }
+        finish(request, State.Canceled);
+        return true;
+    }
+
+    /**
+     * Cancels the executing request and every queued request. Called when the connection goes away.
+     */
+    void cancelAll()
+    {
+        FooGattRequest current;
+        ScheduledFuture<?> currentTimeout;
+        List<FooGattRequest> pending;
+        synchronized (mLanes)
+        {
+            current = mCurrent;
+            mCurrent = null;
+            currentTimeout = mCurrentTimeout;
+            mCurrentTimeout = null;
+            pending = new ArrayList<>();
+            for (ArrayDeque<FooGattRequest> lane : mLanes)
+            {
+                pending.addAll(lane);
+                lane.clear();
+            }
+        }
+
+        if (currentTimeout != null)
+        {
+            currentTimeout.cancel(false);
+        }
+
+        if (current != null)
+        {
+            finish(current, State.Canceled);
+        }
+
+        for (FooGattRequest request : pending)
+        {
+            finish(request, State.Canceled);
+        }
+    }
+
+    /**
+     * Completes the executing request. Safe to call from any thread, including re-entrantly from
+     * {@link FooGattRequest#start(FooGattTransport)}.
+     *
+     * @param request the request to complete
+     * @param state   the terminal state
+     * @return true if {@code request} was the executing request and is now completed
+     */
+    boolean complete(FooGattRequest request, State state)
+    {
+        ScheduledFuture<?> currentTimeout;
+        synchronized (mLanes)
+        {
+            if (mCurrent != request)
+            {
+                return false;
+            }
+            mCurrent = null;
+            currentTimeout = mCurrentTimeout;
+            mCurrentTimeout = null;
+        }
+
+        if (currentTimeout != null)
+        {
+            currentTimeout.cancel(false);
+        }
+
+        finish(request, state);
+
+        mExecutorBackground.execute(mPumpRunnable);
+
+        return true;
+    }
+
+    private void finish(FooGattRequest request, State state)
+    {
+        List<FooGattRequestCallbacks> callbacks = request.setDone(state);
+        if (callbacks == null)
+        {
+            return;
+        }
+
+        FooLog.v(TAG, logPrefix("finish: " + request));
+
+        mGattHandler.onRequestCompleted(request, callbacks);
+    }
+
+    /**
+     * Runs on mExecutorBackground.
+     */
+    private void pump()
+    {
+        while (true)
+        {
+            FooGattRequest request;
+            boolean expired;
+            synchronized (mLanes)
+            {
+                if (mCurrent != null)
+                {
+                    return;
+                }
+
+                request = null;
+                for (ArrayDeque<FooGattRequest> lane : mLanes)
+                {
+                    request = lane.poll();
+                    if (request != null)
+                    {
+                        break;
+                    }
+                }
+                if (request == null)
+                {
+                    return;
+                }
+
+                expired = request.isPastDeadline(SystemClock.elapsedRealtime());
+                if (!expired)
+                {
+                    if (!request.setExecuting())
+                    {
+                        continue;
+                    }
+
+                    mCurrent = request;
+                }
+            }
+
+            if (expired)
+            {
+                FooLog.w(TAG, logPrefix("pump: *EXPIRED* " + request));
+                finish(request, State.Expired);
+                continue;
+            }
+
+            FooLog.v(TAG, logPrefix("pump: starting " + request));
+
+            boolean started;
+            FooGattTransport gatt = null;
+            if (request.requiresConnection())
+            {
+                gatt = mGattHandler.getConnectedGatt("pump");
+            }
+            if (request.requiresConnection() && gatt == null)
+            {
+                started = false;
+            }
+            else
+            {
+                mGattHandler.getTrace().recordRequestStarted(request);
+                started = request.start(gatt);
+            }
+
+            synchronized (mLanes)
+            {
+                if (mCurrent != request)
+                {
+                    // Completed or canceled from within start(...)
+                    continue;
+                }
+            }
+
+            if (!started)
+            {
+                complete(request, State.Failed);
+                continue;
+            }
+
+            long timeoutMillis = request.getTimeoutMillis();
+            if (timeoutMillis >= 0)
+            {
+                scheduleTimeout(request, timeoutMillis);
+            }
+
+            return;
+        }
+    }
+
+    /**
+     * The timeout is measured from {@link FooGattRequest#getLastActivityMillis()}, so requests that make
+     * progress over several GATT callbacks (see {@link FooGattRequest#touch()}) only time out when idle.
+     */
+    private void scheduleTimeout(final FooGattRequest request, long delayMillis)
+    {
+        final Runnable timeoutRunnable = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                long remainingMillis = request.getLastActivityMillis() + request.getTimeoutMillis() -
+                                       SystemClock.elapsedRealtime();
+                if (remainingMillis > 0)
+                {
+                    synchronized (mLanes)
+                    {
+                        if (mCurrent != request)
+                        {
+                            return;
+                        }
+                    }
+                    scheduleTimeout(request, remainingMillis);
+                    return;
+                }
+
+                if (complete(request, State.TimedOut))
+                {
+                    FooLog.w(TAG, logPrefix("scheduleTimeout: *TIMED OUT* " + request));
+                }
+            }
+        };
+
+        ScheduledFuture<?> timeout = mExecutorTimeouts.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // Keep the scheduler thread free; complete on this device's own executor
+                mExecutorBackground.execute(timeoutRunnable);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+
+        boolean stale;
+        synchronized (mLanes)
+        {
+            stale = mCurrent != request;
+            if (!stale)
+            {
+                mCurrentTimeout = timeout;
+            }
+        }
+        if (stale)
+        {
+            // Completed by a GATT callback while the timeout was being scheduled
+            timeout.cancel(false);
+        }
+    }
+}
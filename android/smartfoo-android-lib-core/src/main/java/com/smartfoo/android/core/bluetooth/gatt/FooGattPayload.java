@@ -0,0 +1,418 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.FooMemoryStream;
+import com.smartfoo.android.core.FooRun;
+import com.smartfoo.android.core.collections.FooByteArrayPool;
+
+import java.util.Arrays;
+
+/**
+ * A pooled builder of characteristic values, with typed writers for every
+ * {@code BluetoothGattCharacteristic.FORMAT_*} type, including the IEEE 11073 SFLOAT and FLOAT.
+ *
+ * <p>Values are little-endian, as GATT specifies, unless {@link #setBigEndian(boolean)} is set for a
+ * peripheral with its own conventions. Get an instance from {@link #obtain(int)}, write the fields, and pass it
+ * to {@link FooGattHandler#enqueueCharacteristicWrite(java.util.UUID, java.util.UUID, FooGattPayload,
+ * FooGattHandler.CharacteristicWriteType, long, Runnable)}, which hands the backing array straight to the
+ * stack and recycles the payload once the write completes. Like {@link FooGattNotification}, instances and their
+ * buffers are pooled, so after warm-up encoding a value allocates nothing.</p>
+ *
+ * <p>The stack needs an array of exactly the value's length. {@link #obtain(int)} starts with one, so a payload
+ * that is filled to that length is handed off without a copy; a payload written past or short of it is copied
+ * once into a pooled array of the right length.</p>
+ */
+public class FooGattPayload
+        extends FooMemoryStream
+{
+    /**
+     * The longest attribute value allowed by the Bluetooth Core spec
+     */
+    private static final int MAX_ATTRIBUTE_VALUE_LENGTH   = 512;
+    private static final int MAX_POOLED_VALUES_PER_LENGTH = 16;
+    private static final int MAX_POOLED_PAYLOADS          = 32;
+
+    private static final int SFLOAT_MANTISSA_MAX      = 0x07FD;
+    private static final int SFLOAT_EXPONENT_MIN      = -8;
+    private static final int SFLOAT_EXPONENT_MAX      = 7;
+    private static final int SFLOAT_NAN               = 0x07FF;
+    private static final int SFLOAT_POSITIVE_INFINITY = 0x07FE;
+    private static final int SFLOAT_NEGATIVE_INFINITY = 0x0802;
+
+    private static final int FLOAT_MANTISSA_MAX       = 0x007FFFFD;
+    private static final int FLOAT_EXPONENT_MIN       = -128;
+    private static final int FLOAT_EXPONENT_MAX       = 127;
+    private static final int FLOAT_NAN                = 0x007FFFFF;
+    private static final int FLOAT_POSITIVE_INFINITY  = 0x007FFFFE;
+    private static final int FLOAT_NEGATIVE_INFINITY  = 0x00800002;
+
+    private static final FooByteArrayPool sValuePool = new FooByteArrayPool(MAX_ATTRIBUTE_VALUE_LENGTH,
+            MAX_POOLED_VALUES_PER_LENGTH);
+
+    private static final Object sPoolLock = new Object();
+    /**
+     * synchronized behind sPoolLock
+     */
+    private static FooGattPayload sPool;
+    /**
+     * synchronized behind sPoolLock
+     */
+    private static int            sPoolSize;
+
+    /**
+     * @return a pooled or new, empty instance, for a value whose length is not known up front
+     */
+    @NonNull
+    public static FooGattPayload obtain()
+    {
+        return obtain(0);
+    }
+
+    /**
+     * @param length the length of the value that will be written; a value of exactly this length is handed to the
+     *               stack without a copy
+     * @return a pooled or new, empty instance
+     */
+    @NonNull
+    public static FooGattPayload obtain(int length)
+    {
+        if (length < 0)
+        {
+            throw new IllegalArgumentException("length must be >= 0");
+        }
+
+        FooGattPayload payload = null;
+        synchronized (sPoolLock)
+        {
+            if (sPool != null)
+            {
+                payload = sPool;
+                sPool = payload.mNext;
+                payload.mNext = null;
+                sPoolSize--;
+            }
+        }
+        if (payload == null)
+        {
+            payload = new FooGattPayload();
+        }
+
+        payload.setBuffer(sValuePool.acquire(length));
+        payload.mIsRecycled = false;
+        return payload;
+    }
+
+    /**
+     * @param formatType one of the {@code BluetoothGattCharacteristic.FORMAT_*} constants
+     * @return the number of bytes a value of {@code formatType} takes
+     */
+    public static int getTypeLen(int formatType)
+    {
+        return formatType & 0xF;
+    }
+
+    /**
+     * Recycles the payload when the write it was handed to completes
+     */
+    //package
+    final FooGattRequest.FooGattRequestCallbacks mRecycleCallbacks = new FooGattRequest.FooGattRequestCallbacks()
+    {
+        @Override
+        public void onGattRequestCompleted(@NonNull FooGattRequest request)
+        {
+            recycle();
+        }
+    };
+
+    private boolean        mIsBigEndian;
+    private boolean        mIsRecycled;
+    private FooGattPayload mNext;
+
+    private FooGattPayload()
+    {
+        super(0);
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ mIsBigEndian=" + mIsBigEndian +
+               ", getLength()=" + getLength() +
+               ", getCapacity()=" + getCapacity() +
+               " }";
+    }
+
+    public synchronized boolean isBigEndian()
+    {
+        return mIsBigEndian;
+    }
+
+    /**
+     * @param bigEndian true to write multi-byte values most significant byte first; defaults to false, as GATT
+     *                  specifies
+     * @return this
+     */
+    @NonNull
+    public synchronized FooGattPayload setBigEndian(boolean bigEndian)
+    {
+        mIsBigEndian = bigEndian;
+        return this;
+    }
+
+    /**
+     * Writes an integer, as {@link BluetoothGattCharacteristic#setValue(int, int, int)} would.
+     *
+     * @param value      the value; bits that do not fit {@code formatType} are dropped
+     * @param formatType one of {@link BluetoothGattCharacteristic#FORMAT_UINT8},
+     *                   {@link BluetoothGattCharacteristic#FORMAT_UINT16},
+     *                   {@link BluetoothGattCharacteristic#FORMAT_UINT32},
+     *                   {@link BluetoothGattCharacteristic#FORMAT_SINT8},
+     *                   {@link BluetoothGattCharacteristic#FORMAT_SINT16}, or
+     *                   {@link BluetoothGattCharacteristic#FORMAT_SINT32}
+     * @return this
+     * @throws NumberFormatException if {@code formatType} is not an integer format
+     */
+    @NonNull
+    public synchronized FooGattPayload putInt(int value, int formatType)
+    {
+        switch (formatType)
+        {
+            case BluetoothGattCharacteristic.FORMAT_UINT8:
+            case BluetoothGattCharacteristic.FORMAT_SINT8:
+            case BluetoothGattCharacteristic.FORMAT_UINT16:
+            case BluetoothGattCharacteristic.FORMAT_SINT16:
+            case BluetoothGattCharacteristic.FORMAT_UINT32:
+            case BluetoothGattCharacteristic.FORMAT_SINT32:
+                writeInt(value, getTypeLen(formatType), !mIsBigEndian);
+                return this;
+            default:
+                throw new NumberFormatException("Unknown formatType " + formatType);
+        }
+    }
+
+    @NonNull
+    public FooGattPayload putUInt8(int value)
+    {
+        return putInt(value, BluetoothGattCharacteristic.FORMAT_UINT8);
+    }
+
+    @NonNull
+    public FooGattPayload putUInt16(int value)
+    {
+        return putInt(value, BluetoothGattCharacteristic.FORMAT_UINT16);
+    }
+
+    /**
+     * @param value the value, from 0 to 0xFFFFFFFF
+     * @return this
+     */
+    @NonNull
+    public FooGattPayload putUInt32(long value)
+    {
+        return putInt((int) value, BluetoothGattCharacteristic.FORMAT_UINT32);
+    }
+
+    @NonNull
+    public FooGattPayload putSInt8(int value)
+    {
+        return putInt(value, BluetoothGattCharacteristic.FORMAT_SINT8);
+    }
+
+    @NonNull
+    public FooGattPayload putSInt16(int value)
+    {
+        return putInt(value, BluetoothGattCharacteristic.FORMAT_SINT16);
+    }
+
+    @NonNull
+    public FooGattPayload putSInt32(int value)
+    {
+        return putInt(value, BluetoothGattCharacteristic.FORMAT_SINT32);
+    }
+
+    /**
+     * Writes an IEEE 11073 float, as {@link BluetoothGattCharacteristic#setValue(int, int, int, int)} would.
+     *
+     * @param mantissa   the signed mantissa: 12 bits for SFLOAT, 24 bits for FLOAT
+     * @param exponent   the signed base 10 exponent: 4 bits for SFLOAT, 8 bits for FLOAT
+     * @param formatType {@link BluetoothGattCharacteristic#FORMAT_SFLOAT} or
+     *                   {@link BluetoothGattCharacteristic#FORMAT_FLOAT}
+     * @return this
+     * @throws NumberFormatException if {@code formatType} is not a float format
+     */
+    @NonNull
+    public synchronized FooGattPayload putFloat(int mantissa, int exponent, int formatType)
+    {
+        switch (formatType)
+        {
+            case BluetoothGattCharacteristic.FORMAT_SFLOAT:
+                writeInt(((exponent & 0x0F) << 12) | (mantissa & 0x0FFF), 2, !mIsBigEndian);
+                return this;
+            case BluetoothGattCharacteristic.FORMAT_FLOAT:
+                writeInt(((exponent & 0xFF) << 24) | (mantissa & 0x00FFFFFF), 4, !mIsBigEndian);
+                return this;
+            default:
+                throw new NumberFormatException("Unknown formatType " + formatType);
+        }
+    }
+
+    /**
+     * Writes {@code value} as an IEEE 11073 float with the most precision that fits.
+     * NaN and infinities are written as the special values the standard reserves for them, and finite values
+     * too large to fit as infinity.
+     *
+     * @param value      the value
+     * @param formatType {@link BluetoothGattCharacteristic#FORMAT_SFLOAT} (about 3 significant digits) or
+     *                   {@link BluetoothGattCharacteristic#FORMAT_FLOAT} (about 6 significant digits)
+     * @return this
+     * @throws NumberFormatException if {@code formatType} is not a float format
+     */
+    @NonNull
+    public FooGattPayload putFloat(double value, int formatType)
+    {
+        int mantissaMax;
+        int exponentMin;
+        int exponentMax;
+        int nan;
+        int positiveInfinity;
+        int negativeInfinity;
+        switch (formatType)
+        {
+            case BluetoothGattCharacteristic.FORMAT_SFLOAT:
+                mantissaMax = SFLOAT_MANTISSA_MAX;
+                exponentMin = SFLOAT_EXPONENT_MIN;
+                exponentMax = SFLOAT_EXPONENT_MAX;
+                nan = SFLOAT_NAN;
+                positiveInfinity = SFLOAT_POSITIVE_INFINITY;
+                negativeInfinity = SFLOAT_NEGATIVE_INFINITY;
+                break;
+            case BluetoothGattCharacteristic.FORMAT_FLOAT:
+                mantissaMax = FLOAT_MANTISSA_MAX;
+                exponentMin = FLOAT_EXPONENT_MIN;
+                exponentMax = FLOAT_EXPONENT_MAX;
+                nan = FLOAT_NAN;
+                positiveInfinity = FLOAT_POSITIVE_INFINITY;
+                negativeInfinity = FLOAT_NEGATIVE_INFINITY;
+                break;
+            default:
+                throw new NumberFormatException("Unknown formatType " + formatType);
+        }
+
+        if (Double.isNaN(value))
+        {
+            return putFloat(nan, 0, formatType);
+        }
+        if (value == 0)
+        {
+            return putFloat(0, 0, formatType);
+        }
+
+        if (!Double.isInfinite(value))
+        {
+            // Start at the smallest exponent that could hold every digit the mantissa has room for
+            int digits = (int) Math.floor(Math.log10(mantissaMax)) + 1;
+            int exponent = Math.max(exponentMin, (int) Math.floor(Math.log10(Math.abs(value))) - digits + 1);
+            while (exponent <= exponentMax)
+            {
+                double scaled = exponent < 0 ? value * Math.pow(10, -exponent) : value / Math.pow(10, exponent);
+                long mantissa = Math.round(scaled);
+                if (Math.abs(mantissa) <= mantissaMax)
+                {
+                    return putFloat((int) mantissa, exponent, formatType);
+                }
+                exponent++;
+            }
+        }
+
+        return putFloat(value > 0 ? positiveInfinity : negativeInfinity, 0, formatType);
+    }
+
+    /**
+     * @param value the bytes to write; must not be null
+     * @return this
+     */
+    @NonNull
+    public FooGattPayload putBytes(@NonNull byte[] value)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(value, "value");
+
+        write(value, 0, value.length);
+        return this;
+    }
+
+    /**
+     * Writes {@code count} zero bytes, such as reserved fields or the bytes before an offset.
+     *
+     * @param count the number of bytes
+     * @return this
+     */
+    @NonNull
+    public synchronized FooGattPayload putZeros(int count)
+    {
+        int position = getPosition();
+        int end = position + count;
+        if (end > getLength())
+        {
+            setLength(end);
+        }
+        Arrays.fill(getBuffer(), position, end, (byte) 0);
+        setPosition(end);
+        return this;
+    }
+
+    /**
+     * @return the value: the backing array if it is exactly {@link #getLength()} long, otherwise a pooled copy
+     * that becomes the new backing array. Do not modify the payload while a write is using it.
+     */
+    @NonNull
+    public synchronized byte[] getValue()
+    {
+        byte[] buffer = getBuffer();
+        int length = getLength();
+        if (buffer.length != length)
+        {
+            byte[] value = sValuePool.acquire(length);
+            System.arraycopy(buffer, 0, value, 0, length);
+            sValuePool.release(buffer);
+            int position = Math.min(getPosition(), length);
+            setBuffer(value);
+            setPosition(position);
+            buffer = value;
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns this instance and its buffer to the pool. Must not be used afterwards.
+     * <p>Only call this for a payload that was never handed to a write; the write recycles it otherwise.</p>
+     */
+    public void recycle()
+    {
+        synchronized (this)
+        {
+            if (mIsRecycled)
+            {
+                return;
+            }
+            mIsRecycled = true;
+            sValuePool.release(getBuffer());
+            clear();
+            mIsBigEndian = false;
+        }
+
+        synchronized (sPoolLock)
+        {
+            if (sPoolSize < MAX_POOLED_PAYLOADS)
+            {
+                mNext = sPool;
+                sPool = this;
+                sPoolSize++;
+            }
+        }
+    }
+}
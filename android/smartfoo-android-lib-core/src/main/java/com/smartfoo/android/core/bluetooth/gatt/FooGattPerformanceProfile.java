@@ -0,0 +1,125 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Link parameters that {@link FooGattHandler} requests right after every successful connect, before any
+ * other queued operation runs.
+ *
+ * <p>Each parameter is applied as its own queued operation ({@link FooGattHandler#requestMtu},
+ * {@link FooGattHandler#requestConnectionPriority}, {@link FooGattHandler#setPreferredPhy}) and reported
+ * through the usual {@link FooGattHandler.GattHandlerListener} callbacks. A parameter set to
+ * {@link #UNCHANGED} is skipped. The peripheral may grant less than requested; a refused parameter does not
+ * disconnect.</p>
+ *
+ * @see FooGattHandler#setPerformanceProfile(FooGattPerformanceProfile)
+ */
+public class FooGattPerformanceProfile
+{
+    /**
+     * Value for any parameter that should be left as negotiated by the stack
+     */
+    public static final int UNCHANGED = -1;
+
+    /**
+     * The largest ATT MTU allowed by the Bluetooth Core spec
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static final int MAX_MTU = 517;
+
+    /**
+     * Largest MTU, shortest connection interval, and the 2M PHY in both directions
+     */
+    public static final FooGattPerformanceProfile HIGH_THROUGHPUT =
+            new FooGattPerformanceProfile(MAX_MTU,
+                    BluetoothGatt.CONNECTION_PRIORITY_HIGH,
+                    BluetoothDevice.PHY_LE_2M_MASK,
+                    BluetoothDevice.PHY_LE_2M_MASK,
+                    BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+
+    /**
+     * Largest MTU with the low power connection interval; for devices that send rarely but in large
+     * payloads
+     */
+    @SuppressWarnings("unused")
+    public static final FooGattPerformanceProfile LOW_POWER =
+            new FooGattPerformanceProfile(MAX_MTU,
+                    BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER,
+                    UNCHANGED,
+                    UNCHANGED,
+                    BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+
+    private final int mMtu;
+    private final int mConnectionPriority;
+    private final int mTxPhy;
+    private final int mRxPhy;
+    private final int mPhyOptions;
+
+    /**
+     * @param mtu                the MTU to request, or {@link #UNCHANGED}
+     * @param connectionPriority one of the {@code BluetoothGatt.CONNECTION_PRIORITY_*} values, or
+     *                           {@link #UNCHANGED}
+     * @param txPhy              a {@code BluetoothDevice.PHY_LE_*_MASK} combination, or {@link #UNCHANGED}
+     * @param rxPhy              a {@code BluetoothDevice.PHY_LE_*_MASK} combination, or {@link #UNCHANGED}
+     * @param phyOptions         one of the {@code BluetoothDevice.PHY_OPTION_*} values
+     */
+    public FooGattPerformanceProfile(int mtu, int connectionPriority, int txPhy, int rxPhy, int phyOptions)
+    {
+        if (mtu != UNCHANGED && (mtu < FooGattHandler.DEFAULT_MTU || mtu > MAX_MTU))
+        {
+            throw new IllegalArgumentException("mtu must be UNCHANGED or between " +
+                                               FooGattHandler.DEFAULT_MTU + " and " + MAX_MTU);
+        }
+        if ((txPhy == UNCHANGED) != (rxPhy == UNCHANGED))
+        {
+            throw new IllegalArgumentException("txPhy and rxPhy must both be UNCHANGED or both be set");
+        }
+
+        mMtu = mtu;
+        mConnectionPriority = connectionPriority;
+        mTxPhy = txPhy;
+        mRxPhy = rxPhy;
+        mPhyOptions = phyOptions;
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ mMtu=" + mMtu +
+               ", mConnectionPriority=" + mConnectionPriority +
+               ", mTxPhy=" + mTxPhy +
+               ", mRxPhy=" + mRxPhy +
+               ", mPhyOptions=" + mPhyOptions +
+               " }";
+    }
+
+    public int getMtu()
+    {
+        return mMtu;
+    }
+
+    public int getConnectionPriority()
+    {
+        return mConnectionPriority;
+    }
+
+    public int getTxPhy()
+    {
+        return mTxPhy;
+    }
+
+    public int getRxPhy()
+    {
+        return mRxPhy;
+    }
+
+    public int getPhyOptions()
+    {
+        return mPhyOptions;
+    }
+}
@@ -0,0 +1,489 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.bluetooth.gatt.FooGattRequest.State;
+import com.smartfoo.android.core.logging.FooLog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Aggregated result of a {@link FooGattHandler#readMany(List, long, FooGattReadTransactionCallbacks)}:
+ * several characteristic reads queued back-to-back and reported together, once, when the last of them
+ * completes or the transaction's deadline passes, whichever comes first.
+ *
+ * <p>Each read completes on the handler's background executor and only updates its {@link Item}; nothing is
+ * posted to the callback thread until the whole transaction is done. A read of a characteristic that is
+ * already queued or executing on the same handler, by this or any other transaction or by
+ * {@link FooGattHandler#enqueueCharacteristicRead(UUID, UUID, long, Runnable)}, is not sent again: the item
+ * joins the read in flight and reports its value (see {@link Item#isCoalesced()}).</p>
+ *
+ * <p>Instances are created only by {@link FooGattHandler}.</p>
+ */
+public class FooGattReadTransaction
+{
+    private static final String TAG = FooLog.TAG(FooGattReadTransaction.class);
+
+    /**
+     * Callback interface for transaction completion.
+     */
+    public interface FooGattReadTransactionCallbacks
+    {
+        /**
+         * Called once when every item has completed or the deadline has passed. Invoked on the same thread
+         * as, and in order with, the {@link FooGattHandler.GattHandlerListener} callbacks.
+         *
+         * @param transaction the completed transaction
+         */
+        void onGattReadTransactionCompleted(@NonNull FooGattReadTransaction transaction);
+    }
+
+    /**
+     * The outcome of one read in a transaction.
+     */
+    public static class Item
+    {
+        private final Object                      mLock;
+        private final FooGattCharacteristicHandle mCharacteristicHandle;
+        private final UUID                        mServiceUuid;
+        private final UUID                        mCharacteristicUuid;
+
+        /**
+         * synchronized behind mLock
+         */
+        private FooGattRequest mRequest;
+        private boolean        mIsCoalesced;
+        private State          mState;
+        private int            mStatus;
+        private byte[]         mValue;
+        private long           mElapsedMillis;
+
+        Item(@NonNull Object lock,
+             FooGattCharacteristicHandle characteristicHandle,
+             @NonNull UUID serviceUuid,
+             @NonNull UUID characteristicUuid)
+        {
+            mLock = lock;
+            mCharacteristicHandle = characteristicHandle;
+            mServiceUuid = serviceUuid;
+            mCharacteristicUuid = characteristicUuid;
+            mState = State.Queued;
+            mStatus = -1;
+            mElapsedMillis = -1;
+        }
+
+        @NonNull
+        @Override
+        public String toString()
+        {
+            synchronized (mLock)
+            {
+                return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+                       "{ mServiceUuid=" + mServiceUuid +
+                       ", mCharacteristicUuid=" + mCharacteristicUuid +
+                       ", mState=" + mState +
+                       ", mStatus=" + mStatus +
+                       ", mIsCoalesced=" + mIsCoalesced +
+                       ", mElapsedMillis=" + mElapsedMillis +
+                       " }";
+            }
+        }
+
+        FooGattCharacteristicHandle getCharacteristicHandle()
+        {
+            return mCharacteristicHandle;
+        }
+
+        public UUID getServiceUuid()
+        {
+            return mServiceUuid;
+        }
+
+        public UUID getCharacteristicUuid()
+        {
+            return mCharacteristicUuid;
+        }
+
+        /**
+         * @return the read's state; {@link State#TimedOut} if it had not completed by the transaction's deadline
+         */
+        public State getState()
+        {
+            synchronized (mLock)
+            {
+                return mState;
+            }
+        }
+
+        /**
+         * @return true if the read completed with {@link State#Succeeded}
+         */
+        public boolean isSuccess()
+        {
+            return getState() == State.Succeeded;
+        }
+
+        /**
+         * @return the GATT status reported by the OS callback, or -1 if none was reported
+         */
+        public int getStatus()
+        {
+            synchronized (mLock)
+            {
+                return mStatus;
+            }
+        }
+
+        /**
+         * @return the value read, or null; shared with every other item that read the same characteristic
+         * through the same request, so it must not be modified
+         */
+        public byte[] getValue()
+        {
+            synchronized (mLock)
+            {
+                return mValue;
+            }
+        }
+
+        /**
+         * @return milliseconds from the start of the transaction to completion of this read, or -1 if it did
+         * not complete
+         */
+        public long getElapsedMillis()
+        {
+            synchronized (mLock)
+            {
+                return mElapsedMillis;
+            }
+        }
+
+        /**
+         * @return true if this item joined a read that was already queued or executing instead of sending its
+         * own
+         */
+        public boolean isCoalesced()
+        {
+            synchronized (mLock)
+            {
+                return mIsCoalesced;
+            }
+        }
+
+        FooGattRequest getRequest()
+        {
+            synchronized (mLock)
+            {
+                return mRequest;
+            }
+        }
+    }
+
+    private final FooGattHandler                  mGattHandler;
+    private final List<Item>                      mItems;
+    private final long                            mDeadlineMillis;
+    private final FooGattReadTransactionCallbacks mCallbacks;
+    private final long                            mStartTimeMillis;
+
+    /**
+     * synchronized behind mItems
+     */
+    private int                mRemaining;
+    private boolean            mIsDone;
+    private long               mElapsedMillis;
+    private ScheduledFuture<?> mDeadlineTimeout;
+
+    FooGattReadTransaction(@NonNull FooGattHandler gattHandler,
+                           long deadlineMillis,
+                           FooGattReadTransactionCallbacks callbacks)
+    {
+        mGattHandler = gattHandler;
+        mItems = new ArrayList<>();
+        mDeadlineMillis = deadlineMillis;
+        mCallbacks = callbacks;
+        mStartTimeMillis = SystemClock.elapsedRealtime();
+        mElapsedMillis = -1;
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ mItems.size()=" + mItems.size() +
+               ", mDeadlineMillis=" + mDeadlineMillis +
+               ", isDone()=" + isDone() +
+               ", getElapsedMillis()=" + getElapsedMillis() +
+               " }";
+    }
+
+    Item addItem(FooGattCharacteristicHandle characteristicHandle,
+                 @NonNull UUID serviceUuid,
+                 @NonNull UUID characteristicUuid)
+    {
+        Item item = new Item(mItems, characteristicHandle, serviceUuid, characteristicUuid);
+        synchronized (mItems)
+        {
+            mItems.add(item);
+            mRemaining++;
+        }
+        return item;
+    }
+
+    public FooGattHandler getGattHandler()
+    {
+        return mGattHandler;
+    }
+
+    /**
+     * @return the reads in the order they were requested
+     */
+    public List<Item> getItems()
+    {
+        synchronized (mItems)
+        {
+            return Collections.unmodifiableList(new ArrayList<>(mItems));
+        }
+    }
+
+    /**
+     * @param serviceUuid        UUID of the service that contains the characteristic
+     * @param characteristicUuid UUID of the characteristic
+     * @return the first item that read the characteristic, or null if none did
+     */
+    public Item getItem(UUID serviceUuid, UUID characteristicUuid)
+    {
+        synchronized (mItems)
+        {
+            for (Item item : mItems)
+            {
+                if (item.mServiceUuid.equals(serviceUuid) && item.mCharacteristicUuid.equals(characteristicUuid))
+                {
+                    return item;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param serviceUuid        UUID of the service that contains the characteristic
+     * @param characteristicUuid UUID of the characteristic
+     * @return the value read, or null if the characteristic was not part of this transaction or its read did
+     * not succeed
+     */
+    @SuppressWarnings("unused")
+    public byte[] getValue(UUID serviceUuid, UUID characteristicUuid)
+    {
+        Item item = getItem(serviceUuid, characteristicUuid);
+        return item != null && item.isSuccess() ? item.getValue() : null;
+    }
+
+    /**
+     * @return the deadline in milliseconds, measured from when the transaction was started
+     */
+    public long getDeadlineMillis()
+    {
+        return mDeadlineMillis;
+    }
+
+    /**
+     * @return the {@link SystemClock#elapsedRealtime()} at which the transaction was started; a monotonic clock,
+     * not a wall-clock time
+     */
+    @SuppressWarnings("unused")
+    public long getStartTimeMillis()
+    {
+        return mStartTimeMillis;
+    }
+
+    /**
+     * @return true if every read completed or the deadline passed
+     */
+    public boolean isDone()
+    {
+        synchronized (mItems)
+        {
+            return mIsDone;
+        }
+    }
+
+    /**
+     * @return true if every read completed with {@link State#Succeeded}
+     */
+    public boolean isSuccess()
+    {
+        synchronized (mItems)
+        {
+            if (!mIsDone)
+            {
+                return false;
+            }
+            for (Item item : mItems)
+            {
+                if (item.mState != State.Succeeded)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return milliseconds from start to completion, or -1 if not yet done
+     */
+    public long getElapsedMillis()
+    {
+        synchronized (mItems)
+        {
+            return mElapsedMillis;
+        }
+    }
+
+    /**
+     * Attaches {@code item} to the read that will report its value.
+     *
+     * @param item        one of this transaction's items
+     * @param request     the read queued or executing for the item's characteristic
+     * @param isCoalesced true if {@code request} was queued by another caller or for an earlier item
+     */
+    void attach(@NonNull final Item item, @NonNull FooGattRequest request, boolean isCoalesced)
+    {
+        synchronized (mItems)
+        {
+            item.mRequest = request;
+            item.mIsCoalesced = isCoalesced;
+        }
+
+        boolean added = request.addCallbacks(new FooGattRequest.DirectCallbacks()
+        {
+            @Override
+            public void onGattRequestCompleted(@NonNull FooGattRequest request)
+            {
+                onItemCompleted(item, request.getState(), request.getStatus(), request.getValue());
+            }
+        });
+        if (!added)
+        {
+            // Completed before the callbacks could be added
+            onItemCompleted(item, request.getState(), request.getStatus(), request.getValue());
+        }
+    }
+
+    /**
+     * @param deadlineTimeout the scheduled {@link #onDeadline()} task, canceled if the transaction is done first
+     */
+    void setDeadlineTimeout(@NonNull ScheduledFuture<?> deadlineTimeout)
+    {
+        synchronized (mItems)
+        {
+            if (!mIsDone)
+            {
+                mDeadlineTimeout = deadlineTimeout;
+                return;
+            }
+        }
+        deadlineTimeout.cancel(false);
+    }
+
+    /**
+     * Completes {@code item} without a request, for a read that could not be queued.
+     *
+     * @param item  one of this transaction's items
+     * @param state the terminal state
+     */
+    void fail(@NonNull Item item, @NonNull State state)
+    {
+        onItemCompleted(item, state, -1, null);
+    }
+
+    private void onItemCompleted(Item item, State state, int status, byte[] value)
+    {
+        synchronized (mItems)
+        {
+            if (mIsDone || item.mElapsedMillis != -1)
+            {
+                return;
+            }
+            item.mState = state;
+            item.mStatus = status;
+            item.mValue = value;
+            item.mElapsedMillis = SystemClock.elapsedRealtime() - mStartTimeMillis;
+            if (--mRemaining > 0)
+            {
+                return;
+            }
+            mIsDone = true;
+            mElapsedMillis = item.mElapsedMillis;
+        }
+
+        onDone(Collections.<Item>emptyList());
+    }
+
+    /**
+     * Called on the handler's background executor when the deadline passes. Every read still in flight is
+     * reported as {@link State#TimedOut}.
+     */
+    void onDeadline()
+    {
+        List<Item> unfinished = new ArrayList<>();
+        synchronized (mItems)
+        {
+            if (mIsDone)
+            {
+                return;
+            }
+            mIsDone = true;
+            mElapsedMillis = SystemClock.elapsedRealtime() - mStartTimeMillis;
+            for (Item item : mItems)
+            {
+                if (item.mElapsedMillis == -1)
+                {
+                    item.mState = State.TimedOut;
+                    unfinished.add(item);
+                }
+            }
+        }
+
+        FooLog.w(TAG, "onDeadline: " + unfinished.size() + " of " + mItems.size() + " reads *TIMED OUT* after " +
+                      mDeadlineMillis + "ms");
+
+        onDone(unfinished);
+    }
+
+    private void onDone(List<Item> unfinished)
+    {
+        ScheduledFuture<?> deadlineTimeout;
+        synchronized (mItems)
+        {
+            deadlineTimeout = mDeadlineTimeout;
+            mDeadlineTimeout = null;
+        }
+        if (deadlineTimeout != null)
+        {
+            // Do not leave a finished transaction on the shared timeout scheduler until its deadline
+            deadlineTimeout.cancel(false);
+        }
+
+        mGattHandler.onReadTransactionCompleted(this, unfinished);
+
+        if (mCallbacks != null)
+        {
+            mGattHandler.executeCallback(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    mCallbacks.onGattReadTransactionCompleted(FooGattReadTransaction.this);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import androidx.annotation.NonNull;
+
+/**
+ * How {@link FooGattHandler} reconnects after a connection is lost unexpectedly.
+ *
+ * <p>Attempt {@code n} (starting at 1) is made after a delay of
+ * {@code min(maxDelayMillis, initialDelayMillis * multiplier^(n - 1))}, reduced by a random fraction of up to
+ * {@code jitter} of itself so that many devices dropped at the same moment do not all retry in lockstep.
+ * After {@code autoConnectAfterAttempts} failed direct attempts, the remaining attempts use
+ * {@code autoConnect=true}, which leaves the OS to connect whenever the device is next seen. Once
+ * {@code maxAttempts} attempts have failed the handler gives up.</p>
+ *
+ * @see FooGattHandler#setReconnectPolicy(FooGattReconnectPolicy)
+ */
+public class FooGattReconnectPolicy
+{
+    /**
+     * Value for {@code maxAttempts} to never give up
+     */
+    public static final int UNLIMITED = -1;
+    /**
+     * Value for {@code autoConnectAfterAttempts} to always connect directly
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static final int NEVER     = -1;
+
+    /**
+     * 1s doubling to 30s with 50% jitter; switches to autoConnect after 3 failed attempts and gives up after
+     * 10
+     */
+    public static final FooGattReconnectPolicy DEFAULT =
+            new FooGattReconnectPolicy(1000, 30 * 1000, 2.0, 0.5, 10, 3, 15 * 1000);
+
+    private final long   mInitialDelayMillis;
+    private final long   mMaxDelayMillis;
+    private final double mMultiplier;
+    private final double mJitter;
+    private final int    mMaxAttempts;
+    private final int    mAutoConnectAfterAttempts;
+    private final long   mConnectTimeoutMillis;
+
+    /**
+     * @param initialDelayMillis       the delay before the first attempt; must not be negative
+     * @param maxDelayMillis           the longest delay between attempts; must be at least
+     *                                 {@code initialDelayMillis}
+     * @param multiplier               the factor the delay grows by after each failed attempt; must be at least 1
+     * @param jitter                   the largest fraction of each delay to randomly take off, from 0 (none) to 1
+     * @param maxAttempts              the number of attempts before giving up, or {@link #UNLIMITED}
+     * @param autoConnectAfterAttempts the number of failed direct attempts after which to use
+     *                                 {@code autoConnect=true}, or {@link #NEVER}
+     * @param connectTimeoutMillis     the timeout of each attempt; an autoConnect attempt is only as patient as
+     *                                 this, so make it generous if autoConnect is used
+     */
+    public FooGattReconnectPolicy(long initialDelayMillis,
+                                  long maxDelayMillis,
+                                  double multiplier,
+                                  double jitter,
+                                  int maxAttempts,
+                                  int autoConnectAfterAttempts,
+                                  long connectTimeoutMillis)
+    {
+        if (initialDelayMillis < 0)
+        {
+            throw new IllegalArgumentException("initialDelayMillis must be >= 0");
+        }
+        if (maxDelayMillis < initialDelayMillis)
+        {
+            throw new IllegalArgumentException("maxDelayMillis must be >= initialDelayMillis");
+        }
+        if (!(multiplier >= 1))
+        {
+            throw new IllegalArgumentException("multiplier must be >= 1");
+        }
+        if (!(jitter >= 0 && jitter <= 1))
+        {
+            throw new IllegalArgumentException("jitter must be between 0 and 1");
+        }
+        if (maxAttempts != UNLIMITED && maxAttempts <= 0)
+        {
+            throw new IllegalArgumentException("maxAttempts must be UNLIMITED or > 0");
+        }
+        if (autoConnectAfterAttempts != NEVER && autoConnectAfterAttempts < 0)
+        {
+            throw new IllegalArgumentException("autoConnectAfterAttempts must be NEVER or >= 0");
+        }
+        if (connectTimeoutMillis <= 0)
+        {
+            throw new IllegalArgumentException("connectTimeoutMillis must be > 0");
+        }
+
+        mInitialDelayMillis = initialDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mMultiplier = multiplier;
+        mJitter = jitter;
+        mMaxAttempts = maxAttempts;
+        mAutoConnectAfterAttempts = autoConnectAfterAttempts;
+        mConnectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ mInitialDelayMillis=" + mInitialDelayMillis +
+               ", mMaxDelayMillis=" + mMaxDelayMillis +
+               ", mMultiplier=" + mMultiplier +
+               ", mJitter=" + mJitter +
+               ", mMaxAttempts=" + mMaxAttempts +
+               ", mAutoConnectAfterAttempts=" + mAutoConnectAfterAttempts +
+               ", mConnectTimeoutMillis=" + mConnectTimeoutMillis +
+               " }";
+    }
+
+    public long getInitialDelayMillis()
+    {
+        return mInitialDelayMillis;
+    }
+
+    public long getMaxDelayMillis()
+    {
+        return mMaxDelayMillis;
+    }
+
+    public double getMultiplier()
+    {
+        return mMultiplier;
+    }
+
+    public double getJitter()
+    {
+        return mJitter;
+    }
+
+    public int getMaxAttempts()
+    {
+        return mMaxAttempts;
+    }
+
+    public int getAutoConnectAfterAttempts()
+    {
+        return mAutoConnectAfterAttempts;
+    }
+
+    public long getConnectTimeoutMillis()
+    {
+        return mConnectTimeoutMillis;
+    }
+
+    /**
+     * @param attempt the attempt number, starting at 1
+     * @return true if {@code attempt} may be made, false if the handler should give up
+     */
+    public boolean isAttemptAllowed(int attempt)
+    {
+        return mMaxAttempts == UNLIMITED || attempt <= mMaxAttempts;
+    }
+
+    /**
+     * @param attempt the attempt number, starting at 1
+     * @return true if {@code attempt} should use {@code autoConnect=true}
+     */
+    public boolean isAutoConnect(int attempt)
+    {
+        return mAutoConnectAfterAttempts != NEVER && attempt > mAutoConnectAfterAttempts;
+    }
+
+    /**
+     * @param attempt the attempt number, starting at 1
+     * @param random  a uniformly distributed value in [0, 1), such as from {@link java.util.Random#nextDouble()}
+     * @return the delay in milliseconds before making {@code attempt}
+     */
+    public long getDelayMillis(int attempt, double random)
+    {
+        double delayMillis = mInitialDelayMillis * Math.pow(mMultiplier, Math.max(0, attempt - 1));
+        delayMillis = Math.min(delayMillis, mMaxDelayMillis);
+        delayMillis -= delayMillis * mJitter * random;
+        return Math.round(delayMillis);
+    }
+}
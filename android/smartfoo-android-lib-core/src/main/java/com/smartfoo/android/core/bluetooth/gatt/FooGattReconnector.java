@@ -0,0 +1,505 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import android.Manifest;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresPermission;
+
+import com.smartfoo.android.core.bluetooth.gatt.FooGattHandler.GattHandlerListener.DisconnectReason;
+import com.smartfoo.android.core.logging.FooLog;
+
+import java.util.Random;
+
+/**
+ * One {@link FooGattHandler}'s reconnect engine and its time-to-reconnect metrics.
+ *
+ * <p>While a {@link FooGattReconnectPolicy} is set, an {@link DisconnectReason#UnsolicitedDisconnect} (or
+ * {@link DisconnectReason#ConnectFailed}) starts an outage: attempts are scheduled with the policy's backoff
+ * until services are discovered again, the policy's attempt budget runs out, or {@link #cancel()} is called.
+ * While the Bluetooth adapter is off no attempts are made, and an attempt cut short by the adapter turning
+ * off does not count against the budget; attempts resume once the adapter is back on.</p>
+ *
+ * <p>A solicited disconnect of a healthy connection does not start an outage. Once an outage has started,
+ * any disconnect before services are discovered, solicited or not, counts as a failed attempt, since
+ * timeouts and discovery failures disconnect that way too. Call {@link #cancel()},
+ * {@link FooGattHandler#setReconnectPolicy(FooGattReconnectPolicy)} with null, or
+ * {@link FooGattHandler#disconnect()} between attempts to stop reconnecting.</p>
+ *
+ * <p>Time-to-reconnect is measured from the disconnect that started the outage to the discovery of
+ * services, including any time the adapter was off.</p>
+ */
+public class FooGattReconnector
+{
+    private static final String TAG = FooLog.TAG(FooGattReconnector.class);
+
+    private final FooGattHandler mGattHandler;
+    private final Random         mRandom;
+
+    /**
+     * synchronized behind this
+     */
+    private FooGattReconnectPolicy mPolicy;
+    /**
+     * synchronized behind this
+     */
+    private boolean                mIsReconnecting;
+    /**
+     * synchronized behind this; the number of attempts started in the current outage
+     */
+    private int                    mAttempt;
+    /**
+     * synchronized behind this
+     */
+    private boolean                mIsAttemptInProgress;
+    /**
+     * synchronized behind this
+     */
+    private boolean                mIsAttemptScheduled;
+    /**
+     * synchronized behind this; bumped to invalidate any scheduled attempt
+     */
+    private int                    mGeneration;
+    /**
+     * synchronized behind this
+     */
+    private boolean                mIsPaused;
+    /**
+     * synchronized behind this
+     */
+    private long                   mOutageStartMillis;
+
+    /**
+     * synchronized behind this
+     */
+    private int  mReconnectCount;
+    /**
+     * synchronized behind this
+     */
+    private int  mGiveUpCount;
+    /**
+     * synchronized behind this
+     */
+    private long mLastTimeToReconnectMillis = -1;
+    /**
+     * synchronized behind this
+     */
+    private long mMinTimeToReconnectMillis  = -1;
+    /**
+     * synchronized behind this
+     */
+    private long mMaxTimeToReconnectMillis  = -1;
+    /**
+     * synchronized behind this
+     */
+    private long mTotalTimeToReconnectMillis;
+    /**
+     * synchronized behind this; attempts of the outages that ended in a reconnect
+     */
+    private int  mTotalAttempts;
+
+    FooGattReconnector(@NonNull FooGattHandler gattHandler)
+    {
+        mGattHandler = gattHandler;
+        mRandom = new Random();
+    }
+
+    private String logPrefix(String message)
+    {
+        return mGattHandler.getDeviceAddressString() + " " + message;
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ mPolicy=" + mPolicy +
+               ", mIsReconnecting=" + mIsReconnecting +
+               ", mAttempt=" + mAttempt +
+               ", mIsPaused=" + mIsPaused +
+               ", mReconnectCount=" + mReconnectCount +
+               ", mGiveUpCount=" + mGiveUpCount +
+               ", mLastTimeToReconnectMillis=" + mLastTimeToReconnectMillis +
+               ", getAverageTimeToReconnectMillis()=" + getAverageTimeToReconnectMillis() +
+               " }";
+    }
+
+    public synchronized FooGattReconnectPolicy getPolicy()
+    {
+        return mPolicy;
+    }
+
+    /**
+     * @param policy the policy to use from now on, or null to stop reconnecting
+     */
+    synchronized void setPolicy(FooGattReconnectPolicy policy)
+    {
+        mPolicy = policy;
+        if (policy == null)
+        {
+            cancel();
+        }
+    }
+
+    /**
+     * @return true while an outage is in progress
+     */
+    public synchronized boolean isReconnecting()
+    {
+        return mIsReconnecting;
+    }
+
+    /**
+     * @return the number of attempts started in the current outage
+     */
+    public synchronized int getAttempt()
+    {
+        return mAttempt;
+    }
+
+    /**
+     * @return true while an outage is waiting for the Bluetooth adapter to be turned back on
+     */
+    public synchronized boolean isPaused()
+    {
+        return mIsReconnecting && mIsPaused;
+    }
+
+    /**
+     * @return the number of outages that ended in a reconnect
+     */
+    public synchronized int getReconnectCount()
+    {
+        return mReconnectCount;
+    }
+
+    /**
+     * @return the number of outages that ran out of attempts
+     */
+    public synchronized int getGiveUpCount()
+    {
+        return mGiveUpCount;
+    }
+
+    /**
+     * @return the time-to-reconnect of the last outage that ended in a reconnect, or -1 if none
+     */
+    public synchronized long getLastTimeToReconnectMillis()
+    {
+        return mLastTimeToReconnectMillis;
+    }
+
+    /**
+     * @return the shortest time-to-reconnect, or -1 if none
+     */
+    public synchronized long getMinTimeToReconnectMillis()
+    {
+        return mMinTimeToReconnectMillis;
+    }
+
+    /**
+     * @return the longest time-to-reconnect, or -1 if none
+     */
+    public synchronized long getMaxTimeToReconnectMillis()
+    {
+        return mMaxTimeToReconnectMillis;
+    }
+
+    /**
+     * @return the mean time-to-reconnect, or -1 if none
+     */
+    public synchronized long getAverageTimeToReconnectMillis()
+    {
+        return mReconnectCount > 0 ? mTotalTimeToReconnectMillis / mReconnectCount : -1;
+    }
+
+    /**
+     * @return the mean number of attempts an outage that ended in a reconnect took, or 0 if none
+     */
+    @SuppressWarnings("unused")
+    public synchronized float getAverageAttempts()
+    {
+        return mReconnectCount > 0 ? (float) mTotalAttempts / mReconnectCount : 0;
+    }
+
+    /**
+     * Clears the metrics, but not the state of any outage in progress.
+     */
+    @SuppressWarnings("unused")
+    public synchronized void resetMetrics()
+    {
+        mReconnectCount = 0;
+        mGiveUpCount = 0;
+        mLastTimeToReconnectMillis = -1;
+        mMinTimeToReconnectMillis = -1;
+        mMaxTimeToReconnectMillis = -1;
+        mTotalTimeToReconnectMillis = 0;
+        mTotalAttempts = 0;
+    }
+
+    /**
+     * Ends the current outage, if any, without reconnecting. An attempt already in progress is not
+     * interrupted; call {@link FooGattHandler#disconnect()} too for that.
+     */
+    public synchronized void cancel()
+    {
+        if (!mIsReconnecting)
+        {
+            return;
+        }
+
+        FooLog.i(TAG, logPrefix("cancel: canceling reconnect after " + mAttempt + " attempt(s)"));
+
+        endOutage();
+    }
+
+    //
+    // Called by FooGattHandler and FooGattManager
+    //
+
+    void onDeviceDisconnected(DisconnectReason reason)
+    {
+        Runnable dispatch;
+        synchronized (this)
+        {
+            if (mPolicy == null)
+            {
+                return;
+            }
+
+            if (!mIsReconnecting)
+            {
+                if (reason != DisconnectReason.UnsolicitedDisconnect && reason != DisconnectReason.ConnectFailed)
+                {
+                    return;
+                }
+
+                FooLog.i(TAG, logPrefix("onDeviceDisconnected: reason=" + reason + "; starting reconnect"));
+
+                mIsReconnecting = true;
+                mAttempt = 0;
+                mIsAttemptInProgress = false;
+                mOutageStartMillis = SystemClock.elapsedRealtime();
+            }
+            else
+            {
+                if (!mIsAttemptInProgress)
+                {
+                    // Not one of our attempts, or one the adapter turning off already accounted for
+                    return;
+                }
+
+                mIsAttemptInProgress = false;
+
+                FooLog.w(TAG, logPrefix("onDeviceDisconnected: reconnect attempt #" + mAttempt +
+                                        " failed; reason=" + reason));
+            }
+
+            dispatch = scheduleNextAttempt();
+        }
+        if (dispatch != null)
+        {
+            dispatch.run();
+        }
+    }
+
+    void onDeviceServicesDiscovered()
+    {
+        final int attempts;
+        final long timeToReconnectMillis;
+        synchronized (this)
+        {
+            if (!mIsReconnecting)
+            {
+                return;
+            }
+
+            attempts = mAttempt;
+            timeToReconnectMillis = SystemClock.elapsedRealtime() - mOutageStartMillis;
+
+            mReconnectCount++;
+            mTotalAttempts += attempts;
+            mLastTimeToReconnectMillis = timeToReconnectMillis;
+            mTotalTimeToReconnectMillis += timeToReconnectMillis;
+            if (mMinTimeToReconnectMillis == -1 || timeToReconnectMillis < mMinTimeToReconnectMillis)
+            {
+                mMinTimeToReconnectMillis = timeToReconnectMillis;
+            }
+            if (timeToReconnectMillis > mMaxTimeToReconnectMillis)
+            {
+                mMaxTimeToReconnectMillis = timeToReconnectMillis;
+            }
+
+            FooLog.i(TAG, logPrefix("onDeviceServicesDiscovered: reconnected after " + attempts +
+                                    " attempt(s) in " + timeToReconnectMillis + "ms"));
+
+            endOutage();
+        }
+
+        mGattHandler.onDeviceReconnected(attempts, timeToReconnectMillis);
+    }
+
+    void onBluetoothAdapterStateChanged(boolean enabled)
+    {
+        Runnable dispatch = null;
+        synchronized (this)
+        {
+            if (enabled == !mIsPaused)
+            {
+                return;
+            }
+
+            mIsPaused = !enabled;
+
+            if (!mIsReconnecting)
+            {
+                return;
+            }
+
+            if (!enabled)
+            {
+                FooLog.i(TAG, logPrefix("onBluetoothAdapterStateChanged: adapter disabled; pausing reconnect"));
+
+                // Invalidate any scheduled attempt
+                mGeneration++;
+                mIsAttemptScheduled = false;
+
+                if (mIsAttemptInProgress)
+                {
+                    // Not the device's fault; do not count it, and ignore the disconnect it is about to report
+                    mIsAttemptInProgress = false;
+                    mAttempt--;
+                }
+            }
+            else
+            {
+                FooLog.i(TAG, logPrefix("onBluetoothAdapterStateChanged: adapter enabled; resuming reconnect"));
+
+                if (!mIsAttemptScheduled && !mIsAttemptInProgress)
+                {
+                    dispatch = scheduleNextAttempt();
+                }
+            }
+        }
+        if (dispatch != null)
+        {
+            dispatch.run();
+        }
+    }
+
+    //
+    //
+    //
+
+    /**
+     * synchronized behind this
+     *
+     * @return the listener notification to run once the lock is released, or null if none
+     */
+    private Runnable scheduleNextAttempt()
+    {
+        if (mIsPaused)
+        {
+            FooLog.i(TAG, logPrefix("scheduleNextAttempt: adapter disabled; waiting for it to be enabled"));
+            return null;
+        }
+
+        final FooGattReconnectPolicy policy = mPolicy;
+        final int attempt = mAttempt + 1;
+
+        if (!policy.isAttemptAllowed(attempt))
+        {
+            final int attempts = mAttempt;
+            final long elapsedMillis = SystemClock.elapsedRealtime() - mOutageStartMillis;
+
+            FooLog.w(TAG, logPrefix("scheduleNextAttempt: giving up after " + attempts +
+                                    " attempt(s) in " + elapsedMillis + "ms"));
+
+            mGiveUpCount++;
+
+            endOutage();
+
+            return new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    mGattHandler.onDeviceReconnectGaveUp(attempts, elapsedMillis);
+                }
+            };
+        }
+
+        final boolean autoConnect = policy.isAutoConnect(attempt);
+        final long delayMillis = policy.getDelayMillis(attempt, mRandom.nextDouble());
+        final int generation = ++mGeneration;
+        mIsAttemptScheduled = true;
+
+        FooLog.i(TAG, logPrefix("scheduleNextAttempt: attempt #" + attempt + " in " + delayMillis +
+                                "ms, autoConnect=" + autoConnect));
+
+        mGattHandler.scheduleBackground(new Runnable()
+        {
+            @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+            @Override
+            public void run()
+            {
+                attempt(generation, attempt, autoConnect, policy.getConnectTimeoutMillis());
+            }
+        }, delayMillis);
+
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mGattHandler.onDeviceReconnectScheduled(attempt, delayMillis, autoConnect);
+            }
+        };
+    }
+
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    private void attempt(int generation, int attempt, boolean autoConnect, long timeoutMillis)
+    {
+        synchronized (this)
+        {
+            if (generation != mGeneration || !mIsReconnecting)
+            {
+                return;
+            }
+
+            mIsAttemptScheduled = false;
+            mAttempt = attempt;
+            mIsAttemptInProgress = true;
+        }
+
+        FooLog.i(TAG, logPrefix("attempt: reconnect attempt #" + attempt + ", autoConnect=" + autoConnect));
+
+        if (!mGattHandler.connect(autoConnect, timeoutMillis, null))
+        {
+            // The adapter is off; the adapter state listener resumes us when it comes back on
+            synchronized (this)
+            {
+                if (generation == mGeneration && mIsAttemptInProgress)
+                {
+                    FooLog.w(TAG, logPrefix("attempt: connect failed; pausing reconnect"));
+                    mIsAttemptInProgress = false;
+                    mAttempt--;
+                    mIsPaused = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * synchronized behind this
+     */
+    private void endOutage()
+    {
+        mIsReconnecting = false;
+        mAttempt = 0;
+        mIsAttemptInProgress = false;
+        mIsAttemptScheduled = false;
+        mGeneration++;
+    }
+}
@@ -0,0 +1,742 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.FooRun;
+import com.smartfoo.android.core.bluetooth.gatt.FooGattHandler.GattHandlerListener.GattOperation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Completion handle for a single operation queued on a {@link FooGattHandler}.
+ *
+ * <p>Every operation moves from {@link State#Queued} to {@link State#Executing} to exactly one of
+ * the terminal states. Callers can observe the result either through the existing
+ * {@link FooGattHandler.GattHandlerListener} callbacks or, per operation, through
+ * {@link #addCallbacks(FooGattRequestCallbacks)}. Completion callbacks are invoked on the same
+ * thread as the {@link FooGattHandler.GattHandlerListener} callbacks
+ * (see {@link FooGattHandler#setCallbackThread(FooGattHandler.CallbackThread)}).</p>
+ *
+ * <p>Instances are created only by {@link FooGattHandler}.</p>
+ */
+public abstract class FooGattRequest
+{
+    public enum State
+    {
+        Queued,
+        Executing,
+        Succeeded,
+        Failed,
+        TimedOut,
+        Canceled,
+        /**
+         * Dropped without being started because its {@link #setDeadlineMillis(long) deadline} passed while it
+         * was still queued
+         */
+        Expired,
+    }
+
+    /**
+     * Queued requests of a higher priority always start before queued requests of a lower one; requests of the
+     * same priority start in the order they were queued. An executing request is never preempted.
+     */
+    public enum Priority
+    {
+        /**
+         * Control writes and other operations that a user is waiting on
+         */
+        Control,
+        /**
+         * The default
+         */
+        Normal,
+        /**
+         * Polling and other operations that can wait for everything else
+         */
+        Background,
+    }
+
+    /**
+     * Passed to {@link #setDeadlineMillis(long)} for no deadline; the default
+     */
+    public static final long NO_DEADLINE = -1;
+
+    /**
+     * Callback interface for operation completion.
+     */
+    public interface FooGattRequestCallbacks
+    {
+        /**
+         * Called once when the request reaches a terminal {@link State}.
+         *
+         * @param request the completed request
+         */
+        void onGattRequestCompleted(@NonNull FooGattRequest request);
+    }
+
+    /**
+     * {@link FooGattRequestCallbacks} that {@link FooGattHandler} invokes directly on the thread that completed
+     * the request, before any listener callbacks, instead of posting them to the callback thread.
+     */
+    interface DirectCallbacks
+            extends FooGattRequestCallbacks
+    {
+    }
+
+    private final GattOperation                 mOperation;
+    private final UUID                          mServiceUuid;
+    private final UUID                          mCharacteristicUuid;
+    private final long                          mTimeoutMillis;
+    private final Runnable                      mRunAfterSuccess;
+    private final long                          mStartTimeMillis;
+    private final List<FooGattRequestCallbacks> mCallbacks;
+
+    /**
+     * Set once by {@link FooGattOperationQueue#enqueue(FooGattRequest)}
+     */
+    private FooGattOperationQueue mQueue;
+
+    /**
+     * Set before the request is enqueued
+     */
+    private boolean mIsReportedToListeners = true;
+    /**
+     * Set before the request is enqueued; may be cleared afterwards to protect a request others depend on
+     */
+    private volatile boolean mIsLatestWins;
+    /**
+     * Once enqueued, only written synchronized behind the queue
+     */
+    private volatile Priority mPriority = Priority.Normal;
+    private volatile long     mDeadlineMillis = NO_DEADLINE;
+
+    /**
+     * synchronized behind mCallbacks
+     */
+    private State                       mState;
+    /**
+     * The pending {@link FooGattOperationQueue#scheduleDeadline(FooGattRequest)} task, canceled once it is moot
+     * <p>
+     * synchronized behind mCallbacks
+     */
+    private ScheduledFuture<?>          mDeadlineTimeout;
+    private long                        mLastActivityMillis;
+    private long                        mElapsedMillis;
+    private int                         mStatus;
+    private byte[]                      mValue;
+    private int                         mRssi;
+    private int                         mMtu;
+    private int                         mTxPhy;
+    private int                         mRxPhy;
+    private int                         mConnectionPriority;
+    private BluetoothGattCharacteristic mCharacteristic;
+    private List<BluetoothGattService>  mServices;
+
+    FooGattRequest(@NonNull GattOperation operation,
+                   UUID serviceUuid,
+                   UUID characteristicUuid,
+                   long timeoutMillis,
+                   Runnable runAfterSuccess)
+    {
+        mOperation = operation;
+        mServiceUuid = serviceUuid;
+        mCharacteristicUuid = characteristicUuid;
+        mTimeoutMillis = timeoutMillis;
+        mRunAfterSuccess = runAfterSuccess;
+        mStartTimeMillis = SystemClock.elapsedRealtime();
+        mCallbacks = new ArrayList<>();
+        mState = State.Queued;
+        mElapsedMillis = -1;
+        mStatus = -1;
+        mRssi = -1;
+        mMtu = -1;
+        mTxPhy = -1;
+        mRxPhy = -1;
+        mConnectionPriority = -1;
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ mOperation=" + mOperation +
+               ", mServiceUuid=" + mServiceUuid +
+               ", mCharacteristicUuid=" + mCharacteristicUuid +
+               ", mPriority=" + mPriority +
+               ", mState=" + getState() +
+               " }";
+    }
+
+    /**
+     * Starts the operation over the air. Called on the handler's background executor when this
+     * request reaches the head of the queue.
+     *
+     * @param gatt the connected gatt, or null if {@link #requiresConnection()} returns false
+     * @return true if the operation was started and a GATT callback (or timeout) will complete it;
+     * false if it failed to start
+     */
+    abstract boolean start(FooGattTransport gatt);
+
+    /**
+     * @return true if this request may only be started while connected and not disconnecting
+     */
+    boolean requiresConnection()
+    {
+        return true;
+    }
+
+    /**
+     * @return the number of bytes this request sends, or 0 if it sends none; recorded by {@link FooGattTrace}
+     */
+    int getPayloadLength()
+    {
+        return 0;
+    }
+
+    /**
+     * @return the kind of operation this request performs
+     */
+    public GattOperation getOperation()
+    {
+        return mOperation;
+    }
+
+    /**
+     * @return the service UUID, or null for operations not bound to a characteristic
+     */
+    public UUID getServiceUuid()
+    {
+        return mServiceUuid;
+    }
+
+    /**
+     * @return the characteristic UUID, or null for operations not bound to a characteristic
+     */
+    public UUID getCharacteristicUuid()
+    {
+        return mCharacteristicUuid;
+    }
+
+    /**
+     * @return the requested timeout in milliseconds, measured from when the operation starts or last
+     * made progress
+     */
+    public long getTimeoutMillis()
+    {
+        return mTimeoutMillis;
+    }
+
+    Runnable getRunAfterSuccess()
+    {
+        return mRunAfterSuccess;
+    }
+
+    /**
+     * @return the {@link SystemClock#elapsedRealtime()} at which the request was enqueued; a monotonic clock, so
+     * deadlines and timeouts are not moved by wall-clock changes
+     */
+    public long getStartTimeMillis()
+    {
+        return mStartTimeMillis;
+    }
+
+    /**
+     * @return the current state
+     */
+    public State getState()
+    {
+        synchronized (mCallbacks)
+        {
+            return mState;
+        }
+    }
+
+    /**
+     * @return true if the request has reached a terminal state
+     */
+    public boolean isDone()
+    {
+        State state = getState();
+        return state != State.Queued && state != State.Executing;
+    }
+
+    /**
+     * @return true if the request completed with {@link State#Succeeded}
+     */
+    public boolean isSuccess()
+    {
+        return getState() == State.Succeeded;
+    }
+
+    /**
+     * @return milliseconds from enqueue to completion, or -1 if not yet done
+     */
+    public long getElapsedMillis()
+    {
+        synchronized (mCallbacks)
+        {
+            return mElapsedMillis;
+        }
+    }
+
+    /**
+     * @return the GATT status reported by the OS callback, or -1 if none was reported
+     */
+    public int getStatus()
+    {
+        synchronized (mCallbacks)
+        {
+            return mStatus;
+        }
+    }
+
+    /**
+     * @return a copy of the value read by a {@link GattOperation#CharacteristicRead}, or null
+     */
+    public byte[] getValue()
+    {
+        synchronized (mCallbacks)
+        {
+            return mValue;
+        }
+    }
+
+    /**
+     * @return the RSSI read by a {@link GattOperation#ReadRemoteRssi}, or -1
+     */
+    public int getRssi()
+    {
+        synchronized (mCallbacks)
+        {
+            return mRssi;
+        }
+    }
+
+    /**
+     * @return the MTU negotiated by a {@link GattOperation#RequestMtu}, or -1
+     */
+    public int getMtu()
+    {
+        synchronized (mCallbacks)
+        {
+            return mMtu;
+        }
+    }
+
+    /**
+     * @return the transmitter PHY in use after a {@link GattOperation#SetPreferredPhy}, or -1
+     */
+    public int getTxPhy()
+    {
+        synchronized (mCallbacks)
+        {
+            return mTxPhy;
+        }
+    }
+
+    /**
+     * @return the receiver PHY in use after a {@link GattOperation#SetPreferredPhy}, or -1
+     */
+    public int getRxPhy()
+    {
+        synchronized (mCallbacks)
+        {
+            return mRxPhy;
+        }
+    }
+
+    /**
+     * @return the priority requested by a {@link GattOperation#RequestConnectionPriority}, or -1
+     */
+    public int getConnectionPriority()
+    {
+        synchronized (mCallbacks)
+        {
+            return mConnectionPriority;
+        }
+    }
+
+    /**
+     * @return the services found by a {@link GattOperation#DiscoverServices}, or null
+     */
+    public List<BluetoothGattService> getServices()
+    {
+        synchronized (mCallbacks)
+        {
+            return mServices;
+        }
+    }
+
+    /**
+     * @return the characteristic the OS completed this request with, or a detached placeholder
+     * with the same UUIDs if the request did not complete over the air
+     */
+    BluetoothGattCharacteristic getCharacteristic()
+    {
+        synchronized (mCallbacks)
+        {
+            if (mCharacteristic == null && mServiceUuid != null && mCharacteristicUuid != null)
+            {
+                mCharacteristic = FooGattUtils.createBluetoothGattCharacteristic(mServiceUuid, mCharacteristicUuid);
+            }
+            return mCharacteristic;
+        }
+    }
+
+    /**
+     * @param characteristic the characteristic the OS called back with
+     * @return true if the callback is for the characteristic this request operates on
+     */
+    boolean matches(BluetoothGattCharacteristic characteristic)
+    {
+        if (characteristic == null || mCharacteristicUuid == null)
+        {
+            return false;
+        }
+        if (!mCharacteristicUuid.equals(characteristic.getUuid()))
+        {
+            return false;
+        }
+        return mServiceUuid == null ||
+               characteristic.getService() == null ||
+               mServiceUuid.equals(characteristic.getService().getUuid());
+    }
+
+    void setResult(int status, BluetoothGattCharacteristic characteristic, byte[] value)
+    {
+        synchronized (mCallbacks)
+        {
+            mStatus = status;
+            mCharacteristic = characteristic;
+            mValue = value != null ? value.clone() : null;
+        }
+    }
+
+    void setResult(int status, List<BluetoothGattService> services)
+    {
+        synchronized (mCallbacks)
+        {
+            mStatus = status;
+            mServices = services;
+        }
+    }
+
+    void setResult(int status, int rssi)
+    {
+        synchronized (mCallbacks)
+        {
+            mStatus = status;
+            mRssi = rssi;
+        }
+    }
+
+    void setMtuResult(int status, int mtu)
+    {
+        synchronized (mCallbacks)
+        {
+            mStatus = status;
+            mMtu = mtu;
+        }
+    }
+
+    void setPhyResult(int status, int txPhy, int rxPhy)
+    {
+        synchronized (mCallbacks)
+        {
+            mStatus = status;
+            mTxPhy = txPhy;
+            mRxPhy = rxPhy;
+        }
+    }
+
+    void setConnectionPriorityResult(int status, int connectionPriority)
+    {
+        synchronized (mCallbacks)
+        {
+            mStatus = status;
+            mConnectionPriority = connectionPriority;
+        }
+    }
+
+    /**
+     * @param reportedToListeners false to complete without calling the matching
+     *                            {@link FooGattHandler.GattHandlerListener} method; timeouts are still reported
+     */
+    void setReportedToListeners(boolean reportedToListeners)
+    {
+        mIsReportedToListeners = reportedToListeners;
+    }
+
+    boolean isReportedToListeners()
+    {
+        return mIsReportedToListeners;
+    }
+
+    /**
+     * @param latestWins true if enqueuing this request should cancel any still-queued latest-wins request for the
+     *                   same operation on the same characteristic; see {@link #isReplacedBy(FooGattRequest)}
+     */
+    void setLatestWins(boolean latestWins)
+    {
+        mIsLatestWins = latestWins;
+    }
+
+    boolean isLatestWins()
+    {
+        return mIsLatestWins;
+    }
+
+    /**
+     * @param request a request being enqueued
+     * @return true if this queued request is superseded by {@code request}
+     */
+    boolean isReplacedBy(FooGattRequest request)
+    {
+        return mIsLatestWins && request.mIsLatestWins &&
+               mOperation == request.mOperation &&
+               mServiceUuid != null && mServiceUuid.equals(request.mServiceUuid) &&
+               mCharacteristicUuid != null && mCharacteristicUuid.equals(request.mCharacteristicUuid);
+    }
+
+    /**
+     * @return the priority this request is, or was, queued at
+     */
+    public Priority getPriority()
+    {
+        return mPriority;
+    }
+
+    /**
+     * Moves this request to another priority if it has not started yet. It goes to the back of its new priority.
+     *
+     * @param priority the new priority; must not be null
+     * @return true if the request is still queued, or was not queued yet, and now has {@code priority}
+     */
+    public boolean setPriority(@NonNull Priority priority)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(priority, "priority");
+
+        FooGattOperationQueue queue = mQueue;
+        if (queue == null)
+        {
+            mPriority = priority;
+            return true;
+        }
+        return queue.setPriority(this, priority);
+    }
+
+    //package
+    void setPriorityInternal(Priority priority)
+    {
+        mPriority = priority;
+    }
+
+    /**
+     * @return the deadline in milliseconds, measured from {@link #getStartTimeMillis()}, or {@link #NO_DEADLINE}
+     */
+    public long getDeadlineMillis()
+    {
+        return mDeadlineMillis;
+    }
+
+    /**
+     * Sets how long this request may stay queued. If it has not started by then it is removed from the queue
+     * and completes as {@link State#Expired}, which its {@link FooGattRequestCallbacks} are told about. A request
+     * that has started is not affected; its {@link #getTimeoutMillis() timeout} still applies.
+     *
+     * @param deadlineMillis milliseconds, measured from {@link #getStartTimeMillis()}, or {@link #NO_DEADLINE}
+     * @return false if the request has already started or is done
+     */
+    public boolean setDeadlineMillis(long deadlineMillis)
+    {
+        if (getState() != State.Queued)
+        {
+            return false;
+        }
+        mDeadlineMillis = deadlineMillis;
+        FooGattOperationQueue queue = mQueue;
+        if (queue != null && deadlineMillis != NO_DEADLINE)
+        {
+            queue.scheduleDeadline(this);
+        }
+        return true;
+    }
+
+    /**
+     * @param nowMillis the current {@link SystemClock#elapsedRealtime()}
+     * @return true if this request has a deadline and it has passed
+     */
+    boolean isPastDeadline(long nowMillis)
+    {
+        long deadlineMillis = mDeadlineMillis;
+        return deadlineMillis != NO_DEADLINE && nowMillis - mStartTimeMillis >= deadlineMillis;
+    }
+
+    /**
+     * Replaces the pending deadline task, canceling the previous one. Cancels {@code deadlineTimeout} instead
+     * if this request is no longer queued, since its deadline can no longer apply.
+     *
+     * @param deadlineTimeout the newly scheduled deadline task
+     */
+    void setDeadlineTimeout(@NonNull ScheduledFuture<?> deadlineTimeout)
+    {
+        ScheduledFuture<?> previous;
+        synchronized (mCallbacks)
+        {
+            if (mState != State.Queued)
+            {
+                previous = deadlineTimeout;
+            }
+            else
+            {
+                previous = mDeadlineTimeout;
+                mDeadlineTimeout = deadlineTimeout;
+            }
+        }
+        if (previous != null)
+        {
+            previous.cancel(false);
+        }
+    }
+
+    private void cancelDeadlineTimeout()
+    {
+        ScheduledFuture<?> deadlineTimeout;
+        synchronized (mCallbacks)
+        {
+            deadlineTimeout = mDeadlineTimeout;
+            mDeadlineTimeout = null;
+        }
+        if (deadlineTimeout != null)
+        {
+            deadlineTimeout.cancel(false);
+        }
+    }
+
+    void setQueue(FooGattOperationQueue queue)
+    {
+        mQueue = queue;
+    }
+
+    /**
+     * Cancels this request if it has not started executing yet. An operation that is already
+     * executing over the air cannot be recalled and will complete normally.
+     *
+     * @return true if the request was removed from the queue and completed as
+     * {@link State#Canceled}; false if it is executing or already done
+     */
+    public boolean cancel()
+    {
+        FooGattOperationQueue queue = mQueue;
+        return queue != null && queue.cancel(this);
+    }
+
+    /**
+     * Adds callbacks to be notified when this request completes. If the request is already done the
+     * callbacks are not stored and the caller should inspect {@link #getState()} directly.
+     *
+     * @param callbacks the callbacks to add; must not be null
+     * @return true if added, false if the request is already done
+     */
+    public boolean addCallbacks(@NonNull FooGattRequestCallbacks callbacks)
+    {
+        synchronized (mCallbacks)
+        {
+            if (mState != State.Queued && mState != State.Executing)
+            {
+                return false;
+            }
+            mCallbacks.add(callbacks);
+            return true;
+        }
+    }
+
+    /**
+     * Removes previously added callbacks.
+     *
+     * @param callbacks the callbacks to remove
+     */
+    @SuppressWarnings("unused")
+    public void removeCallbacks(FooGattRequestCallbacks callbacks)
+    {
+        synchronized (mCallbacks)
+        {
+            mCallbacks.remove(callbacks);
+        }
+    }
+
+    /**
+     * Restarts this request's timeout. For requests that complete over several GATT callbacks.
+     */
+    void touch()
+    {
+        synchronized (mCallbacks)
+        {
+            mLastActivityMillis = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * @return the {@link SystemClock#elapsedRealtime()} at which the request started executing or last called
+     * {@link #touch()}
+     */
+    long getLastActivityMillis()
+    {
+        synchronized (mCallbacks)
+        {
+            return mLastActivityMillis;
+        }
+    }
+
+    FooGattOperationQueue getQueue()
+    {
+        return mQueue;
+    }
+
+    boolean setExecuting()
+    {
+        synchronized (mCallbacks)
+        {
+            if (mState != State.Queued)
+            {
+                return false;
+            }
+            mState = State.Executing;
+            mLastActivityMillis = SystemClock.elapsedRealtime();
+        }
+        // Started in time; the deadline no longer applies
+        cancelDeadlineTimeout();
+        return true;
+    }
+
+    /**
+     * @param state the terminal state
+     * @return the callbacks to notify, or null if the request was already done
+     */
+    List<FooGattRequestCallbacks> setDone(@NonNull State state)
+    {
+        List<FooGattRequestCallbacks> callbacks;
+        synchronized (mCallbacks)
+        {
+            if (mState != State.Queued && mState != State.Executing)
+            {
+                return null;
+            }
+            mState = state;
+            mElapsedMillis = SystemClock.elapsedRealtime() - mStartTimeMillis;
+            callbacks = new ArrayList<>(mCallbacks);
+            mCallbacks.clear();
+        }
+        cancelDeadlineTimeout();
+        return callbacks;
+    }
+}
@@ -0,0 +1,156 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Immutable (service UUID, characteristic UUID) to {@link BluetoothGattCharacteristic} index for one
+ * service discovery result.
+ *
+ * <p>{@link android.bluetooth.BluetoothGatt#getService(UUID)} and
+ * {@link BluetoothGattService#getCharacteristic(UUID)} are linear scans comparing {@link UUID} objects. This
+ * index is an open-addressing table keyed directly by the four 64-bit halves of the two UUIDs, so a lookup is
+ * one hash probe with no allocation.</p>
+ *
+ * <p>Like {@link android.bluetooth.BluetoothGatt#getService(UUID)}, if a service or characteristic UUID
+ * appears more than once the first instance wins.</p>
+ */
+class FooGattServiceIndex
+{
+    private static final int KEY_LONGS = 4;
+
+    private final List<BluetoothGattService>   mServices;
+    private final long[]                        mKeys;
+    private final BluetoothGattCharacteristic[] mValues;
+    private final int                           mMask;
+    private final int                           mSize;
+
+    FooGattServiceIndex(List<BluetoothGattService> services)
+    {
+        mServices = services;
+
+        int count = 0;
+        if (services != null)
+        {
+            for (BluetoothGattService service : services)
+            {
+                count += service.getCharacteristics().size();
+            }
+        }
+
+        // Keep the load factor at or below 0.5
+        int capacity = Integer.highestOneBit(Math.max(4, count * 2) - 1) << 1;
+        mKeys = new long[capacity * KEY_LONGS];
+        mValues = new BluetoothGattCharacteristic[capacity];
+        mMask = capacity - 1;
+
+        int size = 0;
+        if (services != null)
+        {
+            for (BluetoothGattService service : services)
+            {
+                UUID serviceUuid = service.getUuid();
+                for (BluetoothGattCharacteristic characteristic : service.getCharacteristics())
+                {
+                    if (put(serviceUuid, characteristic.getUuid(), characteristic))
+                    {
+                        size++;
+                    }
+                }
+            }
+        }
+        mSize = size;
+    }
+
+    /**
+     * @return the services this index was built from
+     */
+    List<BluetoothGattService> getServices()
+    {
+        return mServices;
+    }
+
+    /**
+     * @return the number of indexed characteristics
+     */
+    int size()
+    {
+        return mSize;
+    }
+
+    /**
+     * @param serviceUuid        UUID of the service
+     * @param characteristicUuid UUID of the characteristic
+     * @return the first matching characteristic, or null if not discovered
+     */
+    BluetoothGattCharacteristic get(UUID serviceUuid, UUID characteristicUuid)
+    {
+        long k0 = serviceUuid.getMostSignificantBits();
+        long k1 = serviceUuid.getLeastSignificantBits();
+        long k2 = characteristicUuid.getMostSignificantBits();
+        long k3 = characteristicUuid.getLeastSignificantBits();
+
+        int slot = hash(k0, k1, k2, k3) & mMask;
+        while (true)
+        {
+            BluetoothGattCharacteristic value = mValues[slot];
+            if (value == null)
+            {
+                return null;
+            }
+            int offset = slot * KEY_LONGS;
+            if (mKeys[offset] == k0 && mKeys[offset + 1] == k1 && mKeys[offset + 2] == k2 && mKeys[offset + 3] == k3)
+            {
+                return value;
+            }
+            slot = (slot + 1) & mMask;
+        }
+    }
+
+    /**
+     * @return true if added, false if the key was already present
+     */
+    private boolean put(UUID serviceUuid, UUID characteristicUuid, BluetoothGattCharacteristic characteristic)
+    {
+        long k0 = serviceUuid.getMostSignificantBits();
+        long k1 = serviceUuid.getLeastSignificantBits();
+        long k2 = characteristicUuid.getMostSignificantBits();
+        long k3 = characteristicUuid.getLeastSignificantBits();
+
+        int slot = hash(k0, k1, k2, k3) & mMask;
+        while (true)
+        {
+            int offset = slot * KEY_LONGS;
+            if (mValues[slot] == null)
+            {
+                mKeys[offset] = k0;
+                mKeys[offset + 1] = k1;
+                mKeys[offset + 2] = k2;
+                mKeys[offset + 3] = k3;
+                mValues[slot] = characteristic;
+                return true;
+            }
+            if (mKeys[offset] == k0 && mKeys[offset + 1] == k1 && mKeys[offset + 2] == k2 && mKeys[offset + 3] == k3)
+            {
+                return false;
+            }
+            slot = (slot + 1) & mMask;
+        }
+    }
+
+    /**
+     * Standard Bluetooth UUIDs differ only in the top 32 bits of the most significant half, so all four halves
+     * are mixed before the result is masked.
+     */
+    private static int hash(long k0, long k1, long k2, long k3)
+    {
+        long h = k0 * 0x9E3779B97F4A7C15L;
+        h = (h ^ k1) * 0x9E3779B97F4A7C15L;
+        h = (h ^ k2) * 0x9E3779B97F4A7C15L;
+        h = (h ^ k3) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
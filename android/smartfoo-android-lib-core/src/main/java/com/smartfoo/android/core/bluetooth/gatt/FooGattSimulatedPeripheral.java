@@ -0,0 +1,896 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.bluetooth.BluetoothStatusCodes;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.FooRun;
+import com.smartfoo.android.core.bluetooth.gatt.FooGattHandler.GattHandlerListener.GattOperation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A fake BLE peripheral that a {@link FooGattSimulator} connects {@link FooGattHandler}s to.
+ *
+ * <p>It holds a GATT database of real {@link BluetoothGattService}s and characteristic values, and answers
+ * each operation after the latency set by {@link #setLatencyMillis(GattOperation, long)}. Reads return the
+ * last value written or set; writes are stored and counted; notifications are sent by calling
+ * {@link #notify(UUID, UUID, byte[])} once the handler has enabled them. MTU negotiation is capped at
+ * {@link #setMaxMtu(int)}, and write-without-response values longer than the MTU allows fail.</p>
+ *
+ * <p>Failures are modeled by {@link #setConnectable(boolean)} (connects that time out),
+ * {@link #setResponseLossProbability(double)} (operations that time out),
+ * {@link #setLinkLossProbability(double)} and {@link #dropConnection(int)} (unsolicited disconnects).</p>
+ *
+ * <p>LE L2CAP channels to a PSM given to {@link #listenL2cap(int, L2capListener)} connect to the peer end of a
+ * {@link FooL2capSocketPair}; they are closed when the GATT connection drops.</p>
+ */
+public class FooGattSimulatedPeripheral
+{
+    /**
+     * {@code GATT_CONN_TIMEOUT}: the link supervision timeout expired
+     */
+    public static final int STATUS_CONNECTION_TIMEOUT                = 0x08;
+    /**
+     * {@code GATT_CONN_TERMINATE_PEER_USER}: the peripheral disconnected
+     */
+    public static final int STATUS_CONNECTION_TERMINATED_PEER_USER   = 0x13;
+    /**
+     * {@code GATT_CONN_TERMINATE_LOCAL_HOST}: this device disconnected
+     */
+    public static final int STATUS_CONNECTION_TERMINATED_LOCAL_HOST  = 0x16;
+
+    /**
+     * Accepts LE L2CAP channels; see {@link #listenL2cap(int, L2capListener)}.
+     */
+    public interface L2capListener
+    {
+        /**
+         * Called on the simulator's thread when a handler opens a channel to the PSM listened on.
+         *
+         * @param peripheral the peripheral
+         * @param psm        the PSM
+         * @param socket     the peripheral's end of the channel; reads and writes on it block, so hand it to
+         *                   another thread
+         */
+        void onL2capChannelAccepted(@NonNull FooGattSimulatedPeripheral peripheral,
+                                    int psm,
+                                    @NonNull FooL2capSocket socket);
+    }
+
+    private static final int MIN_MTU                 = 23;
+    private static final int MAX_ATTRIBUTE_LENGTH    = 512;
+    private static final int ATT_WRITE_HEADER_LENGTH = 3;
+
+    private final FooGattSimulator mSimulator;
+    private final String           mDeviceAddress;
+    /**
+     * synchronized behind this
+     */
+    private final List<BluetoothGattService>               mServices;
+    /**
+     * synchronized behind this
+     */
+    private final Map<BluetoothGattCharacteristic, byte[]> mValues;
+    /**
+     * synchronized behind this; latency by {@link GattOperation#ordinal()}
+     */
+    private final long[]                                   mLatencyMillis;
+    /**
+     * synchronized behind this
+     */
+    private final Map<Integer, L2capListener>              mL2capListeners;
+
+    /**
+     * synchronized behind this
+     */
+    private long       mNotificationLatencyMillis;
+    private int        mMaxMtu;
+    private int        mRssi;
+    private boolean    mIsConnectable;
+    private double     mResponseLossProbability;
+    private double     mLinkLossProbability;
+    private Connection mConnection;
+    private long       mReadCount;
+    private long       mWriteCount;
+    private long       mBytesWritten;
+    private long       mDescriptorWriteCount;
+    private long       mNotificationCount;
+
+    FooGattSimulatedPeripheral(@NonNull FooGattSimulator simulator, @NonNull String deviceAddress)
+    {
+        mSimulator = simulator;
+        mDeviceAddress = deviceAddress;
+        mServices = new ArrayList<>();
+        mValues = new HashMap<>();
+        mLatencyMillis = new long[GattOperation.values().length];
+        mL2capListeners = new HashMap<>();
+        mMaxMtu = MAX_ATTRIBUTE_LENGTH + ATT_WRITE_HEADER_LENGTH;
+        mRssi = -60;
+        mIsConnectable = true;
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ mDeviceAddress=" + mDeviceAddress +
+               ", isConnected()=" + (mConnection != null && mConnection.mIsConnected) +
+               ", mReadCount=" + mReadCount +
+               ", mWriteCount=" + mWriteCount +
+               ", mBytesWritten=" + mBytesWritten +
+               ", mDescriptorWriteCount=" + mDescriptorWriteCount +
+               ", mNotificationCount=" + mNotificationCount +
+               " }";
+    }
+
+    public String getDeviceAddress()
+    {
+        return mDeviceAddress;
+    }
+
+    //
+    // GATT database
+    //
+
+    /**
+     * Adds a characteristic, and its service if new. Characteristics that can notify or indicate also get a
+     * Client Characteristic Configuration descriptor. Call before handlers connect.
+     *
+     * @param serviceUuid        the service UUID
+     * @param characteristicUuid the characteristic UUID
+     * @param properties         {@code BluetoothGattCharacteristic.PROPERTY_*} flags
+     * @return the characteristic
+     */
+    @NonNull
+    public synchronized BluetoothGattCharacteristic addCharacteristic(@NonNull UUID serviceUuid,
+                                                                      @NonNull UUID characteristicUuid,
+                                                                      int properties)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(serviceUuid, "serviceUuid");
+        FooRun.throwIllegalArgumentExceptionIfNull(characteristicUuid, "characteristicUuid");
+
+        BluetoothGattService service = findService(serviceUuid);
+        if (service == null)
+        {
+            service = new BluetoothGattService(serviceUuid, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+            mServices.add(service);
+        }
+
+        BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(characteristicUuid, properties,
+                BluetoothGattCharacteristic.PERMISSION_READ | BluetoothGattCharacteristic.PERMISSION_WRITE);
+        if ((properties & (BluetoothGattCharacteristic.PROPERTY_NOTIFY |
+                           BluetoothGattCharacteristic.PROPERTY_INDICATE)) != 0)
+        {
+            characteristic.addDescriptor(new BluetoothGattDescriptor(
+                    FooGattUuids.CLIENT_CHARACTERISTIC_CONFIG.getUuid(),
+                    BluetoothGattDescriptor.PERMISSION_READ | BluetoothGattDescriptor.PERMISSION_WRITE));
+        }
+        service.addCharacteristic(characteristic);
+        mValues.put(characteristic, new byte[0]);
+        return characteristic;
+    }
+
+    /**
+     * @param serviceUuid        the service UUID
+     * @param characteristicUuid the characteristic UUID
+     * @param value              the value that subsequent reads return
+     */
+    public synchronized void setValue(@NonNull UUID serviceUuid, @NonNull UUID characteristicUuid, @NonNull byte[] value)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(value, "value");
+
+        mValues.put(getCharacteristic(serviceUuid, characteristicUuid), value.clone());
+    }
+
+    /**
+     * @param serviceUuid        the service UUID
+     * @param characteristicUuid the characteristic UUID
+     * @return a copy of the last value written or set
+     */
+    @NonNull
+    public synchronized byte[] getValue(@NonNull UUID serviceUuid, @NonNull UUID characteristicUuid)
+    {
+        return mValues.get(getCharacteristic(serviceUuid, characteristicUuid)).clone();
+    }
+
+    private BluetoothGattService findService(UUID serviceUuid)
+    {
+        for (BluetoothGattService service : mServices)
+        {
+            if (service.getUuid().equals(serviceUuid))
+            {
+                return service;
+            }
+        }
+        return null;
+    }
+
+    private BluetoothGattCharacteristic getCharacteristic(UUID serviceUuid, UUID characteristicUuid)
+    {
+        BluetoothGattService service = findService(serviceUuid);
+        BluetoothGattCharacteristic characteristic = service != null ?
+                service.getCharacteristic(characteristicUuid) : null;
+        if (characteristic == null)
+        {
+            throw new IllegalArgumentException("no characteristic " + characteristicUuid + " in service " + serviceUuid);
+        }
+        return characteristic;
+    }
+
+    //
+    // Behavior
+    //
+
+    /**
+     * All latencies default to 0: callbacks are delivered as soon as the simulator's thread gets to them.
+     *
+     * @param operation     the operation; {@link GattOperation#Connect} is the time to connect, and
+     *                      {@link GattOperation#CharacteristicSetNotification} the time to write a descriptor
+     * @param latencyMillis the time from starting {@code operation} to its callback
+     */
+    public synchronized void setLatencyMillis(@NonNull GattOperation operation, long latencyMillis)
+    {
+        mLatencyMillis[operation.ordinal()] = latencyMillis;
+    }
+
+    /**
+     * @param latencyMillis the time from {@link #notify(UUID, UUID, byte[])} or a disconnect to its callback
+     */
+    public synchronized void setNotificationLatencyMillis(long latencyMillis)
+    {
+        mNotificationLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * @param maxMtu the largest MTU this peripheral agrees to; defaults to 515
+     */
+    public synchronized void setMaxMtu(int maxMtu)
+    {
+        mMaxMtu = Math.max(MIN_MTU, maxMtu);
+    }
+
+    @SuppressWarnings("unused")
+    public synchronized void setRssi(int rssi)
+    {
+        mRssi = rssi;
+    }
+
+    /**
+     * @param connectable false to never answer connects, so that they time out; defaults to true
+     */
+    public synchronized void setConnectable(boolean connectable)
+    {
+        mIsConnectable = connectable;
+    }
+
+    /**
+     * @param probability from 0 to 1, the chance of never answering an operation, so that it times out
+     */
+    public synchronized void setResponseLossProbability(double probability)
+    {
+        mResponseLossProbability = probability;
+    }
+
+    /**
+     * @param probability from 0 to 1, the chance of the link dropping instead of answering an operation
+     */
+    public synchronized void setLinkLossProbability(double probability)
+    {
+        mLinkLossProbability = probability;
+    }
+
+    /**
+     * @param psm      the Protocol/Service Multiplexer to accept LE L2CAP channels on
+     * @param listener the listener to hand accepted channels to, or null to stop listening
+     */
+    public synchronized void listenL2cap(int psm, L2capListener listener)
+    {
+        if (listener != null)
+        {
+            mL2capListeners.put(psm, listener);
+        }
+        else
+        {
+            mL2capListeners.remove(psm);
+        }
+    }
+
+    //
+    // Peripheral initiated events
+    //
+
+    /**
+     * @return true if a handler is connected
+     */
+    public synchronized boolean isConnected()
+    {
+        return mConnection != null && mConnection.mIsConnected;
+    }
+
+    /**
+     * Sends a notification, if connected and the handler enabled notifications of the characteristic.
+     *
+     * @param serviceUuid        the service UUID
+     * @param characteristicUuid the characteristic UUID
+     * @param value              the value to notify; also the value of subsequent reads
+     * @return true if the notification was sent
+     */
+    public boolean notify(@NonNull UUID serviceUuid, @NonNull UUID characteristicUuid, @NonNull byte[] value)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(value, "value");
+
+        final Connection connection;
+        final BluetoothGattCharacteristic characteristic;
+        final byte[] copy = value.clone();
+        long latencyMillis;
+        synchronized (this)
+        {
+            connection = mConnection;
+            characteristic = getCharacteristic(serviceUuid, characteristicUuid);
+            if (connection == null || !connection.mIsConnected ||
+                !connection.mNotifyingCharacteristics.contains(characteristic))
+            {
+                return false;
+            }
+            mValues.put(characteristic, copy);
+            mNotificationCount++;
+            latencyMillis = mNotificationLatencyMillis;
+        }
+
+        connection.deliver(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                connection.mCallbacks.onCharacteristicChanged(connection, characteristic, copy);
+            }
+        }, latencyMillis);
+        return true;
+    }
+
+    /**
+     * Drops the connection, if any, as if the peripheral went out of range or hung up.
+     *
+     * @param status the disconnect status, such as {@link #STATUS_CONNECTION_TIMEOUT}
+     */
+    public void dropConnection(int status)
+    {
+        Connection connection;
+        synchronized (this)
+        {
+            connection = mConnection;
+        }
+        if (connection != null)
+        {
+            connection.disconnect(status);
+        }
+    }
+
+    //
+    // Counters
+    //
+
+    public synchronized long getReadCount()
+    {
+        return mReadCount;
+    }
+
+    public synchronized long getWriteCount()
+    {
+        return mWriteCount;
+    }
+
+    public synchronized long getBytesWritten()
+    {
+        return mBytesWritten;
+    }
+
+    /**
+     * @return the number of Client Characteristic Configuration descriptor writes
+     */
+    public synchronized long getDescriptorWriteCount()
+    {
+        return mDescriptorWriteCount;
+    }
+
+    /**
+     * @return the number of notifications sent
+     */
+    public synchronized long getNotificationCount()
+    {
+        return mNotificationCount;
+    }
+
+    //
+    // Called by FooGattSimulator
+    //
+
+    FooGattTransport connect(FooGattTransport.Callbacks callbacks)
+    {
+        final Connection connection;
+        boolean isConnectable;
+        long latencyMillis;
+        synchronized (this)
+        {
+            if (mConnection != null)
+            {
+                // One central at a time, as most peripherals allow
+                return null;
+            }
+            connection = new Connection(callbacks);
+            mConnection = connection;
+            isConnectable = mIsConnectable;
+            latencyMillis = mLatencyMillis[GattOperation.Connect.ordinal()];
+        }
+
+        if (isConnectable)
+        {
+            connection.deliver(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    connection.mIsConnected = true;
+                    connection.mCallbacks.onConnectionStateChange(connection, BluetoothGatt.GATT_SUCCESS,
+                            BluetoothProfile.STATE_CONNECTED);
+                }
+            }, latencyMillis);
+        }
+        return connection;
+    }
+
+    /**
+     * One connection from a handler; the {@link FooGattTransport} the handler talks to.
+     */
+    private class Connection
+            implements FooGattTransport
+    {
+        private final FooGattTransport.Callbacks mCallbacks;
+
+        /**
+         * synchronized behind FooGattSimulatedPeripheral.this
+         */
+        private final Set<BluetoothGattCharacteristic> mNotifyingCharacteristics;
+        private final List<FooL2capSocket>             mL2capSockets;
+        private       int                              mMtu;
+        private       boolean                          mIsWritePending;
+        /**
+         * Only written on the simulator's thread
+         */
+        private volatile boolean                       mIsConnected;
+        private volatile boolean                       mIsClosed;
+
+        private Connection(FooGattTransport.Callbacks callbacks)
+        {
+            mCallbacks = callbacks;
+            mNotifyingCharacteristics = new HashSet<>();
+            mL2capSockets = new ArrayList<>();
+            mMtu = MIN_MTU;
+        }
+
+        @NonNull
+        @Override
+        public String toString()
+        {
+            return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+                   "{ mDeviceAddress=" + mDeviceAddress +
+                   ", mIsConnected=" + mIsConnected +
+                   ", mIsClosed=" + mIsClosed +
+                   " }";
+        }
+
+        /**
+         * Runs {@code callback} on the simulator's thread after {@code latencyMillis}, unless closed by then.
+         */
+        private void deliver(final Runnable callback, long latencyMillis)
+        {
+            mSimulator.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (!mIsClosed)
+                    {
+                        callback.run();
+                    }
+                }
+            }, latencyMillis);
+        }
+
+        /**
+         * Answers an operation after its latency, unless the response or the link is lost.
+         *
+         * @return false if not connected
+         */
+        private boolean respond(GattOperation operation, final Runnable response)
+        {
+            long latencyMillis;
+            double responseLossProbability;
+            double linkLossProbability;
+            synchronized (FooGattSimulatedPeripheral.this)
+            {
+                if (!mIsConnected)
+                {
+                    return false;
+                }
+                latencyMillis = mLatencyMillis[operation.ordinal()];
+                responseLossProbability = mResponseLossProbability;
+                linkLossProbability = mLinkLossProbability;
+            }
+
+            if (mSimulator.nextBoolean(linkLossProbability))
+            {
+                disconnect(STATUS_CONNECTION_TIMEOUT);
+            }
+            else if (!mSimulator.nextBoolean(responseLossProbability))
+            {
+                deliver(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if (mIsConnected)
+                        {
+                            response.run();
+                        }
+                    }
+                }, latencyMillis);
+            }
+            return true;
+        }
+
+        private void disconnect(final int status)
+        {
+            long latencyMillis;
+            synchronized (FooGattSimulatedPeripheral.this)
+            {
+                latencyMillis = mNotificationLatencyMillis;
+            }
+            deliver(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (!mIsConnected)
+                    {
+                        return;
+                    }
+                    mIsConnected = false;
+                    synchronized (FooGattSimulatedPeripheral.this)
+                    {
+                        mIsWritePending = false;
+                        mNotifyingCharacteristics.clear();
+                    }
+                    closeL2capSockets();
+                    mCallbacks.onConnectionStateChange(Connection.this, status, BluetoothProfile.STATE_DISCONNECTED);
+                }
+            }, latencyMillis);
+        }
+
+        @Override
+        public BluetoothDevice getDevice()
+        {
+            return null;
+        }
+
+        @Override
+        public boolean discoverServices()
+        {
+            return respond(GattOperation.DiscoverServices, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    mCallbacks.onServicesDiscovered(Connection.this, BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+        }
+
+        @Override
+        public List<BluetoothGattService> getServices()
+        {
+            synchronized (FooGattSimulatedPeripheral.this)
+            {
+                return Collections.unmodifiableList(new ArrayList<>(mServices));
+            }
+        }
+
+        @Override
+        public BluetoothGattService getService(UUID uuid)
+        {
+            synchronized (FooGattSimulatedPeripheral.this)
+            {
+                return findService(uuid);
+            }
+        }
+
+        @Override
+        public boolean readCharacteristic(final BluetoothGattCharacteristic characteristic)
+        {
+            return respond(GattOperation.CharacteristicRead, new Runnable()
+            {
+                @SuppressWarnings("deprecation")
+                @Override
+                public void run()
+                {
+                    int status;
+                    synchronized (FooGattSimulatedPeripheral.this)
+                    {
+                        byte[] value = mValues.get(characteristic);
+                        if (value != null)
+                        {
+                            characteristic.setValue(value.clone());
+                            mReadCount++;
+                            status = BluetoothGatt.GATT_SUCCESS;
+                        }
+                        else
+                        {
+                            status = BluetoothGatt.GATT_READ_NOT_PERMITTED;
+                        }
+                    }
+                    mCallbacks.onCharacteristicRead(Connection.this, characteristic, status);
+                }
+            });
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic)
+        {
+            byte[] value = characteristic.getValue();
+            return value != null &&
+                   writeCharacteristic(characteristic, value, characteristic.getWriteType()) == BluetoothStatusCodes.SUCCESS;
+        }
+
+        @Override
+        public int writeCharacteristic(@NonNull final BluetoothGattCharacteristic characteristic,
+                                       @NonNull byte[] value,
+                                       int writeType)
+        {
+            final byte[] copy = value.clone();
+            final int status;
+            synchronized (FooGattSimulatedPeripheral.this)
+            {
+                if (!mIsConnected)
+                {
+                    return BluetoothStatusCodes.ERROR_DEVICE_NOT_CONNECTED;
+                }
+                if (mIsWritePending)
+                {
+                    // The stack allows one outstanding write per connection
+                    return BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY;
+                }
+
+                int maxLength = writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE ?
+                        mMtu - ATT_WRITE_HEADER_LENGTH : MAX_ATTRIBUTE_LENGTH;
+                if (!mValues.containsKey(characteristic))
+                {
+                    status = BluetoothGatt.GATT_WRITE_NOT_PERMITTED;
+                }
+                else if (copy.length > maxLength)
+                {
+                    status = BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH;
+                }
+                else
+                {
+                    status = BluetoothGatt.GATT_SUCCESS;
+                }
+                mIsWritePending = true;
+            }
+
+            boolean started = respond(GattOperation.CharacteristicWrite, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    synchronized (FooGattSimulatedPeripheral.this)
+                    {
+                        mIsWritePending = false;
+                        if (status == BluetoothGatt.GATT_SUCCESS)
+                        {
+                            mValues.put(characteristic, copy);
+                            mWriteCount++;
+                            mBytesWritten += copy.length;
+                        }
+                    }
+                    mCallbacks.onCharacteristicWrite(Connection.this, characteristic, status);
+                }
+            });
+            if (!started)
+            {
+                synchronized (FooGattSimulatedPeripheral.this)
+                {
+                    mIsWritePending = false;
+                }
+                return BluetoothStatusCodes.ERROR_DEVICE_NOT_CONNECTED;
+            }
+            return BluetoothStatusCodes.SUCCESS;
+        }
+
+        @Override
+        public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable)
+        {
+            return mIsConnected;
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public boolean writeDescriptor(final BluetoothGattDescriptor descriptor)
+        {
+            final byte[] value = descriptor.getValue();
+            return respond(GattOperation.CharacteristicSetNotification, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    BluetoothGattCharacteristic characteristic = descriptor.getCharacteristic();
+                    if (characteristic != null &&
+                        FooGattUuids.CLIENT_CHARACTERISTIC_CONFIG.getUuid().equals(descriptor.getUuid()))
+                    {
+                        synchronized (FooGattSimulatedPeripheral.this)
+                        {
+                            mDescriptorWriteCount++;
+                            if (value != null && value.length > 0 && value[0] != 0)
+                            {
+                                mNotifyingCharacteristics.add(characteristic);
+                            }
+                            else
+                            {
+                                mNotifyingCharacteristics.remove(characteristic);
+                            }
+                        }
+                    }
+                    mCallbacks.onDescriptorWrite(Connection.this, descriptor, BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+        }
+
+        @Override
+        public boolean readRemoteRssi()
+        {
+            return respond(GattOperation.ReadRemoteRssi, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    int rssi;
+                    synchronized (FooGattSimulatedPeripheral.this)
+                    {
+                        rssi = mRssi;
+                    }
+                    mCallbacks.onReadRemoteRssi(Connection.this, rssi, BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+        }
+
+        @Override
+        public boolean requestMtu(final int mtu)
+        {
+            return respond(GattOperation.RequestMtu, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    int negotiatedMtu;
+                    synchronized (FooGattSimulatedPeripheral.this)
+                    {
+                        negotiatedMtu = Math.max(MIN_MTU, Math.min(mtu, mMaxMtu));
+                        mMtu = negotiatedMtu;
+                    }
+                    mCallbacks.onMtuChanged(Connection.this, negotiatedMtu, BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+        }
+
+        @Override
+        public boolean requestConnectionPriority(int connectionPriority)
+        {
+            return mIsConnected;
+        }
+
+        @Override
+        public void setPreferredPhy(final int txPhy, final int rxPhy, int phyOptions)
+        {
+            respond(GattOperation.SetPreferredPhy, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    mCallbacks.onPhyUpdate(Connection.this, txPhy, rxPhy, BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+        }
+
+        @NonNull
+        @Override
+        public FooL2capSocket createL2capChannel(final int psm, boolean secure)
+                throws IOException
+        {
+            final L2capListener listener;
+            final FooL2capSocketPair socketPair;
+            long latencyMillis;
+            synchronized (FooGattSimulatedPeripheral.this)
+            {
+                if (!mIsConnected)
+                {
+                    throw new IOException("not connected");
+                }
+                listener = mL2capListeners.get(psm);
+                if (listener == null)
+                {
+                    throw new IOException("no L2CAP listener on psm " + psm);
+                }
+                socketPair = new FooL2capSocketPair();
+                mL2capSockets.add(socketPair.getLocalSocket());
+                latencyMillis = mLatencyMillis[GattOperation.Connect.ordinal()];
+            }
+
+            deliver(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    listener.onL2capChannelAccepted(FooGattSimulatedPeripheral.this, psm, socketPair.getPeerSocket());
+                }
+            }, latencyMillis);
+            return socketPair.getLocalSocket();
+        }
+
+        private void closeL2capSockets()
+        {
+            List<FooL2capSocket> sockets;
+            synchronized (FooGattSimulatedPeripheral.this)
+            {
+                sockets = new ArrayList<>(mL2capSockets);
+                mL2capSockets.clear();
+            }
+            for (FooL2capSocket socket : sockets)
+            {
+                try
+                {
+                    socket.close();
+                }
+                catch (IOException e)
+                {
+                    // Ignored; in-memory sockets do not fail to close
+                }
+            }
+        }
+
+        @Override
+        public void disconnect()
+        {
+            disconnect(BluetoothGatt.GATT_SUCCESS);
+        }
+
+        @Override
+        public void close()
+        {
+            mIsClosed = true;
+            closeL2capSockets();
+            synchronized (FooGattSimulatedPeripheral.this)
+            {
+                if (mConnection == this)
+                {
+                    mConnection = null;
+                }
+            }
+        }
+    }
+}
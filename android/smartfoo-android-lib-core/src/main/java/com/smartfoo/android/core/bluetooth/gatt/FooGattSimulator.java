@@ -0,0 +1,181 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.FooRun;
+import com.smartfoo.android.core.collections.FooLongSparseArray;
+import com.smartfoo.android.core.logging.FooLog;
+
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-process stand-in for the Bluetooth stack: a {@link FooGattTransport.Factory} whose connections go
+ * to {@link FooGattSimulatedPeripheral}s instead of radios, so that {@link FooGattHandler} can be tested
+ * and benchmarked without hardware.
+ *
+ * <p>Give it to {@link FooGattManager#setTransportFactory(FooGattTransport.Factory)}, then
+ * {@link #addPeripheral(String)} a peripheral for each device address the handlers will connect to.
+ * Connecting to any other address fails to start. Like the real stack, every peripheral delivers its
+ * callbacks on one shared thread, after the latencies it was configured with.</p>
+ *
+ * <p>Random choices (response loss, link loss) come from a seeded {@link Random}, so that a failure pattern
+ * can be reproduced by reusing its seed.</p>
+ */
+public class FooGattSimulator
+        implements FooGattTransport.Factory
+{
+    private static final String TAG = FooLog.TAG(FooGattSimulator.class);
+
+    private final FooLongSparseArray<FooGattSimulatedPeripheral> mPeripherals;
+    private final ScheduledThreadPoolExecutor                    mExecutor;
+    private final Random                                         mRandom;
+
+    private volatile boolean mIsEnabled;
+
+    public FooGattSimulator()
+    {
+        this(0);
+    }
+
+    /**
+     * @param randomSeed the seed of the random choices made by every peripheral
+     */
+    public FooGattSimulator(long randomSeed)
+    {
+        mPeripherals = new FooLongSparseArray<>();
+        mExecutor = new ScheduledThreadPoolExecutor(1, new FooGattManager.NamedThreadFactory("FooGattSimulator"));
+        mExecutor.setRemoveOnCancelPolicy(true);
+        mRandom = new Random(randomSeed);
+        mIsEnabled = true;
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ mIsEnabled=" + mIsEnabled +
+               " }";
+    }
+
+    /**
+     * Stops delivering callbacks. Connections still open will never hear from their peripherals again.
+     */
+    public void close()
+    {
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * @param deviceAddress the address handlers will connect to, such as {@code "00:11:22:33:44:55"}
+     * @return the new peripheral, replacing any previous one with the same address
+     */
+    @NonNull
+    public FooGattSimulatedPeripheral addPeripheral(@NonNull String deviceAddress)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(deviceAddress, "deviceAddress");
+
+        FooGattSimulatedPeripheral peripheral = new FooGattSimulatedPeripheral(this, deviceAddress);
+        synchronized (mPeripherals)
+        {
+            mPeripherals.put(FooGattUtils.deviceAddressStringToLong(deviceAddress), peripheral);
+        }
+        return peripheral;
+    }
+
+    /**
+     * @param deviceAddress the address of the peripheral
+     * @return the peripheral, or null if none was added with that address
+     */
+    @SuppressWarnings("unused")
+    public FooGattSimulatedPeripheral getPeripheral(@NonNull String deviceAddress)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(deviceAddress, "deviceAddress");
+
+        synchronized (mPeripherals)
+        {
+            return mPeripherals.get(FooGattUtils.deviceAddressStringToLong(deviceAddress));
+        }
+    }
+
+    /**
+     * Models the Bluetooth adapter being turned off or on. Turning it off drops every connection.
+     *
+     * @param enabled false to fail every connect and drop every connection
+     */
+    @SuppressWarnings("unused")
+    public void setEnabled(boolean enabled)
+    {
+        mIsEnabled = enabled;
+        if (enabled)
+        {
+            return;
+        }
+
+        synchronized (mPeripherals)
+        {
+            for (int i = 0; i < mPeripherals.size(); i++)
+            {
+                mPeripherals.valueAt(i).dropConnection(FooGattSimulatedPeripheral.STATUS_CONNECTION_TERMINATED_LOCAL_HOST);
+            }
+        }
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return mIsEnabled;
+    }
+
+    @Override
+    public FooGattTransport connectGatt(@NonNull String deviceAddress,
+                                        boolean autoConnect,
+                                        @NonNull FooGattTransport.Callbacks callbacks)
+    {
+        if (!mIsEnabled)
+        {
+            return null;
+        }
+
+        FooGattSimulatedPeripheral peripheral;
+        synchronized (mPeripherals)
+        {
+            peripheral = mPeripherals.get(FooGattUtils.deviceAddressStringToLong(deviceAddress));
+        }
+        if (peripheral == null)
+        {
+            FooLog.w(TAG, "connectGatt: no peripheral " + deviceAddress + "; failing");
+            return null;
+        }
+
+        return peripheral.connect(callbacks);
+    }
+
+    //
+    // Called by FooGattSimulatedPeripheral
+    //
+
+    void schedule(Runnable runnable, long delayMillis)
+    {
+        try
+        {
+            mExecutor.schedule(runnable, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // Closed
+        }
+    }
+
+    /**
+     * @param probability from 0 to 1
+     * @return true with {@code probability}
+     */
+    boolean nextBoolean(double probability)
+    {
+        return probability > 0 && mRandom.nextDouble() < probability;
+    }
+}
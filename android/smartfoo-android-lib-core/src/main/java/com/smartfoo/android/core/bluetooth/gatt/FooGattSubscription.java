@@ -0,0 +1,135 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.bluetooth.gatt.FooGattHandler.CharacteristicNotificationDescriptorType;
+
+import java.util.UUID;
+
+/**
+ * One component's interest in notifications or indications from a characteristic, returned by
+ * {@link FooGattHandler#subscribe(UUID, UUID, CharacteristicNotificationDescriptorType, FooGattSubscriptionCallbacks)}.
+ *
+ * <p>Subscriptions are reference counted per (service, characteristic): only the first subscription writes the
+ * Client Characteristic Configuration descriptor, and only {@link #unsubscribe()} of the last one writes it
+ * back. Every subscription is re-enabled with one descriptor write per characteristic after each reconnect,
+ * until it is unsubscribed. Each subscription's callbacks only hear about its own characteristic.</p>
+ *
+ * <p>Do not mix subscriptions with direct
+ * {@link FooGattHandler#characteristicSetNotification(UUID, UUID, CharacteristicNotificationDescriptorType)} calls
+ * on the same characteristic; those are not counted.</p>
+ */
+public class FooGattSubscription
+{
+    /**
+     * Callbacks for a single subscription. Invoked on the same thread as, and in order with, the
+     * {@link FooGattHandler.GattHandlerListener} callbacks.
+     */
+    public interface FooGattSubscriptionCallbacks
+    {
+        /**
+         * Called when the descriptor write that enables the characteristic completes: once after subscribing
+         * (right away if another subscription already enabled it) and again after every reconnect.
+         *
+         * @param subscription the subscription
+         * @param success      false if the descriptor write failed or timed out
+         */
+        void onGattSubscriptionEnabled(@NonNull FooGattSubscription subscription, boolean success);
+
+        /**
+         * Called for every notification or indication of the subscribed characteristic, after the
+         * {@link FooGattHandler.GattHandlerListener} callbacks.
+         *
+         * @param subscription the subscription
+         * @param notification the notification; only valid until this method returns
+         */
+        void onGattSubscriptionNotification(@NonNull FooGattSubscription subscription,
+                                            @NonNull FooGattNotification notification);
+    }
+
+    private final FooGattHandler                           mGattHandler;
+    private final UUID                                     mServiceUuid;
+    private final UUID                                     mCharacteristicUuid;
+    private final CharacteristicNotificationDescriptorType mType;
+    private final FooGattSubscriptionCallbacks             mCallbacks;
+
+    /**
+     * Written synchronized behind {@link FooGattHandler}'s subscription groups
+     */
+    volatile boolean mIsSubscribed;
+
+    FooGattSubscription(@NonNull FooGattHandler gattHandler,
+                        @NonNull UUID serviceUuid,
+                        @NonNull UUID characteristicUuid,
+                        @NonNull CharacteristicNotificationDescriptorType type,
+                        @NonNull FooGattSubscriptionCallbacks callbacks)
+    {
+        mGattHandler = gattHandler;
+        mServiceUuid = serviceUuid;
+        mCharacteristicUuid = characteristicUuid;
+        mType = type;
+        mCallbacks = callbacks;
+        mIsSubscribed = true;
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ mServiceUuid=" + mServiceUuid +
+               ", mCharacteristicUuid=" + mCharacteristicUuid +
+               ", mType=" + mType +
+               " }";
+    }
+
+    public FooGattHandler getGattHandler()
+    {
+        return mGattHandler;
+    }
+
+    public UUID getServiceUuid()
+    {
+        return mServiceUuid;
+    }
+
+    public UUID getCharacteristicUuid()
+    {
+        return mCharacteristicUuid;
+    }
+
+    /**
+     * @return the type requested; if another subscription to the same characteristic was made first, its type
+     * is the one written to the descriptor
+     */
+    @SuppressWarnings("unused")
+    public CharacteristicNotificationDescriptorType getType()
+    {
+        return mType;
+    }
+
+    FooGattSubscriptionCallbacks getCallbacks()
+    {
+        return mCallbacks;
+    }
+
+    /**
+     * @return true until {@link #unsubscribe()} is called
+     */
+    public boolean isSubscribed()
+    {
+        return mGattHandler.isSubscribed(this);
+    }
+
+    /**
+     * Ends this subscription. If it was the last one for its characteristic, notifications are disabled.
+     * No callbacks are invoked for this subscription afterwards.
+     *
+     * @return false if already unsubscribed
+     */
+    @SuppressWarnings("UnusedReturnValue")
+    public boolean unsubscribe()
+    {
+        return mGattHandler.unsubscribe(this);
+    }
+}
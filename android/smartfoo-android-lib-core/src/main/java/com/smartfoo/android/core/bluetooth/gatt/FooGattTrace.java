@@ -0,0 +1,366 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.FooRun;
+import com.smartfoo.android.core.bluetooth.gatt.FooGattHandler.GattHandlerListener.GattOperation;
+import com.smartfoo.android.core.bluetooth.gatt.FooGattRequest.State;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * A fixed-size ring of the most recent GATT events of one {@link FooGattHandler}, cheap enough to leave on
+ * in production builds.
+ *
+ * <p>Each event is two {@code long}s: a {@link SystemClock#elapsedRealtimeNanos()} timestamp, and the event
+ * type, {@link GattOperation}, status, 16-bit short IDs of the service and characteristic UUIDs, and a
+ * payload length packed into one word. Recording is those two stores under an uncontended lock, and never
+ * allocates; once the ring is full the oldest events are overwritten.</p>
+ *
+ * <p>{@link #exportTo(File)} writes the ring as a compact binary file that {@link FooGattTraceDecoder}
+ * renders as a timeline, on the device or offline.</p>
+ */
+public class FooGattTrace
+{
+    /**
+     * Number of events kept per handler unless {@link #FooGattTrace(long, int)} says otherwise; 32 KiB
+     */
+    public static final int DEFAULT_CAPACITY = 2048;
+
+    //
+    // File format, shared with FooGattTraceDecoder
+    //
+
+    static final int MAGIC   = 0x46475452; // "FGTR"
+    static final int VERSION = 1;
+
+    //
+    // Event types
+    //
+
+    static final int EVENT_START            = 1;
+    static final int EVENT_SUCCEEDED        = 2;
+    static final int EVENT_FAILED           = 3;
+    static final int EVENT_TIMED_OUT        = 4;
+    static final int EVENT_CANCELED         = 5;
+    static final int EVENT_NOTIFICATION     = 6;
+    /**
+     * Status is the GATT status, length is the new {@link android.bluetooth.BluetoothProfile} state
+     */
+    static final int EVENT_CONNECTION_STATE = 7;
+
+    //
+    // Layout of the second word of each event, from the most significant bits down
+    //
+
+    static final int SHIFT_TYPE           = 60; // 4 bits
+    static final int SHIFT_OPERATION      = 56; // 4 bits; GattOperation.ordinal() + 1, or 0 for none
+    static final int SHIFT_STATUS         = 48; // 8 bits
+    static final int SHIFT_SERVICE        = 32; // 16 bits
+    static final int SHIFT_CHARACTERISTIC = 16; // 16 bits
+    static final int SHIFT_LENGTH         = 0;  // 16 bits
+
+    /**
+     * Status of events that have none
+     */
+    static final int STATUS_NONE  = 0xFF;
+    /**
+     * Status of events whose status does not fit in 8 bits, such as {@code GATT_FAILURE}
+     */
+    static final int STATUS_OTHER = 0xFE;
+
+    static final int LENGTH_MAX = 0xFFFF;
+
+    private final long   mDeviceAddress;
+    private final int    mCapacity;
+    /**
+     * synchronized behind this; two longs per event
+     */
+    private final long[] mEvents;
+
+    /**
+     * synchronized behind this; the number of events ever recorded
+     */
+    private long             mRecordedCount;
+    private volatile boolean mIsEnabled;
+
+    /**
+     * @param deviceAddress the address of the device being traced, written to exported files
+     * @param capacity      the number of most recent events to keep; must be > 0
+     */
+    FooGattTrace(long deviceAddress, int capacity)
+    {
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+
+        mDeviceAddress = deviceAddress;
+        mCapacity = capacity;
+        mEvents = new long[capacity * 2];
+        mIsEnabled = true;
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ mCapacity=" + mCapacity +
+               ", getRecordedCount()=" + getRecordedCount() +
+               ", mIsEnabled=" + mIsEnabled +
+               " }";
+    }
+
+    public int getCapacity()
+    {
+        return mCapacity;
+    }
+
+    /**
+     * @return the number of events recorded since creation or {@link #clear()}, including any that have
+     * since been overwritten
+     */
+    public synchronized long getRecordedCount()
+    {
+        return mRecordedCount;
+    }
+
+    public boolean isEnabled()
+    {
+        return mIsEnabled;
+    }
+
+    /**
+     * Tracing is enabled by default.
+     *
+     * @param enabled false to stop recording events; the events already recorded are kept
+     */
+    @SuppressWarnings("unused")
+    public void setEnabled(boolean enabled)
+    {
+        mIsEnabled = enabled;
+    }
+
+    public synchronized void clear()
+    {
+        mRecordedCount = 0;
+    }
+
+    /**
+     * Writes the recorded events, oldest first, to a file that {@link FooGattTraceDecoder} can read.
+     *
+     * @param file the file to create or overwrite; must not be null
+     * @throws IOException if the file cannot be written
+     */
+    @SuppressWarnings("unused")
+    public void exportTo(@NonNull File file)
+            throws IOException
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(file, "file");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+        {
+            writeTo(out);
+        }
+    }
+
+    /**
+     * @param out the output to write the recorded events to, oldest first; must not be null
+     * @throws IOException if writing fails
+     * @see FooGattTraceDecoder#readFrom(java.io.DataInput)
+     */
+    public void writeTo(@NonNull DataOutput out)
+            throws IOException
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(out, "out");
+
+        writeTo(out, System.currentTimeMillis(), SystemClock.elapsedRealtimeNanos());
+    }
+
+    /**
+     * @param out                  the output
+     * @param currentTimeMillis    the wall clock time of the export, to convert event timestamps to
+     * @param elapsedRealtimeNanos the {@link SystemClock#elapsedRealtimeNanos()} of the export
+     */
+    void writeTo(DataOutput out, long currentTimeMillis, long elapsedRealtimeNanos)
+            throws IOException
+    {
+        long[] events;
+        long recordedCount;
+        synchronized (this)
+        {
+            recordedCount = mRecordedCount;
+            int count = (int) Math.min(recordedCount, mCapacity);
+            events = new long[count * 2];
+            int oldest = (int) ((recordedCount - count) % mCapacity);
+            int firstPart = Math.min(count, mCapacity - oldest);
+            System.arraycopy(mEvents, oldest * 2, events, 0, firstPart * 2);
+            System.arraycopy(mEvents, 0, events, firstPart * 2, (count - firstPart) * 2);
+        }
+
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(mDeviceAddress);
+        out.writeLong(currentTimeMillis);
+        out.writeLong(elapsedRealtimeNanos);
+        // Names rather than ordinals, so that old files still decode if GattOperation changes
+        GattOperation[] operations = GattOperation.values();
+        out.writeByte(operations.length);
+        for (GattOperation operation : operations)
+        {
+            out.writeUTF(operation.name());
+        }
+        out.writeLong(recordedCount);
+        out.writeInt(events.length / 2);
+        for (long event : events)
+        {
+            out.writeLong(event);
+        }
+    }
+
+    //
+    // Called by FooGattHandler and FooGattOperationQueue
+    //
+
+    void recordRequestStarted(FooGattRequest request)
+    {
+        if (!mIsEnabled)
+        {
+            return;
+        }
+        record(EVENT_START, request.getOperation(), STATUS_NONE,
+                request.getServiceUuid(), request.getCharacteristicUuid(), request.getPayloadLength());
+    }
+
+    void recordRequestCompleted(FooGattRequest request)
+    {
+        if (!mIsEnabled)
+        {
+            return;
+        }
+
+        int type;
+        State state = request.getState();
+        switch (state)
+        {
+            case Succeeded:
+                type = EVENT_SUCCEEDED;
+                break;
+            case TimedOut:
+                type = EVENT_TIMED_OUT;
+                break;
+            case Canceled:
+            case Expired:
+                type = EVENT_CANCELED;
+                break;
+            default:
+                type = EVENT_FAILED;
+                break;
+        }
+
+        GattOperation operation = request.getOperation();
+        long length;
+        switch (operation)
+        {
+            case CharacteristicRead:
+            {
+                byte[] value = request.getValue();
+                length = value != null ? value.length : 0;
+                break;
+            }
+            case RequestMtu:
+                length = Math.max(0, request.getMtu());
+                break;
+            case CharacteristicBulkWrite:
+                length = ((FooGattBulkTransfer) request).getBytesSent();
+                break;
+            default:
+                length = 0;
+                break;
+        }
+
+        record(type, operation, toStatus(request.getStatus()),
+                request.getServiceUuid(), request.getCharacteristicUuid(), length);
+    }
+
+    void recordNotification(BluetoothGattCharacteristic characteristic, int length)
+    {
+        if (!mIsEnabled)
+        {
+            return;
+        }
+        BluetoothGattService service = characteristic.getService();
+        record(EVENT_NOTIFICATION, null, STATUS_NONE,
+                service != null ? service.getUuid() : null, characteristic.getUuid(), length);
+    }
+
+    void recordConnectionState(int status, int newState)
+    {
+        if (!mIsEnabled)
+        {
+            return;
+        }
+        record(EVENT_CONNECTION_STATE, null, toStatus(status), null, null, newState);
+    }
+
+    private void record(int type,
+                        GattOperation operation,
+                        int status,
+                        UUID serviceUuid,
+                        UUID characteristicUuid,
+                        long length)
+    {
+        record(SystemClock.elapsedRealtimeNanos(),
+                pack(type, operation != null ? operation.ordinal() + 1 : 0, status,
+                        toShortId(serviceUuid), toShortId(characteristicUuid), length));
+    }
+
+    //package
+    synchronized void record(long elapsedRealtimeNanos, long packed)
+    {
+        int index = (int) (mRecordedCount % mCapacity) * 2;
+        mEvents[index] = elapsedRealtimeNanos;
+        mEvents[index + 1] = packed;
+        mRecordedCount++;
+    }
+
+    static long pack(int type, int operation, int status, int serviceShortId, int characteristicShortId, long length)
+    {
+        return ((long) (type & 0xF) << SHIFT_TYPE) |
+               ((long) (operation & 0xF) << SHIFT_OPERATION) |
+               ((long) (status & 0xFF) << SHIFT_STATUS) |
+               ((long) (serviceShortId & 0xFFFF) << SHIFT_SERVICE) |
+               ((long) (characteristicShortId & 0xFFFF) << SHIFT_CHARACTERISTIC) |
+               (Math.min(Math.max(length, 0), LENGTH_MAX) << SHIFT_LENGTH);
+    }
+
+    /**
+     * @param uuid a UUID, or null
+     * @return bits 32-47 of {@code uuid}: the assigned number of a Bluetooth SIG UUID, and the customary
+     * "short" ID of a vendor UUID; 0 if {@code uuid} is null
+     */
+    static int toShortId(UUID uuid)
+    {
+        return uuid != null ? (int) (uuid.getMostSignificantBits() >>> 32) & 0xFFFF : 0;
+    }
+
+    private static int toStatus(int status)
+    {
+        if (status < 0)
+        {
+            return STATUS_NONE;
+        }
+        return Math.min(status, STATUS_OTHER);
+    }
+}
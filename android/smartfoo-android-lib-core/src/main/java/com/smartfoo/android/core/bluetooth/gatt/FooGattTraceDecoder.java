@@ -0,0 +1,359 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import androidx.annotation.NonNull;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads a file written by {@link FooGattTrace#exportTo(java.io.File)} and renders it as a timeline.
+ *
+ * <p>Needs only {@code java.*} at runtime, so a trace pulled off a device can also be decoded offline on a
+ * desktop JVM with {@link #readFrom(DataInput)} and {@link #toTimelineString()}.</p>
+ */
+public class FooGattTraceDecoder
+{
+    /**
+     * Ordinals match {@code FooGattTrace.EVENT_*}
+     */
+    public enum EventType
+    {
+        Unknown,
+        Start,
+        Succeeded,
+        Failed,
+        TimedOut,
+        Canceled,
+        Notification,
+        ConnectionState,
+    }
+
+    /**
+     * One decoded event.
+     */
+    public static class Event
+    {
+        private final long      mElapsedRealtimeNanos;
+        private final EventType mType;
+        private final String    mOperation;
+        private final int       mStatus;
+        private final int       mServiceShortId;
+        private final int       mCharacteristicShortId;
+        private final int       mLength;
+
+        private Event(long elapsedRealtimeNanos, long packed, List<String> operations)
+        {
+            mElapsedRealtimeNanos = elapsedRealtimeNanos;
+
+            int type = (int) (packed >>> FooGattTrace.SHIFT_TYPE) & 0xF;
+            EventType[] types = EventType.values();
+            mType = type < types.length ? types[type] : EventType.Unknown;
+
+            int operation = (int) (packed >>> FooGattTrace.SHIFT_OPERATION) & 0xF;
+            if (operation == 0)
+            {
+                mOperation = null;
+            }
+            else if (operation <= operations.size())
+            {
+                mOperation = operations.get(operation - 1);
+            }
+            else
+            {
+                mOperation = "Operation" + operation;
+            }
+
+            mStatus = (int) (packed >>> FooGattTrace.SHIFT_STATUS) & 0xFF;
+            mServiceShortId = (int) (packed >>> FooGattTrace.SHIFT_SERVICE) & 0xFFFF;
+            mCharacteristicShortId = (int) (packed >>> FooGattTrace.SHIFT_CHARACTERISTIC) & 0xFFFF;
+            mLength = (int) (packed >>> FooGattTrace.SHIFT_LENGTH) & 0xFFFF;
+        }
+
+        @NonNull
+        @Override
+        public String toString()
+        {
+            return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+                   "{ mElapsedRealtimeNanos=" + mElapsedRealtimeNanos +
+                   ", mType=" + mType +
+                   ", mOperation=" + mOperation +
+                   ", mStatus=" + mStatus +
+                   ", mServiceShortId=" + mServiceShortId +
+                   ", mCharacteristicShortId=" + mCharacteristicShortId +
+                   ", mLength=" + mLength +
+                   " }";
+        }
+
+        public long getElapsedRealtimeNanos()
+        {
+            return mElapsedRealtimeNanos;
+        }
+
+        @NonNull
+        public EventType getType()
+        {
+            return mType;
+        }
+
+        /**
+         * @return the name of the GATT operation, or null for notifications and connection state changes
+         */
+        public String getOperation()
+        {
+            return mOperation;
+        }
+
+        /**
+         * @return the GATT status, 0xFE if it did not fit in 8 bits, or 0xFF if the event has none
+         */
+        public int getStatus()
+        {
+            return mStatus;
+        }
+
+        public int getServiceShortId()
+        {
+            return mServiceShortId;
+        }
+
+        public int getCharacteristicShortId()
+        {
+            return mCharacteristicShortId;
+        }
+
+        /**
+         * @return the payload length, capped at 0xFFFF; for a completed MTU request the MTU, and for a
+         * connection state change the new state
+         */
+        public int getLength()
+        {
+            return mLength;
+        }
+    }
+
+    /**
+     * @param in the input to read a trace from; must not be null
+     * @return the decoded trace
+     * @throws IOException if reading fails or the input is not a trace
+     */
+    @NonNull
+    public static FooGattTraceDecoder readFrom(@NonNull DataInput in)
+            throws IOException
+    {
+        if (in.readInt() != FooGattTrace.MAGIC)
+        {
+            throw new IOException("not a FooGattTrace");
+        }
+        int version = in.readUnsignedShort();
+        if (version != FooGattTrace.VERSION)
+        {
+            throw new IOException("unsupported FooGattTrace version " + version);
+        }
+
+        long deviceAddress = in.readLong();
+        long exportedTimeMillis = in.readLong();
+        long exportedElapsedRealtimeNanos = in.readLong();
+
+        int operationCount = in.readUnsignedByte();
+        List<String> operations = new ArrayList<>(operationCount);
+        for (int i = 0; i < operationCount; i++)
+        {
+            operations.add(in.readUTF());
+        }
+
+        long recordedCount = in.readLong();
+        int eventCount = in.readInt();
+        if (eventCount < 0 || eventCount > recordedCount)
+        {
+            throw new IOException("invalid eventCount " + eventCount);
+        }
+        List<Event> events = new ArrayList<>(eventCount);
+        for (int i = 0; i < eventCount; i++)
+        {
+            long elapsedRealtimeNanos = in.readLong();
+            long packed = in.readLong();
+            events.add(new Event(elapsedRealtimeNanos, packed, operations));
+        }
+
+        return new FooGattTraceDecoder(deviceAddress, exportedTimeMillis, exportedElapsedRealtimeNanos,
+                recordedCount, events);
+    }
+
+    private final long        mDeviceAddress;
+    private final long        mExportedTimeMillis;
+    private final long        mExportedElapsedRealtimeNanos;
+    private final long        mRecordedCount;
+    private final List<Event> mEvents;
+
+    private FooGattTraceDecoder(long deviceAddress,
+                                long exportedTimeMillis,
+                                long exportedElapsedRealtimeNanos,
+                                long recordedCount,
+                                List<Event> events)
+    {
+        mDeviceAddress = deviceAddress;
+        mExportedTimeMillis = exportedTimeMillis;
+        mExportedElapsedRealtimeNanos = exportedElapsedRealtimeNanos;
+        mRecordedCount = recordedCount;
+        mEvents = Collections.unmodifiableList(events);
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ mDeviceAddress=" + mDeviceAddress +
+               ", mExportedTimeMillis=" + mExportedTimeMillis +
+               ", mRecordedCount=" + mRecordedCount +
+               ", mEvents.size()=" + mEvents.size() +
+               " }";
+    }
+
+    public long getDeviceAddress()
+    {
+        return mDeviceAddress;
+    }
+
+    /**
+     * @return the wall clock time at which the trace was exported
+     */
+    public long getExportedTimeMillis()
+    {
+        return mExportedTimeMillis;
+    }
+
+    /**
+     * @return the number of events recorded, including those overwritten before the export
+     */
+    public long getRecordedCount()
+    {
+        return mRecordedCount;
+    }
+
+    /**
+     * @return the number of events overwritten before the export
+     */
+    public long getDroppedCount()
+    {
+        return mRecordedCount - mEvents.size();
+    }
+
+    /**
+     * @return the events, oldest first
+     */
+    @NonNull
+    public List<Event> getEvents()
+    {
+        return mEvents;
+    }
+
+    /**
+     * @param event an event of this trace
+     * @return the wall clock time of {@code event}, in milliseconds
+     */
+    public long getTimeMillis(@NonNull Event event)
+    {
+        return mExportedTimeMillis - (mExportedElapsedRealtimeNanos - event.mElapsedRealtimeNanos) / 1000000;
+    }
+
+    /**
+     * One line per event: wall clock time, time since the previous event, type, operation and fields.
+     * Completions also show how long the operation took since its start.
+     *
+     * @return the multi-line timeline
+     */
+    @NonNull
+    public String toTimelineString()
+    {
+        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "device=%012X, exported=%s, events=%d, dropped=%d",
+                mDeviceAddress,
+                new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS Z", Locale.US).format(new Date(mExportedTimeMillis)),
+                mEvents.size(),
+                getDroppedCount()));
+
+        // Operations are serialized per handler, so each completion matches the most recent start
+        long startNanos = -1;
+        long previousNanos = -1;
+        for (Event event : mEvents)
+        {
+            long nanos = event.mElapsedRealtimeNanos;
+            sb.append('\n')
+              .append(timeFormat.format(new Date(getTimeMillis(event))))
+              .append(String.format(Locale.US, " %+10.3fms ", previousNanos >= 0 ? (nanos - previousNanos) / 1e6 : 0.0))
+              .append(String.format(Locale.US, "%-15s", event.mType));
+            previousNanos = nanos;
+
+            if (event.mOperation != null)
+            {
+                sb.append(' ').append(event.mOperation);
+            }
+            if (event.mServiceShortId != 0)
+            {
+                sb.append(String.format(Locale.US, " svc=0x%04X", event.mServiceShortId));
+            }
+            if (event.mCharacteristicShortId != 0)
+            {
+                sb.append(String.format(Locale.US, " chr=0x%04X", event.mCharacteristicShortId));
+            }
+
+            switch (event.mType)
+            {
+                case Start:
+                    startNanos = nanos;
+                    if (event.mLength != 0)
+                    {
+                        sb.append(" len=").append(event.mLength);
+                    }
+                    break;
+                case Succeeded:
+                case Failed:
+                case TimedOut:
+                case Canceled:
+                    appendStatus(sb, event.mStatus);
+                    if (event.mLength != 0)
+                    {
+                        sb.append(" len=").append(event.mLength);
+                    }
+                    if (startNanos >= 0)
+                    {
+                        sb.append(String.format(Locale.US, " took=%.3fms", (nanos - startNanos) / 1e6));
+                        startNanos = -1;
+                    }
+                    break;
+                case Notification:
+                    sb.append(" len=").append(event.mLength);
+                    break;
+                case ConnectionState:
+                    sb.append(" newState=").append(event.mLength);
+                    appendStatus(sb, event.mStatus);
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendStatus(StringBuilder sb, int status)
+    {
+        switch (status)
+        {
+            case FooGattTrace.STATUS_NONE:
+                break;
+            case FooGattTrace.STATUS_OTHER:
+                sb.append(" status>=").append(FooGattTrace.STATUS_OTHER);
+                break;
+            default:
+                sb.append(" status=").append(status);
+                break;
+        }
+    }
+}
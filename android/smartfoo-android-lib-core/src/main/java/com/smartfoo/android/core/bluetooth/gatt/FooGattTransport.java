@@ -0,0 +1,146 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The GATT client connection {@link FooGattHandler} talks to: the subset of
+ * {@link android.bluetooth.BluetoothGatt} it uses, with the same names and semantics.
+ *
+ * <p>Every method that starts an operation returns immediately and reports the outcome later, on another
+ * thread, through the {@link Callbacks} given to {@link Factory#connectGatt(String, boolean, Callbacks)}.
+ * {@link FooGattManager} uses {@link FooGattBluetoothTransport} unless given another {@link Factory}, such
+ * as a {@link FooGattSimulator} for tests and benchmarks.</p>
+ */
+public interface FooGattTransport
+{
+    /**
+     * Mirrors {@link android.bluetooth.BluetoothGattCallback}.
+     */
+    interface Callbacks
+    {
+        void onConnectionStateChange(FooGattTransport gatt, int status, int newState);
+
+        void onServicesDiscovered(FooGattTransport gatt, int status);
+
+        /**
+         * @param gatt           the transport
+         * @param characteristic the characteristic, whose {@link BluetoothGattCharacteristic#getValue()} is the
+         *                       value read
+         * @param status         the GATT status
+         */
+        void onCharacteristicRead(FooGattTransport gatt, BluetoothGattCharacteristic characteristic, int status);
+
+        void onCharacteristicWrite(FooGattTransport gatt, BluetoothGattCharacteristic characteristic, int status);
+
+        void onDescriptorWrite(FooGattTransport gatt, BluetoothGattDescriptor descriptor, int status);
+
+        void onCharacteristicChanged(@NonNull FooGattTransport gatt,
+                                     @NonNull BluetoothGattCharacteristic characteristic,
+                                     @NonNull byte[] value);
+
+        void onReadRemoteRssi(FooGattTransport gatt, int rssi, int status);
+
+        void onMtuChanged(FooGattTransport gatt, int mtu, int status);
+
+        void onPhyUpdate(FooGattTransport gatt, int txPhy, int rxPhy, int status);
+
+        void onServiceChanged(@NonNull FooGattTransport gatt);
+    }
+
+    /**
+     * Creates connections; see {@link FooGattManager#setTransportFactory(Factory)}.
+     */
+    interface Factory
+    {
+        /**
+         * @return true if connections can currently be made, such as while the Bluetooth adapter is on
+         */
+        boolean isEnabled();
+
+        /**
+         * Starts connecting, as {@link BluetoothDevice#connectGatt}.
+         *
+         * @param deviceAddress the address of the device to connect to
+         * @param autoConnect   true to let the OS connect whenever the device is next seen
+         * @param callbacks     the callbacks to report this connection's events to
+         * @return the connection, or null if connecting could not be started
+         */
+        FooGattTransport connectGatt(@NonNull String deviceAddress, boolean autoConnect, @NonNull Callbacks callbacks);
+    }
+
+    /**
+     * @return the remote device, or null if there is no {@link BluetoothDevice} behind this transport
+     */
+    BluetoothDevice getDevice();
+
+    boolean discoverServices();
+
+    List<BluetoothGattService> getServices();
+
+    BluetoothGattService getService(UUID uuid);
+
+    boolean readCharacteristic(BluetoothGattCharacteristic characteristic);
+
+    /**
+     * Writes {@link BluetoothGattCharacteristic#getValue()} with {@link BluetoothGattCharacteristic#getWriteType()}.
+     *
+     * @param characteristic the characteristic to write
+     * @return true if the write was started
+     */
+    boolean writeCharacteristic(BluetoothGattCharacteristic characteristic);
+
+    /**
+     * @param characteristic the characteristic to write
+     * @param value          the value to write
+     * @param writeType      one of the {@code BluetoothGattCharacteristic.WRITE_TYPE_*} constants
+     * @return {@link android.bluetooth.BluetoothStatusCodes#SUCCESS} if the write was started, or an error code
+     */
+    int writeCharacteristic(@NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value, int writeType);
+
+    boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable);
+
+    /**
+     * Writes {@link BluetoothGattDescriptor#getValue()}.
+     *
+     * @param descriptor the descriptor to write
+     * @return true if the write was started
+     */
+    boolean writeDescriptor(BluetoothGattDescriptor descriptor);
+
+    boolean readRemoteRssi();
+
+    boolean requestMtu(int mtu);
+
+    boolean requestConnectionPriority(int connectionPriority);
+
+    void setPreferredPhy(int txPhy, int rxPhy, int phyOptions);
+
+    /**
+     * Creates, but does not connect, an LE L2CAP connection-oriented channel to the remote device, as
+     * {@link BluetoothDevice#createL2capChannel(int)}.
+     *
+     * @param psm    the Protocol/Service Multiplexer the peripheral listens on
+     * @param secure true for an encrypted channel, false for {@link BluetoothDevice#createInsecureL2capChannel(int)}
+     * @return the unconnected channel
+     * @throws IOException if the channel could not be created
+     */
+    @NonNull
+    FooL2capSocket createL2capChannel(int psm, boolean secure)
+            throws IOException;
+
+    void disconnect();
+
+    /**
+     * Releases the connection; no more {@link Callbacks} are called after this returns.
+     */
+    void close();
+}
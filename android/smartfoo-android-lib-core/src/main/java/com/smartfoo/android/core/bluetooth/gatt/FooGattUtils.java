@@ -264,6 +264,72 @@ public class FooGattUtils
         return true;
     }
 
+    /**
+     * Same as {@link #safeDisconnect(String, BluetoothGatt)}, for any {@link FooGattTransport}.
+     *
+     * @param callerName a label used in log messages to identify the caller
+     * @param gatt       the transport to disconnect; a null value is logged and returns false
+     * @return true if {@code disconnect()} completed without throwing; false otherwise
+     */
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    public static boolean safeDisconnect(@NonNull final String callerName, final FooGattTransport gatt)
+    {
+        String debugInfo = FooString.quote(callerName) + "->safeDisconnect";
+        FooLog.v(TAG, debugInfo + "(gatt=" + gatt + ')');
+
+        if (gatt == null)
+        {
+            FooLog.w(TAG, debugInfo + ": gatt == null; ignoring");
+            return false;
+        }
+
+        try
+        {
+            FooLog.v(TAG, debugInfo + ": gatt.disconnect()");
+            gatt.disconnect();
+        }
+        catch (Exception e)
+        {
+            FooLog.w(TAG, debugInfo + ": gatt.disconnect() EXCEPTION; ignoring", e);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Same as {@link #safeClose(String, BluetoothGatt)}, for any {@link FooGattTransport}.
+     *
+     * @param callerName a label used in log messages to identify the caller
+     * @param gatt       the transport to close; a null value is logged and returns false
+     * @return true if {@code close()} completed without throwing; false otherwise
+     */
+    @RequiresPermission(Manifest.permission.BLUETOOTH_CONNECT)
+    public static boolean safeClose(@NonNull final String callerName, final FooGattTransport gatt)
+    {
+        String debugInfo = callerName + "->safeClose";
+        FooLog.v(TAG, debugInfo + "(gatt=" + gatt + ')');
+
+        if (gatt == null)
+        {
+            FooLog.w(TAG, debugInfo + ": gatt == null; ignoring");
+            return false;
+        }
+
+        try
+        {
+            FooLog.v(TAG, debugInfo + ": gatt.close()");
+            gatt.close();
+        }
+        catch (Exception e)
+        {
+            FooLog.w(TAG, debugInfo + ": gatt.close() EXCEPTION; ignoring", e);
+            return false;
+        }
+
+        return true;
+    }
+
     /**
      * Creates a {@link android.bluetooth.BluetoothGattCharacteristic} attached to a new
      * primary {@link android.bluetooth.BluetoothGattService} with the given UUIDs.
@@ -0,0 +1,600 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.FooRun;
+import com.smartfoo.android.core.logging.FooLog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An LE L2CAP connection-oriented channel to a connected device, opened by
+ * {@link FooGattHandler#openL2capChannel(int, boolean, FooL2capChannelCallbacks)}, for bulk data that would be
+ * slow as GATT notifications or writes.
+ *
+ * <p>Connecting blocks, so it runs on a thread owned by the channel; the outcome is reported through
+ * {@link FooL2capChannelCallbacks#onL2capChannelOpened}. Once open, data is read one of two ways: from
+ * {@link #getInputStream()}, on a thread of the caller's choosing, or by {@link #startReading(FooL2capChannelReader)},
+ * which runs a read loop on the channel's thread and hands each received chunk to a
+ * {@link FooL2capChannelReader} in one reused {@link ByteBuffer}. Data is written to {@link #getOutputStream()},
+ * which buffers up to one SDU ({@link FooL2capSocket#getMaxTransmitPacketSize()}) per write to the socket.</p>
+ *
+ * <p>Bytes read and written are counted as they cross the socket, for {@link #getReadBytesPerSecond()} and
+ * {@link #getWriteBytesPerSecond()}. The channel closes when the peer closes it, when either stream fails,
+ * when {@link #close()} is called, or when the GATT connection it was opened on drops.</p>
+ */
+public class FooL2capChannel
+{
+    private static final String TAG = FooLog.TAG(FooL2capChannel.class);
+
+    /**
+     * Callbacks for a single channel. Invoked on the same thread as, and in order with, the
+     * {@link FooGattHandler.GattHandlerListener} callbacks.
+     */
+    public interface FooL2capChannelCallbacks
+    {
+        /**
+         * Called once, when connecting completes.
+         *
+         * @param channel the channel
+         * @param success false if the channel could not be connected; it is then already closed
+         */
+        void onL2capChannelOpened(@NonNull FooL2capChannel channel, boolean success);
+
+        /**
+         * Called once, after a successful open, when the channel closes.
+         *
+         * @param channel the channel
+         * @param error   the failure that closed the channel, or null if it was closed by {@link #close()} or
+         *                by the peer
+         */
+        void onL2capChannelClosed(@NonNull FooL2capChannel channel, IOException error);
+    }
+
+    /**
+     * Receives data from the read loop started by {@link #startReading(FooL2capChannelReader)}.
+     */
+    public interface FooL2capChannelReader
+    {
+        /**
+         * Called on the channel's thread for every chunk read, in order. The next read does not start until this
+         * returns, so a slow reader applies back-pressure to the peer.
+         *
+         * @param channel the channel
+         * @param data    the chunk, from position 0 to its limit; the buffer is reused, so it is only valid until
+         *                this method returns
+         */
+        void onL2capChannelData(@NonNull FooL2capChannel channel, @NonNull ByteBuffer data);
+    }
+
+    private final String                   mDeviceAddress;
+    private final int                      mPsm;
+    private final FooL2capSocket           mSocket;
+    private final Executor                 mCallbackExecutor;
+    private final FooL2capChannelCallbacks mCallbacks;
+    private final ExecutorService          mExecutor;
+    private final AtomicLong               mBytesRead;
+    private final AtomicLong               mBytesWritten;
+
+    /**
+     * synchronized behind this
+     */
+    private InputStream           mInputStream;
+    private OutputStream          mOutputStream;
+    private FooL2capChannelReader mReader;
+    private boolean               mIsOpenStarted;
+
+    private volatile boolean      mIsOpen;
+    private volatile boolean      mIsClosed;
+    private volatile InputStream  mSocketInputStream;
+    private volatile OutputStream mSocketOutputStream;
+    private volatile long         mOpenNanos;
+    private volatile long         mCloseNanos;
+
+    FooL2capChannel(@NonNull String deviceAddress,
+                    int psm,
+                    @NonNull FooL2capSocket socket,
+                    @NonNull Executor callbackExecutor,
+                    FooL2capChannelCallbacks callbacks)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(socket, "socket");
+        FooRun.throwIllegalArgumentExceptionIfNull(callbackExecutor, "callbackExecutor");
+
+        mDeviceAddress = deviceAddress;
+        mPsm = psm;
+        mSocket = socket;
+        mCallbackExecutor = callbackExecutor;
+        mCallbacks = callbacks;
+        mExecutor = Executors.newSingleThreadExecutor(
+                new FooGattManager.NamedThreadFactory("FooL2capChannel-" + deviceAddress + '-' + psm));
+        mBytesRead = new AtomicLong();
+        mBytesWritten = new AtomicLong();
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ mDeviceAddress=" + mDeviceAddress +
+               ", mPsm=" + mPsm +
+               ", mIsOpen=" + mIsOpen +
+               ", mIsClosed=" + mIsClosed +
+               ", getBytesRead()=" + getBytesRead() +
+               ", getBytesWritten()=" + getBytesWritten() +
+               " }";
+    }
+
+    public String getDeviceAddress()
+    {
+        return mDeviceAddress;
+    }
+
+    /**
+     * @return the Protocol/Service Multiplexer the channel was opened to
+     */
+    public int getPsm()
+    {
+        return mPsm;
+    }
+
+    /**
+     * @return true once connected, until closed
+     */
+    public boolean isOpen()
+    {
+        return mIsOpen && !mIsClosed;
+    }
+
+    public boolean isClosed()
+    {
+        return mIsClosed;
+    }
+
+    /**
+     * @return the largest SDU, in bytes, the peer can receive in one write
+     */
+    public int getMaxTransmitPacketSize()
+    {
+        return mSocket.getMaxTransmitPacketSize();
+    }
+
+    /**
+     * @return the largest SDU, in bytes, one read can return
+     */
+    public int getMaxReceivePacketSize()
+    {
+        return mSocket.getMaxReceivePacketSize();
+    }
+
+    /**
+     * @return a buffered stream of the data received, or null if the channel is not open or
+     * {@link #startReading(FooL2capChannelReader)} was called
+     */
+    public InputStream getInputStream()
+    {
+        synchronized (this)
+        {
+            if (!isOpen() || mReader != null)
+            {
+                return null;
+            }
+            if (mInputStream == null)
+            {
+                mInputStream = new BufferedInputStream(new CountingInputStream(mSocketInputStream),
+                        bufferSize(getMaxReceivePacketSize()));
+            }
+            return mInputStream;
+        }
+    }
+
+    /**
+     * Not thread-safe; writes from more than one thread must be synchronized by the caller. Call
+     * {@link OutputStream#flush()} to send a partial SDU.
+     *
+     * @return a buffered stream to the peer, or null if the channel is not open
+     */
+    public OutputStream getOutputStream()
+    {
+        synchronized (this)
+        {
+            if (!isOpen())
+            {
+                return null;
+            }
+            if (mOutputStream == null)
+            {
+                mOutputStream = new BufferedOutputStream(new CountingOutputStream(mSocketOutputStream),
+                        bufferSize(getMaxTransmitPacketSize()));
+            }
+            return mOutputStream;
+        }
+    }
+
+    /**
+     * Starts reading on the channel's thread, once the channel is open, until it closes. May be called before
+     * {@link FooL2capChannelCallbacks#onL2capChannelOpened}, so that no data waits for the callback.
+     *
+     * @param reader the reader; must not be null
+     * @return false if the channel is closed, is already being read, or {@link #getInputStream()} was called
+     */
+    public boolean startReading(@NonNull final FooL2capChannelReader reader)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(reader, "reader");
+
+        synchronized (this)
+        {
+            if (mIsClosed || mReader != null || mInputStream != null)
+            {
+                return false;
+            }
+            mReader = reader;
+            if (mIsOpenStarted)
+            {
+                executeReadLoop(reader);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of bytes received so far
+     */
+    public long getBytesRead()
+    {
+        return mBytesRead.get();
+    }
+
+    /**
+     * @return the number of bytes handed to the socket so far; bytes still buffered by {@link #getOutputStream()}
+     * are not counted
+     */
+    public long getBytesWritten()
+    {
+        return mBytesWritten.get();
+    }
+
+    /**
+     * @return milliseconds from when the channel opened until it closed, or until now if still open; 0 if it
+     * never opened
+     */
+    public long getElapsedMillis()
+    {
+        return getElapsedNanos() / 1000000;
+    }
+
+    /**
+     * @return the average receive throughput, in bytes per second, while the channel was open
+     */
+    public long getReadBytesPerSecond()
+    {
+        return bytesPerSecond(getBytesRead());
+    }
+
+    /**
+     * @return the average transmit throughput, in bytes per second, while the channel was open
+     */
+    public long getWriteBytesPerSecond()
+    {
+        return bytesPerSecond(getBytesWritten());
+    }
+
+    /**
+     * Closes the channel and its streams. Blocked reads and writes fail.
+     */
+    public void close()
+    {
+        close(null);
+    }
+
+    /**
+     * Connects on the channel's thread.
+     */
+    void open()
+    {
+        synchronized (this)
+        {
+            mIsOpenStarted = true;
+            mExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    connect();
+                }
+            });
+            if (mReader != null)
+            {
+                executeReadLoop(mReader);
+            }
+        }
+    }
+
+    /**
+     * Must be called synchronized behind this, after {@link #open()} has queued the connect
+     */
+    private void executeReadLoop(final FooL2capChannelReader reader)
+    {
+        mExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                readLoop(reader);
+            }
+        });
+    }
+
+    private void connect()
+    {
+        FooLog.v(TAG, mDeviceAddress + " connect: mPsm=" + mPsm);
+
+        boolean success = false;
+        try
+        {
+            mSocket.connect();
+            mSocketInputStream = mSocket.getInputStream();
+            mSocketOutputStream = mSocket.getOutputStream();
+            success = true;
+        }
+        catch (IOException e)
+        {
+            if (!mIsClosed)
+            {
+                FooLog.w(TAG, mDeviceAddress + " connect: mPsm=" + mPsm + "; failed", e);
+            }
+        }
+
+        synchronized (this)
+        {
+            if (mIsClosed)
+            {
+                // Closed while connecting; the close is reported as a failed open
+                success = false;
+            }
+            else if (success)
+            {
+                mOpenNanos = System.nanoTime();
+                mIsOpen = true;
+                // Posted before close() can post onL2capChannelClosed
+                postOpened(true);
+            }
+        }
+
+        FooLog.i(TAG, mDeviceAddress + " connect: mPsm=" + mPsm + ", success=" + success +
+                      ", getMaxTransmitPacketSize()=" + getMaxTransmitPacketSize() +
+                      ", getMaxReceivePacketSize()=" + getMaxReceivePacketSize());
+
+        if (!success)
+        {
+            close(null);
+            postOpened(false);
+        }
+    }
+
+    private void postOpened(final boolean success)
+    {
+        if (mCallbacks == null)
+        {
+            return;
+        }
+        mCallbackExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mCallbacks.onL2capChannelOpened(FooL2capChannel.this, success);
+            }
+        });
+    }
+
+    private void readLoop(FooL2capChannelReader reader)
+    {
+        if (!isOpen())
+        {
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize(getMaxReceivePacketSize()));
+        byte[] array = buffer.array();
+        InputStream inputStream = mSocketInputStream;
+        try
+        {
+            while (true)
+            {
+                int length = inputStream.read(array, 0, array.length);
+                if (length < 0)
+                {
+                    FooLog.v(TAG, mDeviceAddress + " readLoop: mPsm=" + mPsm + "; end of stream");
+                    close(null);
+                    return;
+                }
+                mBytesRead.addAndGet(length);
+                buffer.clear();
+                buffer.limit(length);
+                reader.onL2capChannelData(this, buffer);
+            }
+        }
+        catch (IOException e)
+        {
+            close(e);
+        }
+    }
+
+    private void close(final IOException error)
+    {
+        boolean wasOpen;
+        synchronized (this)
+        {
+            if (mIsClosed)
+            {
+                return;
+            }
+            mIsClosed = true;
+            wasOpen = mIsOpen;
+            if (wasOpen)
+            {
+                mCloseNanos = System.nanoTime();
+            }
+        }
+
+        if (error != null)
+        {
+            FooLog.w(TAG, mDeviceAddress + " close: mPsm=" + mPsm + "; failed", error);
+        }
+        FooLog.i(TAG, mDeviceAddress + " close: " + this +
+                      ", getReadBytesPerSecond()=" + getReadBytesPerSecond() +
+                      ", getWriteBytesPerSecond()=" + getWriteBytesPerSecond());
+
+        try
+        {
+            mSocket.close();
+        }
+        catch (IOException e)
+        {
+            FooLog.w(TAG, mDeviceAddress + " close: mSocket.close() failed", e);
+        }
+        mExecutor.shutdown();
+
+        if (wasOpen && mCallbacks != null)
+        {
+            mCallbackExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    mCallbacks.onL2capChannelClosed(FooL2capChannel.this, error);
+                }
+            });
+        }
+    }
+
+    private long getElapsedNanos()
+    {
+        long openNanos = mOpenNanos;
+        if (openNanos == 0)
+        {
+            return 0;
+        }
+        long closeNanos = mCloseNanos;
+        if (closeNanos == 0)
+        {
+            closeNanos = System.nanoTime();
+        }
+        return closeNanos - openNanos;
+    }
+
+    private long bytesPerSecond(long bytes)
+    {
+        long elapsedNanos = getElapsedNanos();
+        return elapsedNanos > 0 ? bytes * 1000000000L / elapsedNanos : 0;
+    }
+
+    private static int bufferSize(int maxPacketSize)
+    {
+        return maxPacketSize > 0 ? maxPacketSize : FooL2capSocketPair.DEFAULT_MAX_PACKET_SIZE;
+    }
+
+    /**
+     * Counts bytes as they are read from the socket, and closes the channel if a read fails.
+     */
+    private class CountingInputStream
+            extends FilterInputStream
+    {
+        private CountingInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read()
+                throws IOException
+        {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len)
+                throws IOException
+        {
+            int length;
+            try
+            {
+                length = in.read(b, off, len);
+            }
+            catch (IOException e)
+            {
+                FooL2capChannel.this.close(e);
+                throw e;
+            }
+            if (length < 0)
+            {
+                FooL2capChannel.this.close(null);
+            }
+            else
+            {
+                mBytesRead.addAndGet(length);
+            }
+            return length;
+        }
+
+        @Override
+        public void close()
+        {
+            FooL2capChannel.this.close();
+        }
+    }
+
+    /**
+     * Counts bytes as they are written to the socket, and closes the channel if a write fails.
+     */
+    private class CountingOutputStream
+            extends FilterOutputStream
+    {
+        private CountingOutputStream(OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(int b)
+                throws IOException
+        {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len)
+                throws IOException
+        {
+            try
+            {
+                out.write(b, off, len);
+            }
+            catch (IOException e)
+            {
+                FooL2capChannel.this.close(e);
+                throw e;
+            }
+            mBytesWritten.addAndGet(len);
+        }
+
+        @Override
+        public void close()
+        {
+            FooL2capChannel.this.close();
+        }
+    }
+}
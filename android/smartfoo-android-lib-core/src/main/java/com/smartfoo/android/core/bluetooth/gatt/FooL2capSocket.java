@@ -0,0 +1,53 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import android.bluetooth.BluetoothSocket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An LE L2CAP connection-oriented channel as {@link FooL2capChannel} uses it: the subset of
+ * {@link BluetoothSocket} it needs, with the same names and semantics.
+ *
+ * <p>Created, not yet connected, by {@link FooGattTransport#createL2capChannel(int, boolean)}.
+ * {@link FooGattBluetoothTransport} wraps a real {@link BluetoothSocket}; {@link FooL2capSocketPair} provides two
+ * in-memory ends of one channel for tests and for {@link FooGattSimulatedPeripheral}.</p>
+ */
+public interface FooL2capSocket
+        extends Closeable
+{
+    /**
+     * Blocks until the channel is connected or connecting fails.
+     *
+     * @throws IOException if the channel could not be connected
+     */
+    void connect()
+            throws IOException;
+
+    boolean isConnected();
+
+    InputStream getInputStream()
+            throws IOException;
+
+    OutputStream getOutputStream()
+            throws IOException;
+
+    /**
+     * @return the largest SDU, in bytes, the peer can receive in one write
+     */
+    int getMaxTransmitPacketSize();
+
+    /**
+     * @return the largest SDU, in bytes, one read can return
+     */
+    int getMaxReceivePacketSize();
+
+    /**
+     * Closes the channel; blocked reads and writes on either end fail or see the end of the stream.
+     */
+    @Override
+    void close()
+            throws IOException;
+}
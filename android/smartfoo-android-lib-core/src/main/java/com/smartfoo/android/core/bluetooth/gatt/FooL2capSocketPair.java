@@ -0,0 +1,323 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.collections.FooByteRingBuffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Two connected, in-memory ends of one {@link FooL2capSocket}, like {@code socketpair(2)}: bytes written to one
+ * end's {@link FooL2capSocket#getOutputStream()} are read from the other end's
+ * {@link FooL2capSocket#getInputStream()}.
+ *
+ * <p>Each direction is a bounded {@link FooByteRingBuffer}, so a writer blocks when the reader falls behind,
+ * as it would on a real channel that has run out of credits. Both ends are connected from the start;
+ * {@link FooL2capSocket#connect()} does nothing. Closing either end closes the channel: the other end reads
+ * what was already sent and then the end of the stream, and writes to either end fail.</p>
+ */
+public class FooL2capSocketPair
+{
+    /**
+     * The default LE L2CAP CoC SDU size used by Android
+     */
+    public static final int DEFAULT_MAX_PACKET_SIZE = 512;
+
+    private final End mLocal;
+    private final End mPeer;
+
+    public FooL2capSocketPair()
+    {
+        this(DEFAULT_MAX_PACKET_SIZE, 16 * DEFAULT_MAX_PACKET_SIZE);
+    }
+
+    /**
+     * @param maxPacketSize the SDU size reported by both ends; must be positive
+     * @param bufferSize    the number of bytes each direction can hold before writes block; must be positive
+     */
+    public FooL2capSocketPair(int maxPacketSize, int bufferSize)
+    {
+        if (maxPacketSize <= 0)
+        {
+            throw new IllegalArgumentException("maxPacketSize must be > 0");
+        }
+
+        Pipe toLocal = new Pipe(bufferSize);
+        Pipe toPeer = new Pipe(bufferSize);
+        mLocal = new End("local", toLocal, toPeer, maxPacketSize);
+        mPeer = new End("peer", toPeer, toLocal, maxPacketSize);
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ mLocal=" + mLocal +
+               ", mPeer=" + mPeer +
+               " }";
+    }
+
+    /**
+     * @return the end the central side uses, such as the one given to {@link FooL2capChannel}
+     */
+    @NonNull
+    public FooL2capSocket getLocalSocket()
+    {
+        return mLocal;
+    }
+
+    /**
+     * @return the end the peripheral side uses
+     */
+    @NonNull
+    public FooL2capSocket getPeerSocket()
+    {
+        return mPeer;
+    }
+
+    /**
+     * One direction of the channel.
+     */
+    private static class Pipe
+    {
+        /**
+         * synchronized behind itself
+         */
+        private final FooByteRingBuffer mBuffer;
+        private       boolean           mIsClosed;
+
+        private Pipe(int bufferSize)
+        {
+            mBuffer = new FooByteRingBuffer(bufferSize);
+        }
+
+        private int read(byte[] buffer, int offset, int length)
+                throws IOException
+        {
+            if (length == 0)
+            {
+                return 0;
+            }
+            synchronized (mBuffer)
+            {
+                while (mBuffer.isEmpty())
+                {
+                    if (mIsClosed)
+                    {
+                        return -1;
+                    }
+                    await();
+                }
+                int count = mBuffer.read(buffer, offset, length);
+                mBuffer.notifyAll();
+                return count;
+            }
+        }
+
+        private void write(byte[] buffer, int offset, int length)
+                throws IOException
+        {
+            synchronized (mBuffer)
+            {
+                while (true)
+                {
+                    if (mIsClosed)
+                    {
+                        throw new IOException("channel closed");
+                    }
+                    int count = mBuffer.write(buffer, offset, length);
+                    if (count > 0)
+                    {
+                        mBuffer.notifyAll();
+                    }
+                    offset += count;
+                    length -= count;
+                    if (length == 0)
+                    {
+                        return;
+                    }
+                    await();
+                }
+            }
+        }
+
+        private int available()
+        {
+            synchronized (mBuffer)
+            {
+                return mBuffer.size();
+            }
+        }
+
+        private boolean isClosed()
+        {
+            synchronized (mBuffer)
+            {
+                return mIsClosed;
+            }
+        }
+
+        private void close()
+        {
+            synchronized (mBuffer)
+            {
+                mIsClosed = true;
+                mBuffer.notifyAll();
+            }
+        }
+
+        /**
+         * Must be called synchronized behind mBuffer
+         */
+        private void await()
+                throws InterruptedIOException
+        {
+            try
+            {
+                mBuffer.wait();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    private static class End
+            implements FooL2capSocket
+    {
+        private final String       mName;
+        private final Pipe         mIn;
+        private final Pipe         mOut;
+        private final int          mMaxPacketSize;
+        private final InputStream  mInputStream;
+        private final OutputStream mOutputStream;
+
+        private volatile boolean mIsClosed;
+
+        private End(String name, Pipe in, Pipe out, int maxPacketSize)
+        {
+            mName = name;
+            mIn = in;
+            mOut = out;
+            mMaxPacketSize = maxPacketSize;
+            mInputStream = new InputStream()
+            {
+                @Override
+                public int read()
+                        throws IOException
+                {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+                }
+
+                @Override
+                public int read(@NonNull byte[] b, int off, int len)
+                        throws IOException
+                {
+                    if (mIsClosed)
+                    {
+                        throw new IOException("socket closed");
+                    }
+                    return mIn.read(b, off, len);
+                }
+
+                @Override
+                public int available()
+                {
+                    return mIn.available();
+                }
+
+                @Override
+                public void close()
+                {
+                    End.this.close();
+                }
+            };
+            mOutputStream = new OutputStream()
+            {
+                @Override
+                public void write(int b)
+                        throws IOException
+                {
+                    write(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(@NonNull byte[] b, int off, int len)
+                        throws IOException
+                {
+                    if (off < 0 || len < 0 || off + len > b.length)
+                    {
+                        throw new IndexOutOfBoundsException();
+                    }
+                    mOut.write(b, off, len);
+                }
+
+                @Override
+                public void close()
+                {
+                    End.this.close();
+                }
+            };
+        }
+
+        @NonNull
+        @Override
+        public String toString()
+        {
+            return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+                   "{ mName=" + mName +
+                   ", mIsClosed=" + mIsClosed +
+                   " }";
+        }
+
+        @Override
+        public void connect()
+        {
+        }
+
+        @Override
+        public boolean isConnected()
+        {
+            return !mIsClosed && !mOut.isClosed();
+        }
+
+        @Override
+        public InputStream getInputStream()
+        {
+            return mInputStream;
+        }
+
+        @Override
+        public OutputStream getOutputStream()
+        {
+            return mOutputStream;
+        }
+
+        @Override
+        public int getMaxTransmitPacketSize()
+        {
+            return mMaxPacketSize;
+        }
+
+        @Override
+        public int getMaxReceivePacketSize()
+        {
+            return mMaxPacketSize;
+        }
+
+        @Override
+        public void close()
+        {
+            mIsClosed = true;
+            mIn.close();
+            mOut.close();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.smartfoo.android.core.collections;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.FooRun;
+
+/**
+ * A thread-safe pool of {@code byte[]}s of exact lengths.
+ *
+ * <p>Meant for high-rate producers that need a private copy of a small, usually fixed-size payload for a
+ * short time, such as BLE notifications: after warm-up, {@link #acquire(int)} and {@link #release(byte[])}
+ * allocate nothing. Arrays longer than {@link #getMaxPooledLength()} are never pooled; {@link #acquire(int)}
+ * allocates them and {@link #release(byte[])} drops them.</p>
+ *
+ * <p>Each length keeps at most {@link #getMaxArraysPerLength()} free arrays; extra released arrays are left
+ * to the garbage collector.</p>
+ */
+public class FooByteArrayPool
+{
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int        mMaxPooledLength;
+    private final int        mMaxArraysPerLength;
+    /**
+     * Indexed by array length; each bucket is lazily created. synchronized behind mBuckets
+     */
+    private final byte[][][] mBuckets;
+    /**
+     * Indexed by array length. synchronized behind mBuckets
+     */
+    private final int[]      mCounts;
+
+    /**
+     * @param maxPooledLength    the longest array length to pool; must not be negative
+     * @param maxArraysPerLength the maximum number of free arrays to keep for each length; must be positive
+     */
+    public FooByteArrayPool(int maxPooledLength, int maxArraysPerLength)
+    {
+        if (maxPooledLength < 0)
+        {
+            throw new IllegalArgumentException("maxPooledLength must be >= 0");
+        }
+        if (maxArraysPerLength <= 0)
+        {
+            throw new IllegalArgumentException("maxArraysPerLength must be > 0");
+        }
+
+        mMaxPooledLength = maxPooledLength;
+        mMaxArraysPerLength = maxArraysPerLength;
+        mBuckets = new byte[maxPooledLength + 1][][];
+        mCounts = new int[maxPooledLength + 1];
+    }
+
+    @SuppressWarnings("unused")
+    public int getMaxPooledLength()
+    {
+        return mMaxPooledLength;
+    }
+
+    @SuppressWarnings("unused")
+    public int getMaxArraysPerLength()
+    {
+        return mMaxArraysPerLength;
+    }
+
+    /**
+     * @return the number of free arrays currently held by the pool
+     */
+    public int size()
+    {
+        synchronized (mBuckets)
+        {
+            int size = 0;
+            for (int count : mCounts)
+            {
+                size += count;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * @param length the exact length of the array; must not be negative
+     * @return a pooled or newly allocated array of exactly {@code length} bytes; its contents are undefined
+     */
+    @NonNull
+    public byte[] acquire(int length)
+    {
+        if (length < 0)
+        {
+            throw new IllegalArgumentException("length must be >= 0");
+        }
+
+        if (length == 0)
+        {
+            return EMPTY;
+        }
+
+        if (length <= mMaxPooledLength)
+        {
+            synchronized (mBuckets)
+            {
+                int count = mCounts[length];
+                if (count > 0)
+                {
+                    byte[][] bucket = mBuckets[length];
+                    count--;
+                    byte[] array = bucket[count];
+                    bucket[count] = null;
+                    mCounts[length] = count;
+                    return array;
+                }
+            }
+        }
+
+        return new byte[length];
+    }
+
+    /**
+     * @param source the bytes to copy; must not be null
+     * @return a pooled or newly allocated copy of {@code source}
+     */
+    @NonNull
+    public byte[] copyOf(@NonNull byte[] source)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(source, "source");
+
+        byte[] array = acquire(source.length);
+        System.arraycopy(source, 0, array, 0, source.length);
+        return array;
+    }
+
+    /**
+     * Returns an array to the pool. The caller must not use {@code array} afterwards.
+     *
+     * @param array an array previously returned by {@link #acquire(int)} or {@link #copyOf(byte[])}; null is
+     *              ignored
+     */
+    public void release(byte[] array)
+    {
+        if (array == null)
+        {
+            return;
+        }
+
+        int length = array.length;
+        if (length == 0 || length > mMaxPooledLength)
+        {
+            return;
+        }
+
+        synchronized (mBuckets)
+        {
+            int count = mCounts[length];
+            if (count == mMaxArraysPerLength)
+            {
+                return;
+            }
+
+            byte[][] bucket = mBuckets[length];
+            if (bucket == null)
+            {
+                bucket = new byte[mMaxArraysPerLength][];
+                mBuckets[length] = bucket;
+            }
+            bucket[count] = array;
+            mCounts[length] = count + 1;
+        }
+    }
+
+    /**
+     * Drops every free array.
+     */
+    @SuppressWarnings("unused")
+    public void clear()
+    {
+        synchronized (mBuckets)
+        {
+            for (int i = 0; i < mBuckets.length; i++)
+            {
+                mBuckets[i] = null;
+                mCounts[i] = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.smartfoo.android.core.collections;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.FooRun;
+
+/**
+ * A fixed-capacity FIFO of bytes stored in one circular {@code byte[]}.
+ *
+ * <p>Like {@link com.smartfoo.android.core.FooMemoryStream}, it has a read cursor and a logical length, but
+ * consumed bytes are reclaimed without moving the unread ones: writes wrap around to the start of the array.
+ * Bytes can be inspected in place with {@link #peek(int)}, and {@link #getArray()}/{@link #getReadIndex()}
+ * expose the storage so that a run of bytes for which {@link #isContiguous(int)} returns true can be used
+ * without copying.</p>
+ *
+ * <p>Not thread-safe.</p>
+ */
+public class FooByteRingBuffer
+{
+    private final byte[] mBuffer;
+
+    private int mReadIndex;
+    private int mSize;
+
+    /**
+     * @param capacity the number of bytes the buffer can hold; must be positive
+     */
+    public FooByteRingBuffer(int capacity)
+    {
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+
+        mBuffer = new byte[capacity];
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ capacity()=" + capacity() +
+               ", mReadIndex=" + mReadIndex +
+               ", mSize=" + mSize +
+               " }";
+    }
+
+    public int capacity()
+    {
+        return mBuffer.length;
+    }
+
+    /**
+     * @return the number of bytes buffered
+     */
+    public int size()
+    {
+        return mSize;
+    }
+
+    /**
+     * @return the number of bytes that can be written before the buffer is full
+     */
+    public int remaining()
+    {
+        return mBuffer.length - mSize;
+    }
+
+    public boolean isEmpty()
+    {
+        return mSize == 0;
+    }
+
+    public boolean isFull()
+    {
+        return mSize == mBuffer.length;
+    }
+
+    /**
+     * Discards every buffered byte.
+     */
+    public void clear()
+    {
+        mReadIndex = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Appends as many of the given bytes as fit.
+     *
+     * @param source the bytes to append; must not be null
+     * @param offset the index of the first byte in {@code source}
+     * @param length the number of bytes to append
+     * @return the number of bytes appended, less than {@code length} if the buffer filled up
+     */
+    public int write(@NonNull byte[] source, int offset, int length)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(source, "source");
+
+        if (offset < 0 || length < 0 || offset + length > source.length)
+        {
+            throw new IndexOutOfBoundsException("offset(" + offset + ") and length(" + length +
+                                                ") out of bounds for source.length(" + source.length + ')');
+        }
+
+        int count = Math.min(length, remaining());
+        if (count == 0)
+        {
+            return 0;
+        }
+
+        int writeIndex = index(mSize);
+        int first = Math.min(count, mBuffer.length - writeIndex);
+        System.arraycopy(source, offset, mBuffer, writeIndex, first);
+        if (first < count)
+        {
+            System.arraycopy(source, offset + first, mBuffer, 0, count - first);
+        }
+        mSize += count;
+        return count;
+    }
+
+    /**
+     * @param index the position relative to the oldest buffered byte; must be less than {@link #size()}
+     * @return the byte at {@code index}, as an unsigned value
+     */
+    public int peek(int index)
+    {
+        checkIndex(index, 1);
+        return mBuffer[index(index)] & 0xFF;
+    }
+
+    /**
+     * Copies buffered bytes without consuming them.
+     *
+     * @param index  the position relative to the oldest buffered byte of the first byte to copy
+     * @param dest   the destination; must not be null
+     * @param offset the index in {@code dest} to copy to
+     * @param length the number of bytes to copy; {@code index + length} must not exceed {@link #size()}
+     */
+    public void peek(int index, @NonNull byte[] dest, int offset, int length)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(dest, "dest");
+
+        checkIndex(index, length);
+
+        int start = index(index);
+        int first = Math.min(length, mBuffer.length - start);
+        System.arraycopy(mBuffer, start, dest, offset, first);
+        if (first < length)
+        {
+            System.arraycopy(mBuffer, 0, dest, offset + first, length - first);
+        }
+    }
+
+    /**
+     * Copies and consumes up to {@code length} of the oldest buffered bytes.
+     *
+     * @param dest   the destination; must not be null
+     * @param offset the index in {@code dest} to copy to
+     * @param length the maximum number of bytes to read
+     * @return the number of bytes read
+     */
+    @SuppressWarnings("unused")
+    public int read(@NonNull byte[] dest, int offset, int length)
+    {
+        int count = Math.min(length, mSize);
+        peek(0, dest, offset, count);
+        skip(count);
+        return count;
+    }
+
+    /**
+     * Consumes the oldest buffered bytes without copying them.
+     *
+     * @param length the number of bytes to consume; must not exceed {@link #size()}
+     */
+    public void skip(int length)
+    {
+        if (length < 0 || length > mSize)
+        {
+            throw new IndexOutOfBoundsException("length(" + length + ") must be >= 0 and <= size()(" + mSize + ')');
+        }
+
+        mSize -= length;
+        mReadIndex = mSize == 0 ? 0 : index(length);
+    }
+
+    /**
+     * @param length a number of bytes, at most {@link #size()}
+     * @return true if the oldest {@code length} bytes are stored in order, from {@link #getReadIndex()}, in
+     * {@link #getArray()}
+     */
+    public boolean isContiguous(int length)
+    {
+        return mReadIndex + length <= mBuffer.length;
+    }
+
+    /**
+     * @return the backing array; only bytes described by {@link #getReadIndex()} and {@link #size()} are valid
+     */
+    @NonNull
+    public byte[] getArray()
+    {
+        return mBuffer;
+    }
+
+    /**
+     * @return the index in {@link #getArray()} of the oldest buffered byte
+     */
+    public int getReadIndex()
+    {
+        return mReadIndex;
+    }
+
+    private int index(int index)
+    {
+        int i = mReadIndex + index;
+        return i < mBuffer.length ? i : i - mBuffer.length;
+    }
+
+    private void checkIndex(int index, int length)
+    {
+        if (index < 0 || length < 0 || index + length > mSize)
+        {
+            throw new IndexOutOfBoundsException("index(" + index + ") and length(" + length +
+                                                ") out of bounds for size()(" + mSize + ')');
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.smartfoo.android.core.collections;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongFunction;
+
+/**
+ * A thread-safe {@code long}-keyed map, striped over a fixed number of {@link FooLongObjectHashMap} segments that
+ * each have their own lock, so that threads working on different keys rarely wait for each other and keys are never
+ * boxed.
+ * <p>
+ * Every single-key operation, including {@link #computeIfAbsent(long, LongFunction)} and
+ * {@link #remove(long, Object)}, is atomic. Operations over the whole map, such as {@link #size()} and
+ * {@link #getValues()}, lock one segment at a time, so they are only a snapshot if nothing else is changing the
+ * map.
+ * </p>
+ */
+public class FooConcurrentLongObjectHashMap<E>
+{
+    /**
+     * Enough that a handful of concurrent threads rarely land on the same segment
+     */
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    /**
+     * Each segment is synchronized behind itself
+     */
+    private final FooLongObjectHashMap<E>[] mSegments;
+    private final int                       mSegmentMask;
+
+    public FooConcurrentLongObjectHashMap()
+    {
+        this(DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * @param concurrencyLevel the expected number of threads using the map at once; rounded up to a power of two
+     *                         segments
+     */
+    public FooConcurrentLongObjectHashMap(int concurrencyLevel)
+    {
+        if (concurrencyLevel <= 0)
+        {
+            throw new IllegalArgumentException("concurrencyLevel must be > 0");
+        }
+
+        int segmentBits = 0;
+        while ((1 << segmentBits) < concurrencyLevel && segmentBits < 16)
+        {
+            segmentBits++;
+        }
+
+        //noinspection unchecked
+        mSegments = new FooLongObjectHashMap[1 << segmentBits];
+        for (int i = 0; i < mSegments.length; i++)
+        {
+            mSegments[i] = new FooLongObjectHashMap<>(null, 0);
+        }
+        mSegmentMask = mSegments.length - 1;
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("{");
+        for (FooLongObjectHashMap<E> segment : mSegments)
+        {
+            synchronized (segment)
+            {
+                for (int i = 0; i < segment.size(); i++)
+                {
+                    if (sb.length() > 1)
+                    {
+                        sb.append(", ");
+                    }
+                    sb.append(segment.keyAt(i)).append('=').append(segment.valueAt(i));
+                }
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * @param key key
+     * @return the value mapped from the key, or null
+     */
+    public E get(long key)
+    {
+        FooLongObjectHashMap<E> segment = segmentFor(key);
+        synchronized (segment)
+        {
+            return segment.get(key);
+        }
+    }
+
+    /**
+     * @param key   key
+     * @param value must not be null
+     * @return the value previously mapped from the key, or null
+     */
+    public E put(long key, @NonNull E value)
+    {
+        FooLongObjectHashMap<E> segment = segmentFor(key);
+        synchronized (segment)
+        {
+            E previous = segment.get(key);
+            segment.put(key, value);
+            return previous;
+        }
+    }
+
+    /**
+     * @param key   key
+     * @param value must not be null
+     * @return the value already mapped from the key, in which case nothing changed, or null if {@code value} was
+     * added
+     */
+    public E putIfAbsent(long key, @NonNull E value)
+    {
+        FooLongObjectHashMap<E> segment = segmentFor(key);
+        synchronized (segment)
+        {
+            E previous = segment.get(key);
+            if (previous == null)
+            {
+                segment.put(key, value);
+            }
+            return previous;
+        }
+    }
+
+    /**
+     * Returns the value mapped from the key, first mapping the key to the value {@code factory} creates for it if
+     * there is none. {@code factory} is called at most once per absent key, with the key's segment locked: it must
+     * be quick and must not use this map.
+     *
+     * @param key     key
+     * @param factory creates the value for an absent key; returning null maps nothing
+     * @return the existing or created value, or null if {@code factory} returned null
+     */
+    public E computeIfAbsent(long key, @NonNull LongFunction<? extends E> factory)
+    {
+        FooLongObjectHashMap<E> segment = segmentFor(key);
+        synchronized (segment)
+        {
+            E value = segment.get(key);
+            if (value == null)
+            {
+                value = factory.apply(key);
+                if (value != null)
+                {
+                    segment.put(key, value);
+                }
+            }
+            return value;
+        }
+    }
+
+    /**
+     * @param key key
+     * @return the removed value, or null if the key was not mapped
+     */
+    public E remove(long key)
+    {
+        FooLongObjectHashMap<E> segment = segmentFor(key);
+        synchronized (segment)
+        {
+            return segment.remove(key);
+        }
+    }
+
+    /**
+     * Removes the key only if it is mapped to {@code value}, compared by identity, so that an owner that is done with
+     * its entry cannot remove one that has since replaced it.
+     *
+     * @param key   key
+     * @param value value
+     * @return true if the key was removed
+     */
+    public boolean remove(long key, E value)
+    {
+        FooLongObjectHashMap<E> segment = segmentFor(key);
+        synchronized (segment)
+        {
+            int index = segment.indexOfKey(key);
+            if (index < 0 || segment.valueAt(index) != value)
+            {
+                return false;
+            }
+            segment.removeAt(index);
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of mappings
+     */
+    public int size()
+    {
+        int size = 0;
+        for (FooLongObjectHashMap<E> segment : mSegments)
+        {
+            synchronized (segment)
+            {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    /**
+     * @return a new list of the values, safe to iterate while this map changes
+     */
+    @NonNull
+    public List<E> getValues()
+    {
+        List<E> values = new ArrayList<>();
+        for (FooLongObjectHashMap<E> segment : mSegments)
+        {
+            synchronized (segment)
+            {
+                for (int i = 0; i < segment.size(); i++)
+                {
+                    values.add(segment.valueAt(i));
+                }
+            }
+        }
+        return values;
+    }
+
+    public void clear()
+    {
+        for (FooLongObjectHashMap<E> segment : mSegments)
+        {
+            synchronized (segment)
+            {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Picks the segment from the top 16 bits of a multiplicative hash, which {@link FooLongObjectHashMap} only uses to
+     * pick a slot in tables of more than 65536 slots, so that the keys of one segment still spread over all of its
+     * slots.
+     */
+    private FooLongObjectHashMap<E> segmentFor(long key)
+    {
+        return mSegments[(int) ((key * 0x9E3779B97F4A7C15L) >>> 48) & mSegmentMask];
+    }
+}
@@ -0,0 +1,255 @@
+package com.smartfoo.android.core.collections;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.FooRun;
+
+/**
+ * A thread-safe, fixed-memory histogram of non-negative {@code long} values, such as latencies, in the
+ * style of HdrHistogram.
+ *
+ * <p>Values below {@link #SUB_BUCKET_COUNT} are counted exactly. Larger values are counted in log-linear
+ * buckets: each power of two is split into {@link #SUB_BUCKET_COUNT}/2 equal sub-buckets, so any recorded
+ * value is reported within {@code 1/(SUB_BUCKET_COUNT/2)} (about 3%) of its true value, at any magnitude.
+ * Recording is a couple of shifts and an increment, and never allocates.</p>
+ *
+ * <p>Values above {@link #getHighestTrackableValue()} are counted in the last bucket; {@link #getMax()}
+ * still reports the exact largest value.</p>
+ */
+public class FooHistogram
+{
+    /**
+     * Number of exact buckets below the first log-linear bucket; must be a power of two
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static final int SUB_BUCKET_COUNT = 64;
+
+    private static final int SUB_BUCKET_BITS       = 6; // log2(SUB_BUCKET_COUNT)
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+    private final long   mHighestTrackableValue;
+    /**
+     * synchronized behind this
+     */
+    private final long[] mCounts;
+
+    /**
+     * synchronized behind this
+     */
+    private long mTotalCount;
+    /**
+     * synchronized behind this
+     */
+    private long mTotal;
+    /**
+     * synchronized behind this
+     */
+    private long mMin = Long.MAX_VALUE;
+    /**
+     * synchronized behind this
+     */
+    private long mMax = Long.MIN_VALUE;
+
+    /**
+     * @param highestTrackableValue the largest value to bucket precisely; must be at least
+     *                              {@link #SUB_BUCKET_COUNT}
+     */
+    public FooHistogram(long highestTrackableValue)
+    {
+        if (highestTrackableValue < SUB_BUCKET_COUNT)
+        {
+            throw new IllegalArgumentException("highestTrackableValue must be >= " + SUB_BUCKET_COUNT);
+        }
+
+        mHighestTrackableValue = highestTrackableValue;
+        mCounts = new long[getBucketIndex(highestTrackableValue) + 1];
+    }
+
+    /**
+     * @param source the histogram to copy; must not be null
+     */
+    public FooHistogram(@NonNull FooHistogram source)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(source, "source");
+
+        mHighestTrackableValue = source.mHighestTrackableValue;
+        synchronized (source)
+        {
+            mCounts = source.mCounts.clone();
+            mTotalCount = source.mTotalCount;
+            mTotal = source.mTotal;
+            mMin = source.mMin;
+            mMax = source.mMax;
+        }
+    }
+
+    static int getBucketIndex(long value)
+    {
+        if (value < SUB_BUCKET_COUNT)
+        {
+            return (int) value;
+        }
+        // Shift the value down until it is in [SUB_BUCKET_HALF_COUNT, SUB_BUCKET_COUNT)
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT +
+               (int) (value >>> shift) - SUB_BUCKET_HALF_COUNT;
+    }
+
+    static long getBucketLowestValue(int index)
+    {
+        if (index < SUB_BUCKET_COUNT)
+        {
+            return index;
+        }
+        int offset = index - SUB_BUCKET_COUNT;
+        int shift = offset / SUB_BUCKET_HALF_COUNT + 1;
+        long subBucket = offset % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return subBucket << shift;
+    }
+
+    static long getBucketHighestValue(int index)
+    {
+        return getBucketLowestValue(index + 1) - 1;
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ getCount()=" + mTotalCount +
+               ", getMin()=" + getMin() +
+               ", getMean()=" + getMean() +
+               ", getValueAtPercentile(50)=" + getValueAtPercentile(50) +
+               ", getValueAtPercentile(99)=" + getValueAtPercentile(99) +
+               ", getMax()=" + getMax() +
+               " }";
+    }
+
+    public long getHighestTrackableValue()
+    {
+        return mHighestTrackableValue;
+    }
+
+    /**
+     * @param value the value to record; must not be negative
+     */
+    public synchronized void record(long value)
+    {
+        if (value < 0)
+        {
+            throw new IllegalArgumentException("value must be >= 0");
+        }
+
+        mCounts[getBucketIndex(Math.min(value, mHighestTrackableValue))]++;
+        mTotalCount++;
+        mTotal += value;
+        if (value < mMin)
+        {
+            mMin = value;
+        }
+        if (value > mMax)
+        {
+            mMax = value;
+        }
+    }
+
+    /**
+     * Adds every value recorded in another histogram to this one.
+     *
+     * @param other a histogram with the same {@link #getHighestTrackableValue()}; must not be null
+     */
+    public void add(@NonNull FooHistogram other)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(other, "other");
+        if (other.mHighestTrackableValue != mHighestTrackableValue)
+        {
+            throw new IllegalArgumentException("other must have the same highestTrackableValue");
+        }
+
+        FooHistogram copy = new FooHistogram(other);
+        synchronized (this)
+        {
+            for (int i = 0; i < mCounts.length; i++)
+            {
+                mCounts[i] += copy.mCounts[i];
+            }
+            mTotalCount += copy.mTotalCount;
+            mTotal += copy.mTotal;
+            mMin = Math.min(mMin, copy.mMin);
+            mMax = Math.max(mMax, copy.mMax);
+        }
+    }
+
+    public synchronized void reset()
+    {
+        for (int i = 0; i < mCounts.length; i++)
+        {
+            mCounts[i] = 0;
+        }
+        mTotalCount = 0;
+        mTotal = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = Long.MIN_VALUE;
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public synchronized long getCount()
+    {
+        return mTotalCount;
+    }
+
+    /**
+     * @return the exact smallest recorded value, or 0 if none
+     */
+    public synchronized long getMin()
+    {
+        return mTotalCount > 0 ? mMin : 0;
+    }
+
+    /**
+     * @return the exact largest recorded value, or 0 if none
+     */
+    public synchronized long getMax()
+    {
+        return mTotalCount > 0 ? mMax : 0;
+    }
+
+    /**
+     * @return the exact mean of the recorded values, or 0 if none
+     */
+    public synchronized double getMean()
+    {
+        return mTotalCount > 0 ? (double) mTotal / mTotalCount : 0;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return the highest value of the bucket containing the value at {@code percentile}, clamped to
+     * {@link #getMax()} (and exactly {@link #getMax()} in the last bucket), or 0 if no values have been recorded
+     */
+    public synchronized long getValueAtPercentile(double percentile)
+    {
+        if (mTotalCount == 0)
+        {
+            return 0;
+        }
+
+        percentile = Math.min(Math.max(percentile, 0), 100);
+        long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100 * mTotalCount));
+
+        long count = 0;
+        // The last bucket also holds every value above mHighestTrackableValue, so it falls through to mMax
+        for (int i = 0; i < mCounts.length - 1; i++)
+        {
+            count += mCounts[i];
+            if (count >= countAtPercentile)
+            {
+                return Math.max(mMin, Math.min(getBucketHighestValue(i), mMax));
+            }
+        }
+        return mMax;
+    }
+}
@@ -0,0 +1,504 @@
+package com.smartfoo.android.core.collections;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.FooString;
+import com.smartfoo.android.core.collections.FooLongSparseArray.ContainerHelpers;
+import com.smartfoo.android.core.logging.FooLog;
+
+/**
+ * {@link FooLongSparseArray} for {@code int} values, such as counters: the values are kept in an {@code int[]}
+ * instead of boxed, which saves an {@link Integer} object per value and is well under half the memory of a
+ * {@code FooLongSparseArray<Integer>}.
+ * <p>
+ * The design is the same: keys are kept sorted and found with a binary search, and removing only marks the entry as
+ * deleted, in a parallel {@code boolean[]} since every {@code int} is a valid value, until a later operation that
+ * needs contiguous indices compacts the array in a single garbage collection step. {@link #increment(long)} and
+ * {@link #addAndGet(long, int)} update a counter in place, without allocating.
+ * </p>
+ * <p>
+ * Not thread-safe.
+ * </p>
+ */
+public class FooLongIntSparseArray
+        implements Cloneable
+{
+    private static final String TAG = FooLog.TAG(FooLongIntSparseArray.class);
+
+    /**
+     * Receives each mapping from {@link #forEach(LongIntConsumer)}, without boxing.
+     */
+    public interface LongIntConsumer
+    {
+        void accept(long key, int value);
+    }
+
+    private final String mDebugName;
+
+    private int       mSize;
+    private boolean   mGarbage;
+    private long[]    mKeys;
+    private int[]     mValues;
+    private boolean[] mDeleted;
+
+    public FooLongIntSparseArray()
+    {
+        this(null);
+    }
+
+    /**
+     * Creates a new FooLongIntSparseArray containing no mappings.
+     *
+     * @param debugName debugName
+     */
+    public FooLongIntSparseArray(String debugName)
+    {
+        this(debugName, 10);
+    }
+
+    /**
+     * Creates a new FooLongIntSparseArray containing no mappings that will not require any additional memory
+     * allocation to store the specified number of mappings.
+     *
+     * @param debugName       debugName
+     * @param initialCapacity initialCapacity
+     */
+    public FooLongIntSparseArray(String debugName, int initialCapacity)
+    {
+        if (FooString.isNullOrEmpty(debugName))
+        {
+            debugName = null;
+        }
+        mDebugName = debugName;
+
+        initialCapacity = initialCapacity == 0 ? 0 : ContainerHelpers.idealLongArraySize(initialCapacity);
+        mKeys = new long[initialCapacity];
+        mValues = new int[initialCapacity];
+        mDeleted = new boolean[initialCapacity];
+        mSize = 0;
+    }
+
+    @Override
+    @SuppressWarnings("CloneDoesntDeclareCloneNotSupportedException")
+    public FooLongIntSparseArray clone()
+    {
+        FooLongIntSparseArray clone = null;
+        try
+        {
+            clone = (FooLongIntSparseArray) super.clone();
+            clone.mKeys = mKeys.clone();
+            clone.mValues = mValues.clone();
+            clone.mDeleted = mDeleted.clone();
+        }
+        catch (CloneNotSupportedException cnse)
+        {
+            /* ignore */
+        }
+        return clone;
+    }
+
+    /**
+     * @param key key
+     * @return the value mapped from the specified key, or 0 if no such mapping has been made
+     */
+    public int get(long key)
+    {
+        return get(key, 0);
+    }
+
+    /**
+     * @param key                key
+     * @param valueIfKeyNotFound valueIfKeyNotFound
+     * @return the value mapped from the specified key, or the specified value if no such mapping has been made
+     */
+    public int get(long key, int valueIfKeyNotFound)
+    {
+        int i = ContainerHelpers.binarySearch(mKeys, mSize, key);
+        return i < 0 || mDeleted[i] ? valueIfKeyNotFound : mValues[i];
+    }
+
+    /**
+     * @param key key
+     * @return true if the specified key is mapped
+     */
+    public boolean containsKey(long key)
+    {
+        int i = ContainerHelpers.binarySearch(mKeys, mSize, key);
+        return i >= 0 && !mDeleted[i];
+    }
+
+    /**
+     * Removes the mapping from the specified key, if there was any.
+     *
+     * @param key key
+     * @return true if there was a mapping
+     */
+    public boolean remove(long key)
+    {
+        int i = ContainerHelpers.binarySearch(mKeys, mSize, key);
+        if (i < 0 || mDeleted[i])
+        {
+            return false;
+        }
+        removeAt(i);
+        return true;
+    }
+
+    /**
+     * Removes the mapping at the specified index.
+     *
+     * @param index index
+     */
+    public void removeAt(int index)
+    {
+        if (mDebugName != null)
+        {
+            FooLog.e(TAG, '#' + mDebugName + " removeAt(" + index + "): key=" + mKeys[index]);
+        }
+
+        if (!mDeleted[index])
+        {
+            mDeleted[index] = true;
+            mGarbage = true;
+        }
+    }
+
+    private void gc()
+    {
+        if (mDebugName != null)
+        {
+            FooLog.e(TAG, '#' + mDebugName + " gc(): mSize=" + mSize);
+        }
+
+        int n = mSize;
+        int o = 0;
+        long[] keys = mKeys;
+        int[] values = mValues;
+        boolean[] deleted = mDeleted;
+
+        for (int i = 0; i < n; i++)
+        {
+            if (!deleted[i])
+            {
+                if (i != o)
+                {
+                    keys[o] = keys[i];
+                    values[o] = values[i];
+                    deleted[o] = false;
+                }
+
+                o++;
+            }
+        }
+
+        mGarbage = false;
+        mSize = o;
+    }
+
+    /**
+     * Adds a mapping from the specified key to the specified value, replacing the previous mapping from the specified
+     * key if there was one.
+     *
+     * @param key   key
+     * @param value value
+     * @return the non-negative index of the updated element, or the negative index which is {@code -index - 1} of
+     * the newly inserted element.
+     */
+    public int put(long key, int value)
+    {
+        if (mDebugName != null)
+        {
+            FooLog.e(TAG, '#' + mDebugName + " put(" + key + ", " + value + "): mSize=" + mSize);
+        }
+
+        int i = ContainerHelpers.binarySearch(mKeys, mSize, key);
+        if (i >= 0)
+        {
+            boolean wasDeleted = mDeleted[i];
+            mValues[i] = value;
+            mDeleted[i] = false;
+            return wasDeleted ? ~i : i;
+        }
+
+        i = ~i;
+        if (i < mSize && mDeleted[i])
+        {
+            mKeys[i] = key;
+            mValues[i] = value;
+            mDeleted[i] = false;
+            return ~i;
+        }
+
+        if (mGarbage && mSize >= mKeys.length)
+        {
+            gc();
+
+            // Search again because indices may have changed.
+            i = ~ContainerHelpers.binarySearch(mKeys, mSize, key);
+        }
+
+        insertAt(i, key, value);
+        return ~i;
+    }
+
+    /**
+     * Adds {@code delta} to the value mapped from the specified key, mapping it from 0 first if it is not mapped.
+     *
+     * @param key   key
+     * @param delta delta
+     * @return the new value
+     */
+    public int addAndGet(long key, int delta)
+    {
+        int i = ContainerHelpers.binarySearch(mKeys, mSize, key);
+        if (i >= 0 && !mDeleted[i])
+        {
+            return mValues[i] += delta;
+        }
+        put(key, delta);
+        return delta;
+    }
+
+    /**
+     * Same as {@link #addAndGet(long, int)} with a delta of 1.
+     *
+     * @param key key
+     * @return the new value
+     */
+    public int increment(long key)
+    {
+        return addAndGet(key, 1);
+    }
+
+    /**
+     * Puts a key/value pair into the array, optimizing for the case where the key is greater than all existing keys in
+     * the array.
+     *
+     * @param key   key
+     * @param value value
+     */
+    public void append(long key, int value)
+    {
+        if (mSize != 0 && key <= mKeys[mSize - 1])
+        {
+            put(key, value);
+            return;
+        }
+
+        if (mGarbage && mSize >= mKeys.length)
+        {
+            gc();
+        }
+
+        insertAt(mSize, key, value);
+    }
+
+    private void insertAt(int i, long key, int value)
+    {
+        if (mSize >= mKeys.length)
+        {
+            int n = ContainerHelpers.idealLongArraySize(mSize + 1);
+
+            long[] nkeys = new long[n];
+            int[] nvalues = new int[n];
+            boolean[] ndeleted = new boolean[n];
+
+            System.arraycopy(mKeys, 0, nkeys, 0, mSize);
+            System.arraycopy(mValues, 0, nvalues, 0, mSize);
+            System.arraycopy(mDeleted, 0, ndeleted, 0, mSize);
+
+            mKeys = nkeys;
+            mValues = nvalues;
+            mDeleted = ndeleted;
+        }
+
+        if (mSize - i != 0)
+        {
+            System.arraycopy(mKeys, i, mKeys, i + 1, mSize - i);
+            System.arraycopy(mValues, i, mValues, i + 1, mSize - i);
+            System.arraycopy(mDeleted, i, mDeleted, i + 1, mSize - i);
+        }
+
+        mKeys[i] = key;
+        mValues[i] = value;
+        mDeleted[i] = false;
+        mSize++;
+    }
+
+    /**
+     * @return the number of key-value mappings that this FooLongIntSparseArray currently stores.
+     */
+    public int size()
+    {
+        if (mGarbage)
+        {
+            gc();
+        }
+
+        return mSize;
+    }
+
+    /**
+     * @param index an index in the range <code>0...size()-1</code>
+     * @return the key from the <code>index</code>th key-value mapping that this FooLongIntSparseArray stores
+     */
+    public long keyAt(int index)
+    {
+        if (mGarbage)
+        {
+            gc();
+        }
+
+        return mKeys[index];
+    }
+
+    /**
+     * @param index an index in the range <code>0...size()-1</code>
+     * @return the value from the <code>index</code>th key-value mapping that this FooLongIntSparseArray stores
+     */
+    public int valueAt(int index)
+    {
+        if (mGarbage)
+        {
+            gc();
+        }
+
+        return mValues[index];
+    }
+
+    /**
+     * @param index an index in the range <code>0...size()-1</code>
+     * @param value value
+     */
+    public void setValueAt(int index, int value)
+    {
+        if (mGarbage)
+        {
+            gc();
+        }
+
+        mValues[index] = value;
+    }
+
+    /**
+     * @param key key
+     * @return the index for which {@link #keyAt} would return the specified key, or a negative number if the specified
+     * key is not mapped
+     */
+    public int indexOfKey(long key)
+    {
+        if (mGarbage)
+        {
+            gc();
+        }
+
+        return ContainerHelpers.binarySearch(mKeys, mSize, key);
+    }
+
+    /**
+     * Beware that this is a linear search, unlike lookups by key, and that multiple keys can map to the same value and
+     * this will find only the one with the lowest key.
+     *
+     * @param value value
+     * @return the index for which {@link #valueAt} would return the specified value, or -1 if no keys map to it
+     */
+    public int indexOfValue(int value)
+    {
+        if (mGarbage)
+        {
+            gc();
+        }
+
+        for (int i = 0; i < mSize; i++)
+        {
+            if (mValues[i] == value)
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Removes all key-value mappings from this FooLongIntSparseArray.
+     */
+    public void clear()
+    {
+        mSize = 0;
+        mGarbage = false;
+    }
+
+    /**
+     * Calls the consumer with every mapping, in ascending key order, without boxing or compacting the array. The
+     * consumer must not modify this array.
+     *
+     * @param consumer consumer
+     */
+    public void forEach(@NonNull LongIntConsumer consumer)
+    {
+        for (int i = 0, size = mSize; i < size; i++)
+        {
+            if (!mDeleted[i])
+            {
+                consumer.accept(mKeys[i], mValues[i]);
+            }
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        if (size() <= 0)
+        {
+            return "{}";
+        }
+
+        StringBuilder buffer = new StringBuilder(mSize * 28);
+        buffer.append('{');
+        for (int i = 0; i < mSize; i++)
+        {
+            if (i > 0)
+            {
+                buffer.append(", ");
+            }
+            buffer.append(mKeys[i]).append('=').append(mValues[i]);
+        }
+        buffer.append('}');
+        return buffer.toString();
+    }
+
+    /**
+     * Returns a multi-line debug string showing the raw internal arrays including deleted entries.
+     *
+     * @return a detailed debug string, never null
+     */
+    public String toDebugString()
+    {
+        StringBuilder buffer = new StringBuilder();
+        buffer.append("\n{")
+                .append("\n\tmSize=").append(mSize).append(',')
+                .append("\n\tmGarbage=").append(mGarbage).append(',')
+                .append("\n\tmEntries=\n\t[");
+        for (int i = 0; i < mSize; i++)
+        {
+            if (i != 0)
+            {
+                buffer.append(',');
+            }
+            buffer.append("\n\t\t").append(mKeys[i]).append('=');
+            if (mDeleted[i])
+            {
+                buffer.append("DELETED");
+            }
+            else
+            {
+                buffer.append(mValues[i]);
+            }
+        }
+        buffer.append("\n\t]");
+        buffer.append("\n}");
+        return buffer.toString();
+    }
+}
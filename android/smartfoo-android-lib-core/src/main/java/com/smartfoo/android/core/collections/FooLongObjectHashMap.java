@@ -0,0 +1,666 @@
+package com.smartfoo.android.core.collections;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.FooString;
+import com.smartfoo.android.core.collections.FooLongSparseArray.LongIterator;
+import com.smartfoo.android.core.collections.FooLongSparseArray.LongObjectConsumer;
+import com.smartfoo.android.core.logging.FooLog;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A {@code long}-keyed hash map with the same API as {@link FooLongSparseArray}, less its range queries, for maps too
+ * large for a sorted array: lookups, inserts and removes take constant expected time instead of a binary search plus
+ * an array shift.
+ * <p>
+ * Keys and values are kept densely, in parallel {@code long[]} and {@code Object[]} arrays, so that
+ * {@link #keyAt(int)}, {@link #valueAt(int)} and the iterators work as they do on {@link FooLongSparseArray}, without
+ * boxing. A separate open-addressing table with linear probing maps each key's hash to its index in those arrays.
+ * The table is a power of two in size and is doubled whenever the map would become fuller than its load factor.
+ * Removing swaps the last entry into the removed entry's index and shifts the probe sequence back, so there are no
+ * deleted markers and nothing to garbage collect later.
+ * </p>
+ * <p>
+ * Unlike {@link FooLongSparseArray}, <b>the keys are not sorted</b>: indices follow insertion order until an entry is
+ * removed, which moves the last entry into its place. Removing while iterating is supported by the iterators and by
+ * walking the indices from {@code size() - 1} down to 0.
+ * </p>
+ * <p>
+ * Not thread-safe.
+ * </p>
+ */
+public class FooLongObjectHashMap<E>
+        implements Cloneable
+{
+    private static final String TAG = FooLog.TAG(FooLongObjectHashMap.class);
+
+    public static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    private static final int MIN_TABLE_LENGTH = 4;
+
+    private final String mDebugName;
+    private final float  mLoadFactor;
+
+    private int      mSize;
+    private long[]   mKeys;
+    private Object[] mValues;
+    /**
+     * The open-addressing table: 0 for an empty slot, otherwise 1 + the index in mKeys/mValues of the entry whose
+     * probe sequence passes through the slot
+     */
+    private int[]    mTable;
+    private int      mThreshold;
+
+    public FooLongObjectHashMap()
+    {
+        this(null);
+    }
+
+    /**
+     * Creates a new FooLongObjectHashMap containing no mappings.
+     *
+     * @param debugName debugName
+     */
+    public FooLongObjectHashMap(String debugName)
+    {
+        this(debugName, 10);
+    }
+
+    /**
+     * Creates a new FooLongObjectHashMap containing no mappings that will not require any additional memory allocation
+     * to store the specified number of mappings.
+     *
+     * @param debugName       debugName
+     * @param initialCapacity initialCapacity
+     */
+    public FooLongObjectHashMap(String debugName, int initialCapacity)
+    {
+        this(debugName, initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * @param debugName       debugName
+     * @param initialCapacity the number of mappings that can be stored without growing
+     * @param loadFactor      the largest fraction of the table that may be in use, greater than 0 and less than 1;
+     *                        lower trades memory for shorter probe sequences
+     */
+    public FooLongObjectHashMap(String debugName, int initialCapacity, float loadFactor)
+    {
+        if (initialCapacity < 0)
+        {
+            throw new IllegalArgumentException("initialCapacity must be >= 0");
+        }
+        if (!(loadFactor > 0 && loadFactor < 1))
+        {
+            throw new IllegalArgumentException("loadFactor must be > 0 and < 1");
+        }
+
+        if (FooString.isNullOrEmpty(debugName))
+        {
+            debugName = null;
+        }
+        mDebugName = debugName;
+        mLoadFactor = loadFactor;
+
+        allocate(tableLengthFor(initialCapacity));
+    }
+
+    @Override
+    @SuppressWarnings({ "unchecked", "CloneDoesntDeclareCloneNotSupportedException" })
+    public FooLongObjectHashMap<E> clone()
+    {
+        FooLongObjectHashMap<E> clone = null;
+        try
+        {
+            //noinspection unchecked
+            clone = (FooLongObjectHashMap<E>) super.clone();
+            clone.mKeys = mKeys.clone();
+            clone.mValues = mValues.clone();
+            clone.mTable = mTable.clone();
+        }
+        catch (CloneNotSupportedException cnse)
+        {
+            /* ignore */
+        }
+        return clone;
+    }
+
+    /**
+     * @param key key
+     * @return the Object mapped from the specified key, or <code>null</code> if no such mapping has been made
+     */
+    public E get(long key)
+    {
+        return get(key, null);
+    }
+
+    /**
+     * @param key                key
+     * @param valueIfKeyNotFound valueIfKeyNotFound
+     * @return the Object mapped from the specified key, or the specified Object if no such mapping has been made.
+     */
+    public E get(long key, E valueIfKeyNotFound)
+    {
+        int index = indexOfKey(key);
+        //noinspection unchecked
+        return index >= 0 ? (E) mValues[index] : valueIfKeyNotFound;
+    }
+
+    /**
+     * Alias for {@link #remove(long)}.
+     *
+     * @param key key
+     * @deprecated Use {@link #remove(long)}
+     */
+    @Deprecated
+    public void delete(long key)
+    {
+        remove(key);
+    }
+
+    /**
+     * Removes the mapping from the specified key, if there was any.
+     *
+     * @param key key
+     * @return the removed value, or null
+     */
+    public E remove(long key)
+    {
+        int slot = findSlot(key);
+        if (slot < 0)
+        {
+            return null;
+        }
+        return removeSlot(slot);
+    }
+
+    /**
+     * Removes the mapping at the specified index. The last mapping, if it is not the one removed, moves to
+     * {@code index}.
+     *
+     * @param index index
+     * @return the removed value
+     */
+    public E removeAt(int index)
+    {
+        checkIndex(index);
+        return removeSlot(findSlot(mKeys[index]));
+    }
+
+    /**
+     * Adds a mapping from the specified key to the specified value, replacing the previous mapping from the specified
+     * key if there was one.
+     *
+     * @param key   key
+     * @param value value
+     * @return the non-negative index of the updated element, or the negative index which is {@code -index - 1} of
+     * the newly inserted element.
+     */
+    public int put(long key, E value)
+    {
+        if (value == null)
+        {
+            throw new IllegalArgumentException("value must not be null");
+        }
+
+        if (mDebugName != null)
+        {
+            FooLog.e(TAG, '#' + mDebugName + " put(" + key + ", " + value + "): mSize=" + mSize);
+        }
+
+        int mask = mTable.length - 1;
+        int slot = hash(key) & mask;
+        int entry;
+        while ((entry = mTable[slot]) != 0)
+        {
+            int index = entry - 1;
+            if (mKeys[index] == key)
+            {
+                mValues[index] = value;
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (mSize >= mThreshold)
+        {
+            allocate(mTable.length * 2);
+            slot = emptySlot(key);
+        }
+
+        int index = mSize++;
+        mKeys[index] = key;
+        mValues[index] = value;
+        mTable[slot] = index + 1;
+        return ~index;
+    }
+
+    /**
+     * Same as {@link #put(long, Object)}; there is no cheaper way to add a greatest key to a hash map.
+     *
+     * @param key   key
+     * @param value value
+     */
+    public void append(long key, E value)
+    {
+        put(key, value);
+    }
+
+    /**
+     * @return the number of key-value mappings that this FooLongObjectHashMap currently stores.
+     */
+    public int size()
+    {
+        return mSize;
+    }
+
+    /**
+     * @param index an index in the range <code>0...size()-1</code>
+     * @return the key from the <code>index</code>th key-value mapping that this FooLongObjectHashMap stores
+     */
+    public long keyAt(int index)
+    {
+        checkIndex(index);
+        return mKeys[index];
+    }
+
+    /**
+     * @param index an index in the range <code>0...size()-1</code>
+     * @return value the value from the <code>index</code>th key-value mapping that this FooLongObjectHashMap stores
+     */
+    public E valueAt(int index)
+    {
+        checkIndex(index);
+        //noinspection unchecked
+        return (E) mValues[index];
+    }
+
+    /**
+     * @param index an index in the range <code>0...size()-1</code>
+     * @param value value
+     * @noinspection unused
+     */
+    public void setValueAt(int index, E value)
+    {
+        if (value == null)
+        {
+            throw new IllegalArgumentException("value must not be null");
+        }
+
+        checkIndex(index);
+        mValues[index] = value;
+    }
+
+    /**
+     * @param key key
+     * @return the index for which {@link #keyAt} would return the specified key, or a negative number if the specified
+     * key is not mapped
+     */
+    public int indexOfKey(long key)
+    {
+        int slot = findSlot(key);
+        return slot >= 0 ? mTable[slot] - 1 : -1;
+    }
+
+    /**
+     * Beware that this is a linear search, unlike lookups by key, and that multiple keys can map to the same value and
+     * this will find only one of them.
+     *
+     * @param value value
+     * @return the index for which {@link #valueAt} would return the specified value, or -1 if no keys map to it
+     * @noinspection unused
+     */
+    public int indexOfValue(E value)
+    {
+        if (value == null)
+        {
+            throw new IllegalArgumentException("value must not be null");
+        }
+
+        for (int i = 0; i < mSize; i++)
+        {
+            if (mValues[i] == value)
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Removes all key-value mappings from this FooLongObjectHashMap. The capacity is kept.
+     */
+    public void clear()
+    {
+        if (mDebugName != null)
+        {
+            FooLog.e(TAG, '#' + mDebugName + " clear(): mSize=" + mSize);
+        }
+
+        Arrays.fill(mValues, 0, mSize, null);
+        Arrays.fill(mTable, 0);
+        mSize = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>This implementation composes a string by iterating over its mappings. If this map contains itself as a value,
+     * the string "(this Map)" will appear in its place.</p>
+     *
+     * @return never null
+     */
+    @NonNull
+    @Override
+    public String toString()
+    {
+        if (mSize <= 0)
+        {
+            return "{}";
+        }
+
+        StringBuilder buffer = new StringBuilder(mSize * 28);
+        buffer.append('{');
+        for (int i = 0; i < mSize; i++)
+        {
+            if (i > 0)
+            {
+                buffer.append(", ");
+            }
+            buffer.append(mKeys[i]);
+            buffer.append('=');
+            Object value = mValues[i];
+            if (value != this)
+            {
+                buffer.append(value);
+            }
+            else
+            {
+                buffer.append("(this Map)");
+            }
+        }
+        buffer.append('}');
+        return buffer.toString();
+    }
+
+    /**
+     * Returns a multi-line debug string showing the entries and the probe table.
+     *
+     * @return a detailed debug string, never null
+     */
+    public String toDebugString()
+    {
+        StringBuilder buffer = new StringBuilder();
+        buffer.append("\n{")
+                .append("\n\tmSize=").append(mSize).append(',')
+                .append("\n\tmThreshold=").append(mThreshold).append(',')
+                .append("\n\tmEntries=").append(this).append(',')
+                .append("\n\tmTable=").append(Arrays.toString(mTable))
+                .append("\n}");
+        return buffer.toString();
+    }
+
+    /**
+     * Calls the consumer with every mapping, in index order, without boxing keys. The consumer must not modify this
+     * map.
+     *
+     * @param consumer consumer
+     */
+    public void forEach(@NonNull LongObjectConsumer<? super E> consumer)
+    {
+        for (int i = 0; i < mSize; i++)
+        {
+            //noinspection unchecked
+            consumer.accept(mKeys[i], (E) mValues[i]);
+        }
+    }
+
+    /**
+     * Returns an {@link Iterator} over the keys in index order. Each key is boxed; prefer {@link #iterateLongKeys()}.
+     *
+     * @return an iterator over the {@code long} keys; never null
+     * @noinspection unused
+     */
+    public Iterator<Long> iterateKeys()
+    {
+        return new HashMapIterator<Long>()
+        {
+            @Override
+            Long get(int index)
+            {
+                return mKeys[index];
+            }
+        };
+    }
+
+    /**
+     * Returns a {@link LongIterator} over the keys in index order, without boxing them.
+     *
+     * @return an iterator over the {@code long} keys; never null
+     */
+    public LongIterator iterateLongKeys()
+    {
+        return new HashMapKeysIterator();
+    }
+
+    /**
+     * Returns an {@link Iterator} over the values in index order. {@link Iterator#remove()} removes the entry at the
+     * current position and is safe to use during iteration.
+     *
+     * @return an iterator over the values; never null
+     */
+    public Iterator<E> iterateValues()
+    {
+        return new HashMapIterator<E>()
+        {
+            @Override
+            E get(int index)
+            {
+                //noinspection unchecked
+                return (E) mValues[index];
+            }
+        };
+    }
+
+    private abstract class HashMapCursor
+    {
+        private int     mIndex;
+        private boolean mCanRemove;
+
+        public boolean hasNext()
+        {
+            return mIndex < mSize;
+        }
+
+        int nextIndex()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException("No more elements");
+            }
+            mCanRemove = true;
+            return mIndex++;
+        }
+
+        /**
+         * Removes the entry most recently returned. The last entry moves into its index, and is returned next.
+         *
+         * @throws IllegalStateException if nothing has been returned since the last remove
+         */
+        public void remove()
+        {
+            if (!mCanRemove)
+            {
+                throw new IllegalStateException("next() must be called");
+            }
+            mCanRemove = false;
+            removeAt(--mIndex);
+        }
+    }
+
+    private abstract class HashMapIterator<T>
+            extends HashMapCursor
+            implements Iterator<T>
+    {
+        abstract T get(int index);
+
+        @Override
+        public T next()
+        {
+            return get(nextIndex());
+        }
+    }
+
+    private final class HashMapKeysIterator
+            extends HashMapCursor
+            implements LongIterator
+    {
+        @Override
+        public long nextLong()
+        {
+            return mKeys[nextIndex()];
+        }
+    }
+
+    //
+    //
+    //
+
+    /**
+     * Spreads the key's bits so that sequential keys, and keys that differ only in their high bits, such as
+     * Bluetooth device addresses from one vendor, do not cluster.
+     */
+    private static int hash(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int tableLengthFor(int capacity)
+    {
+        int length = MIN_TABLE_LENGTH;
+        while (length * mLoadFactor < capacity)
+        {
+            length <<= 1;
+        }
+        return length;
+    }
+
+    /**
+     * Resizes to a table of {@code tableLength} slots and re-inserts every entry. Entries keep their indices.
+     */
+    private void allocate(int tableLength)
+    {
+        int threshold = Math.min((int) (tableLength * mLoadFactor), tableLength - 1);
+
+        if (mDebugName != null)
+        {
+            FooLog.e(TAG, '#' + mDebugName + " allocate(" + tableLength + "): mSize=" + mSize);
+        }
+
+        mKeys = mKeys == null ? new long[threshold] : Arrays.copyOf(mKeys, threshold);
+        mValues = mValues == null ? new Object[threshold] : Arrays.copyOf(mValues, threshold);
+        mTable = new int[tableLength];
+        mThreshold = threshold;
+
+        for (int i = 0; i < mSize; i++)
+        {
+            mTable[emptySlot(mKeys[i])] = i + 1;
+        }
+    }
+
+    /**
+     * @return the first empty slot in {@code key}'s probe sequence; {@code key} must not be in the table
+     */
+    private int emptySlot(long key)
+    {
+        int mask = mTable.length - 1;
+        int slot = hash(key) & mask;
+        while (mTable[slot] != 0)
+        {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * @return the slot that holds {@code key}, or -1 if it is not mapped
+     */
+    private int findSlot(long key)
+    {
+        int mask = mTable.length - 1;
+        int slot = hash(key) & mask;
+        int entry;
+        while ((entry = mTable[slot]) != 0)
+        {
+            if (mKeys[entry - 1] == key)
+            {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private E removeSlot(int slot)
+    {
+        int index = mTable[slot] - 1;
+        //noinspection unchecked
+        E value = (E) mValues[index];
+
+        if (mDebugName != null)
+        {
+            FooLog.e(TAG, '#' + mDebugName + " remove(" + mKeys[index] + "): value=" + value + ", mSize=" + mSize);
+        }
+
+        // Shift back every entry after the emptied slot in the same cluster that would otherwise become unreachable
+        int mask = mTable.length - 1;
+        int empty = slot;
+        int next = slot;
+        while (true)
+        {
+            next = (next + 1) & mask;
+            int entry = mTable[next];
+            if (entry == 0)
+            {
+                break;
+            }
+            int ideal = hash(mKeys[entry - 1]) & mask;
+            // Move it if its ideal slot is not cyclically within (empty, next]
+            boolean reachable = empty <= next ?
+                    empty < ideal && ideal <= next :
+                    empty < ideal || ideal <= next;
+            if (!reachable)
+            {
+                mTable[empty] = entry;
+                empty = next;
+            }
+        }
+        mTable[empty] = 0;
+
+        // Keep the entries dense: move the last one into the removed one's index
+        int last = mSize - 1;
+        if (index != last)
+        {
+            long lastKey = mKeys[last];
+            mKeys[index] = lastKey;
+            mValues[index] = mValues[last];
+            mTable[findSlot(lastKey)] = index + 1;
+        }
+        mValues[last] = null;
+        mSize = last;
+
+        return value;
+    }
+
+    private void checkIndex(int index)
+    {
+        if (index < 0 || index >= mSize)
+        {
+            throw new ArrayIndexOutOfBoundsException("index(" + index + ") out of bounds for size()(" + mSize + ')');
+        }
+    }
+}
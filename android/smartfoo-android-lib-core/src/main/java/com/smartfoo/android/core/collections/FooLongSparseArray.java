@@ -18,14 +18,19 @@ import java.util.NoSuchElementException;
  * <li>{@link #removeAt(int)} returns the removed value (or null)</li>
  * <li>{@link #put(long, Object)} returns the index returned from {@link ContainerHelpers#binarySearch(long[], int,
  * long)}</li>
- * <li>Adds {@link #iterateKeys()}</li>
- * <li>Adds {@link #iterateValues()}</li>
+ * <li>Adds {@link #iterateKeys()}, {@link #iterateLongKeys()} and {@link #iterateValues()}, which skip removed entries
+ * instead of compacting the array</li>
+ * <li>Adds {@link #forEach(LongObjectConsumer)}</li>
+ * <li>Adds {@link #putAll(long[], Object[])} and {@link #putAll(FooLongSparseArray)}, which sort and merge in one
+ * pass</li>
+ * <li>Adds {@link #floorIndex(long)}, {@link #ceilingIndex(long)} and {@link #subRange(long, long)}</li>
  * <li>throws IllegalArgumentException for null values</li>
  * <li>Extra debug logging</li>
  * </ul>
  * <p>
  * One note to the original code's below comment is that the advantage of using this type of collection is that the
- * keys are always sorted!
+ * keys are always sorted! {@link #floorIndex(long)}, {@link #ceilingIndex(long)} and {@link #subRange(long, long)}
+ * find ranges of keys with a binary search, and all iteration is in ascending key order.
  * </p>
  * <p>
  * SparseArray mapping longs to Objects, a version of the platform's {@link android.util.LongSparseArray} that can be
@@ -128,6 +133,35 @@ public class FooLongSparseArray<E>
         }
     }
 
+    /**
+     * Receives each mapping from {@link #forEach(LongObjectConsumer)}, without boxing the key.
+     */
+    public interface LongObjectConsumer<E>
+    {
+        void accept(long key, E value);
+    }
+
+    /**
+     * An {@link Iterator} over {@code long}s that does not box them.
+     */
+    public interface LongIterator
+    {
+        boolean hasNext();
+
+        /**
+         * @return the next key
+         * @throws NoSuchElementException if there is none
+         */
+        long nextLong();
+
+        /**
+         * Removes the key returned by the most recent {@link #nextLong()} call.
+         *
+         * @throws IllegalStateException if {@link #nextLong()} has not been called since the last remove
+         */
+        void remove();
+    }
+
     private static final Object DELETED = new Object();
 
     private final String mDebugName;
@@ -698,6 +732,280 @@ public class FooLongSparseArray<E>
         }
     }
 
+    /**
+     * Puts every mapping of the specified array into this one, replacing the mappings from keys both have. Both
+     * arrays are already sorted, so this is a single merge instead of a binary search and an array shift per key.
+     *
+     * @param array array
+     */
+    public void putAll(@NonNull FooLongSparseArray<? extends E> array)
+    {
+        if (array == this)
+        {
+            return;
+        }
+
+        if (array.mGarbage)
+        {
+            array.gc();
+        }
+
+        putAllSorted(array.mKeys, array.mValues, array.mSize);
+    }
+
+    /**
+     * Puts every key/value pair into the array, in any order, replacing existing mappings from the same keys. If a
+     * key is given more than once its last value wins, as with repeated {@link #put(long, Object)}s.
+     * <p>The pairs are sorted and then merged into the array in a single pass, which is O(n log n) instead of the
+     * O(n<sup>2</sup>) array shifting of putting keys that are not ascending one at a time.</p>
+     *
+     * @param keys   keys
+     * @param values values, one per key; must not contain null
+     */
+    public void putAll(@NonNull long[] keys, @NonNull E[] values)
+    {
+        if (keys.length != values.length)
+        {
+            throw new IllegalArgumentException("keys.length must == values.length");
+        }
+
+        int count = keys.length;
+        if (count == 0)
+        {
+            return;
+        }
+
+        for (E value : values)
+        {
+            if (value == null)
+            {
+                throw new IllegalArgumentException("values must not contain null");
+            }
+        }
+
+        long[] sortedKeys = keys.clone();
+        Object[] sortedValues = new Object[count];
+        System.arraycopy(values, 0, sortedValues, 0, count);
+        sortByKey(sortedKeys, sortedValues);
+
+        putAllSorted(sortedKeys, sortedValues, count);
+    }
+
+    /**
+     * @param keys   ascending, possibly repeated, keys
+     * @param values their values; none are DELETED
+     * @param count  the number of keys
+     */
+    private void putAllSorted(long[] keys, Object[] values, int count)
+    {
+        if (mDebugName != null)
+        {
+            FooLog.e(TAG, '#' + mDebugName + " BEFORE putAll(count=" + count + "): " + toDebugString());
+        }
+
+        if (mGarbage)
+        {
+            gc();
+        }
+
+        int size = mSize;
+        long[] mergedKeys = new long[ContainerHelpers.idealLongArraySize(size + count)];
+        Object[] mergedValues = new Object[mergedKeys.length];
+
+        int i = 0;
+        int j = 0;
+        int o = 0;
+        while (i < size || j < count)
+        {
+            if (j >= count || (i < size && mKeys[i] < keys[j]))
+            {
+                mergedKeys[o] = mKeys[i];
+                mergedValues[o] = mValues[i];
+                i++;
+            }
+            else
+            {
+                long key = keys[j];
+                while (j + 1 < count && keys[j + 1] == key)
+                {
+                    j++;
+                }
+                mergedKeys[o] = key;
+                mergedValues[o] = values[j];
+                j++;
+                if (i < size && mKeys[i] == key)
+                {
+                    i++;
+                }
+            }
+            o++;
+        }
+
+        mKeys = mergedKeys;
+        mValues = mergedValues;
+        mSize = o;
+
+        if (mDebugName != null)
+        {
+            FooLog.e(TAG, '#' + mDebugName + "  AFTER putAll(count=" + count + "): " + toDebugString());
+        }
+    }
+
+    /**
+     * Stable bottom-up merge sort of keys and their values, skipped if the keys are already ascending.
+     */
+    private static void sortByKey(long[] keys, Object[] values)
+    {
+        int n = keys.length;
+
+        boolean isSorted = true;
+        for (int i = 1; i < n && isSorted; i++)
+        {
+            isSorted = keys[i - 1] <= keys[i];
+        }
+        if (isSorted)
+        {
+            return;
+        }
+
+        long[] srcKeys = keys;
+        Object[] srcValues = values;
+        long[] dstKeys = new long[n];
+        Object[] dstValues = new Object[n];
+        for (int width = 1; width < n; width <<= 1)
+        {
+            for (int lo = 0; lo < n; lo += width << 1)
+            {
+                int mid = Math.min(lo + width, n);
+                int hi = Math.min(lo + (width << 1), n);
+                int i = lo;
+                int j = mid;
+                int o = lo;
+                while (i < mid && j < hi)
+                {
+                    // Take from the left run on ties, so that equal keys keep their order
+                    if (srcKeys[j] < srcKeys[i])
+                    {
+                        dstKeys[o] = srcKeys[j];
+                        dstValues[o++] = srcValues[j++];
+                    }
+                    else
+                    {
+                        dstKeys[o] = srcKeys[i];
+                        dstValues[o++] = srcValues[i++];
+                    }
+                }
+                System.arraycopy(srcKeys, i, dstKeys, o, mid - i);
+                System.arraycopy(srcValues, i, dstValues, o, mid - i);
+                o += mid - i;
+                System.arraycopy(srcKeys, j, dstKeys, o, hi - j);
+                System.arraycopy(srcValues, j, dstValues, o, hi - j);
+            }
+
+            long[] tempKeys = srcKeys;
+            srcKeys = dstKeys;
+            dstKeys = tempKeys;
+            Object[] tempValues = srcValues;
+            srcValues = dstValues;
+            dstValues = tempValues;
+        }
+
+        if (srcKeys != keys)
+        {
+            System.arraycopy(srcKeys, 0, keys, 0, n);
+            System.arraycopy(srcValues, 0, values, 0, n);
+        }
+    }
+
+    /**
+     * @param key key
+     * @return the index of the greatest key less than or equal to the specified key, or -1 if there is none
+     */
+    public int floorIndex(long key)
+    {
+        if (mGarbage)
+        {
+            gc();
+        }
+
+        int index = ContainerHelpers.binarySearch(mKeys, mSize, key);
+        return index >= 0 ? index : ~index - 1;
+    }
+
+    /**
+     * @param key key
+     * @return the index of the least key greater than or equal to the specified key, or -1 if there is none
+     */
+    public int ceilingIndex(long key)
+    {
+        if (mGarbage)
+        {
+            gc();
+        }
+
+        int index = ContainerHelpers.binarySearch(mKeys, mSize, key);
+        if (index >= 0)
+        {
+            return index;
+        }
+        index = ~index;
+        return index < mSize ? index : -1;
+    }
+
+    /**
+     * @param fromKey the lowest key to include
+     * @param toKey   the key to stop before
+     * @return a new FooLongSparseArray, without a debugName, of the mappings from keys in
+     * {@code [fromKey, toKey)}; empty if {@code toKey <= fromKey}
+     */
+    @NonNull
+    public FooLongSparseArray<E> subRange(long fromKey, long toKey)
+    {
+        if (mGarbage)
+        {
+            gc();
+        }
+
+        int from = ContainerHelpers.binarySearch(mKeys, mSize, fromKey);
+        if (from < 0)
+        {
+            from = ~from;
+        }
+        int to = ContainerHelpers.binarySearch(mKeys, mSize, toKey);
+        if (to < 0)
+        {
+            to = ~to;
+        }
+        int count = Math.max(0, to - from);
+
+        FooLongSparseArray<E> subRange = new FooLongSparseArray<>(null, count);
+        System.arraycopy(mKeys, from, subRange.mKeys, 0, count);
+        System.arraycopy(mValues, from, subRange.mValues, 0, count);
+        subRange.mSize = count;
+        return subRange;
+    }
+
+    /**
+     * Calls the consumer with every mapping, in ascending key order, without boxing keys or compacting the array.
+     * The consumer must not modify this array.
+     *
+     * @param consumer consumer
+     */
+    public void forEach(@NonNull LongObjectConsumer<? super E> consumer)
+    {
+        long[] keys = mKeys;
+        Object[] values = mValues;
+        for (int i = 0, size = mSize; i < size; i++)
+        {
+            Object value = values[i];
+            if (value != DELETED)
+            {
+                //noinspection unchecked
+                consumer.accept(keys[i], (E) value);
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      * <p>This implementation composes a string by iterating over its mappings. If this map contains itself as a value,
@@ -819,10 +1127,8 @@ public class FooLongSparseArray<E>
     //
 
     /**
-     * Returns an {@link Iterator} over the keys in ascending sorted order.
-     *
-     * <p><b>Note:</b> Each call to {@link Iterator#hasNext()} triggers a garbage-collection
-     * pass on the underlying array if there are any pending deletions.</p>
+     * Returns an {@link Iterator} over the keys in ascending sorted order. Each key is boxed; prefer
+     * {@link #iterateLongKeys()}.
      *
      * @return an iterator over the {@code long} keys; never null
      */
@@ -833,16 +1139,49 @@ public class FooLongSparseArray<E>
         {
             FooLog.e(TAG, '#' + mDebugName + " iterateKeys(): " + toDebugString());
         }
-        return new SparseArrayKeysIterator<>(this);
+        final LongIterator it = iterateLongKeys();
+        return new Iterator<Long>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return it.hasNext();
+            }
+
+            @Override
+            public Long next()
+            {
+                return it.nextLong();
+            }
+
+            @Override
+            public void remove()
+            {
+                it.remove();
+            }
+        };
+    }
+
+    /**
+     * Returns a {@link LongIterator} over the keys in ascending sorted order, without boxing them.
+     *
+     * <p>Like {@link #iterateValues()}, this skips removed entries instead of compacting the array, and
+     * {@link LongIterator#remove()} is safe to use during iteration. The array must not otherwise be modified until
+     * the iteration is done.</p>
+     *
+     * @return an iterator over the {@code long} keys; never null
+     */
+    public LongIterator iterateLongKeys()
+    {
+        return new SparseArrayKeysIterator();
     }
 
     /**
      * Returns an {@link Iterator} over the values in key-ascending order.
      *
-     * <p><b>Note:</b> Each call to {@link Iterator#hasNext()} triggers a garbage-collection
-     * pass on the underlying array if there are any pending deletions. Calling
-     * {@link Iterator#remove()} removes the entry at the current position and is safe to use
-     * during iteration.</p>
+     * <p>Removed entries are skipped rather than compacted, so iterating never moves entries. Calling
+     * {@link Iterator#remove()} removes the entry at the current position and is safe to use during iteration. The
+     * array must not otherwise be modified until the iteration is done.</p>
      *
      * @return an iterator over the values; never null
      */
@@ -852,173 +1191,72 @@ public class FooLongSparseArray<E>
         {
             FooLog.e(TAG, '#' + mDebugName + " iterateValues(): " + toDebugString());
         }
-        return new SparseArrayValuesIterator<>(this);
+        return new SparseArrayValuesIterator();
     }
 
-    // TODO:(pv) Implement this to use mKeys directly so that it doesn't cause a gc() hit for every iteration.
-    /** @noinspection CommentedOutCode*/
-    private static final class SparseArrayKeysIterator<E>
-            implements Iterator<Long>
+    /**
+     * Walks the raw arrays, skipping DELETED entries; removing marks the current entry DELETED, so no entry moves
+     * until a later operation compacts the array.
+     */
+    private abstract class SparseArrayCursor
     {
-        private final FooLongSparseArray<E> mArray;
-
-        private int     mIndex;
-        private boolean mCanRemove;
+        private int mNext;
+        private int mCurrent = -1;
 
-        private SparseArrayKeysIterator(FooLongSparseArray<E> array)
-        {
-            mArray = array;
-        }
-
-        /**
-         * Returns true if there is another key to iterate. Note that this call may trigger an
-         * internal garbage-collection pass on the underlying array.
-         *
-         * @return true if {@link #next()} can be called
-         */
-        @Override
         public boolean hasNext()
         {
-            //
-            // NOTE:(pv) mArray.size() causes mArray.gc() to be called
-            //
-            return mIndex < mArray.size();
+            while (mNext < mSize && mValues[mNext] == DELETED)
+            {
+                mNext++;
+            }
+            return mNext < mSize;
         }
 
-        @Override
-        public Long next()
+        int nextIndex()
         {
-            if (mArray.mDebugName != null)
-            {
-                FooLog.e(TAG, '#' + mArray.mDebugName + " next(): " + mArray);
-            }
-            //
-            // NOTE:(pv) hasNext() causes mArray.gc() to be called
-            //
-            if (hasNext())
+            if (!hasNext())
             {
-                mCanRemove = true;
-                //
-                // NOTE:(pv) mArray.keyAt(...) causes mArray.gc() to be called
-                //
-                return mArray.keyAt(mIndex++);
+                throw new NoSuchElementException("No more elements");
             }
-            else
+            if (mDebugName != null)
             {
-                throw new NoSuchElementException("No more elements");
+                FooLog.e(TAG, '#' + mDebugName + " next(): index=" + mNext);
             }
+            mCurrent = mNext++;
+            return mCurrent;
         }
 
-        /**
-         * Removes the entry returned by the most recent {@link #next()} call.
-         *
-         * @throws IllegalStateException if {@link #next()} has not been called since the last
-         *                               remove
-         */
-        @Override
         public void remove()
         {
-            //if (mArray.mDebugName != null)
-            //{
-            //    FooLog.e(TAG, '#' + mArray.mDebugName + " remove(): BEFORE " + mArray.toString());
-            //}
-            if (mCanRemove)
-            {
-                mCanRemove = false;
-                mArray.removeAt(--mIndex);
-            }
-            else
+            if (mCurrent < 0)
             {
                 throw new IllegalStateException("next() must be called");
             }
-            //if (mArray.mDebugName != null)
-            //{
-            //    FooLog.e(TAG, '#' + mArray.mDebugName + " remove():  AFTER " + mArray.toString());
-            //}
+            removeAt(mCurrent);
+            mCurrent = -1;
         }
     }
 
-    /** @noinspection CommentedOutCode*/ // TODO:(pv) Implement this to use mValues directly so that it doesn't cause a gc() hit for every iteration.
-    private static final class SparseArrayValuesIterator<E>
-            implements Iterator<E>
+    private final class SparseArrayKeysIterator
+            extends SparseArrayCursor
+            implements LongIterator
     {
-        private final FooLongSparseArray<E> mArray;
-
-        private int     mIndex;
-        private boolean mCanRemove;
-
-        private SparseArrayValuesIterator(FooLongSparseArray<E> array)
-        {
-            mArray = array;
-        }
-
-        /**
-         * Returns true if there is another value to iterate. Note that this call may trigger an
-         * internal garbage-collection pass on the underlying array.
-         *
-         * @return true if {@link #next()} can be called
-         */
         @Override
-        public boolean hasNext()
+        public long nextLong()
         {
-            //
-            // NOTE:(pv) mArray.size() causes mArray.gc() to be called
-            //
-            return mIndex < mArray.size();
+            return mKeys[nextIndex()];
         }
+    }
 
+    private final class SparseArrayValuesIterator
+            extends SparseArrayCursor
+            implements Iterator<E>
+    {
         @Override
         public E next()
         {
-            if (mArray.mDebugName != null)
-            {
-                FooLog.e(TAG, '#' + mArray.mDebugName + " next(): " + mArray);
-            }
-            //
-            // NOTE:(pv) hasNext() causes mArray.gc() to be called
-            //
-            if (hasNext())
-            {
-                mCanRemove = true;
-                //
-                // NOTE:(pv) mArray.valueAt(...) causes mArray.gc() to be called
-                //
-                return mArray.valueAt(mIndex++);
-            }
-            else
-            {
-                throw new NoSuchElementException("No more elements");
-            }
-        }
-
-        /**
-         * Removes the entry returned by the most recent {@link #next()} call.
-         *
-         * @throws IllegalStateException if {@link #next()} has not been called since the last
-         *                               remove
-         */
-        @Override
-        public void remove()
-        {
-            //if (mArray.mDebugName != null)
-            //{
-            //    FooLog.e(TAG, '#' + mArray.mDebugName + " remove(): BEFORE " + mArray.toString());
-            //}
-            if (mCanRemove)
-            {
-                mCanRemove = false;
-                mArray.removeAt(--mIndex);
-            }
-            else
-            {
-                throw new IllegalStateException("next() must be called");
-            }
-            //if (mArray.mDebugName != null)
-            //{
-            //    FooLog.e(TAG, '#' + mArray.mDebugName + " remove():  AFTER " + mArray.toString());
-            //}
+            //noinspection unchecked
+            return (E) mValues[nextIndex()];
         }
     }
 }
-
-
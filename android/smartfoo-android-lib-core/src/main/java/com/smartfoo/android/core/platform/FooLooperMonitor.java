@@ -0,0 +1,479 @@
+package com.smartfoo.android.core.platform;
+
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Printer;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.FooRun;
+import com.smartfoo.android.core.logging.FooLog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Watchdog that times every {@link android.os.Message} dispatched by a {@link Looper} (normally the
+ * main looper) and reports any dispatch that runs longer than a configurable threshold.
+ *
+ * <p>Timing is done by installing a {@link Printer} via {@link Looper#setMessageLogging(Printer)};
+ * the looper calls it with a {@code ">>>>> Dispatching to <handler> <callback>: <what>"} line before
+ * each message and a {@code "<<<<< Finished to <handler> <callback>"} line after it. The text after
+ * {@code "Dispatching to "} is kept as the dispatch identity, so jank can be attributed to a specific
+ * {@link android.os.Handler} (ex: a {@link FooHandler}, whose {@link FooHandler#toString()} includes
+ * its looper thread name) and posted {@link Runnable} class.</p>
+ *
+ * <p>While a message is being dispatched, a private {@link FooHandlerThread} samples the monitored
+ * looper thread's stack every {@link #getStackSampleIntervalMillis()} once the dispatch has exceeded
+ * the threshold. Consecutive identical samples are collapsed into a single entry with a hit count.
+ * When the dispatch finishes, the result is written to {@link FooLog} and passed to the optional
+ * {@link FooLooperMonitorCallbacks}.</p>
+ *
+ * <p><b>Note:</b> {@link Looper#setMessageLogging(Printer)} holds a single printer; starting this
+ * monitor replaces any printer previously installed on the same looper, and {@link #stop()} clears
+ * it. The looper also builds the two log strings per message while a printer is installed, so this
+ * monitor is intended for debug builds and field diagnostics rather than always-on use.</p>
+ */
+public class FooLooperMonitor
+{
+    private static final String TAG = FooLog.TAG(FooLooperMonitor.class);
+
+    @SuppressWarnings("WeakerAccess")
+    public static final int DEFAULT_SLOW_DISPATCH_THRESHOLD_MILLIS = 100;
+    @SuppressWarnings("WeakerAccess")
+    public static final int DEFAULT_STACK_SAMPLE_INTERVAL_MILLIS   = 50;
+    @SuppressWarnings("WeakerAccess")
+    public static final int DEFAULT_MAX_STACK_SAMPLES              = 20;
+
+    private static final String DISPATCH_PREFIX = ">>>>> Dispatching to ";
+    private static final String FINISHED_PREFIX = "<<<<< Finished to ";
+
+    /**
+     * Callback interface for slow dispatch reports.
+     */
+    public interface FooLooperMonitorCallbacks
+    {
+        /**
+         * Called on the monitored looper thread right after a slow dispatch finishes.
+         *
+         * @param slowDispatch the slow dispatch report; never null
+         */
+        void onSlowDispatch(@NonNull SlowDispatch slowDispatch);
+    }
+
+    /**
+     * A stack captured while a slow dispatch was running, with the number of consecutive samples
+     * that observed the exact same stack.
+     */
+    public static class StackSample
+    {
+        private final long                mOffsetMillis;
+        private final StackTraceElement[] mStackTrace;
+        private       int                 mCount;
+
+        private StackSample(long offsetMillis, StackTraceElement[] stackTrace)
+        {
+            mOffsetMillis = offsetMillis;
+            mStackTrace = stackTrace;
+            mCount = 1;
+        }
+
+        /**
+         * @return milliseconds since the start of the dispatch when this stack was first sampled
+         */
+        public long getOffsetMillis()
+        {
+            return mOffsetMillis;
+        }
+
+        /**
+         * @return the sampled stack; never null
+         */
+        public StackTraceElement[] getStackTrace()
+        {
+            return mStackTrace;
+        }
+
+        /**
+         * @return the number of consecutive samples that observed this stack
+         */
+        public int getCount()
+        {
+            return mCount;
+        }
+    }
+
+    /**
+     * Report for a single dispatch that exceeded {@link #getSlowDispatchThresholdMillis()}.
+     */
+    public static class SlowDispatch
+    {
+        private final String            mIdentity;
+        private final long              mStartUptimeMillis;
+        private final long              mElapsedMillis;
+        private final List<StackSample> mStackSamples;
+
+        private SlowDispatch(String identity, long startUptimeMillis, long elapsedMillis, List<StackSample> stackSamples)
+        {
+            mIdentity = identity;
+            mStartUptimeMillis = startUptimeMillis;
+            mElapsedMillis = elapsedMillis;
+            mStackSamples = Collections.unmodifiableList(stackSamples);
+        }
+
+        /**
+         * @return the looper's description of the dispatched message, in the form
+         * {@code "<handler> <callback>: <what>"}; never null
+         */
+        public String getIdentity()
+        {
+            return mIdentity;
+        }
+
+        /**
+         * @return the {@link SystemClock#uptimeMillis()} at which the dispatch started
+         */
+        public long getStartUptimeMillis()
+        {
+            return mStartUptimeMillis;
+        }
+
+        /**
+         * @return how long the dispatch ran, in milliseconds
+         */
+        public long getElapsedMillis()
+        {
+            return mElapsedMillis;
+        }
+
+        /**
+         * @return the stacks sampled while the dispatch was running, in sample order; never null
+         */
+        public List<StackSample> getStackSamples()
+        {
+            return mStackSamples;
+        }
+
+        @NonNull
+        @Override
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder()
+                    .append("slow dispatch elapsedMillis=").append(mElapsedMillis)
+                    .append(" to ").append(mIdentity);
+            for (StackSample stackSample : mStackSamples)
+            {
+                sb.append("\n  sample @+").append(stackSample.mOffsetMillis).append("ms")
+                        .append(" x").append(stackSample.mCount);
+                for (StackTraceElement element : stackSample.mStackTrace)
+                {
+                    sb.append("\n    at ").append(element);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    private final Looper mLooper;
+    private final Object mSyncLock = new Object();
+
+    private int mSlowDispatchThresholdMillis = DEFAULT_SLOW_DISPATCH_THRESHOLD_MILLIS;
+    private int mStackSampleIntervalMillis   = DEFAULT_STACK_SAMPLE_INTERVAL_MILLIS;
+    private int mMaxStackSamples             = DEFAULT_MAX_STACK_SAMPLES;
+
+    private FooLooperMonitorCallbacks mCallbacks;
+    private FooHandlerThread          mSamplerThread;
+    private FooHandler                mSamplerHandler;
+
+    /**
+     * synchronized behind mSyncLock
+     */
+    private long              mDispatchSequence;
+    private String            mDispatchIdentity;
+    private long              mDispatchStartUptimeMillis;
+    private List<StackSample> mDispatchStackSamples;
+
+    private final Printer mPrinter = new Printer()
+    {
+        @Override
+        public void println(String x)
+        {
+            if (x.startsWith(DISPATCH_PREFIX))
+            {
+                onDispatchStart(x.substring(DISPATCH_PREFIX.length()));
+            }
+            else if (x.startsWith(FINISHED_PREFIX))
+            {
+                onDispatchFinished();
+            }
+        }
+    };
+
+    private final Runnable mSampleRunnable = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            sampleStack();
+        }
+    };
+
+    /**
+     * Creates a monitor for the main looper.
+     */
+    public FooLooperMonitor()
+    {
+        this(Looper.getMainLooper());
+    }
+
+    /**
+     * Creates a monitor for the given looper.
+     *
+     * @param looper the looper to monitor; must not be null
+     */
+    public FooLooperMonitor(@NonNull Looper looper)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(looper, "looper");
+        mLooper = looper;
+    }
+
+    /**
+     * @return the dispatch duration, in milliseconds, above which a dispatch is reported
+     */
+    public int getSlowDispatchThresholdMillis()
+    {
+        return mSlowDispatchThresholdMillis;
+    }
+
+    /**
+     * @param thresholdMillis the dispatch duration, in milliseconds, above which a dispatch is
+     *                        reported; must be positive
+     */
+    @SuppressWarnings("unused")
+    public void setSlowDispatchThresholdMillis(int thresholdMillis)
+    {
+        if (thresholdMillis <= 0)
+        {
+            throw new IllegalArgumentException("thresholdMillis must be > 0");
+        }
+        mSlowDispatchThresholdMillis = thresholdMillis;
+    }
+
+    /**
+     * @return the interval, in milliseconds, between stack samples of a slow dispatch
+     */
+    public int getStackSampleIntervalMillis()
+    {
+        return mStackSampleIntervalMillis;
+    }
+
+    /**
+     * @param intervalMillis the interval, in milliseconds, between stack samples of a slow dispatch;
+     *                       must be positive
+     */
+    @SuppressWarnings("unused")
+    public void setStackSampleIntervalMillis(int intervalMillis)
+    {
+        if (intervalMillis <= 0)
+        {
+            throw new IllegalArgumentException("intervalMillis must be > 0");
+        }
+        mStackSampleIntervalMillis = intervalMillis;
+    }
+
+    /**
+     * @param maxStackSamples maximum number of distinct stacks kept per slow dispatch; 0 disables
+     *                        stack sampling
+     */
+    @SuppressWarnings("unused")
+    public void setMaxStackSamples(int maxStackSamples)
+    {
+        if (maxStackSamples < 0)
+        {
+            throw new IllegalArgumentException("maxStackSamples must be >= 0");
+        }
+        mMaxStackSamples = maxStackSamples;
+    }
+
+    /**
+     * @return true if {@link #start(FooLooperMonitorCallbacks)} has been called without a
+     * following {@link #stop()}
+     */
+    public boolean isStarted()
+    {
+        synchronized (mSyncLock)
+        {
+            return mSamplerThread != null;
+        }
+    }
+
+    /**
+     * Installs the message logging printer on the monitored looper and starts the stack sampler
+     * thread. Harmless if already started; the callbacks are replaced.
+     *
+     * @param callbacks optional callbacks to notify of slow dispatches; may be null to only log
+     */
+    public void start(FooLooperMonitorCallbacks callbacks)
+    {
+        FooLog.v(TAG, "+start(...)");
+        synchronized (mSyncLock)
+        {
+            mCallbacks = callbacks;
+
+            if (mSamplerThread == null)
+            {
+                mSamplerThread = new FooHandlerThread(TAG + ".mSamplerThread");
+                mSamplerThread.start();
+                mSamplerHandler = new FooHandler(mSamplerThread.getLooper());
+
+                mDispatchIdentity = null;
+
+                mLooper.setMessageLogging(mPrinter);
+            }
+        }
+        FooLog.v(TAG, "-start(...)");
+    }
+
+    /**
+     * Removes the message logging printer from the monitored looper and stops the stack sampler
+     * thread. Harmless if not started.
+     */
+    public void stop()
+    {
+        FooLog.v(TAG, "+stop()");
+        synchronized (mSyncLock)
+        {
+            if (mSamplerThread != null)
+            {
+                mLooper.setMessageLogging(null);
+
+                mSamplerHandler.removeCallbacks(mSampleRunnable);
+                mSamplerHandler = null;
+                mSamplerThread.quit();
+                mSamplerThread = null;
+
+                mDispatchIdentity = null;
+                mDispatchStackSamples = null;
+            }
+            mCallbacks = null;
+        }
+        FooLog.v(TAG, "-stop()");
+    }
+
+    private void onDispatchStart(String identity)
+    {
+        synchronized (mSyncLock)
+        {
+            if (mSamplerHandler == null)
+            {
+                return;
+            }
+
+            mDispatchSequence++;
+            mDispatchIdentity = identity;
+            mDispatchStartUptimeMillis = SystemClock.uptimeMillis();
+            mDispatchStackSamples = null;
+
+            if (mMaxStackSamples > 0)
+            {
+                mSamplerHandler.postDelayed(mSampleRunnable, mSlowDispatchThresholdMillis);
+            }
+        }
+    }
+
+    private void onDispatchFinished()
+    {
+        SlowDispatch slowDispatch = null;
+        FooLooperMonitorCallbacks callbacks;
+
+        synchronized (mSyncLock)
+        {
+            if (mSamplerHandler == null || mDispatchIdentity == null)
+            {
+                return;
+            }
+
+            mSamplerHandler.removeCallbacks(mSampleRunnable);
+
+            long elapsedMillis = SystemClock.uptimeMillis() - mDispatchStartUptimeMillis;
+            if (elapsedMillis > mSlowDispatchThresholdMillis)
+            {
+                List<StackSample> stackSamples = mDispatchStackSamples;
+                if (stackSamples == null)
+                {
+                    stackSamples = Collections.emptyList();
+                }
+                slowDispatch = new SlowDispatch(mDispatchIdentity, mDispatchStartUptimeMillis, elapsedMillis, stackSamples);
+            }
+
+            mDispatchIdentity = null;
+            mDispatchStackSamples = null;
+
+            callbacks = mCallbacks;
+        }
+
+        if (slowDispatch == null)
+        {
+            return;
+        }
+
+        FooLog.w(TAG, slowDispatch.toString());
+
+        if (callbacks != null)
+        {
+            callbacks.onSlowDispatch(slowDispatch);
+        }
+    }
+
+    /**
+     * Runs on mSamplerThread.
+     */
+    private void sampleStack()
+    {
+        long sequence;
+        synchronized (mSyncLock)
+        {
+            if (mDispatchIdentity == null)
+            {
+                return;
+            }
+            sequence = mDispatchSequence;
+        }
+
+        //
+        // NOTE: Capture the stack outside of mSyncLock so the looper thread is never blocked on it.
+        //
+        StackTraceElement[] stackTrace = mLooper.getThread().getStackTrace();
+
+        synchronized (mSyncLock)
+        {
+            if (mDispatchIdentity == null || sequence != mDispatchSequence)
+            {
+                // The dispatch finished while the stack was being captured
+                return;
+            }
+
+            long offsetMillis = SystemClock.uptimeMillis() - mDispatchStartUptimeMillis;
+
+            if (mDispatchStackSamples == null)
+            {
+                mDispatchStackSamples = new ArrayList<>();
+            }
+
+            int size = mDispatchStackSamples.size();
+            StackSample previous = size > 0 ? mDispatchStackSamples.get(size - 1) : null;
+            if (previous != null && Arrays.equals(previous.mStackTrace, stackTrace))
+            {
+                previous.mCount++;
+            }
+            else if (size < mMaxStackSamples)
+            {
+                mDispatchStackSamples.add(new StackSample(offsetMillis, stackTrace));
+            }
+
+            mSamplerHandler.postDelayed(mSampleRunnable, mStackSampleIntervalMillis);
+        }
+    }
+}
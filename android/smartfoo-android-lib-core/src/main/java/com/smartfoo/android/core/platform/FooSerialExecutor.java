@@ -0,0 +1,257 @@
+package com.smartfoo.android.core.platform;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.FooRun;
+import com.smartfoo.android.core.logging.FooLog;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An {@link Executor} that runs its tasks one at a time, in submission order, on top of a shared
+ * (usually multi-threaded) {@link Executor}.
+ *
+ * <p>Many serial executors can share one bounded pool: each occupies at most one pool thread while it
+ * has work, and none while it is idle. After {@link #getMaxTasksPerTurn()} consecutive tasks the
+ * executor gives up its thread and re-submits itself to the back of the pool's queue, so one busy
+ * serial executor cannot starve the others.</p>
+ *
+ * <p>A task that throws is logged and does not stop the tasks behind it.</p>
+ */
+public class FooSerialExecutor
+        implements Executor
+{
+    private static final String TAG = FooLog.TAG(FooSerialExecutor.class);
+
+    @SuppressWarnings("WeakerAccess")
+    public static final int DEFAULT_MAX_TASKS_PER_TURN = 32;
+
+    private final String               mName;
+    private final Executor             mExecutor;
+    private final int                  mMaxTasksPerTurn;
+    private final ArrayDeque<Runnable> mTasks;
+    private final Runnable             mDrainRunnable;
+
+    /**
+     * synchronized behind mTasks
+     */
+    private boolean mIsScheduled;
+
+    /**
+     * The thread running {@link #drain()}, if any. A drain clears it under mTasks before clearing mIsScheduled, so
+     * that it cannot clear the thread of a drain scheduled after it.
+     */
+    private volatile Thread mThread;
+
+    /**
+     * @param name     a label used in log messages
+     * @param executor the executor to run on; must not be null
+     */
+    public FooSerialExecutor(String name, @NonNull Executor executor)
+    {
+        this(name, executor, DEFAULT_MAX_TASKS_PER_TURN);
+    }
+
+    /**
+     * @param name            a label used in log messages
+     * @param executor        the executor to run on; must not be null
+     * @param maxTasksPerTurn the number of tasks to run before yielding the thread back to
+     *                        {@code executor}; must be positive
+     */
+    public FooSerialExecutor(String name, @NonNull Executor executor, int maxTasksPerTurn)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(executor, "executor");
+        if (maxTasksPerTurn <= 0)
+        {
+            throw new IllegalArgumentException("maxTasksPerTurn must be > 0");
+        }
+
+        mName = name;
+        mExecutor = executor;
+        mMaxTasksPerTurn = maxTasksPerTurn;
+        mTasks = new ArrayDeque<>();
+        mDrainRunnable = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                drain();
+            }
+        };
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + '@' + Integer.toHexString(hashCode()) +
+               "{ mName=" + mName +
+               ", size()=" + size() +
+               " }";
+    }
+
+    /**
+     * @return the number of tasks run per turn before yielding the thread
+     */
+    @SuppressWarnings("unused")
+    public int getMaxTasksPerTurn()
+    {
+        return mMaxTasksPerTurn;
+    }
+
+    /**
+     * @return the number of tasks waiting to run, not including a task that is currently running
+     */
+    public int size()
+    {
+        synchronized (mTasks)
+        {
+            return mTasks.size();
+        }
+    }
+
+    /**
+     * @return true if called from within a task of this executor
+     */
+    public boolean isCurrentThread()
+    {
+        return mThread == Thread.currentThread();
+    }
+
+    /**
+     * Removes all tasks that have not started yet.
+     *
+     * @return the number of tasks removed
+     */
+    @SuppressWarnings("UnusedReturnValue")
+    public int clear()
+    {
+        synchronized (mTasks)
+        {
+            int size = mTasks.size();
+            mTasks.clear();
+            return size;
+        }
+    }
+
+    @Override
+    public void execute(@NonNull Runnable task)
+    {
+        FooRun.throwIllegalArgumentExceptionIfNull(task, "task");
+
+        synchronized (mTasks)
+        {
+            mTasks.add(task);
+            if (mIsScheduled)
+            {
+                return;
+            }
+            mIsScheduled = true;
+        }
+
+        try
+        {
+            mExecutor.execute(mDrainRunnable);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // Otherwise mIsScheduled stays set and nothing would ever drain the queue again
+            synchronized (mTasks)
+            {
+                mTasks.removeLastOccurrence(task);
+                mIsScheduled = false;
+            }
+            throw e;
+        }
+    }
+
+    private void drain()
+    {
+        boolean yielded = false;
+
+        mThread = Thread.currentThread();
+        try
+        {
+            int count = 0;
+            while (true)
+            {
+                Runnable task;
+                synchronized (mTasks)
+                {
+                    if (count == mMaxTasksPerTurn && !mTasks.isEmpty())
+                    {
+                        // Still scheduled; re-submitted below
+                        mThread = null;
+                        yielded = true;
+                        break;
+                    }
+
+                    task = mTasks.poll();
+                    if (task == null)
+                    {
+                        // Before another drain can be scheduled and set its own thread
+                        mThread = null;
+                        mIsScheduled = false;
+                        break;
+                    }
+                }
+
+                count++;
+
+                try
+                {
+                    task.run();
+                }
+                catch (RuntimeException e)
+                {
+                    FooLog.e(TAG, mName + " drain: task " + task + " threw", e);
+                }
+            }
+        }
+        finally
+        {
+            // Only reached with mThread still set if an Error escaped a task
+            if (mThread == Thread.currentThread())
+            {
+                boolean isEmpty;
+                synchronized (mTasks)
+                {
+                    mThread = null;
+                    isEmpty = mTasks.isEmpty();
+                    if (isEmpty)
+                    {
+                        mIsScheduled = false;
+                    }
+                }
+                if (!isEmpty)
+                {
+                    // Still scheduled; let the tasks behind the failed one run
+                    resubmit();
+                }
+            }
+        }
+
+        if (yielded)
+        {
+            resubmit();
+        }
+    }
+
+    private void resubmit()
+    {
+        try
+        {
+            mExecutor.execute(mDrainRunnable);
+        }
+        catch (RejectedExecutionException e)
+        {
+            FooLog.e(TAG, mName + " drain: re-submit rejected; " + size() + " tasks wait for the next execute", e);
+            synchronized (mTasks)
+            {
+                mIsScheduled = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+public class FooGattDatabaseTest
+{
+    private static final UUID SERVICE_UUID        = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+    private static final UUID CHARACTERISTIC_UUID = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+    private static final UUID DESCRIPTOR_UUID     = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    private static final Executor DIRECT_EXECUTOR = new Executor()
+    {
+        @Override
+        public void execute(Runnable command)
+        {
+            command.run();
+        }
+    };
+
+    private static FooGattDatabase load(File directory, long deviceAddress)
+    {
+        FooGattDatabaseCache cache = new FooGattDatabaseCache(directory, DIRECT_EXECUTOR);
+        cache.load(deviceAddress);
+        return cache.get(deviceAddress);
+    }
+
+    private static FooGattDatabase newDatabase(int properties)
+    {
+        FooGattDatabase.Characteristic characteristic = new FooGattDatabase.Characteristic(CHARACTERISTIC_UUID,
+                42, properties, 0, Collections.singletonList(DESCRIPTOR_UUID));
+        FooGattDatabase.Service service = new FooGattDatabase.Service(SERVICE_UUID, 40, 0,
+                Collections.singletonList(characteristic));
+        return new FooGattDatabase(Arrays.asList(service));
+    }
+
+    private static byte[] toByteArray(FooGattDatabase database)
+            throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        database.writeTo(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void writeToReadFromRoundTrips()
+            throws Exception
+    {
+        FooGattDatabase database = newDatabase(0x10);
+
+        FooGattDatabase read = FooGattDatabase.readFrom(new DataInputStream(new ByteArrayInputStream(toByteArray(database))));
+
+        Assert.assertEquals(database, read);
+        Assert.assertEquals(database.hashCode(), read.hashCode());
+        Assert.assertTrue(read.hasCharacteristic(SERVICE_UUID, CHARACTERISTIC_UUID));
+        Assert.assertFalse(read.hasCharacteristic(SERVICE_UUID, DESCRIPTOR_UUID));
+        Assert.assertEquals(Collections.singletonList(DESCRIPTOR_UUID),
+                read.getCharacteristic(SERVICE_UUID, CHARACTERISTIC_UUID).getDescriptorUuids());
+        Assert.assertNotEquals(database, newDatabase(0x12));
+    }
+
+    @Test(expected = IOException.class)
+    public void readFromRejectsOtherData()
+            throws Exception
+    {
+        FooGattDatabase.readFrom(new DataInputStream(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 0, 0, 0, 1 })));
+    }
+
+    @Test(expected = IOException.class)
+    public void readFromRejectsTruncatedData()
+            throws Exception
+    {
+        byte[] bytes = toByteArray(newDatabase(0x10));
+        FooGattDatabase.readFrom(new DataInputStream(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1))));
+    }
+
+    @Test
+    public void cachePersistsAcrossInstances()
+            throws Exception
+    {
+        File directory = Files.createTempDirectory("FooGattDatabaseTest").toFile();
+        long deviceAddress = 0x0123456789ABL;
+
+        FooGattDatabaseCache cache = new FooGattDatabaseCache(directory, DIRECT_EXECUTOR);
+        cache.load(deviceAddress);
+        Assert.assertNull(cache.get(deviceAddress));
+
+        FooGattDatabase database = newDatabase(0x10);
+        cache.put(deviceAddress, database);
+        Assert.assertSame(database, cache.get(deviceAddress));
+
+        Assert.assertEquals(database, load(directory, deviceAddress));
+
+        cache.remove(deviceAddress);
+        Assert.assertNull(cache.get(deviceAddress));
+        Assert.assertNull(load(directory, deviceAddress));
+    }
+
+    @Test
+    public void cacheDropsCorruptEntries()
+            throws Exception
+    {
+        File directory = Files.createTempDirectory("FooGattDatabaseTest").toFile();
+        long deviceAddress = 0x0123456789ABL;
+
+        FooGattDatabaseCache cache = new FooGattDatabaseCache(directory, DIRECT_EXECUTOR);
+        cache.put(deviceAddress, newDatabase(0x10));
+
+        File[] files = directory.listFiles();
+        Assert.assertNotNull(files);
+        Assert.assertEquals(1, files.length);
+        try (FileOutputStream output = new FileOutputStream(files[0]))
+        {
+            output.write(new byte[] { 0, 1, 2 });
+        }
+
+        Assert.assertNull(load(directory, deviceAddress));
+        Assert.assertFalse(files[0].exists());
+    }
+
+    @Test
+    public void cacheDiscardsLoadOvertakenByClear()
+            throws Exception
+    {
+        File directory = Files.createTempDirectory("FooGattDatabaseTest").toFile();
+        long deviceAddress = 0x0123456789ABL;
+        new FooGattDatabaseCache(directory, DIRECT_EXECUTOR).put(deviceAddress, newDatabase(0x10));
+
+        final List<Runnable> diskTasks = new ArrayList<>();
+        FooGattDatabaseCache cache = new FooGattDatabaseCache(directory, new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                diskTasks.add(command);
+            }
+        });
+        cache.load(deviceAddress);
+        Assert.assertNull("load must not read on the calling thread", cache.get(deviceAddress));
+        cache.clear();
+
+        // The serial sub-queue holds the later tasks until the first one has run
+        while (!diskTasks.isEmpty())
+        {
+            diskTasks.remove(0).run();
+        }
+        Assert.assertNull(cache.get(deviceAddress));
+        Assert.assertNull(load(directory, deviceAddress));
+    }
+}
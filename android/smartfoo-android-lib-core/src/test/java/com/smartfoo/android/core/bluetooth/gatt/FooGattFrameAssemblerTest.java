@@ -0,0 +1,164 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.bluetooth.gatt.FooGattFrameAssembler.FooGattFrameAssemblerCallbacks;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class FooGattFrameAssemblerTest
+{
+    private static class Recorder
+            implements FooGattFrameAssemblerCallbacks
+    {
+        private final List<byte[]>  mFrames    = new ArrayList<>();
+        private final List<Integer> mDiscarded = new ArrayList<>();
+
+        @Override
+        public void onFrame(@NonNull FooGattFrameAssembler assembler, @NonNull byte[] buffer, int offset, int length)
+        {
+            mFrames.add(Arrays.copyOfRange(buffer, offset, offset + length));
+        }
+
+        @Override
+        public void onFramingError(@NonNull FooGattFrameAssembler assembler, int discardedLength)
+        {
+            mDiscarded.add(discardedLength);
+        }
+    }
+
+    private static byte[] bytes(int... values)
+    {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++)
+        {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    @Test
+    public void lengthPrefixedFramesAcrossFragments()
+            throws Exception
+    {
+        Recorder recorder = new Recorder();
+        FooGattFrameAssembler assembler = new FooGattFrameAssembler(
+                new FooGattFrameAssembler.LengthPrefixFramer(2, false, false, 100), recorder);
+
+        assembler.append(bytes(3, 0, 0xA));
+        assembler.append(bytes(0xB));
+        Assert.assertEquals(0, recorder.mFrames.size());
+        assembler.append(bytes(0xC, 1, 0, 0xD, 0, 0));
+
+        Assert.assertEquals(3, recorder.mFrames.size());
+        Assert.assertArrayEquals(bytes(0xA, 0xB, 0xC), recorder.mFrames.get(0));
+        Assert.assertArrayEquals(bytes(0xD), recorder.mFrames.get(1));
+        Assert.assertArrayEquals(bytes(), recorder.mFrames.get(2));
+        Assert.assertEquals(0, assembler.getBufferedLength());
+    }
+
+    @Test
+    public void bigEndianLengthIncludingHeader()
+            throws Exception
+    {
+        Recorder recorder = new Recorder();
+        FooGattFrameAssembler assembler = new FooGattFrameAssembler(
+                new FooGattFrameAssembler.LengthPrefixFramer(2, true, true, 100), recorder);
+
+        assembler.append(bytes(0, 4, 1, 2));
+        Assert.assertEquals(1, recorder.mFrames.size());
+        Assert.assertArrayEquals(bytes(1, 2), recorder.mFrames.get(0));
+    }
+
+    @Test
+    public void invalidLengthResyncs()
+            throws Exception
+    {
+        Recorder recorder = new Recorder();
+        FooGattFrameAssembler assembler = new FooGattFrameAssembler(
+                new FooGattFrameAssembler.LengthPrefixFramer(1, false, false, 4), recorder);
+
+        assembler.append(bytes(0xFF, 0xFE, 2, 7, 8, 0xFD, 1, 9));
+
+        // One error per corrupt run, not per byte slid past
+        Assert.assertEquals(2, recorder.mFrames.size());
+        Assert.assertArrayEquals(bytes(7, 8), recorder.mFrames.get(0));
+        Assert.assertArrayEquals(bytes(9), recorder.mFrames.get(1));
+        Assert.assertEquals(Arrays.asList(2, 1), recorder.mDiscarded);
+        Assert.assertEquals(2, assembler.getFramingErrorCount());
+        Assert.assertEquals(3, assembler.getDiscardedByteCount());
+    }
+
+    @Test
+    public void delimitedFramesAndOverlongRunResyncs()
+            throws Exception
+    {
+        Recorder recorder = new Recorder();
+        FooGattFrameAssembler assembler = new FooGattFrameAssembler(
+                new FooGattFrameAssembler.DelimiterFramer((byte) 0, 3), recorder);
+
+        assembler.append(bytes(1, 2));
+        assembler.append(bytes(0, 9, 9, 9, 9));
+        assembler.append(bytes(9, 0, 5, 0));
+
+        Assert.assertEquals(2, recorder.mFrames.size());
+        Assert.assertArrayEquals(bytes(1, 2), recorder.mFrames.get(0));
+        Assert.assertArrayEquals(bytes(5), recorder.mFrames.get(1));
+        Assert.assertEquals(Arrays.asList(4, 2), recorder.mDiscarded);
+        Assert.assertEquals(6, assembler.getDiscardedByteCount());
+    }
+
+    @Test
+    public void overlongDelimitedFrameInOneFragmentIsDiscarded()
+            throws Exception
+    {
+        Recorder recorder = new Recorder();
+        FooGattFrameAssembler assembler = new FooGattFrameAssembler(
+                new FooGattFrameAssembler.DelimiterFramer((byte) 0, 3), recorder);
+
+        assembler.append(bytes(9, 9, 9, 9, 0, 1, 2, 3, 0));
+
+        Assert.assertEquals(1, recorder.mFrames.size());
+        Assert.assertArrayEquals(bytes(1, 2, 3), recorder.mFrames.get(0));
+        Assert.assertEquals(Arrays.asList(5), recorder.mDiscarded);
+    }
+
+    @Test
+    public void fixedLengthFramesStraddlingTheRing()
+            throws Exception
+    {
+        Recorder recorder = new Recorder();
+        FooGattFrameAssembler assembler = new FooGattFrameAssembler(
+                new FooGattFrameAssembler.FixedLengthFramer(3), 4, recorder);
+
+        assembler.append(bytes(1, 2, 3, 4, 5));
+        assembler.append(bytes(6, 7, 8, 9));
+
+        Assert.assertEquals(3, recorder.mFrames.size());
+        Assert.assertArrayEquals(bytes(1, 2, 3), recorder.mFrames.get(0));
+        Assert.assertArrayEquals(bytes(4, 5, 6), recorder.mFrames.get(1));
+        Assert.assertArrayEquals(bytes(7, 8, 9), recorder.mFrames.get(2));
+        Assert.assertEquals(0, assembler.getFramingErrorCount());
+    }
+
+    @Test
+    public void resetDropsPartialFrame()
+            throws Exception
+    {
+        Recorder recorder = new Recorder();
+        FooGattFrameAssembler assembler = new FooGattFrameAssembler(
+                new FooGattFrameAssembler.LengthPrefixFramer(1, false, false, 10), recorder);
+
+        assembler.append(bytes(5, 1, 2));
+        assembler.reset();
+        assembler.append(bytes(1, 3));
+
+        Assert.assertEquals(1, recorder.mFrames.size());
+        Assert.assertArrayEquals(bytes(3), recorder.mFrames.get(0));
+    }
+}
@@ -0,0 +1,122 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FooGattPayloadTest
+{
+    private static byte[] bytes(int... values)
+    {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++)
+        {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    @Test
+    public void integersAreLittleEndianByDefault()
+            throws Exception
+    {
+        FooGattPayload payload = FooGattPayload.obtain(9)
+                .putUInt8(0xAB)
+                .putUInt16(0x1234)
+                .putSInt16(-2)
+                .putUInt32(0xDEADBEEFL);
+        Assert.assertArrayEquals(bytes(0xAB, 0x34, 0x12, 0xFE, 0xFF, 0xEF, 0xBE, 0xAD, 0xDE), payload.getValue());
+        payload.recycle();
+    }
+
+    @Test
+    public void integersCanBeBigEndian()
+            throws Exception
+    {
+        FooGattPayload payload = FooGattPayload.obtain(6)
+                .setBigEndian(true)
+                .putInt(0x1234, BluetoothGattCharacteristic.FORMAT_UINT16)
+                .putInt(-2, BluetoothGattCharacteristic.FORMAT_SINT32);
+        Assert.assertArrayEquals(bytes(0x12, 0x34, 0xFF, 0xFF, 0xFF, 0xFE), payload.getValue());
+        payload.recycle();
+    }
+
+    @Test
+    public void exactLengthIsHandedOffWithoutCopy()
+            throws Exception
+    {
+        FooGattPayload payload = FooGattPayload.obtain(4).putSInt32(1);
+        Assert.assertSame(payload.getBuffer(), payload.getValue());
+        payload.recycle();
+
+        payload = FooGattPayload.obtain().putUInt8(1).putUInt16(2);
+        byte[] value = payload.getValue();
+        Assert.assertArrayEquals(bytes(1, 2, 0), value);
+        Assert.assertSame(value, payload.getValue());
+        payload.recycle();
+    }
+
+    @Test
+    public void zerosOverwriteRecycledContents()
+            throws Exception
+    {
+        FooGattPayload payload = FooGattPayload.obtain(3).putUInt8(0xFF).putUInt8(0xFF).putUInt8(0xFF);
+        payload.getValue();
+        payload.recycle();
+
+        payload = FooGattPayload.obtain(3).putZeros(1).putUInt16(0x0201);
+        Assert.assertArrayEquals(bytes(0, 1, 2), payload.getValue());
+        payload.recycle();
+    }
+
+    @Test
+    public void floatsFromMantissaAndExponent()
+            throws Exception
+    {
+        FooGattPayload payload = FooGattPayload.obtain(6)
+                .putFloat(366, -1, BluetoothGattCharacteristic.FORMAT_SFLOAT)
+                .putFloat(-1, 2, BluetoothGattCharacteristic.FORMAT_FLOAT);
+        Assert.assertArrayEquals(bytes(0x6E, 0xF1, 0xFF, 0xFF, 0xFF, 0x02), payload.getValue());
+        payload.recycle();
+    }
+
+    @Test
+    public void floatsFromDoubleKeepTheMostPrecision()
+            throws Exception
+    {
+        FooGattPayload payload = FooGattPayload.obtain(12)
+                .putFloat(36.6, BluetoothGattCharacteristic.FORMAT_SFLOAT)
+                .putFloat(36.6, BluetoothGattCharacteristic.FORMAT_FLOAT)
+                .putFloat(0, BluetoothGattCharacteristic.FORMAT_SFLOAT)
+                .putFloat(-120000, BluetoothGattCharacteristic.FORMAT_SFLOAT)
+                .putFloat(Double.NaN, BluetoothGattCharacteristic.FORMAT_SFLOAT);
+        Assert.assertArrayEquals(bytes(
+                0x6E, 0xF1, // 366e-1
+                0xE0, 0xD8, 0x37, 0xFB, // 3660000e-5
+                0x00, 0x00, // 0
+                0x50, 0x2B, // -1200e2
+                0xFF, 0x07), // NaN
+                payload.getValue());
+        payload.recycle();
+    }
+
+    @Test
+    public void floatsTooLargeAreInfinite()
+            throws Exception
+    {
+        FooGattPayload payload = FooGattPayload.obtain(8)
+                .putFloat(1e12, BluetoothGattCharacteristic.FORMAT_SFLOAT)
+                .putFloat(Double.NEGATIVE_INFINITY, BluetoothGattCharacteristic.FORMAT_SFLOAT)
+                .putFloat(1e200, BluetoothGattCharacteristic.FORMAT_FLOAT);
+        Assert.assertArrayEquals(bytes(0xFE, 0x07, 0x02, 0x08, 0xFE, 0xFF, 0x7F, 0x00), payload.getValue());
+        payload.recycle();
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void unknownFormatThrows()
+            throws Exception
+    {
+        FooGattPayload.obtain().putInt(1, BluetoothGattCharacteristic.FORMAT_SFLOAT);
+    }
+}
@@ -0,0 +1,65 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FooGattReconnectPolicyTest
+{
+    @Test
+    public void delayGrowsExponentiallyUpToMax()
+            throws Exception
+    {
+        FooGattReconnectPolicy policy = new FooGattReconnectPolicy(100, 1000, 2.0, 0, 10, 3, 5000);
+
+        Assert.assertEquals(100, policy.getDelayMillis(1, 0.5));
+        Assert.assertEquals(200, policy.getDelayMillis(2, 0.5));
+        Assert.assertEquals(400, policy.getDelayMillis(3, 0.5));
+        Assert.assertEquals(800, policy.getDelayMillis(4, 0.5));
+        Assert.assertEquals(1000, policy.getDelayMillis(5, 0.5));
+        Assert.assertEquals(1000, policy.getDelayMillis(100, 0.5));
+    }
+
+    @Test
+    public void jitterTakesOffUpToItsFraction()
+            throws Exception
+    {
+        FooGattReconnectPolicy policy = new FooGattReconnectPolicy(1000, 1000, 1.0, 0.25, 10, 3, 5000);
+
+        Assert.assertEquals(1000, policy.getDelayMillis(1, 0));
+        Assert.assertEquals(875, policy.getDelayMillis(1, 0.5));
+        Assert.assertEquals(750, policy.getDelayMillis(1, 0.999999));
+    }
+
+    @Test
+    public void attemptBudgetAndAutoConnectSwitch()
+            throws Exception
+    {
+        FooGattReconnectPolicy policy = new FooGattReconnectPolicy(100, 1000, 2.0, 0.5, 4, 2, 5000);
+
+        Assert.assertTrue(policy.isAttemptAllowed(4));
+        Assert.assertFalse(policy.isAttemptAllowed(5));
+
+        Assert.assertFalse(policy.isAutoConnect(1));
+        Assert.assertFalse(policy.isAutoConnect(2));
+        Assert.assertTrue(policy.isAutoConnect(3));
+
+        FooGattReconnectPolicy unlimited = new FooGattReconnectPolicy(100, 1000, 2.0, 0.5,
+                FooGattReconnectPolicy.UNLIMITED, FooGattReconnectPolicy.NEVER, 5000);
+        Assert.assertTrue(unlimited.isAttemptAllowed(Integer.MAX_VALUE));
+        Assert.assertFalse(unlimited.isAutoConnect(Integer.MAX_VALUE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void jitterAboveOneThrows()
+            throws Exception
+    {
+        new FooGattReconnectPolicy(100, 1000, 2.0, 1.5, 10, 3, 5000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxDelayBelowInitialDelayThrows()
+            throws Exception
+    {
+        new FooGattReconnectPolicy(1000, 100, 2.0, 0.5, 10, 3, 5000);
+    }
+}
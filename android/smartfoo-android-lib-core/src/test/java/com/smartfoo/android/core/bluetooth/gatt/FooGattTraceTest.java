@@ -0,0 +1,104 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import com.smartfoo.android.core.bluetooth.gatt.FooGattHandler.GattHandlerListener.GattOperation;
+import com.smartfoo.android.core.bluetooth.gatt.FooGattTraceDecoder.Event;
+import com.smartfoo.android.core.bluetooth.gatt.FooGattTraceDecoder.EventType;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+public class FooGattTraceTest
+{
+    private static final UUID HEART_RATE_SERVICE     = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+    private static final UUID HEART_RATE_MEASUREMENT = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+
+    private static FooGattTraceDecoder roundTrip(FooGattTrace trace, long currentTimeMillis, long elapsedRealtimeNanos)
+            throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        trace.writeTo(new DataOutputStream(bytes), currentTimeMillis, elapsedRealtimeNanos);
+        return FooGattTraceDecoder.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    @Test
+    public void fieldsRoundTrip()
+            throws Exception
+    {
+        FooGattTrace trace = new FooGattTrace(0x112233445566L, 16);
+        trace.record(1000000, FooGattTrace.pack(FooGattTrace.EVENT_START,
+                GattOperation.CharacteristicWrite.ordinal() + 1, FooGattTrace.STATUS_NONE,
+                FooGattTrace.toShortId(HEART_RATE_SERVICE), FooGattTrace.toShortId(HEART_RATE_MEASUREMENT), 20));
+        trace.record(8500000, FooGattTrace.pack(FooGattTrace.EVENT_FAILED,
+                GattOperation.CharacteristicWrite.ordinal() + 1, 0x85,
+                FooGattTrace.toShortId(HEART_RATE_SERVICE), FooGattTrace.toShortId(HEART_RATE_MEASUREMENT), 0));
+
+        FooGattTraceDecoder decoder = roundTrip(trace, 5000, 1000000000);
+        Assert.assertEquals(0x112233445566L, decoder.getDeviceAddress());
+        Assert.assertEquals(0, decoder.getDroppedCount());
+
+        List<Event> events = decoder.getEvents();
+        Assert.assertEquals(2, events.size());
+        Event start = events.get(0);
+        Assert.assertEquals(EventType.Start, start.getType());
+        Assert.assertEquals("CharacteristicWrite", start.getOperation());
+        Assert.assertEquals(0x180D, start.getServiceShortId());
+        Assert.assertEquals(0x2A37, start.getCharacteristicShortId());
+        Assert.assertEquals(20, start.getLength());
+        Assert.assertEquals(FooGattTrace.STATUS_NONE, start.getStatus());
+        Assert.assertEquals(5000 - 999, decoder.getTimeMillis(start));
+
+        Event failed = events.get(1);
+        Assert.assertEquals(EventType.Failed, failed.getType());
+        Assert.assertEquals(0x85, failed.getStatus());
+
+        String timeline = decoder.toTimelineString();
+        Assert.assertTrue(timeline, timeline.contains("chr=0x2A37 len=20"));
+        Assert.assertTrue(timeline, timeline.contains("status=133 took=7.500ms"));
+    }
+
+    @Test
+    public void ringKeepsMostRecentEventsOldestFirst()
+            throws Exception
+    {
+        FooGattTrace trace = new FooGattTrace(0, 4);
+        for (int i = 1; i <= 10; i++)
+        {
+            trace.record(i, FooGattTrace.pack(FooGattTrace.EVENT_NOTIFICATION, 0, FooGattTrace.STATUS_NONE, 0, 0, i));
+        }
+
+        FooGattTraceDecoder decoder = roundTrip(trace, 0, 10);
+        Assert.assertEquals(10, decoder.getRecordedCount());
+        Assert.assertEquals(6, decoder.getDroppedCount());
+        List<Event> events = decoder.getEvents();
+        Assert.assertEquals(4, events.size());
+        for (int i = 0; i < 4; i++)
+        {
+            Assert.assertEquals(7 + i, events.get(i).getElapsedRealtimeNanos());
+            Assert.assertEquals(7 + i, events.get(i).getLength());
+            Assert.assertNull(events.get(i).getOperation());
+        }
+    }
+
+    @Test
+    public void lengthIsClamped()
+            throws Exception
+    {
+        long packed = FooGattTrace.pack(FooGattTrace.EVENT_SUCCEEDED, 1, 0, 0, 0, 1000000);
+        Assert.assertEquals(FooGattTrace.LENGTH_MAX, (int) (packed >>> FooGattTrace.SHIFT_LENGTH) & 0xFFFF);
+    }
+
+    @Test(expected = IOException.class)
+    public void notATraceThrows()
+            throws Exception
+    {
+        FooGattTraceDecoder.readFrom(new DataInputStream(new ByteArrayInputStream(new byte[16])));
+    }
+}
@@ -0,0 +1,260 @@
+package com.smartfoo.android.core.bluetooth.gatt;
+
+import androidx.annotation.NonNull;
+
+import com.smartfoo.android.core.bluetooth.gatt.FooL2capChannel.FooL2capChannelCallbacks;
+import com.smartfoo.android.core.bluetooth.gatt.FooL2capChannel.FooL2capChannelReader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+public class FooL2capChannelTest
+{
+    private static final int PSM = 0x0080;
+
+    private static final Executor DIRECT = new Executor()
+    {
+        @Override
+        public void execute(@NonNull Runnable command)
+        {
+            command.run();
+        }
+    };
+
+    private static class Recorder
+            implements FooL2capChannelCallbacks
+    {
+        private final CountDownLatch mOpened = new CountDownLatch(1);
+        private final CountDownLatch mClosed = new CountDownLatch(1);
+
+        private volatile boolean     mSuccess;
+        private volatile IOException mError;
+
+        @Override
+        public void onL2capChannelOpened(@NonNull FooL2capChannel channel, boolean success)
+        {
+            mSuccess = success;
+            mOpened.countDown();
+        }
+
+        @Override
+        public void onL2capChannelClosed(@NonNull FooL2capChannel channel, IOException error)
+        {
+            mError = error;
+            mClosed.countDown();
+        }
+
+        private void awaitOpened()
+                throws InterruptedException
+        {
+            Assert.assertTrue("open timed out", mOpened.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(mSuccess);
+        }
+
+        private void awaitClosed()
+                throws InterruptedException
+        {
+            Assert.assertTrue("close timed out", mClosed.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    private static byte[] pattern(int length)
+    {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            bytes[i] = (byte) (i * 31 + 7);
+        }
+        return bytes;
+    }
+
+    private static byte[] readFully(InputStream inputStream, int length)
+            throws IOException
+    {
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        while (offset < length)
+        {
+            int count = inputStream.read(bytes, offset, length - offset);
+            Assert.assertTrue("unexpected end of stream", count > 0);
+            offset += count;
+        }
+        return bytes;
+    }
+
+    @Test
+    public void streamsCarryDataBothWays()
+            throws Exception
+    {
+        FooL2capSocketPair socketPair = new FooL2capSocketPair(128, 1024);
+        Recorder recorder = new Recorder();
+        FooL2capChannel channel = new FooL2capChannel("test", PSM, socketPair.getLocalSocket(), DIRECT, recorder);
+        channel.open();
+        recorder.awaitOpened();
+        Assert.assertTrue(channel.isOpen());
+
+        // Larger than the pipe, so the writer blocks until the peer catches up
+        final byte[] sent = pattern(10000);
+        final OutputStream outputStream = channel.getOutputStream();
+        Thread writer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    outputStream.write(sent);
+                    outputStream.flush();
+                }
+                catch (IOException e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        writer.start();
+        Assert.assertArrayEquals(sent, readFully(socketPair.getPeerSocket().getInputStream(), sent.length));
+        writer.join();
+        Assert.assertEquals(sent.length, channel.getBytesWritten());
+
+        byte[] received = pattern(300);
+        socketPair.getPeerSocket().getOutputStream().write(received);
+        Assert.assertArrayEquals(received, readFully(channel.getInputStream(), received.length));
+        Assert.assertEquals(received.length, channel.getBytesRead());
+
+        channel.close();
+        recorder.awaitClosed();
+        Assert.assertNull(recorder.mError);
+        Assert.assertFalse(channel.isOpen());
+        Assert.assertNull(channel.getOutputStream());
+        Assert.assertEquals(-1, socketPair.getPeerSocket().getInputStream().read());
+    }
+
+    @Test
+    public void readLoopDeliversEverythingUntilPeerCloses()
+            throws Exception
+    {
+        FooL2capSocketPair socketPair = new FooL2capSocketPair(64, 256);
+        Recorder recorder = new Recorder();
+        FooL2capChannel channel = new FooL2capChannel("test", PSM, socketPair.getLocalSocket(), DIRECT, recorder);
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final int[] maxChunk = new int[1];
+        // Started before the channel is open; the loop runs once it is
+        Assert.assertTrue(channel.startReading(new FooL2capChannelReader()
+        {
+            @Override
+            public void onL2capChannelData(@NonNull FooL2capChannel channel, @NonNull ByteBuffer data)
+            {
+                Assert.assertEquals(0, data.position());
+                maxChunk[0] = Math.max(maxChunk[0], data.remaining());
+                received.write(data.array(), data.position(), data.remaining());
+            }
+        }));
+        channel.open();
+        recorder.awaitOpened();
+        Assert.assertNull(channel.getInputStream());
+
+        byte[] sent = pattern(5000);
+        OutputStream peerOutputStream = socketPair.getPeerSocket().getOutputStream();
+        peerOutputStream.write(sent);
+        socketPair.getPeerSocket().close();
+
+        recorder.awaitClosed();
+        Assert.assertNull(recorder.mError);
+        Assert.assertArrayEquals(sent, received.toByteArray());
+        Assert.assertTrue(maxChunk[0] <= 64);
+        Assert.assertEquals(sent.length, channel.getBytesRead());
+        Assert.assertTrue(channel.isClosed());
+    }
+
+    @Test
+    public void closeWhileOpeningReportsFailedOpen()
+            throws Exception
+    {
+        final CountDownLatch connecting = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        final FooL2capSocket socket = new FooL2capSocketPair().getLocalSocket();
+        FooL2capSocket slowSocket = new FooL2capSocket()
+        {
+            @Override
+            public void connect()
+                    throws IOException
+            {
+                connecting.countDown();
+                try
+                {
+                    released.await();
+                }
+                catch (InterruptedException e)
+                {
+                    throw new IOException(e);
+                }
+                throw new IOException("closed");
+            }
+
+            @Override
+            public boolean isConnected()
+            {
+                return false;
+            }
+
+            @Override
+            public InputStream getInputStream()
+                    throws IOException
+            {
+                return socket.getInputStream();
+            }
+
+            @Override
+            public OutputStream getOutputStream()
+                    throws IOException
+            {
+                return socket.getOutputStream();
+            }
+
+            @Override
+            public int getMaxTransmitPacketSize()
+            {
+                return socket.getMaxTransmitPacketSize();
+            }
+
+            @Override
+            public int getMaxReceivePacketSize()
+            {
+                return socket.getMaxReceivePacketSize();
+            }
+
+            @Override
+            public void close()
+            {
+                released.countDown();
+            }
+        };
+
+        Recorder recorder = new Recorder();
+        FooL2capChannel channel = new FooL2capChannel("test", PSM, slowSocket, DIRECT, recorder);
+        channel.open();
+        Assert.assertTrue(connecting.await(5, TimeUnit.SECONDS));
+        channel.close();
+
+        Assert.assertTrue(recorder.mOpened.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse(recorder.mSuccess);
+        Assert.assertEquals(1, recorder.mClosed.getCount());
+        Assert.assertFalse(channel.startReading(new FooL2capChannelReader()
+        {
+            @Override
+            public void onL2capChannelData(@NonNull FooL2capChannel channel, @NonNull ByteBuffer data)
+            {
+            }
+        }));
+    }
+}
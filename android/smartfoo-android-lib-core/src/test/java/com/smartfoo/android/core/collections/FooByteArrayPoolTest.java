@@ -0,0 +1,62 @@
+package com.smartfoo.android.core.collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FooByteArrayPoolTest
+{
+    @Test
+    public void releasedArrayIsReusedForSameLength()
+            throws Exception
+    {
+        FooByteArrayPool pool = new FooByteArrayPool(64, 4);
+
+        byte[] a = pool.acquire(20);
+        Assert.assertEquals(20, a.length);
+        pool.release(a);
+        Assert.assertEquals(1, pool.size());
+
+        Assert.assertNotSame(a, pool.acquire(21));
+        Assert.assertSame(a, pool.acquire(20));
+        Assert.assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void copyOfCopiesContents()
+            throws Exception
+    {
+        FooByteArrayPool pool = new FooByteArrayPool(64, 4);
+
+        byte[] source = { 1, 2, 3 };
+        byte[] copy = pool.copyOf(source);
+        Assert.assertNotSame(source, copy);
+        Assert.assertArrayEquals(source, copy);
+    }
+
+    @Test
+    public void boundsArePerLengthAndMaxLength()
+            throws Exception
+    {
+        FooByteArrayPool pool = new FooByteArrayPool(16, 2);
+
+        pool.release(new byte[8]);
+        pool.release(new byte[8]);
+        pool.release(new byte[8]);
+        Assert.assertEquals(2, pool.size());
+
+        pool.release(new byte[17]);
+        pool.release(new byte[0]);
+        pool.release(null);
+        Assert.assertEquals(2, pool.size());
+
+        Assert.assertEquals(17, pool.acquire(17).length);
+        Assert.assertEquals(0, pool.acquire(0).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeLengthThrows()
+            throws Exception
+    {
+        new FooByteArrayPool(16, 2).acquire(-1);
+    }
+}
@@ -0,0 +1,64 @@
+package com.smartfoo.android.core.collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FooByteRingBufferTest
+{
+    @Test
+    public void writesWrapAroundAndReadInOrder()
+            throws Exception
+    {
+        FooByteRingBuffer ring = new FooByteRingBuffer(4);
+
+        Assert.assertEquals(3, ring.write(new byte[] { 1, 2, 3 }, 0, 3));
+        ring.skip(2);
+        Assert.assertEquals(3, ring.write(new byte[] { 4, 5, 6 }, 0, 3));
+        Assert.assertTrue(ring.isFull());
+        Assert.assertEquals(0, ring.write(new byte[] { 7 }, 0, 1));
+
+        Assert.assertEquals(3, ring.peek(0));
+        Assert.assertEquals(6, ring.peek(3));
+        Assert.assertFalse(ring.isContiguous(4));
+
+        byte[] dest = new byte[4];
+        Assert.assertEquals(4, ring.read(dest, 0, 10));
+        Assert.assertArrayEquals(new byte[] { 3, 4, 5, 6 }, dest);
+        Assert.assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void emptyRingRestartsAtTheFront()
+            throws Exception
+    {
+        FooByteRingBuffer ring = new FooByteRingBuffer(8);
+
+        ring.write(new byte[6], 0, 6);
+        ring.skip(6);
+        Assert.assertEquals(0, ring.getReadIndex());
+
+        ring.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }, 0, 8);
+        Assert.assertTrue(ring.isContiguous(8));
+        Assert.assertEquals(0xFF & ring.getArray()[ring.getReadIndex() + 7], ring.peek(7));
+    }
+
+    @Test
+    public void peekReturnsUnsignedBytes()
+            throws Exception
+    {
+        FooByteRingBuffer ring = new FooByteRingBuffer(2);
+
+        ring.write(new byte[] { (byte) 0xFE }, 0, 1);
+        Assert.assertEquals(0xFE, ring.peek(0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void skipPastSizeThrows()
+            throws Exception
+    {
+        FooByteRingBuffer ring = new FooByteRingBuffer(4);
+
+        ring.write(new byte[2], 0, 2);
+        ring.skip(3);
+    }
+}
@@ -0,0 +1,101 @@
+package com.smartfoo.android.core.collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongFunction;
+
+public class FooConcurrentLongObjectHashMapTest
+{
+    @Test
+    public void singleKeyOperations()
+            throws Exception
+    {
+        FooConcurrentLongObjectHashMap<String> map = new FooConcurrentLongObjectHashMap<>(1);
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertNull(map.put(1, "a"));
+        Assert.assertEquals("a", map.put(1, "b"));
+        Assert.assertEquals("b", map.putIfAbsent(1, "c"));
+        Assert.assertNull(map.putIfAbsent(2, "c"));
+        Assert.assertEquals(2, map.size());
+
+        String b = map.get(1);
+        Assert.assertFalse(map.remove(1, new String("b")));
+        Assert.assertTrue(map.remove(1, b));
+        Assert.assertFalse(map.remove(1, b));
+        Assert.assertEquals("c", map.remove(2));
+        Assert.assertNull(map.remove(2));
+        Assert.assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void computeIfAbsentCreatesEachValueOnceAcrossThreads()
+            throws Exception
+    {
+        final FooConcurrentLongObjectHashMap<Object> map = new FooConcurrentLongObjectHashMap<>();
+        final AtomicInteger created = new AtomicInteger();
+        final LongFunction<Object> factory = new LongFunction<Object>()
+        {
+            @Override
+            public Object apply(long key)
+            {
+                created.incrementAndGet();
+                return new Object();
+            }
+        };
+
+        final int keyCount = 1000;
+        final int threadCount = 8;
+        final Object[][] results = new Object[threadCount][keyCount];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++)
+        {
+            final int thread = t;
+            threads[t] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                    for (int key = 0; key < keyCount; key++)
+                    {
+                        results[thread][key] = map.computeIfAbsent(key, factory);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        Assert.assertEquals(keyCount, created.get());
+        Assert.assertEquals(keyCount, map.size());
+        for (int key = 0; key < keyCount; key++)
+        {
+            for (int t = 1; t < threadCount; t++)
+            {
+                Assert.assertSame(results[0][key], results[t][key]);
+            }
+        }
+
+        List<Object> values = map.getValues();
+        Assert.assertEquals(keyCount, values.size());
+        map.clear();
+        Assert.assertEquals(0, map.size());
+        Assert.assertEquals(keyCount, values.size());
+    }
+}
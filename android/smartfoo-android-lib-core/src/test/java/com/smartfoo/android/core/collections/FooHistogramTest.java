@@ -0,0 +1,103 @@
+package com.smartfoo.android.core.collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FooHistogramTest
+{
+    @Test
+    public void bucketsAreContiguousAndContainTheirValues()
+            throws Exception
+    {
+        long expectedLowest = 0;
+        for (int index = 0; index <= FooHistogram.getBucketIndex(1L << 40); index++)
+        {
+            long lowest = FooHistogram.getBucketLowestValue(index);
+            long highest = FooHistogram.getBucketHighestValue(index);
+            Assert.assertEquals(expectedLowest, lowest);
+            Assert.assertEquals(index, FooHistogram.getBucketIndex(lowest));
+            Assert.assertEquals(index, FooHistogram.getBucketIndex(highest));
+            // Each bucket is at most 1/32 of its lowest value wide
+            Assert.assertTrue(highest - lowest <= Math.max(0, lowest / 32));
+            expectedLowest = highest + 1;
+        }
+    }
+
+    @Test
+    public void smallValuesAreExact()
+            throws Exception
+    {
+        FooHistogram histogram = new FooHistogram(1000);
+        for (int i = 1; i <= 50; i++)
+        {
+            histogram.record(i);
+        }
+
+        Assert.assertEquals(50, histogram.getCount());
+        Assert.assertEquals(1, histogram.getMin());
+        Assert.assertEquals(50, histogram.getMax());
+        Assert.assertEquals(25.5, histogram.getMean(), 0.0001);
+        Assert.assertEquals(25, histogram.getValueAtPercentile(50));
+        Assert.assertEquals(45, histogram.getValueAtPercentile(90));
+        Assert.assertEquals(50, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void largeValuesAreWithinPrecision()
+            throws Exception
+    {
+        FooHistogram histogram = new FooHistogram(60 * 1000);
+        for (int i = 1; i <= 10000; i++)
+        {
+            histogram.record(i);
+        }
+
+        long p50 = histogram.getValueAtPercentile(50);
+        long p99 = histogram.getValueAtPercentile(99);
+        Assert.assertTrue(p50 >= 5000 && p50 <= 5000 * 33 / 32);
+        Assert.assertTrue(p99 >= 9900 && p99 <= 10000);
+        Assert.assertEquals(10000, histogram.getMax());
+    }
+
+    @Test
+    public void valuesAboveHighestTrackableKeepExactMax()
+            throws Exception
+    {
+        FooHistogram histogram = new FooHistogram(100);
+        histogram.record(5);
+        histogram.record(1000000);
+
+        Assert.assertEquals(1000000, histogram.getMax());
+        Assert.assertEquals(1000000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void addCopyAndReset()
+            throws Exception
+    {
+        FooHistogram a = new FooHistogram(1000);
+        FooHistogram b = new FooHistogram(1000);
+        a.record(10);
+        b.record(20);
+        b.record(30);
+
+        FooHistogram copy = new FooHistogram(a);
+        a.add(b);
+        Assert.assertEquals(3, a.getCount());
+        Assert.assertEquals(10, a.getMin());
+        Assert.assertEquals(30, a.getMax());
+        Assert.assertEquals(1, copy.getCount());
+
+        a.reset();
+        Assert.assertEquals(0, a.getCount());
+        Assert.assertEquals(0, a.getMax());
+        Assert.assertEquals(0, a.getValueAtPercentile(50));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeValueThrows()
+            throws Exception
+    {
+        new FooHistogram(1000).record(-1);
+    }
+}
@@ -0,0 +1,155 @@
+package com.smartfoo.android.core.collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+public class FooLongObjectHashMapTest
+{
+    private static void assertSameMappings(Map<Long, String> expected, FooLongObjectHashMap<String> actual)
+    {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < actual.size(); i++)
+        {
+            long key = actual.keyAt(i);
+            Assert.assertEquals(expected.get(key), actual.valueAt(i));
+            Assert.assertEquals(i, actual.indexOfKey(key));
+        }
+        for (Map.Entry<Long, String> entry : expected.entrySet())
+        {
+            Assert.assertEquals(entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void putReportsInsertAndUpdate()
+            throws Exception
+    {
+        FooLongObjectHashMap<String> map = new FooLongObjectHashMap<>();
+        Assert.assertEquals(~0, map.put(42, "a"));
+        Assert.assertEquals(~1, map.put(-7, "b"));
+        Assert.assertEquals(0, map.put(42, "c"));
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("c", map.get(42));
+        Assert.assertEquals("b", map.get(-7));
+        Assert.assertNull(map.get(0));
+        Assert.assertEquals("d", map.get(0, "d"));
+        Assert.assertTrue(map.indexOfKey(0) < 0);
+        Assert.assertEquals("{42=c, -7=b}", map.toString());
+    }
+
+    @Test
+    public void matchesHashMapUnderRandomOperations()
+            throws Exception
+    {
+        Random random = new Random(1234);
+        Map<Long, String> expected = new HashMap<>();
+        // Small initial capacity, so the table resizes many times
+        FooLongObjectHashMap<String> actual = new FooLongObjectHashMap<>(null, 0);
+        for (int i = 0; i < 20000; i++)
+        {
+            // Narrow key range, so removes and updates hit
+            long key = random.nextInt(500) * 0x10000000000L;
+            if (random.nextInt(3) == 0)
+            {
+                Assert.assertEquals(expected.remove(key), actual.remove(key));
+            }
+            else
+            {
+                String value = Integer.toString(i);
+                boolean isUpdate = expected.put(key, value) != null;
+                Assert.assertEquals(isUpdate, actual.put(key, value) >= 0);
+            }
+            if (i % 1000 == 0)
+            {
+                assertSameMappings(expected, actual);
+            }
+        }
+        assertSameMappings(expected, actual);
+
+        FooLongObjectHashMap<String> clone = actual.clone();
+        actual.clear();
+        Assert.assertEquals(0, actual.size());
+        Assert.assertNull(actual.get(expected.keySet().iterator().next()));
+        assertSameMappings(expected, clone);
+    }
+
+    @Test
+    public void removeKeepsCollidingKeysReachable()
+            throws Exception
+    {
+        // All keys hash to a run of neighbouring slots in a small table; removing from the middle must shift the rest
+        FooLongObjectHashMap<String> map = new FooLongObjectHashMap<>(null, 64);
+        Map<Long, String> expected = new HashMap<>();
+        for (long key = 0; key < 48; key++)
+        {
+            map.put(key, "v" + key);
+            expected.put(key, "v" + key);
+        }
+        for (long key = 0; key < 48; key += 3)
+        {
+            Assert.assertEquals("v" + key, map.remove(key));
+            expected.remove(key);
+            assertSameMappings(expected, map);
+        }
+        Assert.assertNull(map.remove(0));
+    }
+
+    @Test
+    public void removingWhileIteratingVisitsEveryEntry()
+            throws Exception
+    {
+        FooLongObjectHashMap<String> map = new FooLongObjectHashMap<>();
+        for (long key = 1; key <= 100; key++)
+        {
+            map.put(key, Long.toString(key));
+        }
+
+        int visited = 0;
+        Iterator<String> values = map.iterateValues();
+        while (values.hasNext())
+        {
+            long key = Long.parseLong(values.next());
+            visited++;
+            if (key % 2 == 0)
+            {
+                values.remove();
+            }
+        }
+        Assert.assertEquals(100, visited);
+        Assert.assertEquals(50, map.size());
+
+        // Backwards by index, as FooBleScanner evicts
+        for (int i = map.size() - 1; i >= 0; i--)
+        {
+            if (map.keyAt(i) % 5 == 0)
+            {
+                map.removeAt(i);
+            }
+        }
+        Assert.assertEquals(40, map.size());
+        for (long key = 1; key <= 100; key++)
+        {
+            Assert.assertEquals(key % 2 != 0 && key % 5 != 0, map.get(key) != null);
+        }
+
+        long sum = 0;
+        Iterator<Long> keys = map.iterateKeys();
+        while (keys.hasNext())
+        {
+            sum += keys.next();
+        }
+        Assert.assertEquals(2000, sum);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullValuesAreRejected()
+            throws Exception
+    {
+        new FooLongObjectHashMap<String>().put(1, null);
+    }
+}
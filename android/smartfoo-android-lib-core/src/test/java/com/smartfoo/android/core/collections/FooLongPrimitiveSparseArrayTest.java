@@ -0,0 +1,130 @@
+package com.smartfoo.android.core.collections;
+
+import com.smartfoo.android.core.collections.FooLongIntSparseArray.LongIntConsumer;
+import com.smartfoo.android.core.collections.FooLongLongSparseArray.LongLongConsumer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class FooLongPrimitiveSparseArrayTest
+{
+    @Test
+    public void longValuesMatchTreeMapUnderRandomOperations()
+            throws Exception
+    {
+        Random random = new Random(7);
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        FooLongLongSparseArray actual = new FooLongLongSparseArray(null, 0);
+        for (int i = 0; i < 20000; i++)
+        {
+            long key = random.nextInt(300) - 150;
+            switch (random.nextInt(4))
+            {
+                case 0:
+                    Assert.assertEquals(expected.remove(key) != null, actual.remove(key));
+                    break;
+                case 1:
+                {
+                    long value = random.nextLong();
+                    boolean isUpdate = expected.put(key, value) != null;
+                    Assert.assertEquals(isUpdate, actual.put(key, value) >= 0);
+                    break;
+                }
+                case 2:
+                {
+                    Long previous = expected.get(key);
+                    long value = (previous != null ? previous : 0) + 5;
+                    expected.put(key, value);
+                    Assert.assertEquals(value, actual.addAndGet(key, 5));
+                    break;
+                }
+                default:
+                    // Same-key put must revive an entry that is marked deleted
+                    if (!expected.containsKey(key))
+                    {
+                        Assert.assertFalse(actual.containsKey(key));
+                        Assert.assertEquals(-1, actual.get(key, -1));
+                    }
+                    break;
+            }
+        }
+
+        Assert.assertEquals(expected.size(), actual.size());
+        int i = 0;
+        for (Map.Entry<Long, Long> entry : expected.entrySet())
+        {
+            Assert.assertEquals(entry.getKey().longValue(), actual.keyAt(i));
+            Assert.assertEquals(entry.getValue().longValue(), actual.valueAt(i));
+            Assert.assertEquals(i, actual.indexOfKey(entry.getKey()));
+            i++;
+        }
+
+        FooLongLongSparseArray clone = actual.clone();
+        actual.clear();
+        Assert.assertEquals(0, actual.size());
+        Assert.assertEquals(expected.size(), clone.size());
+    }
+
+    @Test
+    public void intCountersIncrementInPlace()
+            throws Exception
+    {
+        FooLongIntSparseArray counters = new FooLongIntSparseArray();
+        for (int i = 0; i < 10; i++)
+        {
+            counters.increment(30);
+            counters.increment(10);
+        }
+        Assert.assertEquals(1, counters.increment(20));
+        Assert.assertEquals(15, counters.addAndGet(10, 5));
+        Assert.assertEquals(0, counters.get(40));
+
+        counters.remove(20);
+        Assert.assertFalse(counters.containsKey(20));
+        Assert.assertEquals(1, counters.increment(20));
+        counters.append(50, -1);
+        counters.remove(30);
+
+        final StringBuilder visited = new StringBuilder();
+        counters.forEach(new LongIntConsumer()
+        {
+            @Override
+            public void accept(long key, int value)
+            {
+                visited.append(key).append('=').append(value).append(' ');
+            }
+        });
+        Assert.assertEquals("10=15 20=1 50=-1 ", visited.toString());
+        Assert.assertEquals("{10=15, 20=1, 50=-1}", counters.toString());
+        Assert.assertEquals(2, counters.indexOfValue(-1));
+        Assert.assertEquals(-1, counters.indexOfValue(10));
+    }
+
+    @Test
+    public void longForEachSkipsDeletedEntries()
+            throws Exception
+    {
+        FooLongLongSparseArray timestamps = new FooLongLongSparseArray();
+        timestamps.put(3, 300);
+        timestamps.put(1, 100);
+        timestamps.put(2, 200);
+        timestamps.remove(2);
+
+        final long[] sum = new long[1];
+        timestamps.forEach(new LongLongConsumer()
+        {
+            @Override
+            public void accept(long key, long value)
+            {
+                sum[0] += key * value;
+            }
+        });
+        Assert.assertEquals(1000, sum[0]);
+        Assert.assertEquals(2, timestamps.size());
+        Assert.assertEquals(0, timestamps.get(2));
+    }
+}
@@ -0,0 +1,153 @@
+package com.smartfoo.android.core.collections;
+
+import com.smartfoo.android.core.collections.FooLongSparseArray.LongIterator;
+import com.smartfoo.android.core.collections.FooLongSparseArray.LongObjectConsumer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class FooLongSparseArrayTest
+{
+    private static void assertSameMappings(TreeMap<Long, String> expected, FooLongSparseArray<String> actual)
+    {
+        Assert.assertEquals(expected.size(), actual.size());
+        int i = 0;
+        for (Map.Entry<Long, String> entry : expected.entrySet())
+        {
+            Assert.assertEquals(entry.getKey().longValue(), actual.keyAt(i));
+            Assert.assertEquals(entry.getValue(), actual.valueAt(i));
+            i++;
+        }
+    }
+
+    private static FooLongSparseArray<String> arrayOf(long... keys)
+    {
+        FooLongSparseArray<String> array = new FooLongSparseArray<>();
+        for (long key : keys)
+        {
+            array.put(key, "v" + key);
+        }
+        return array;
+    }
+
+    @Test
+    public void putAllSortsAndMergesWithLastValueWinning()
+            throws Exception
+    {
+        Random random = new Random(42);
+        TreeMap<Long, String> expected = new TreeMap<>();
+        FooLongSparseArray<String> actual = new FooLongSparseArray<>();
+        for (int round = 0; round < 5; round++)
+        {
+            // Remove some first, so the merge also has to skip DELETED entries
+            for (int i = 0; i < actual.size(); i += 3)
+            {
+                expected.remove(actual.keyAt(i));
+                actual.removeAt(i);
+            }
+
+            int count = 2000;
+            long[] keys = new long[count];
+            String[] values = new String[count];
+            for (int i = 0; i < count; i++)
+            {
+                keys[i] = random.nextInt(5000) - 2500;
+                values[i] = round + ":" + i;
+                expected.put(keys[i], values[i]);
+            }
+            actual.putAll(keys, values);
+            assertSameMappings(expected, actual);
+        }
+
+        FooLongSparseArray<String> other = arrayOf(-10000, 0, 10000);
+        other.remove(0);
+        expected.put(-10000L, "v-10000");
+        expected.put(10000L, "v10000");
+        actual.putAll(other);
+        actual.putAll(actual);
+        assertSameMappings(expected, actual);
+    }
+
+    @Test
+    public void rangeQueries()
+            throws Exception
+    {
+        FooLongSparseArray<String> array = arrayOf(50, 10, 40, 20, 30);
+        array.remove(40);
+
+        Assert.assertEquals(-1, array.floorIndex(9));
+        Assert.assertEquals(0, array.floorIndex(10));
+        Assert.assertEquals(2, array.floorIndex(45));
+        Assert.assertEquals(3, array.floorIndex(Long.MAX_VALUE));
+
+        Assert.assertEquals(0, array.ceilingIndex(Long.MIN_VALUE));
+        Assert.assertEquals(1, array.ceilingIndex(11));
+        Assert.assertEquals(3, array.ceilingIndex(31));
+        Assert.assertEquals(-1, array.ceilingIndex(51));
+
+        Assert.assertEquals("{20=v20, 30=v30}", array.subRange(11, 50).toString());
+        Assert.assertEquals("{10=v10, 20=v20, 30=v30, 50=v50}", array.subRange(10, 51).toString());
+        Assert.assertEquals("{}", array.subRange(30, 30).toString());
+        Assert.assertEquals("{}", array.subRange(50, 10).toString());
+    }
+
+    @Test
+    public void iterationSkipsRemovedEntriesInKeyOrder()
+            throws Exception
+    {
+        FooLongSparseArray<String> array = arrayOf(5, 1, 4, 2, 3, 6);
+        array.remove(4);
+
+        final StringBuilder visited = new StringBuilder();
+        array.forEach(new LongObjectConsumer<String>()
+        {
+            @Override
+            public void accept(long key, String value)
+            {
+                visited.append(key).append('=').append(value).append(' ');
+            }
+        });
+        Assert.assertEquals("1=v1 2=v2 3=v3 5=v5 6=v6 ", visited.toString());
+
+        long sum = 0;
+        LongIterator keys = array.iterateLongKeys();
+        while (keys.hasNext())
+        {
+            long key = keys.nextLong();
+            sum += key;
+            if (key % 2 == 0)
+            {
+                keys.remove();
+            }
+        }
+        Assert.assertEquals(17, sum);
+        Assert.assertEquals("{1=v1, 3=v3, 5=v5}", array.toString());
+
+        Iterator<String> values = array.iterateValues();
+        Assert.assertEquals("v1", values.next());
+        values.remove();
+        try
+        {
+            values.remove();
+            Assert.fail("expected IllegalStateException");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+        Assert.assertEquals("v3", values.next());
+        Assert.assertEquals("v5", values.next());
+        Assert.assertFalse(values.hasNext());
+        Assert.assertEquals("{3=v3, 5=v5}", array.toString());
+
+        Iterator<Long> boxedKeys = array.iterateKeys();
+        Assert.assertEquals(Long.valueOf(3), boxedKeys.next());
+        Assert.assertEquals(Long.valueOf(5), boxedKeys.next());
+        Assert.assertFalse(boxedKeys.hasNext());
+    }
+}
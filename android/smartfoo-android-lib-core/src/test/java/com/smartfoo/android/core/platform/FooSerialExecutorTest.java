@@ -0,0 +1,250 @@
+package com.smartfoo.android.core.platform;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FooSerialExecutorTest
+{
+    @Test
+    public void runsInSubmissionOrderOnSharedPool()
+            throws Exception
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try
+        {
+            final int SERIAL_COUNT = 8;
+            final int TASK_COUNT = 500;
+
+            final List<List<Integer>> results = new ArrayList<>();
+            final AtomicInteger violations = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(SERIAL_COUNT * TASK_COUNT);
+
+            for (int s = 0; s < SERIAL_COUNT; s++)
+            {
+                final List<Integer> result = new ArrayList<>();
+                results.add(result);
+                final AtomicInteger running = new AtomicInteger();
+
+                FooSerialExecutor serialExecutor = new FooSerialExecutor("serial" + s, pool, 7);
+                for (int i = 0; i < TASK_COUNT; i++)
+                {
+                    final int value = i;
+                    serialExecutor.execute(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            if (running.incrementAndGet() != 1)
+                            {
+                                violations.incrementAndGet();
+                            }
+                            result.add(value);
+                            running.decrementAndGet();
+                            done.countDown();
+                        }
+                    });
+                }
+            }
+
+            Assert.assertTrue("timed out", done.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals("tasks overlapped", 0, violations.get());
+            for (List<Integer> result : results)
+            {
+                Assert.assertEquals(TASK_COUNT, result.size());
+                for (int i = 0; i < TASK_COUNT; i++)
+                {
+                    Assert.assertEquals(i, (int) result.get(i));
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void throwingTaskDoesNotStallQueue()
+            throws Exception
+    {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try
+        {
+            final CountDownLatch done = new CountDownLatch(1);
+            FooSerialExecutor serialExecutor = new FooSerialExecutor("serial", pool);
+            serialExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    throw new IllegalStateException("expected");
+                }
+            });
+            serialExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    done.countDown();
+                }
+            });
+
+            Assert.assertTrue("second task never ran", done.await(5, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void errorThrowingTaskDoesNotWedgeQueue()
+            throws Exception
+    {
+        final List<Runnable> submitted = new ArrayList<>();
+        Executor executor = new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                submitted.add(command);
+            }
+        };
+
+        FooSerialExecutor serialExecutor = new FooSerialExecutor("serial", executor);
+        final AtomicInteger ran = new AtomicInteger();
+        serialExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                throw new Error("expected");
+            }
+        });
+        serialExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                ran.incrementAndGet();
+            }
+        });
+
+        try
+        {
+            submitted.remove(0).run();
+            Assert.fail("expected Error");
+        }
+        catch (Error e)
+        {
+            // expected
+        }
+        Assert.assertFalse(serialExecutor.isCurrentThread());
+
+        // The task behind the failed one was re-submitted
+        Assert.assertEquals(1, submitted.size());
+        submitted.remove(0).run();
+        Assert.assertEquals(1, ran.get());
+
+        // And the queue is idle again, so the next execute schedules a drain
+        serialExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                ran.incrementAndGet();
+            }
+        });
+        Assert.assertEquals(1, submitted.size());
+        submitted.remove(0).run();
+        Assert.assertEquals(2, ran.get());
+    }
+
+    @Test
+    public void isCurrentThread()
+            throws Exception
+    {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try
+        {
+            final FooSerialExecutor serialExecutor = new FooSerialExecutor("serial", pool);
+            final boolean[] inside = new boolean[1];
+            final CountDownLatch done = new CountDownLatch(1);
+            serialExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    inside[0] = serialExecutor.isCurrentThread();
+                    done.countDown();
+                }
+            });
+
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue("isCurrentThread() != true inside a task", inside[0]);
+            Assert.assertFalse("isCurrentThread() == true outside a task", serialExecutor.isCurrentThread());
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void rejectedDrainDoesNotWedgeQueue()
+            throws Exception
+    {
+        final boolean[] reject = { true };
+        final List<Runnable> submitted = new ArrayList<>();
+        Executor executor = new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                if (reject[0])
+                {
+                    throw new RejectedExecutionException("rejected");
+                }
+                submitted.add(command);
+            }
+        };
+
+        FooSerialExecutor serialExecutor = new FooSerialExecutor("serial", executor);
+        final AtomicInteger ran = new AtomicInteger();
+        Runnable task = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                ran.incrementAndGet();
+            }
+        };
+
+        try
+        {
+            serialExecutor.execute(task);
+            Assert.fail("expected RejectedExecutionException");
+        }
+        catch (RejectedExecutionException e)
+        {
+            // expected
+        }
+        Assert.assertEquals(0, serialExecutor.size());
+
+        reject[0] = false;
+        serialExecutor.execute(task);
+        Assert.assertEquals(1, submitted.size());
+        submitted.get(0).run();
+        Assert.assertEquals(1, ran.get());
+    }
+}